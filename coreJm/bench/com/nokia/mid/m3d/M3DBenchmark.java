@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nokia.mid.m3d;
+
+import com.badlogic.gdx.utils.GdxNativesLoader;
+
+import javax.microedition.lcdui.Image;
+
+/**
+ * Throughput benchmark of the {@link M3D} rasterizer, run with
+ * {@code gradlew :coreJm:benchmark -PbenchClass=com.nokia.mid.m3d.M3DBenchmark -Pargs=<seconds>}.
+ * <p>
+ * Each frame clears the buffers and draws rotated textured quads at growing depth
+ * on the 96x65 Nokia screen, so both the fill and the tile depth rejection are measured.
+ */
+public class M3DBenchmark {
+	private static final int WIDTH = 96;
+	private static final int HEIGHT = 65;
+	private static final int QUADS_PER_FRAME = 50;
+
+	private static final byte[] QUAD = {-5, -5, 0, 5, -5, 0, 5, 5, 0, -5, 5, 0};
+	private static final byte[] QUAD_UVS = {-1, -1, 1, -1, 1, 1, -1, 1};
+	private static final byte[] QUAD_FACES = {0, 1, 2, 0, 2, 3};
+
+	public static void main(String[] args) {
+		GdxNativesLoader.load();
+		long seconds = args.length > 0 ? Long.parseLong(args[0]) : 5;
+
+		M3D m3d = M3D.createInstance();
+		m3d.setupBuffers(0x21, WIDTH, HEIGHT);
+		m3d.frustumxi(-3 << 16, 3 << 16, -2 << 16, 2 << 16, 3 << 16, 1000 << 16);
+		m3d.clearColor4ub((byte) 0, (byte) 0, (byte) 0, (byte) 0);
+
+		// 16x16 checkerboard, the texture keeps the lowest bit of each pixel
+		Image image = Image.createImage(16, 16);
+		int[] pixels = image.getPixels();
+		for (int i = 0; i < pixels.length; i++) {
+			pixels[i] = (i ^ i >> 4) & 1;
+		}
+		Texture texture = new Texture(3553, 32832, image);
+
+		// warm up the JIT before measuring
+		run(m3d, texture, 1_000_000_000L);
+		long triangles = run(m3d, texture, seconds * 1_000_000_000L);
+		System.out.println("M3D " + WIDTH + "x" + HEIGHT + ": " + triangles / seconds + " triangles/s");
+	}
+
+	private static long run(M3D m3d, Texture texture, long nanos) {
+		long triangles = 0;
+		long start = System.nanoTime();
+		while (System.nanoTime() - start < nanos) {
+			m3d.clear(16640);
+			m3d.bindTexture(3553, texture);
+			m3d.texCoordPointerub(2, 0, QUAD_UVS);
+			for (int k = 0; k < QUADS_PER_FRAME; k++) {
+				m3d.loadIdentity();
+				m3d.translatexi(0, 0, (-8 - k) << 16);
+				m3d.rotatexi((k * 7) << 16, 0, 0, 1);
+				m3d.vertexPointerub(3, 0, QUAD);
+				m3d.drawElementsub(4, 6, QUAD_FACES);
+				triangles += 2;
+			}
+		}
+		return triangles;
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package javax.microedition.lcdui;
+
+import com.badlogic.gdx.utils.GdxNativesLoader;
+
+import javax.microedition.lcdui.game.Sprite;
+
+/**
+ * Frame time benchmark of {@link SoftwareGraphics} on a 240x320 screen, run with
+ * {@code gradlew :coreJm:benchmark -PbenchClass=javax.microedition.lcdui.SoftwareGraphicsBenchmark}.
+ * <p>
+ * Each frame is a typical tile game frame: a cleared background, a full screen
+ * of opaque 16x16 tiles, translucent sprites in every transform, a drawRGB()
+ * status bar and a few shapes. 60 fps needs less than 16.7 ms per frame.
+ */
+public class SoftwareGraphicsBenchmark {
+	private static final int WIDTH = 240;
+	private static final int HEIGHT = 320;
+	private static final int TILE = 16;
+	private static final int SPRITES_PER_FRAME = 40;
+
+	public static void main(String[] args) {
+		GdxNativesLoader.load();
+		long seconds = args.length > 0 ? Long.parseLong(args[0]) : 5;
+
+		Image screen = Image.createImage(WIDTH, HEIGHT);
+		SoftwareGraphics g = new SoftwareGraphics(screen);
+
+		int[] tiles = new int[128 * 128];
+		for (int i = 0; i < tiles.length; i++) {
+			tiles[i] = 0xFF000000 | i * 0x010203;
+		}
+		Image tileSet = Image.createRGBImage(tiles, 128, 128, false);
+
+		// a disc over a transparent background
+		int[] sprite = new int[32 * 32];
+		for (int y = 0; y < 32; y++) {
+			for (int x = 0; x < 32; x++) {
+				int dx = x - 16;
+				int dy = y - 16;
+				sprite[y * 32 + x] = dx * dx + dy * dy < 196 ? 0xC0FF8000 : 0;
+			}
+		}
+		Image spriteImage = Image.createRGBImage(sprite, 32, 32, true);
+
+		int[] status = new int[WIDTH * 16];
+		for (int i = 0; i < status.length; i++) {
+			status[i] = 0x80000000 | i;
+		}
+
+		// warm up the JIT before measuring
+		run(g, tileSet, spriteImage, status, 1_000_000_000L);
+		long start = System.nanoTime();
+		long frames = run(g, tileSet, spriteImage, status, seconds * 1_000_000_000L);
+		double millis = (System.nanoTime() - start) / 1e6 / frames;
+		System.out.printf("SoftwareGraphics %dx%d: %.2f ms/frame, %.0f fps%n",
+				WIDTH, HEIGHT, millis, 1000 / millis);
+	}
+
+	private static long run(SoftwareGraphics g, Image tileSet, Image sprite, int[] status, long nanos) {
+		long frames = 0;
+		long start = System.nanoTime();
+		while (System.nanoTime() - start < nanos) {
+			g.reset();
+			g.setColor(0x203040);
+			g.fillRect(0, 0, WIDTH, HEIGHT);
+			int scroll = (int) (frames % TILE);
+			for (int y = -TILE; y < HEIGHT; y += TILE) {
+				for (int x = 0; x < WIDTH; x += TILE) {
+					int tile = (x / TILE + y / TILE) & 63;
+					g.drawRegion(tileSet, tile % 8 * TILE, tile / 8 * TILE, TILE, TILE,
+							Sprite.TRANS_NONE, x, y + scroll, Graphics.TOP | Graphics.LEFT);
+				}
+			}
+			for (int i = 0; i < SPRITES_PER_FRAME; i++) {
+				int x = (int) ((i * 37 + frames * 3) % (WIDTH - 32));
+				int y = (int) ((i * 53 + frames * 2) % (HEIGHT - 32));
+				g.drawRegion(sprite, 0, 0, 32, 32, i & 7, x, y, Graphics.TOP | Graphics.LEFT);
+			}
+			g.drawRGB(status, 0, WIDTH, 0, 0, WIDTH, 16, true);
+			g.setColor(0xFFFFFF);
+			g.drawLine(0, 16, WIDTH, 16);
+			g.fillArc(WIDTH - 40, HEIGHT - 40, 32, 32, 0, 360);
+			g.drawRect(4, HEIGHT - 24, 100, 16);
+			frames++;
+		}
+		return frames;
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package javax.microedition.lcdui.event;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.microedition.lcdui.Canvas;
+import javax.microedition.lcdui.Graphics;
+
+import sun.reflect.ReflectionFactory;
+
+/**
+ * Allocation benchmark of the canvas input path, run with
+ * {@code gradlew :coreJm:benchmark -PbenchClass=javax.microedition.lcdui.event.InputAllocationBenchmark}.
+ * <p>
+ * Pointer gestures, a press, drags and a release, are posted at 1,000 events
+ * per second through {@link CanvasEvent} and an {@link EventQueue}, exactly as
+ * Canvas.postPointerPressed/Dragged/Released() post them, and processed on the
+ * queue thread. The bytes allocated by the posting thread and by the queue
+ * thread are read from the JVM thread allocation counters after a warm up,
+ * so that both must stay at 0 per event.
+ * <p>
+ * A real Canvas needs a GL context and the Android display, so the benchmark
+ * canvas is instantiated without running any constructor. Only its pointer
+ * callbacks are used, which touch no field of Canvas.
+ */
+public class InputAllocationBenchmark {
+	private static final int EVENTS_PER_SECOND = 1000;
+	private static final int DRAGS_PER_GESTURE = 8;
+
+	private static final com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	public static void main(String[] args) throws Exception {
+		long seconds = args.length > 0 ? Long.parseLong(args[0]) : 10;
+
+		BenchCanvas canvas = BenchCanvas.create();
+		EventQueue queue = new EventQueue();
+		queue.startProcessing();
+		// let the queue thread start and register itself
+		postEvents(queue, canvas, EVENTS_PER_SECOND);
+		long queueThread = findThread("MIDletEventQueue");
+
+		// warm up the JIT and the arena before measuring
+		postEvents(queue, canvas, 2 * EVENTS_PER_SECOND);
+		drain(queue);
+
+		long events = seconds * EVENTS_PER_SECOND;
+		long producerBefore = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		long consumerBefore = threads.getThreadAllocatedBytes(queueThread);
+		long missesBefore = CanvasEvent.getPoolMisses();
+		postEvents(queue, canvas, events);
+		drain(queue);
+		long producer = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - producerBefore;
+		long consumer = threads.getThreadAllocatedBytes(queueThread) - consumerBefore;
+		long misses = CanvasEvent.getPoolMisses() - missesBefore;
+		queue.stopProcessing();
+
+		System.out.printf("%d events at %d/s, %d processed, %d arena misses%n",
+				events, EVENTS_PER_SECOND, canvas.processed, misses);
+		System.out.printf("posting thread: %d bytes, %.3f bytes/event%n", producer, (double) producer / events);
+		System.out.printf("queue thread:   %d bytes, %.3f bytes/event%n", consumer, (double) consumer / events);
+	}
+
+	/**
+	 * Post the given number of pointer events, one every 1/EVENTS_PER_SECOND s.
+	 */
+	private static void postEvents(EventQueue queue, Canvas canvas, long count) {
+		long interval = 1_000_000_000L / EVENTS_PER_SECOND;
+		long next = System.nanoTime();
+		for (long i = 0; i < count; i++) {
+			int step = (int) (i % (DRAGS_PER_GESTURE + 2));
+			int type;
+			if (step == 0) {
+				type = CanvasEvent.POINTER_PRESSED;
+			} else if (step <= DRAGS_PER_GESTURE) {
+				type = CanvasEvent.POINTER_DRAGGED;
+			} else {
+				type = CanvasEvent.POINTER_RELEASED;
+			}
+			queue.postEvent(CanvasEvent.getInstance(canvas, type, 0, step * 4f, step * 3f));
+			next += interval;
+			long delay = next - System.nanoTime();
+			if (delay > 0) {
+				LockSupport.parkNanos(delay);
+			}
+		}
+	}
+
+	private static void drain(EventQueue queue) {
+		while (!queue.isEmpty() || queue.currentEvent() != null) {
+			Thread.yield();
+		}
+	}
+
+	private static long findThread(String name) {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (name.equals(thread.getName())) {
+				return thread.getId();
+			}
+		}
+		throw new IllegalStateException("no thread " + name);
+	}
+
+	static class BenchCanvas extends Canvas {
+		volatile long processed;
+
+		static BenchCanvas create() throws Exception {
+			Constructor<Object> object = Object.class.getDeclaredConstructor();
+			Constructor<?> constructor = ReflectionFactory.getReflectionFactory()
+					.newConstructorForSerialization(BenchCanvas.class, object);
+			return (BenchCanvas) constructor.newInstance();
+		}
+
+		@Override
+		public void paint(Graphics g) {
+		}
+
+		@Override
+		public void pointerPressed(int x, int y) {
+			processed++;
+		}
+
+		@Override
+		public void pointerDragged(int x, int y) {
+			processed++;
+		}
+
+		@Override
+		public void pointerReleased(int x, int y) {
+			processed++;
+		}
+	}
+}
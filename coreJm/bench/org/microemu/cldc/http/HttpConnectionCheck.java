@@ -0,0 +1,121 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.microemu.cldc.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.microedition.io.Connector;
+
+/**
+ * Checks keep-alive reuse, the response cache, gzip decoding and unfollowed
+ * redirects of {@link Connection} against a {@link StandInHttpServer}, run with
+ * {@code gradlew :coreJm:benchmark -PbenchClass=org.microemu.cldc.http.HttpConnectionCheck}.
+ * Prints each check and exits with status 1 if any failed.
+ */
+public class HttpConnectionCheck {
+	private static final int REPEATS = 5;
+
+	private static StandInHttpServer server;
+	private static int failures;
+
+	public static void main(String[] args) throws IOException {
+		File cacheDir = Files.createTempDirectory("http-cache").toFile();
+		HttpCache cache = new HttpCache(cacheDir, 1024 * 1024, 64);
+		Connection.setCache(cache);
+		server = new StandInHttpServer(0);
+		server.start();
+		try {
+			String body = get("/fresh");
+			get("/fresh");
+			check("fresh response served from the cache", server.getRequests("/fresh") == 1
+					&& cache.getHits() == 1 && body.equals(StandInHttpServer.BODY));
+
+			get("/revalidate");
+			body = get("/revalidate");
+			check("stale response revalidated with 304", server.getRequests("/revalidate") == 2
+					&& server.getNotModified() == 1 && cache.getRevalidations() == 1
+					&& body.equals(StandInHttpServer.BODY));
+
+			int connections = server.getConnections();
+			for (int i = 0; i < REPEATS; i++) {
+				get("/plain");
+			}
+			check("keep-alive socket reused by " + REPEATS + " requests",
+					server.getRequests("/plain") == REPEATS && server.getConnections() - connections <= 1);
+
+			Connection.setGzipEnabled(true);
+			Connection connection = open("/gzip");
+			body = read(connection);
+			check("gzip body decoded", body.equals(StandInHttpServer.BODY) && connection.getEncoding() == null);
+			connection.close();
+			Connection.setGzipEnabled(false);
+
+			connection = open("/redirect");
+			int code = connection.getResponseCode();
+			connection.close();
+			check("redirect left to the MIDlet", code == 302 && server.getRequests("/plain") == REPEATS);
+		} finally {
+			server.stop();
+			File[] entries = cacheDir.listFiles();
+			if (entries != null) {
+				for (File entry : entries) {
+					entry.delete();
+				}
+			}
+			cacheDir.delete();
+		}
+		System.out.println(failures == 0 ? "all passed" : failures + " failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	private static Connection open(String path) throws IOException {
+		Connection connection = new Connection();
+		connection.openConnection(server.getBaseUrl() + path, Connector.READ, false);
+		return connection;
+	}
+
+	private static String get(String path) throws IOException {
+		Connection connection = open(path);
+		try {
+			return read(connection);
+		} finally {
+			connection.close();
+		}
+	}
+
+	private static String read(Connection connection) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		InputStream in = connection.openInputStream();
+		byte[] buffer = new byte[1024];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			bytes.write(buffer, 0, n);
+		}
+		return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static void check(String name, boolean passed) {
+		System.out.println((passed ? "ok      " : "FAILED  ") + name);
+		if (!passed) {
+			failures++;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.microemu.cldc.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for the servers MIDlets talk to, for exercising
+ * {@link Connection} and {@link HttpCache} without a network. Run alone with
+ * {@code gradlew :coreJm:benchmark -PbenchClass=org.microemu.cldc.http.StandInHttpServer -Pargs=<port>}
+ * to point an emulated MIDlet at it, or used by {@link HttpConnectionCheck}.
+ * <p>
+ * Paths served:
+ * <ul>
+ * <li>/fresh: cacheable for a minute with Cache-Control max-age</li>
+ * <li>/revalidate: no expiration, answers If-Modified-Since with 304</li>
+ * <li>/plain: no-store, for counting the sockets of repeated requests</li>
+ * <li>/gzip: gzip encoded when the request accepts it</li>
+ * <li>/redirect: 302 to /plain, which MIDlets must see unfollowed</li>
+ * </ul>
+ */
+public class StandInHttpServer {
+	static final String BODY = "stand-in response body";
+	// Whole seconds, as HTTP dates have no milliseconds
+	private static final long LAST_MODIFIED = System.currentTimeMillis() / 1000 * 1000 - 3600_000;
+
+	private final HttpServer server;
+	private final Map<String, Integer> requests = new HashMap<>();
+	private final Set<Integer> clientPorts = new HashSet<>();
+	private int notModified;
+
+	public StandInHttpServer(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/", this::handle);
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+		StandInHttpServer server = new StandInHttpServer(port);
+		server.start();
+		System.out.println("Serving on " + server.getBaseUrl());
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+	}
+
+	public String getBaseUrl() {
+		InetSocketAddress address = server.getAddress();
+		return "http://" + address.getHostString() + ":" + address.getPort();
+	}
+
+	public synchronized int getRequests(String path) {
+		Integer count = requests.get(path);
+		return count != null ? count : 0;
+	}
+
+	public synchronized int getNotModified() {
+		return notModified;
+	}
+
+	/**
+	 * @return the number of sockets requests came from so far
+	 */
+	public synchronized int getConnections() {
+		return clientPorts.size();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		synchronized (this) {
+			requests.merge(path, 1, Integer::sum);
+			clientPorts.add(exchange.getRemoteAddress().getPort());
+		}
+		drain(exchange.getRequestBody());
+		byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+		switch (path) {
+			case "/fresh":
+				exchange.getResponseHeaders().set("Cache-Control", "max-age=60");
+				send(exchange, 200, body);
+				break;
+			case "/revalidate":
+				exchange.getResponseHeaders().set("Last-Modified", HttpCache.formatDate(LAST_MODIFIED));
+				String since = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+				if (since != null && since.equals(HttpCache.formatDate(LAST_MODIFIED))) {
+					synchronized (this) {
+						notModified++;
+					}
+					exchange.sendResponseHeaders(304, -1);
+					exchange.close();
+				} else {
+					send(exchange, 200, body);
+				}
+				break;
+			case "/plain":
+				exchange.getResponseHeaders().set("Cache-Control", "no-store");
+				send(exchange, 200, body);
+				break;
+			case "/gzip":
+				String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+				if (accept != null && accept.contains("gzip")) {
+					exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+					body = gzip(body);
+				}
+				send(exchange, 200, body);
+				break;
+			case "/redirect":
+				exchange.getResponseHeaders().set("Location", getBaseUrl() + "/plain");
+				send(exchange, 302, body);
+				break;
+			default:
+				send(exchange, 404, body);
+				break;
+		}
+	}
+
+	private static void send(HttpExchange exchange, int code, byte[] body) throws IOException {
+		exchange.sendResponseHeaders(code, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static void drain(InputStream in) throws IOException {
+		byte[] buffer = new byte[1024];
+		while (in.read(buffer) != -1) {
+		}
+		in.close();
+	}
+
+	private static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+			out.write(data);
+		}
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mascotcapsule.micro3d.v3;
+
+/**
+ * One action of an MTRA file: keyframes of the bone transforms, evaluated
+ * once for every frame into a table the first time the action is used.
+ */
+final class Action {
+	// Channels of a bone, keys are stored as frame followed by the values
+	static final int TRANSLATION = 0;
+	static final int SCALE = 1;
+	static final int ROTATION = 2;
+	static final int ROLL = 3;
+	private static final int[] CHANNEL_SIZES = {3, 3, 3, 1};
+	private static final int[][] CHANNEL_DEFAULTS = {{0, 0, 0}, {4096, 4096, 4096}, {0, 0, 4096}, {0}};
+
+	final int numFrames;
+	final int numBones;
+	// [bone][channel], null for the default value of the channel
+	private final int[][][] keys;
+	// 12 ints per bone per frame
+	private int[] table;
+
+	Action(int numFrames, int numBones) {
+		this.numFrames = numFrames;
+		this.numBones = numBones;
+		keys = new int[numBones][4][];
+	}
+
+	static int getChannelSize(int channel) {
+		return CHANNEL_SIZES[channel];
+	}
+
+	void setKeys(int bone, int channel, int[] keys) {
+		this.keys[bone][channel] = keys;
+	}
+
+	/**
+	 * Get the transforms of the bones relative to their parent.
+	 *
+	 * @param frame frame number in 16.16 fixed point, between two frames the transforms are blended
+	 * @param out   receives 12 ints per bone, for at most out.length / 12 bones
+	 */
+	void getBoneMatrices(int frame, int[] out) {
+		int[] table = getTable();
+		int frames = Math.max(numFrames, 1);
+		int index = Math.min(Math.max(frame >> 16, 0), frames - 1);
+		int next = Math.min(index + 1, frames - 1);
+		int fraction = frame < 0 ? 0 : frame & 0xFFFF;
+		int count = Math.min(numBones, out.length / 12) * 12;
+		int base = index * numBones * 12;
+		int nextBase = next * numBones * 12;
+		if (fraction == 0 || next == index) {
+			System.arraycopy(table, base, out, 0, count);
+			return;
+		}
+		for (int i = 0; i < count; i++) {
+			int a = table[base + i];
+			out[i] = a + (int) (((long) (table[nextBase + i] - a) * fraction) >> 16);
+		}
+	}
+
+	private synchronized int[] getTable() {
+		if (table == null) {
+			int frames = Math.max(numFrames, 1);
+			int[] table = new int[frames * numBones * 12];
+			float[] values = new float[10];
+			for (int frame = 0; frame < frames; frame++) {
+				for (int bone = 0; bone < numBones; bone++) {
+					for (int channel = 0, offset = 0; channel < 4; channel++) {
+						evaluate(keys[bone][channel], channel, frame, values, offset);
+						offset += CHANNEL_SIZES[channel];
+					}
+					setMatrix(table, (frame * numBones + bone) * 12, values);
+				}
+			}
+			this.table = table;
+		}
+		return table;
+	}
+
+	/**
+	 * Interpolate a channel linearly between its keys.
+	 */
+	private static void evaluate(int[] keys, int channel, int frame, float[] out, int offset) {
+		int size = CHANNEL_SIZES[channel];
+		if (keys == null || keys.length == 0) {
+			int[] value = CHANNEL_DEFAULTS[channel];
+			for (int i = 0; i < size; i++) {
+				out[offset + i] = value[i];
+			}
+			return;
+		}
+		int stride = size + 1;
+		int next = 0;
+		while (next < keys.length && keys[next] <= frame) {
+			next += stride;
+		}
+		int previous = next - stride;
+		if (previous < 0 || next >= keys.length) {
+			int key = previous < 0 ? 0 : previous;
+			for (int i = 0; i < size; i++) {
+				out[offset + i] = keys[key + 1 + i];
+			}
+			return;
+		}
+		float t = (frame - keys[previous]) / (float) (keys[next] - keys[previous]);
+		for (int i = 0; i < size; i++) {
+			float a = keys[previous + 1 + i];
+			out[offset + i] = a + (keys[next + 1 + i] - a) * t;
+		}
+	}
+
+	/**
+	 * Build translation * rotation * roll * scale, where the rotation takes the
+	 * z axis to the direction stored in the rotation channel.
+	 */
+	private static void setMatrix(int[] m, int offset, float[] values) {
+		float x = values[6];
+		float y = values[7];
+		float z = values[8];
+		float length = (float) Math.sqrt(x * x + y * y + z * z);
+		float r00, r01, r02, r10, r11, r12, r20, r21, r22;
+		if (length == 0) {
+			r00 = r11 = r22 = 1;
+			r01 = r02 = r10 = r12 = r20 = r21 = 0;
+		} else {
+			x /= length;
+			y /= length;
+			z /= length;
+			if (z < -0.99999f) {
+				r00 = 1;
+				r11 = r22 = -1;
+				r01 = r02 = r10 = r12 = r20 = r21 = 0;
+			} else {
+				float k = 1 / (1 + z);
+				r00 = z + y * y * k;
+				r01 = -x * y * k;
+				r02 = x;
+				r10 = r01;
+				r11 = z + x * x * k;
+				r12 = y;
+				r20 = -x;
+				r21 = -y;
+				r22 = z;
+			}
+		}
+		double roll = values[9] * Math.PI / 2048;
+		float cos = (float) Math.cos(roll);
+		float sin = (float) Math.sin(roll);
+		float sx = values[3] / 4096;
+		float sy = values[4] / 4096;
+		float sz = values[5] / 4096;
+		m[offset] = Math.round((r00 * cos + r01 * sin) * sx * 4096);
+		m[offset + 1] = Math.round((r01 * cos - r00 * sin) * sy * 4096);
+		m[offset + 2] = Math.round(r02 * sz * 4096);
+		m[offset + 3] = Math.round(values[0]);
+		m[offset + 4] = Math.round((r10 * cos + r11 * sin) * sx * 4096);
+		m[offset + 5] = Math.round((r11 * cos - r10 * sin) * sy * 4096);
+		m[offset + 6] = Math.round(r12 * sz * 4096);
+		m[offset + 7] = Math.round(values[1]);
+		m[offset + 8] = Math.round((r20 * cos + r21 * sin) * sx * 4096);
+		m[offset + 9] = Math.round((r21 * cos - r20 * sin) * sy * 4096);
+		m[offset + 10] = Math.round(r22 * sz * 4096);
+		m[offset + 11] = Math.round(values[2]);
+	}
+}
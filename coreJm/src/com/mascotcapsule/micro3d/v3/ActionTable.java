@@ -17,28 +17,30 @@
 package com.mascotcapsule.micro3d.v3;
 
 import java.io.IOException;
-import java.io.InputStream;
-
-import javax.microedition.util.ContextHolder;
 
 public class ActionTable {
+	private Action[] actions;
+
 	public ActionTable(byte[] b) {
 		if (b == null) {
 			throw new NullPointerException();
 		}
+		try {
+			actions = Loader.loadActions(b);
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e.getMessage());
+		}
 	}
 
 	public ActionTable(String name) throws IOException {
 		if (name == null) {
 			throw new NullPointerException();
 		}
-		InputStream is = ContextHolder.getResourceAsStream(null, name);
-		if (is == null) {
-			throw new IOException();
-		}
+		actions = Loader.loadActions(Loader.readResource(name));
 	}
 
 	public final void dispose() {
+		actions = null;
 	}
 
 	public final int getNumAction() {
@@ -46,19 +48,25 @@ public class ActionTable {
 	}
 
 	public final int getNumActions() {
-		return 1;
+		return actions == null ? 0 : actions.length;
 	}
 
 	public final int getNumFrame(int idx) {
 		return getNumFrames(idx);
 	}
 
+	/**
+	 * @return the length of the action, in 16.16 fixed point frames
+	 */
 	public final int getNumFrames(int idx) {
 		if (idx >= 0 && idx < getNumAction()) {
-			return 60;
+			return actions[idx].numFrames << 16;
 		} else {
 			throw new IllegalArgumentException();
 		}
+	}
 
+	Action getAction(int idx) {
+		return actions[idx];
 	}
-}
\ No newline at end of file
+}
@@ -30,6 +30,9 @@ public class AffineTrans {
 	public int m22;
 	public int m23;
 
+	// Operands of mul() and setRotation(), so that they don't allocate
+	private final int[] scratch = new int[24];
+
 	public AffineTrans(int m00, int m01, int m02, int m03, int m10, int m11, int m12, int m13, int m20, int m21, int m22, int m23) {
 		set(m00, m01, m02, m03, m10, m11, m12, m13, m20, m21, m22, m23);
 	}
@@ -55,15 +58,49 @@ public class AffineTrans {
 	}
 
 	public final void setRotationX(int r) {
+		int cos = Util3D.cos(r);
+		int sin = Util3D.sin(r);
+		this.m00 = 4096;
+		this.m01 = 0;
+		this.m02 = 0;
+		this.m10 = 0;
+		this.m11 = cos;
+		this.m12 = -sin;
+		this.m20 = 0;
+		this.m21 = sin;
+		this.m22 = cos;
 	}
 
 	public final void setRotationY(int r) {
+		int cos = Util3D.cos(r);
+		int sin = Util3D.sin(r);
+		this.m00 = cos;
+		this.m01 = 0;
+		this.m02 = sin;
+		this.m10 = 0;
+		this.m11 = 4096;
+		this.m12 = 0;
+		this.m20 = -sin;
+		this.m21 = 0;
+		this.m22 = cos;
 	}
 
 	public final void setRotationZ(int r) {
+		int cos = Util3D.cos(r);
+		int sin = Util3D.sin(r);
+		this.m00 = cos;
+		this.m01 = -sin;
+		this.m02 = 0;
+		this.m10 = sin;
+		this.m11 = cos;
+		this.m12 = 0;
+		this.m20 = 0;
+		this.m21 = 0;
+		this.m22 = 4096;
 	}
 
 	public final void setIdentity() {
+		set(4096, 0, 0, 0, 0, 4096, 0, 0, 0, 0, 4096, 0);
 	}
 
 	public final void get(int[] a) {
@@ -180,8 +217,13 @@ public class AffineTrans {
 		if (v == null) {
 			throw new NullPointerException();
 		}
-		Vector3D d = new Vector3D();
-		return d;
+		int x = v.x;
+		int y = v.y;
+		int z = v.z;
+		return new Vector3D(
+				((this.m00 * x + this.m01 * y + this.m02 * z) >> 12) + this.m03,
+				((this.m10 * x + this.m11 * y + this.m12 * z) >> 12) + this.m13,
+				((this.m20 * x + this.m21 * y + this.m22 * z) >> 12) + this.m23);
 	}
 
 	public final void rotationX(int r) {
@@ -201,9 +243,7 @@ public class AffineTrans {
 	}
 
 	public final void mul(AffineTrans a) {
-		if (a == null) {
-			throw new NullPointerException();
-		}
+		mul(this, a);
 	}
 
 	public final void multiply(AffineTrans a1, AffineTrans a2) {
@@ -214,6 +254,11 @@ public class AffineTrans {
 		if (a1 == null || a2 == null) {
 			throw new NullPointerException();
 		}
+		int[] m = scratch;
+		a1.get(m, 0);
+		a2.get(m, 12);
+		multiply(m, 0, m, 0, m, 12);
+		set(m, 0);
 	}
 
 	public final void rotationV(Vector3D v, int r) {
@@ -224,15 +269,87 @@ public class AffineTrans {
 		if (v == null) {
 			throw new NullPointerException();
 		}
+		int[] m = scratch;
+		get(m, 0);
+		setRotation(m, 0, v.x, v.y, v.z, r);
+		set(m, 0);
 	}
 
 	public final void setViewTrans(Vector3D pos, Vector3D look, Vector3D up) {
 		lookAt(pos, look, up);
 	}
 
+	/**
+	 * Set the view transform of a camera at pos looking along look. The view
+	 * space has x to the right, y down the screen and z into it.
+	 */
 	public final void lookAt(Vector3D pos, Vector3D look, Vector3D up) {
 		if (pos == null || look == null || up == null) {
 			throw new NullPointerException();
 		}
+		Vector3D zAxis = new Vector3D(look);
+		zAxis.unit();
+		Vector3D upAxis = new Vector3D(up);
+		upAxis.unit();
+		Vector3D xAxis = Vector3D.outerProduct(zAxis, upAxis);
+		xAxis.unit();
+		Vector3D yAxis = Vector3D.outerProduct(zAxis, xAxis);
+		yAxis.unit();
+		this.m00 = xAxis.x;
+		this.m01 = xAxis.y;
+		this.m02 = xAxis.z;
+		this.m10 = yAxis.x;
+		this.m11 = yAxis.y;
+		this.m12 = yAxis.z;
+		this.m20 = zAxis.x;
+		this.m21 = zAxis.y;
+		this.m22 = zAxis.z;
+		this.m03 = -((this.m00 * pos.x + this.m01 * pos.y + this.m02 * pos.z) >> 12);
+		this.m13 = -((this.m10 * pos.x + this.m11 * pos.y + this.m12 * pos.z) >> 12);
+		this.m23 = -((this.m20 * pos.x + this.m21 * pos.y + this.m22 * pos.z) >> 12);
+	}
+
+	/**
+	 * out = left * right on 3x4 fixed point matrices stored row by row,
+	 * out may be either of the operands.
+	 */
+	static void multiply(int[] out, int outOffset, int[] left, int leftOffset, int[] right, int rightOffset) {
+		int r00 = right[rightOffset], r01 = right[rightOffset + 1], r02 = right[rightOffset + 2], r03 = right[rightOffset + 3];
+		int r10 = right[rightOffset + 4], r11 = right[rightOffset + 5], r12 = right[rightOffset + 6], r13 = right[rightOffset + 7];
+		int r20 = right[rightOffset + 8], r21 = right[rightOffset + 9], r22 = right[rightOffset + 10], r23 = right[rightOffset + 11];
+		for (int row = 0; row < 3; row++) {
+			int l = leftOffset + row * 4;
+			int l0 = left[l], l1 = left[l + 1], l2 = left[l + 2], l3 = left[l + 3];
+			int o = outOffset + row * 4;
+			out[o] = (l0 * r00 + l1 * r10 + l2 * r20) >> 12;
+			out[o + 1] = (l0 * r01 + l1 * r11 + l2 * r21) >> 12;
+			out[o + 2] = (l0 * r02 + l1 * r12 + l2 * r22) >> 12;
+			out[o + 3] = ((l0 * r03 + l1 * r13 + l2 * r23) >> 12) + l3;
+		}
+	}
+
+	/**
+	 * Set the rotation part of a 3x4 matrix to a rotation of r around the axis (x, y, z),
+	 * which must have a length of 4096.
+	 */
+	static void setRotation(int[] m, int offset, int x, int y, int z, int r) {
+		int cos = Util3D.cos(r);
+		int sin = Util3D.sin(r);
+		int t = 4096 - cos;
+		int xs = (x * sin) >> 12;
+		int ys = (y * sin) >> 12;
+		int zs = (z * sin) >> 12;
+		int xt = (x * t) >> 12;
+		int yt = (y * t) >> 12;
+		int zt = (z * t) >> 12;
+		m[offset] = ((x * xt) >> 12) + cos;
+		m[offset + 1] = ((x * yt) >> 12) - zs;
+		m[offset + 2] = ((x * zt) >> 12) + ys;
+		m[offset + 4] = ((y * xt) >> 12) + zs;
+		m[offset + 5] = ((y * yt) >> 12) + cos;
+		m[offset + 6] = ((y * zt) >> 12) - xs;
+		m[offset + 8] = ((z * xt) >> 12) - ys;
+		m[offset + 9] = ((z * yt) >> 12) + xs;
+		m[offset + 10] = ((z * zt) >> 12) + cos;
 	}
 }
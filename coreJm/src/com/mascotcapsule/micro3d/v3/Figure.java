@@ -17,28 +17,42 @@
 package com.mascotcapsule.micro3d.v3;
 
 import java.io.IOException;
-import java.io.InputStream;
-
-import javax.microedition.util.ContextHolder;
 
 public class Figure {
 	private Texture[] myTextureArray;
 	private Texture myTextureNow;
+	private int myPattern;
+
+	Model model;
+	// Vertices and normals moved by the bones of the current posture
+	int[] vertices;
+	int[] normals;
+	private int[] boneMatrices;
 
 	public Figure(byte[] b) {
 		if (b == null) {
 			throw new NullPointerException();
 		}
+		try {
+			init(Loader.loadModel(b));
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e.getMessage());
+		}
 	}
 
 	public Figure(String name) throws IOException {
 		if (name == null) {
 			throw new NullPointerException();
 		}
-		InputStream is = ContextHolder.getResourceAsStream(null, name);
-		if (is == null) {
-			throw new IOException();
-		}
+		init(Loader.loadModel(Loader.readResource(name)));
+	}
+
+	private void init(Model model) {
+		this.model = model;
+		vertices = new int[model.numVertices * 3];
+		normals = model.normals != null ? new int[model.normals.length] : null;
+		boneMatrices = new int[model.numBones * 12];
+		pose(model.boneMatrices);
 	}
 
 	public final void dispose() {
@@ -50,6 +64,11 @@ public class Figure {
 		} else if (action < 0 || action >= act.getNumAction()) {
 			throw new IllegalArgumentException();
 		}
+		// Bones the action does not animate keep their default transform
+		int[] local = boneMatrices;
+		System.arraycopy(model.boneMatrices, 0, local, 0, local.length);
+		act.getAction(action).getBoneMatrices(frame, local);
+		pose(local);
 	}
 
 	public final Texture getTexture() {
@@ -104,9 +123,73 @@ public class Figure {
 	}
 
 	public final int getNumPattern() {
-		return 0;
+		return model.numPatterns;
 	}
 
 	public final void setPattern(int idx) {
+		this.myPattern = idx;
+	}
+
+	int getPattern() {
+		return myPattern;
+	}
+
+	Texture getTexture(int idx) {
+		if (myTextureNow != null) {
+			return myTextureNow;
+		}
+		if (myTextureArray == null) {
+			return null;
+		}
+		return myTextureArray[Math.min(idx, myTextureArray.length - 1)];
+	}
+
+	/**
+	 * Move the vertices and normals with the bones.
+	 *
+	 * @param local transforms of the bones relative to their parent,
+	 *              replaced by the transforms relative to the figure
+	 */
+	private void pose(int[] local) {
+		int[] matrices = boneMatrices;
+		if (local != matrices) {
+			System.arraycopy(local, 0, matrices, 0, matrices.length);
+		}
+		// Parents come before their children
+		for (int bone = 0; bone < model.numBones; bone++) {
+			int parent = model.boneParents[bone];
+			if (parent >= 0) {
+				AffineTrans.multiply(matrices, bone * 12, matrices, parent * 12, matrices, bone * 12);
+			}
+		}
+		int[] src = model.vertices;
+		int[] srcNormals = model.normals;
+		System.arraycopy(src, 0, vertices, 0, src.length);
+		if (srcNormals != null) {
+			System.arraycopy(srcNormals, 0, normals, 0, srcNormals.length);
+		}
+		for (int bone = 0; bone < model.numBones; bone++) {
+			int m = bone * 12;
+			int m00 = matrices[m], m01 = matrices[m + 1], m02 = matrices[m + 2], m03 = matrices[m + 3];
+			int m10 = matrices[m + 4], m11 = matrices[m + 5], m12 = matrices[m + 6], m13 = matrices[m + 7];
+			int m20 = matrices[m + 8], m21 = matrices[m + 9], m22 = matrices[m + 10], m23 = matrices[m + 11];
+			int end = (model.boneFirstVertex[bone] + model.boneVertexCount[bone]) * 3;
+			for (int i = model.boneFirstVertex[bone] * 3; i < end; i += 3) {
+				int x = src[i];
+				int y = src[i + 1];
+				int z = src[i + 2];
+				vertices[i] = ((m00 * x + m01 * y + m02 * z) >> 12) + m03;
+				vertices[i + 1] = ((m10 * x + m11 * y + m12 * z) >> 12) + m13;
+				vertices[i + 2] = ((m20 * x + m21 * y + m22 * z) >> 12) + m23;
+				if (srcNormals != null) {
+					x = srcNormals[i];
+					y = srcNormals[i + 1];
+					z = srcNormals[i + 2];
+					normals[i] = (m00 * x + m01 * y + m02 * z) >> 12;
+					normals[i + 1] = (m10 * x + m11 * y + m12 * z) >> 12;
+					normals[i + 2] = (m20 * x + m21 * y + m22 * z) >> 12;
+				}
+			}
+		}
 	}
 }
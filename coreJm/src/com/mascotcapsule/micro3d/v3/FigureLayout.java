@@ -17,6 +17,12 @@
 package com.mascotcapsule.micro3d.v3;
 
 public class FigureLayout {
+	// Projections, as selected by the last setter called
+	static final int SCALE = 0;
+	static final int PARALLEL_SIZE = 1;
+	static final int PERSPECTIVE_FOV = 2;
+	static final int PERSPECTIVE_WH = 3;
+
 	private AffineTrans[] myAffineArray;
 	private AffineTrans myAffineNow;
 	private int myCenterX;
@@ -96,7 +102,7 @@ public class FigureLayout {
 	public final void setScale(int sx, int sy) {
 		this.myScaleX = sx;
 		this.myScaleY = sy;
-		this.mySettingIndex = 0;
+		this.mySettingIndex = SCALE;
 	}
 
 	public final int getParallelWidth() {
@@ -113,7 +119,7 @@ public class FigureLayout {
 		}
 		this.myParaWidth = w;
 		this.myParaHeight = h;
-		this.mySettingIndex = 1;
+		this.mySettingIndex = PARALLEL_SIZE;
 	}
 
 	public final int getCenterX() {
@@ -136,7 +142,7 @@ public class FigureLayout {
 		this.myPersNear = zNear;
 		this.myPersFar = zFar;
 		this.myPersAngle = angle;
-		this.mySettingIndex = 2;
+		this.mySettingIndex = PERSPECTIVE_FOV;
 	}
 
 	public final void setPerspective(int zNear, int zFar, int width, int height) {
@@ -147,6 +153,50 @@ public class FigureLayout {
 		this.myPersFar = zFar;
 		this.myPersWidth = width;
 		this.myPersHeight = height;
-		this.mySettingIndex = 3;
+		this.mySettingIndex = PERSPECTIVE_WH;
+	}
+
+	/**
+	 * Copy the projection and the transforms of another layout
+	 */
+	void set(FigureLayout layout) {
+		this.myAffineArray = layout.myAffineArray;
+		this.myAffineNow = layout.myAffineNow;
+		this.myCenterX = layout.myCenterX;
+		this.myCenterY = layout.myCenterY;
+		this.myParaWidth = layout.myParaWidth;
+		this.myParaHeight = layout.myParaHeight;
+		this.myPersAngle = layout.myPersAngle;
+		this.myPersNear = layout.myPersNear;
+		this.myPersFar = layout.myPersFar;
+		this.myPersWidth = layout.myPersWidth;
+		this.myPersHeight = layout.myPersHeight;
+		this.myScaleX = layout.myScaleX;
+		this.myScaleY = layout.myScaleY;
+		this.mySettingIndex = layout.mySettingIndex;
+	}
+
+	int getProjection() {
+		return this.mySettingIndex;
+	}
+
+	int getPerspectiveNear() {
+		return this.myPersNear;
+	}
+
+	int getPerspectiveFar() {
+		return this.myPersFar;
+	}
+
+	int getPerspectiveAngle() {
+		return this.myPersAngle;
+	}
+
+	int getPerspectiveWidth() {
+		return this.myPersWidth;
+	}
+
+	int getPerspectiveHeight() {
+		return this.myPersHeight;
 	}
 }
@@ -16,6 +16,10 @@
 
 package com.mascotcapsule.micro3d.v3;
 
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.math.Rectangle;
+
+import javax.microedition.lcdui.GLTarget;
 import javax.microedition.lcdui.Graphics;
 
 public class Graphics3D {
@@ -70,6 +74,18 @@ public class Graphics3D {
 	private static boolean mIsBound = false;
 	private Graphics mGraphics;
 
+	// Part of the target that may be drawn to, in untranslated coordinates
+	private int offsetX, offsetY;
+	private int clipX, clipY, clipWidth, clipHeight;
+
+	// GL side, unused without a GL context or with an empty clip.
+	// Graphics not drawn through GL are rendered to an offscreen
+	// framebuffer that is read back at each flush.
+	private boolean drawing;
+	private final Renderer renderer = new Renderer();
+	private final GLTarget glTarget = new GLTarget();
+	private final Rectangle mapped = new Rectangle();
+
 	private final void checkTargetIsValid() throws IllegalStateException {
 		if (this.mGraphics == null) {
 			throw new IllegalStateException("No target is bound");
@@ -83,20 +99,33 @@ public class Graphics3D {
 		if (mIsBound) {
 			throw new IllegalStateException("Target already bound");
 		}
+		if (graphics == null) {
+			throw new NullPointerException();
+		}
 		this.mGraphics = graphics;
 		mIsBound = true;
+		offsetX = graphics.getTranslateX();
+		offsetY = graphics.getTranslateY();
+		clipX = graphics.getClipX() + offsetX;
+		clipY = graphics.getClipY() + offsetY;
+		clipWidth = graphics.getClipWidth();
+		clipHeight = graphics.getClipHeight();
+		glTarget.set(graphics, clipX, clipY, clipWidth, clipHeight);
+		drawing = clipWidth > 0 && clipHeight > 0 && !Graphics.isHeadless() && Gdx.gl != null;
+		renderer.setTarget(clipX - offsetX, clipY - offsetY, clipWidth, clipHeight);
 	}
 
 	public final synchronized void release(Graphics graphics) throws IllegalArgumentException, NullPointerException {
 		if (graphics != this.mGraphics) {
 			throw new IllegalArgumentException("Unknown target");
 		} else if (graphics == this.mGraphics && mIsBound) {
+			flush();
 			this.mGraphics = null;
 			mIsBound = false;
 		}
 	}
 
-	public final void renderPrimitives(Texture texture, int x, int y, FigureLayout layout, Effect3D effect, int command, int numPrimitives, int[] vertexCoords, int[] normals, int[] textureCoords, int[] colors) {
+	public final synchronized void renderPrimitives(Texture texture, int x, int y, FigureLayout layout, Effect3D effect, int command, int numPrimitives, int[] vertexCoords, int[] normals, int[] textureCoords, int[] colors) {
 		if (layout == null || effect == null) {
 			throw new NullPointerException();
 		} else if (vertexCoords == null || normals == null || textureCoords == null || colors == null) {
@@ -106,9 +135,13 @@ public class Graphics3D {
 		} else if (numPrimitives <= 0 || numPrimitives >= 256) {
 			throw new IllegalArgumentException();
 		}
+		checkTargetIsValid();
+		renderer.setLayout(layout, x, y);
+		renderer.setEffect(effect);
+		renderer.drawPrimitives(texture, command, numPrimitives, vertexCoords, normals, textureCoords, colors);
 	}
 
-	public final void drawCommandList(Texture[] textures, int x, int y, FigureLayout layout, Effect3D effect, int[] commandList) {
+	public final synchronized void drawCommandList(Texture[] textures, int x, int y, FigureLayout layout, Effect3D effect, int[] commandList) {
 		if (layout == null || effect == null) {
 			throw new NullPointerException();
 		}
@@ -122,6 +155,107 @@ public class Graphics3D {
 		if (commandList == null) {
 			throw new NullPointerException();
 		}
+		checkTargetIsValid();
+		if (commandList.length == 0 || commandList[0] != COMMAND_LIST_VERSION_1_0) {
+			throw new IllegalArgumentException();
+		}
+
+		// The list changes copies, the arguments are left as they are
+		FigureLayout listLayout = new FigureLayout();
+		listLayout.set(layout);
+		Light source = effect.getLight();
+		Light light = source != null
+				? new Light(source.getDirection(), source.getDirIntensity(), source.getAmbIntensity())
+				: new Light();
+		Effect3D listEffect = new Effect3D();
+		listEffect.setToonParams(effect.getToonThreshold(), effect.getToonHigh(), effect.getToonLow());
+		int env = (source != null ? ENV_ATTR_LIGHTING : 0)
+				| (effect.getSphereTexture() != null ? ENV_ATTR_SPHERE_MAP : 0)
+				| (effect.getShadingType() == Effect3D.TOON_SHADING ? ENV_ATTR_TOON_SHADING : 0)
+				| (effect.isTransparency() ? ENV_ATTR_SEMI_TRANSPARENT : 0);
+		Texture texture = textures != null && textures.length > 0 ? textures[0] : null;
+
+		try {
+			int i = 1;
+			while (true) {
+				int command = commandList[i++];
+				switch (command & 0xFF000000) {
+					case COMMAND_END:
+						return;
+					case COMMAND_NOP:
+						i += command & 0xFFFFFF;
+						break;
+					case COMMAND_FLUSH:
+						flush();
+						break;
+					case COMMAND_ATTRIBUTE:
+						env = command & 0xFFFFFF;
+						break;
+					case COMMAND_CLIP:
+						renderer.setClip(commandList[i], commandList[i + 1], commandList[i + 2], commandList[i + 3]);
+						i += 4;
+						break;
+					case COMMAND_CENTER:
+						listLayout.setCenter(commandList[i], commandList[i + 1]);
+						i += 2;
+						break;
+					case COMMAND_TEXTURE_INDEX:
+						int index = command & 0xFFFFFF;
+						if (textures == null || index >= textures.length) {
+							throw new IllegalArgumentException();
+						}
+						texture = textures[index];
+						break;
+					case COMMAND_AFFINE_INDEX:
+						listLayout.selectAffineTrans(command & 0xFFFFFF);
+						break;
+					case COMMAND_PARALLEL_SCALE:
+						listLayout.setScale(commandList[i], commandList[i + 1]);
+						i += 2;
+						break;
+					case COMMAND_PARALLEL_SIZE:
+						listLayout.setParallelSize(commandList[i], commandList[i + 1]);
+						i += 2;
+						break;
+					case COMMAND_PERSPECTIVE_FOV:
+						listLayout.setPerspective(commandList[i], commandList[i + 1], commandList[i + 2]);
+						i += 3;
+						break;
+					case COMMAND_PERSPECTIVE_WH:
+						listLayout.setPerspective(commandList[i], commandList[i + 1],
+								commandList[i + 2], commandList[i + 3]);
+						i += 4;
+						break;
+					case COMMAND_AMBIENT_LIGHT:
+						light.setAmbIntensity(commandList[i++]);
+						break;
+					case COMMAND_DIRECTION_LIGHT:
+						light.setDirection(new Vector3D(commandList[i], commandList[i + 1], commandList[i + 2]));
+						light.setDirIntensity(commandList[i + 3]);
+						i += 4;
+						break;
+					case COMMAND_THRESHOLD:
+						listEffect.setToonParams(commandList[i], commandList[i + 1], commandList[i + 2]);
+						i += 3;
+						break;
+					default:
+						if ((command & 0xF8000000) != 0) {
+							throw new IllegalArgumentException();
+						}
+						listEffect.setLight((env & ENV_ATTR_LIGHTING) != 0 ? light : null);
+						listEffect.setSphereTexture((env & ENV_ATTR_SPHERE_MAP) != 0 ? effect.getSphereTexture() : null);
+						listEffect.setShadingType((env & ENV_ATTR_TOON_SHADING) != 0
+								? Effect3D.TOON_SHADING : Effect3D.NORMAL_SHADING);
+						listEffect.setTransparency((env & ENV_ATTR_SEMI_TRANSPARENT) != 0);
+						i = drawListPrimitives(texture, x, y, listLayout, listEffect, command, commandList, i);
+						break;
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IllegalArgumentException(e);
+		} finally {
+			renderer.resetClip();
+		}
 	}
 
 	public final void drawCommandList(Texture texture, int x, int y, FigureLayout layout, Effect3D effect, int[] commandList) {
@@ -132,24 +266,96 @@ public class Graphics3D {
 		drawCommandList(ta, x, y, layout, effect, commandList);
 	}
 
-	public final void renderFigure(Figure figure, int x, int y, FigureLayout layout, Effect3D effect) throws IllegalStateException {
+	public final synchronized void renderFigure(Figure figure, int x, int y, FigureLayout layout, Effect3D effect) throws IllegalStateException {
 		checkTargetIsValid();
 		if (figure == null || layout == null || effect == null) {
 			throw new NullPointerException();
 		}
+		renderer.setLayout(layout, x, y);
+		renderer.setEffect(effect);
+		renderer.drawFigure(figure);
 	}
 
-	public final void drawFigure(Figure figure, int x, int y, FigureLayout layout, Effect3D effect) throws IllegalStateException {
-		checkTargetIsValid();
-		if (figure == null || layout == null || effect == null) {
-			throw new NullPointerException();
-		}
+	public final synchronized void drawFigure(Figure figure, int x, int y, FigureLayout layout, Effect3D effect) throws IllegalStateException {
+		renderFigure(figure, x, y, layout, effect);
+		flush();
 	}
 
-	public final void flush() throws IllegalStateException {
+	public final synchronized void flush() throws IllegalStateException {
 		checkTargetIsValid();
+		if (renderer.isEmpty()) {
+			return;
+		}
+		if (!drawing) {
+			renderer.clear();
+			return;
+		}
+		// Whatever was drawn in 2D so far goes below the 3D rendering
+		mGraphics.flush();
+		glTarget.begin(true);
+		try {
+			glTarget.mapRect(clipX, clipY, clipWidth, clipHeight, mapped);
+			renderer.flush(Math.round(mapped.x), Math.round(mapped.y),
+					Math.round(mapped.width), Math.round(mapped.height));
+		} finally {
+			glTarget.end();
+		}
 	}
 
 	public final void dispose() {
+		if (Gdx.app != null) {
+			Gdx.app.postRunnable(this::disposeGL);
+		}
+	}
+
+	/**
+	 * Queue the primitives of a command list, whose data follows the command.
+	 *
+	 * @return index of the next command
+	 */
+	private int drawListPrimitives(Texture texture, int x, int y, FigureLayout layout, Effect3D effect,
+								   int command, int[] list, int offset) {
+		int type = command & 0x07000000;
+		int count = (command >> 16) & 0xFF;
+		int corners = type == PRIMITVE_LINES ? 2 : type == PRIMITVE_TRIANGLES ? 3 : type == PRIMITVE_QUADS ? 4 : 1;
+		int vertices = count * corners;
+		int normalCount = (command & PDATA_NORMAL_PER_VERTEX) == PDATA_NORMAL_PER_VERTEX ? vertices
+				: (command & PDATA_NORMAL_PER_VERTEX) == PDATA_NORMAL_PER_FACE ? count : 0;
+		int textureCount;
+		if (type == PRIMITVE_POINT_SPRITES) {
+			int params = command & PDATA_POINT_SPRITE_PARAMS_PER_VERTEX;
+			textureCount = (params == PDATA_POINT_SPRITE_PARAMS_PER_CMD ? 1
+					: params == PDATA_POINT_SPRITE_PARAMS_PER_FACE ? count
+					: params == PDATA_POINT_SPRITE_PARAMS_PER_VERTEX ? vertices : 0) * 8;
+		} else {
+			textureCount = (command & PDATA_TEXURE_COORD) != 0 ? vertices * 2 : 0;
+		}
+		int colorMode = command & (PDATA_COLOR_PER_COMMAND | PDATA_COLOR_PER_FACE);
+		int colorCount = colorMode == PDATA_COLOR_PER_FACE ? count : colorMode == PDATA_COLOR_PER_COMMAND ? 1 : 0;
+
+		int[] vertexCoords = copy(list, offset, vertices * 3);
+		offset += vertices * 3;
+		int[] normals = copy(list, offset, normalCount * 3);
+		offset += normalCount * 3;
+		int[] textureCoords = copy(list, offset, textureCount);
+		offset += textureCount;
+		int[] colors = copy(list, offset, colorCount);
+		offset += colorCount;
+		if (count > 0) {
+			renderPrimitives(texture, x, y, layout, effect, command & 0x0700FFFF, count,
+					vertexCoords, normals, textureCoords, colors);
+		}
+		return offset;
+	}
+
+	private static int[] copy(int[] list, int offset, int length) {
+		int[] data = new int[length];
+		System.arraycopy(list, offset, data, 0, length);
+		return data;
+	}
+
+	private void disposeGL() {
+		renderer.dispose();
+		glTarget.dispose();
 	}
 }
@@ -0,0 +1,580 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mascotcapsule.micro3d.v3;
+
+import com.badlogic.gdx.Gdx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import javax.microedition.util.ContextHolder;
+
+/**
+ * Decoder of the MBAC figures, MTRA action tables and BMP textures.
+ * Multi-byte values are little endian, the packed sections of the newer
+ * formats are bit streams read from the least significant bit up.
+ */
+final class Loader {
+	private static final String TAG = Loader.class.getName();
+	private static final int[] VERTEX_BITS = {8, 10, 13, 16};
+	// Quads are strips, (a, b, c) and then (c, b, d)
+	private static final int[] QUAD_SECOND_TRIANGLE = {2, 1, 3};
+
+	private final byte[] data;
+	private int position;
+	private int bits;
+	private int bitCount;
+
+	private Loader(byte[] data) {
+		this.data = data;
+	}
+
+	static byte[] readResource(String name) throws IOException {
+		InputStream is = ContextHolder.getResourceAsStream(null, name);
+		if (is == null) {
+			throw new IOException("Resource not found: " + name);
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(is.available(), 1024));
+			byte[] buffer = new byte[4096];
+			int length;
+			while ((length = is.read(buffer)) != -1) {
+				out.write(buffer, 0, length);
+			}
+			return out.toByteArray();
+		} finally {
+			is.close();
+		}
+	}
+
+	static Model loadModel(byte[] data) throws IOException {
+		Loader in = new Loader(data);
+		if (in.readUByte() != 'M' || in.readUByte() != 'B') {
+			throw new IOException("Not a MBAC file");
+		}
+		int version = in.readUByte();
+		if (in.readUByte() != 0 || version < 2 || version > 5) {
+			throw new IOException("Unsupported MBAC version " + version);
+		}
+		int vertexFormat = 1;
+		int normalFormat = 0;
+		int polygonFormat = 1;
+		int boneFormat = 1;
+		if (version >= 4) {
+			vertexFormat = in.readUByte();
+			normalFormat = in.readUByte();
+			polygonFormat = in.readUByte();
+			boneFormat = in.readUByte();
+		}
+		Model model = new Model();
+		model.numVertices = in.readUShort();
+		int numPolyT3 = in.readUShort();
+		int numPolyT4 = in.readUShort();
+		model.numBones = in.readUShort();
+		int numPolyF3 = 0;
+		int numPolyF4 = 0;
+		int numColors = 0;
+		model.numTextures = 1;
+		model.numPatterns = 1;
+		if (polygonFormat >= 3) {
+			numPolyF3 = in.readUShort();
+			numPolyF4 = in.readUShort();
+			model.numTextures = in.readUShort();
+			model.numPatterns = in.readUShort();
+			numColors = in.readUShort();
+		}
+
+		// Textured polygons come grouped by pattern, then by texture
+		int[] groupMasks = new int[model.numPatterns];
+		int[] groupT3 = new int[model.numPatterns * model.numTextures];
+		int[] groupT4 = new int[groupT3.length];
+		if (polygonFormat >= 3) {
+			for (int p = 0; p < model.numPatterns; p++) {
+				groupMasks[p] = in.readInt();
+				for (int t = 0; t < model.numTextures; t++) {
+					groupT3[p * model.numTextures + t] = in.readUShort();
+					groupT4[p * model.numTextures + t] = in.readUShort();
+				}
+			}
+		} else {
+			groupT3[0] = numPolyT3;
+			groupT4[0] = numPolyT4;
+		}
+
+		in.readVertices(model, vertexFormat);
+		in.readNormals(model, normalFormat);
+
+		int numTriangles = numPolyF3 + numPolyT3 + 2 * (numPolyF4 + numPolyT4);
+		model.indices = new int[numTriangles * 3];
+		model.texCoords = new int[numTriangles * 6];
+		model.materials = new int[numTriangles];
+		model.colors = new int[numTriangles];
+		model.patterns = new int[numTriangles];
+		if (polygonFormat >= 3) {
+			in.readPackedPolygons(model, numPolyF3, numPolyF4, numColors, numPolyT3, numPolyT4,
+					groupMasks, groupT3, groupT4);
+		} else {
+			in.readPolygons(model, numPolyT3, numPolyT4);
+		}
+		in.readBones(model, boneFormat);
+		sortByMaterial(model);
+		return model;
+	}
+
+	static Action[] loadActions(byte[] data) throws IOException {
+		Loader in = new Loader(data);
+		if (in.readUByte() != 'M' || in.readUByte() != 'T') {
+			throw new IOException("Not a MTRA file");
+		}
+		int version = in.readUByte();
+		if (in.readUByte() != 0 || version < 2 || version > 5) {
+			throw new IOException("Unsupported MTRA version " + version);
+		}
+		int numActions = in.readUShort();
+		int numBones = in.readUShort();
+		Action[] actions = new Action[numActions];
+		for (int i = 0; i < numActions; i++) {
+			Action action = new Action(in.readUShort(), numBones);
+			for (int bone = 0; bone < numBones; bone++) {
+				int type = in.readUByte();
+				switch (type) {
+					case 0:
+						for (int channel = Action.TRANSLATION; channel <= Action.ROLL; channel++) {
+							action.setKeys(bone, channel, in.readKeys(Action.getChannelSize(channel)));
+						}
+						break;
+					case 1:
+						// Identity
+						break;
+					case 2:
+						action.setKeys(bone, Action.TRANSLATION, in.readValue(3));
+						action.setKeys(bone, Action.ROTATION, in.readValue(3));
+						break;
+					case 3:
+						action.setKeys(bone, Action.ROTATION, in.readValue(3));
+						break;
+					case 4:
+						action.setKeys(bone, Action.ROTATION, in.readValue(3));
+						action.setKeys(bone, Action.ROLL, in.readValue(1));
+						break;
+					default:
+						throw new IOException("Unknown bone transform type " + type);
+				}
+			}
+			if (version >= 5) {
+				// Pattern changes along the action, not supported
+				int count = in.readUShort();
+				if (count > 0 && Gdx.app != null) {
+					Gdx.app.log(TAG, "Ignoring " + count + " pattern keys of action " + i);
+				}
+				in.skip(count * 6);
+			}
+			actions[i] = action;
+		}
+		return actions;
+	}
+
+	/**
+	 * Decode an 8 bit palette BMP. Pixels of palette index 0 get a zero
+	 * alpha, for the polygons drawn with a color key.
+	 */
+	static void loadBitmap(Texture texture, byte[] data) throws IOException {
+		Loader in = new Loader(data);
+		if (in.readUByte() != 'B' || in.readUByte() != 'M') {
+			throw new IOException("Not a BMP file");
+		}
+		in.skip(8);
+		int pixelOffset = in.readInt();
+		int headerSize = in.readInt();
+		int width;
+		int height;
+		int bpp;
+		int compression = 0;
+		int paletteSize = 0;
+		int paletteEntry;
+		if (headerSize == 12) {
+			width = in.readUShort();
+			height = (short) in.readUShort();
+			in.skip(2);
+			bpp = in.readUShort();
+			paletteEntry = 3;
+		} else {
+			width = in.readInt();
+			height = in.readInt();
+			in.skip(2);
+			bpp = in.readUShort();
+			compression = in.readInt();
+			in.skip(12);
+			paletteSize = in.readInt();
+			paletteEntry = 4;
+		}
+		if (bpp != 8 || compression != 0 || width <= 0 || height == 0) {
+			throw new IOException("Unsupported BMP format");
+		}
+		if (paletteSize <= 0 || paletteSize > 256) {
+			paletteSize = 256;
+		}
+		in.position = 14 + headerSize;
+		int[] palette = new int[256];
+		for (int i = 0; i < paletteSize && in.position + paletteEntry <= data.length; i++) {
+			int b = in.readUByte();
+			int g = in.readUByte();
+			int r = in.readUByte();
+			in.skip(paletteEntry - 3);
+			palette[i] = (i == 0 ? 0 : 0xFF000000) | r << 16 | g << 8 | b;
+		}
+
+		boolean bottomUp = height > 0;
+		height = Math.abs(height);
+		int stride = (width + 3) & ~3;
+		if (pixelOffset < 0 || (long) pixelOffset + (long) stride * (height - 1) + width > data.length) {
+			throw new IOException("Truncated BMP file");
+		}
+		int[] pixels = new int[width * height];
+		for (int row = 0; row < height; row++) {
+			int src = pixelOffset + (bottomUp ? height - 1 - row : row) * stride;
+			int dst = row * width;
+			for (int col = 0; col < width; col++) {
+				pixels[dst + col] = palette[data[src + col] & 0xFF];
+			}
+		}
+		texture.width = width;
+		texture.height = height;
+		texture.pixels = pixels;
+	}
+
+	//------------------------------------------------------------------
+	// MBAC sections
+	//------------------------------------------------------------------
+
+	private void readVertices(Model model, int format) throws IOException {
+		int count = model.numVertices;
+		int[] vertices = new int[count * 3];
+		if (format == 1) {
+			for (int i = 0; i < count * 3; i++) {
+				vertices[i] = readShort();
+			}
+		} else if (format == 2) {
+			int i = 0;
+			while (i < count) {
+				int header = readBits(8);
+				int run = (header & 0x3F) + 1;
+				int size = VERTEX_BITS[header >> 6];
+				for (int j = 0; j < run && i < count; j++, i++) {
+					vertices[i * 3] = readSignedBits(size);
+					vertices[i * 3 + 1] = readSignedBits(size);
+					vertices[i * 3 + 2] = readSignedBits(size);
+				}
+			}
+			alignToByte();
+		} else {
+			throw new IOException("Unknown vertex format " + format);
+		}
+		model.vertices = vertices;
+	}
+
+	private void readNormals(Model model, int format) throws IOException {
+		if (format == 0) {
+			return;
+		}
+		int count = model.numVertices;
+		int[] normals = new int[count * 3];
+		if (format == 1) {
+			for (int i = 0; i < count * 3; i++) {
+				normals[i] = readShort();
+			}
+		} else if (format == 2) {
+			for (int i = 0; i < count; i++) {
+				int x = readBits(7);
+				if (x == 64) {
+					// One of the six axis directions
+					int direction = readBits(3);
+					int axis = direction >> 1;
+					if (axis > 2) {
+						throw new IOException("Invalid normal");
+					}
+					normals[i * 3 + axis] = (direction & 1) == 0 ? 4096 : -4096;
+					continue;
+				}
+				x = (x << 25 >> 25) * 64;
+				int y = readSignedBits(7) * 64;
+				int z = Util3D.sqrt(Math.max(4096 * 4096 - x * x - y * y, 0));
+				if (readBits(1) != 0) {
+					z = -z;
+				}
+				normals[i * 3] = x;
+				normals[i * 3 + 1] = y;
+				normals[i * 3 + 2] = z;
+			}
+			alignToByte();
+		} else {
+			throw new IOException("Unknown normal format " + format);
+		}
+		model.normals = normals;
+	}
+
+	/**
+	 * Polygons of the older formats, one texture and no colored polygons
+	 */
+	private void readPolygons(Model model, int numT3, int numT4) throws IOException {
+		int[] corners = new int[4];
+		int[] uvs = new int[8];
+		for (int i = 0; i < numT3 + numT4; i++) {
+			int count = i < numT3 ? 3 : 4;
+			int attributes = readUShort();
+			for (int c = 0; c < count; c++) {
+				corners[c] = readUShort();
+			}
+			for (int c = 0; c < count * 2; c++) {
+				uvs[c] = readUByte();
+			}
+			addPolygon(model, count, corners, uvs, attributes & Model.ATTR_MASK, 0, 0, 0);
+		}
+	}
+
+	private void readPackedPolygons(Model model, int numF3, int numF4, int numColors, int numT3, int numT4,
+									int[] groupMasks, int[] groupT3, int[] groupT4) throws IOException {
+		int[] corners = new int[4];
+		int[] uvs = new int[8];
+		if (numF3 + numF4 > 0) {
+			int attributeBits = readBits(8);
+			int indexBits = readBits(8);
+			int colorBits = readBits(8);
+			int colorIndexBits = readBits(8);
+			readBits(8);
+			int[] colors = new int[numColors];
+			int colorMax = (1 << colorBits) - 1;
+			for (int i = 0; i < numColors; i++) {
+				int r = readBits(colorBits) * 255 / colorMax;
+				int g = readBits(colorBits) * 255 / colorMax;
+				int b = readBits(colorBits) * 255 / colorMax;
+				colors[i] = r << 16 | g << 8 | b;
+			}
+			for (int i = 0; i < numF3 + numF4; i++) {
+				int count = i < numF3 ? 3 : 4;
+				int attributes = readBits(attributeBits);
+				for (int c = 0; c < count; c++) {
+					corners[c] = readBits(indexBits);
+				}
+				int color = readBits(colorIndexBits);
+				if (color >= numColors) {
+					throw new IOException("Invalid polygon color");
+				}
+				addPolygon(model, count, corners, uvs, attributes & Model.ATTR_MASK, -1, colors[color], 0);
+			}
+		}
+		if (numT3 + numT4 > 0) {
+			int attributeBits = readBits(8);
+			int indexBits = readBits(8);
+			int uvBits = readBits(8);
+			readBits(8);
+			int group = 0;
+			int groupLeft = 0;
+			for (int i = 0; i < numT3 + numT4; i++) {
+				int count = i < numT3 ? 3 : 4;
+				if (i == numT3) {
+					group = 0;
+					groupLeft = 0;
+				}
+				int[] groupSizes = count == 3 ? groupT3 : groupT4;
+				while (groupLeft == 0 && group < groupSizes.length) {
+					groupLeft = groupSizes[group++];
+				}
+				groupLeft--;
+				int texture = Math.max(group - 1, 0) % model.numTextures;
+				int pattern = groupMasks[Math.max(group - 1, 0) / model.numTextures];
+				int attributes = readBits(attributeBits);
+				for (int c = 0; c < count; c++) {
+					corners[c] = readBits(indexBits);
+				}
+				for (int c = 0; c < count * 2; c++) {
+					uvs[c] = readBits(uvBits);
+				}
+				addPolygon(model, count, corners, uvs, attributes & Model.ATTR_MASK, texture, 0, pattern);
+			}
+		}
+		alignToByte();
+	}
+
+	/**
+	 * Add a triangle, or a quad as the two triangles of a strip
+	 *
+	 * @param texture texture index, -1 for a colored polygon
+	 */
+	private static void addPolygon(Model model, int count, int[] corners, int[] uvs,
+								   int attributes, int texture, int color, int pattern) throws IOException {
+		for (int c = 0; c < count; c++) {
+			if (corners[c] >= model.numVertices) {
+				throw new IOException("Invalid vertex index");
+			}
+		}
+		int material = attributes | (texture + 1) << Model.MATERIAL_TEXTURE_SHIFT;
+		for (int t = 0; t < count - 2; t++) {
+			int n = model.numTriangles++;
+			for (int c = 0; c < 3; c++) {
+				int corner = t == 0 ? c : QUAD_SECOND_TRIANGLE[c];
+				model.indices[n * 3 + c] = corners[corner];
+				model.texCoords[n * 6 + c * 2] = uvs[corner * 2];
+				model.texCoords[n * 6 + c * 2 + 1] = uvs[corner * 2 + 1];
+			}
+			model.materials[n] = material;
+			model.colors[n] = color;
+			model.patterns[n] = pattern;
+		}
+	}
+
+	private void readBones(Model model, int format) throws IOException {
+		if (format != 1) {
+			throw new IOException("Unknown bone format " + format);
+		}
+		int count = model.numBones;
+		model.boneMatrices = new int[count * 12];
+		model.boneParents = new int[count];
+		model.boneFirstVertex = new int[count];
+		model.boneVertexCount = new int[count];
+		int vertex = 0;
+		for (int i = 0; i < count; i++) {
+			int vertices = readUShort();
+			int parent = readShort();
+			if (parent >= i || vertex + vertices > model.numVertices) {
+				throw new IOException("Invalid bone " + i);
+			}
+			model.boneFirstVertex[i] = vertex;
+			model.boneVertexCount[i] = vertices;
+			model.boneParents[i] = parent;
+			for (int j = 0; j < 12; j++) {
+				model.boneMatrices[i * 12 + j] = readShort();
+			}
+			vertex += vertices;
+		}
+	}
+
+	/**
+	 * Stable sort of the triangles by material
+	 */
+	private static void sortByMaterial(Model model) {
+		int count = model.numTriangles;
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		int[] materials = model.materials;
+		Arrays.sort(order, (a, b) -> Integer.compare(materials[a], materials[b]));
+		int[] indices = new int[count * 3];
+		int[] texCoords = new int[count * 6];
+		int[] sortedMaterials = new int[count];
+		int[] colors = new int[count];
+		int[] patterns = new int[count];
+		for (int i = 0; i < count; i++) {
+			int src = order[i];
+			System.arraycopy(model.indices, src * 3, indices, i * 3, 3);
+			System.arraycopy(model.texCoords, src * 6, texCoords, i * 6, 6);
+			sortedMaterials[i] = materials[src];
+			colors[i] = model.colors[src];
+			patterns[i] = model.patterns[src];
+		}
+		model.indices = indices;
+		model.texCoords = texCoords;
+		model.materials = sortedMaterials;
+		model.colors = colors;
+		model.patterns = patterns;
+	}
+
+	//------------------------------------------------------------------
+	// MTRA keys
+	//------------------------------------------------------------------
+
+	/**
+	 * Read a key count followed by the keys, each a frame number and size values
+	 */
+	private int[] readKeys(int size) throws IOException {
+		int count = readUShort();
+		int[] keys = new int[count * (size + 1)];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = i % (size + 1) == 0 ? readUShort() : readShort();
+		}
+		return keys;
+	}
+
+	/**
+	 * Read a constant value as a single key
+	 */
+	private int[] readValue(int size) throws IOException {
+		int[] keys = new int[size + 1];
+		for (int i = 1; i <= size; i++) {
+			keys[i] = readShort();
+		}
+		return keys;
+	}
+
+	//------------------------------------------------------------------
+	// Primitive readers
+	//------------------------------------------------------------------
+
+	private int readUByte() throws IOException {
+		if (position >= data.length) {
+			throw new IOException("Unexpected end of data");
+		}
+		return data[position++] & 0xFF;
+	}
+
+	private int readUShort() throws IOException {
+		return readUByte() | readUByte() << 8;
+	}
+
+	private int readShort() throws IOException {
+		return (short) readUShort();
+	}
+
+	private int readInt() throws IOException {
+		return readUShort() | readUShort() << 16;
+	}
+
+	private void skip(int count) throws IOException {
+		if (count < 0 || position + count > data.length) {
+			throw new IOException("Unexpected end of data");
+		}
+		position += count;
+	}
+
+	private int readBits(int count) throws IOException {
+		if (count == 0) {
+			return 0;
+		}
+		while (bitCount < count) {
+			bits |= readUByte() << bitCount;
+			bitCount += 8;
+		}
+		int value = bits & ((1 << count) - 1);
+		bits >>>= count;
+		bitCount -= count;
+		return value;
+	}
+
+	private int readSignedBits(int count) throws IOException {
+		int shift = 32 - count;
+		return readBits(count) << shift >> shift;
+	}
+
+	/**
+	 * Drop the bits left of the current byte, before reading whole bytes again
+	 */
+	private void alignToByte() {
+		bits = 0;
+		bitCount = 0;
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mascotcapsule.micro3d.v3;
+
+/**
+ * Geometry of a figure as decoded from an MBAC file, in packed arrays.
+ * Quads are split into triangles and the triangles are grouped by material,
+ * so that a figure is drawn with as few state changes as possible.
+ */
+final class Model {
+	// Polygon attributes, as stored in MBAC files
+	static final int ATTR_COLOR_KEY = 1;
+	static final int ATTR_BLEND_MASK = 6;
+	static final int ATTR_BLEND_HALF = 2;
+	static final int ATTR_BLEND_ADD = 4;
+	static final int ATTR_BLEND_SUB = 6;
+	static final int ATTR_DOUBLE_FACE = 16;
+	static final int ATTR_LIGHTING = 32;
+	static final int ATTR_SPECULAR = 64;
+	static final int ATTR_MASK = 0xFF;
+
+	// A material is the attributes and the texture index + 1, 0 for colored triangles
+	static final int MATERIAL_TEXTURE_SHIFT = 8;
+
+	int numVertices;
+	// x, y, z in the space of the bone they belong to
+	int[] vertices;
+	// x, y, z with a length of 4096, null if the file has no normals
+	int[] normals;
+
+	int numBones;
+	// 3x4 fixed point matrices, relative to the parent bone
+	int[] boneMatrices;
+	// Parent of each bone, -1 for the roots
+	int[] boneParents;
+	// Each bone owns a contiguous range of vertices
+	int[] boneFirstVertex;
+	int[] boneVertexCount;
+
+	int numPatterns;
+	int numTextures;
+
+	int numTriangles;
+	// 3 vertex indices per triangle
+	int[] indices;
+	// u, v in texels for each corner of textured triangles
+	int[] texCoords;
+	int[] materials;
+	// RGB of colored triangles
+	int[] colors;
+	// Pattern bits a triangle belongs to, 0 if it is always drawn
+	int[] patterns;
+
+	static int getTexture(int material) {
+		return (material >>> MATERIAL_TEXTURE_SHIFT) - 1;
+	}
+}
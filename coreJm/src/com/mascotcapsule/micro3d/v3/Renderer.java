@@ -0,0 +1,691 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mascotcapsule.micro3d.v3;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.VertexAttribute;
+import com.badlogic.gdx.graphics.VertexAttributes;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.graphics.glutils.VertexBufferObject;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Batched renderer of figures and primitives.
+ * <p>
+ * Vertices are moved, projected and lit on the CPU in the order micro3d does it,
+ * and appended to one vertex array. Consecutive draws sharing textures and
+ * blending are merged, so that a flush is a handful of GL draw calls: opaque
+ * batches first with the depth buffer, then the blended ones in submission order.
+ * <p>
+ * Drawing methods may be called from any thread, flush and dispose only on the GL thread.
+ */
+final class Renderer {
+	//------------------------------------------------------------------
+	// Static data
+	//------------------------------------------------------------------
+
+	// Blending of a batch
+	static final int BLEND_NONE = 0;
+	static final int BLEND_HALF = 1;
+	static final int BLEND_ADD = 2;
+	static final int BLEND_SUB = 3;
+
+	// Clip position, color, texture coordinates and sphere map coordinates
+	private static final int VERTEX_SIZE = 12;
+
+	private static final String VERTEX_SHADER = ""
+			+ "attribute vec4 a_position;\n"
+			+ "attribute vec4 a_color;\n"
+			+ "attribute vec2 a_texCoord0;\n"
+			+ "attribute vec2 a_texCoord1;\n"
+			+ "varying vec4 v_color;\n"
+			+ "varying vec2 v_texCoord;\n"
+			+ "varying vec2 v_sphereCoord;\n"
+			+ "void main() {\n"
+			+ "  v_color = a_color;\n"
+			+ "  v_texCoord = a_texCoord0;\n"
+			+ "  v_sphereCoord = a_texCoord1;\n"
+			+ "  gl_PointSize = 1.0;\n"
+			+ "  gl_Position = a_position;\n"
+			+ "}\n";
+
+	private static final String FRAGMENT_SHADER = ""
+			+ "#ifdef GL_ES\n"
+			+ "precision mediump float;\n"
+			+ "#endif\n"
+			+ "uniform sampler2D u_texture;\n"
+			+ "uniform sampler2D u_sphereMap;\n"
+			+ "uniform int u_textured;\n"
+			+ "uniform int u_colorKey;\n"
+			+ "uniform int u_sphere;\n"
+			+ "uniform float u_alpha;\n"
+			+ "varying vec4 v_color;\n"
+			+ "varying vec2 v_texCoord;\n"
+			+ "varying vec2 v_sphereCoord;\n"
+			+ "void main() {\n"
+			+ "  vec3 color = v_color.rgb;\n"
+			+ "  if (u_textured != 0) {\n"
+			+ "    vec4 texel = texture2D(u_texture, v_texCoord);\n"
+			+ "    if (u_colorKey != 0 && texel.a < 0.5) discard;\n"
+			+ "    color *= texel.rgb;\n"
+			+ "  }\n"
+			+ "  if (u_sphere != 0) {\n"
+			+ "    color += texture2D(u_sphereMap, v_sphereCoord).rgb;\n"
+			+ "  }\n"
+			+ "  gl_FragColor = vec4(min(color, 1.0), u_alpha);\n"
+			+ "}\n";
+
+	private static final VertexAttributes ATTRIBUTES = new VertexAttributes(
+			new VertexAttribute(VertexAttributes.Usage.Position, 4, ShaderProgram.POSITION_ATTRIBUTE),
+			VertexAttribute.ColorUnpacked(),
+			VertexAttribute.TexCoords(0),
+			VertexAttribute.TexCoords(1));
+
+	//------------------------------------------------------------------
+	// Instance data
+	//------------------------------------------------------------------
+
+	// Target rectangle, in the coordinates of the bound Graphics
+	private int targetX, targetY, targetWidth = 1, targetHeight = 1;
+
+	// Layout of the current draw: the affine transform and the projection
+	private final int[] affine = new int[12];
+	private boolean perspective;
+	private float centerX, centerY;
+	private float focalX, focalY;
+	private float near, far;
+
+	// Effect of the current draw
+	private boolean lighting;
+	private float ambient;
+	private float directional;
+	private float lightX, lightY, lightZ;
+	private boolean toon;
+	private float toonThreshold, toonHigh, toonLow;
+	private boolean semiTransparent;
+	private Texture sphereMap;
+
+	// Per vertex results of the current draw
+	private float[] clip = new float[256 * 4];
+	private float[] shade = new float[256];
+	private float[] sphereCoords = new float[256 * 2];
+
+	// Clip rectangle of the next batches, relative to the target
+	private int clipLeft, clipTop, clipRight, clipBottom;
+
+	private float[] vertexData = new float[VERTEX_SIZE * 1024];
+	private int vertexCount;
+	private final ArrayList<Batch> batches = new ArrayList<>();
+	private final ArrayList<Batch> pool = new ArrayList<>();
+	private Batch current;
+
+	// GL side, created by the first flush
+	private ShaderProgram program;
+	private VertexBufferObject vbo;
+	private int vboCapacity;
+
+	//------------------------------------------------------------------
+	// Package private methods
+	//------------------------------------------------------------------
+
+	/**
+	 * Set the rectangle drawn to, in the coordinates of the bound Graphics.
+	 */
+	void setTarget(int x, int y, int width, int height) {
+		targetX = x;
+		targetY = y;
+		targetWidth = Math.max(width, 1);
+		targetHeight = Math.max(height, 1);
+		resetClip();
+	}
+
+	void resetClip() {
+		setClip(targetX, targetY, targetX + targetWidth, targetY + targetHeight);
+	}
+
+	/**
+	 * Limit the next draws to a rectangle, in the coordinates of the bound Graphics.
+	 */
+	void setClip(int left, int top, int right, int bottom) {
+		clipLeft = Math.max(left - targetX, 0);
+		clipTop = Math.max(top - targetY, 0);
+		clipRight = Math.min(right - targetX, targetWidth);
+		clipBottom = Math.min(bottom - targetY, targetHeight);
+	}
+
+	void setLayout(FigureLayout layout, int x, int y) {
+		layout.getAffineTrans().get(affine);
+		centerX = layout.getCenterX() + x - targetX;
+		centerY = layout.getCenterY() + y - targetY;
+		switch (layout.getProjection()) {
+			case FigureLayout.PARALLEL_SIZE:
+				perspective = false;
+				focalX = layout.getParallelWidth() != 0 ? targetWidth / (float) layout.getParallelWidth() : 1;
+				focalY = layout.getParallelHeight() != 0 ? targetHeight / (float) layout.getParallelHeight() : 1;
+				break;
+			case FigureLayout.PERSPECTIVE_FOV:
+				perspective = true;
+				near = layout.getPerspectiveNear();
+				far = layout.getPerspectiveFar();
+				focalX = focalY = (float) (targetWidth / 2.0 / Math.tan(layout.getPerspectiveAngle() * Math.PI / 4096));
+				break;
+			case FigureLayout.PERSPECTIVE_WH:
+				perspective = true;
+				near = layout.getPerspectiveNear();
+				far = layout.getPerspectiveFar();
+				int width = layout.getPerspectiveWidth();
+				int height = layout.getPerspectiveHeight();
+				focalX = near * targetWidth / (width != 0 ? width : targetWidth);
+				focalY = near * targetHeight / (height != 0 ? height : targetHeight);
+				break;
+			default:
+				perspective = false;
+				focalX = layout.getScaleX() / 4096.0f;
+				focalY = layout.getScaleY() / 4096.0f;
+				break;
+		}
+	}
+
+	void setEffect(Effect3D effect) {
+		Light light = effect.getLight();
+		lighting = light != null;
+		if (lighting) {
+			ambient = light.getAmbientIntensity() / 4096.0f;
+			directional = light.getParallelLightIntensity() / 4096.0f;
+			Vector3D direction = light.getParallelLightDirection();
+			float length = (float) Math.sqrt((float) direction.x * direction.x
+					+ (float) direction.y * direction.y + (float) direction.z * direction.z);
+			if (length == 0) {
+				length = 1;
+			}
+			// Toward the light
+			lightX = -direction.x / length;
+			lightY = -direction.y / length;
+			lightZ = -direction.z / length;
+		}
+		toon = effect.getShadingType() == Effect3D.TOON_SHADING;
+		toonThreshold = effect.getToonThreshold() / 255.0f;
+		toonHigh = effect.getToonHigh() / 255.0f;
+		toonLow = effect.getToonLow() / 255.0f;
+		semiTransparent = effect.isTransparency();
+		sphereMap = effect.getSphereTexture();
+	}
+
+	void drawFigure(Figure figure) {
+		Model model = figure.model;
+		transform(figure.vertices, figure.normals, model.numVertices);
+		int pattern = figure.getPattern();
+		int[] indices = model.indices;
+		int[] texCoords = model.texCoords;
+		int[] materials = model.materials;
+		for (int t = 0; t < model.numTriangles; t++) {
+			int mask = model.patterns[t];
+			if (mask != 0 && (mask & pattern) == 0) {
+				continue;
+			}
+			int material = materials[t];
+			int attributes = material & Model.ATTR_MASK;
+			int textureIndex = Model.getTexture(material);
+			Texture texture = textureIndex >= 0 ? figure.getTexture(textureIndex) : null;
+			boolean lit = (attributes & Model.ATTR_LIGHTING) != 0 && figure.normals != null;
+			boolean sphere = (attributes & Model.ATTR_SPECULAR) != 0 && figure.normals != null;
+			begin(GL20.GL_TRIANGLES, texture, sphere ? sphereMap : null,
+					(attributes & Model.ATTR_BLEND_MASK) >> 1, (attributes & Model.ATTR_COLOR_KEY) != 0);
+			int color = texture != null ? 0xFFFFFF : model.colors[t];
+			for (int c = 0; c < 3; c++) {
+				int vertex = indices[t * 3 + c];
+				addVertex(vertex, color, lit, texture, texCoords[t * 6 + c * 2], texCoords[t * 6 + c * 2 + 1]);
+			}
+		}
+	}
+
+	/**
+	 * @see Graphics3D#renderPrimitives
+	 */
+	void drawPrimitives(Texture texture, int command, int numPrimitives,
+						int[] vertexCoords, int[] normals, int[] textureCoords, int[] colors) {
+		int type = command & 0x07000000;
+		int corners;
+		switch (type) {
+			case Graphics3D.PRIMITVE_POINTS:
+			case Graphics3D.PRIMITVE_POINT_SPRITES:
+				corners = 1;
+				break;
+			case Graphics3D.PRIMITVE_LINES:
+				corners = 2;
+				break;
+			case Graphics3D.PRIMITVE_TRIANGLES:
+				corners = 3;
+				break;
+			case Graphics3D.PRIMITVE_QUADS:
+				corners = 4;
+				break;
+			default:
+				throw new IllegalArgumentException();
+		}
+		int vertices = numPrimitives * corners;
+		int normalMode = command & Graphics3D.PDATA_NORMAL_PER_VERTEX;
+		int colorMode = command & (Graphics3D.PDATA_COLOR_PER_COMMAND | Graphics3D.PDATA_COLOR_PER_FACE);
+		int textureMode = command & Graphics3D.PDATA_TEXURE_COORD;
+		boolean sprites = type == Graphics3D.PRIMITVE_POINT_SPRITES;
+		int normalCount = normalMode == Graphics3D.PDATA_NORMAL_PER_VERTEX ? vertices
+				: normalMode == Graphics3D.PDATA_NORMAL_PER_FACE ? numPrimitives : 0;
+		int colorCount = colorMode == Graphics3D.PDATA_COLOR_PER_FACE ? numPrimitives
+				: colorMode == Graphics3D.PDATA_COLOR_PER_COMMAND ? 1 : 0;
+		int spriteCount = textureMode == Graphics3D.PDATA_POINT_SPRITE_PARAMS_PER_VERTEX ? vertices
+				: textureMode == Graphics3D.PDATA_POINT_SPRITE_PARAMS_PER_FACE ? numPrimitives
+				: textureMode == Graphics3D.PDATA_POINT_SPRITE_PARAMS_PER_CMD ? 1 : 0;
+		if (vertexCoords.length < vertices * 3
+				|| normals.length < normalCount * 3
+				|| colors.length < colorCount
+				|| (sprites ? textureCoords.length < spriteCount * 8
+				: textureMode != 0 && textureCoords.length < vertices * 2)) {
+			throw new IllegalArgumentException();
+		}
+
+		// Normals are spread to the vertices, the lighting is done per vertex
+		int[] vertexNormals = null;
+		if (normalCount > 0) {
+			vertexNormals = new int[vertices * 3];
+			for (int v = 0; v < vertices; v++) {
+				int n = normalCount == vertices ? v : v / corners;
+				System.arraycopy(normals, n * 3, vertexNormals, v * 3, 3);
+			}
+		}
+		transform(vertexCoords, vertexNormals, vertices);
+
+		boolean lit = (command & Graphics3D.PATTR_LIGHTING) != 0 && vertexNormals != null;
+		boolean sphere = (command & Graphics3D.PATTR_SPHERE_MAP) != 0 && vertexNormals != null;
+		boolean textured = texture != null && (sprites ? spriteCount > 0 : textureMode != 0 && corners >= 3);
+		int blend = (command & Graphics3D.PATTR_BLEND_SUB) >> 5;
+		boolean colorKey = (command & Graphics3D.PATTR_COLORKEY) != 0;
+		int mode = corners == 1 && !sprites ? GL20.GL_POINTS : corners == 2 ? GL20.GL_LINES : GL20.GL_TRIANGLES;
+		begin(mode, textured ? texture : null, sphere ? sphereMap : null, blend, colorKey);
+		for (int p = 0; p < numPrimitives; p++) {
+			int color = colorCount == 0 ? 0xFFFFFF : colors[colorCount == 1 ? 0 : p];
+			int first = p * corners;
+			if (sprites) {
+				int params = spriteCount == 1 ? 0 : spriteCount == numPrimitives ? p : first;
+				addSprite(first, color, textured ? texture : null, textureCoords, params * 8);
+				continue;
+			}
+			if (corners == 4) {
+				// Quads are strips, (a, b, c) and then (c, b, d)
+				addPrimitiveVertex(first, color, lit, textured ? texture : null, textureCoords);
+				addPrimitiveVertex(first + 1, color, lit, textured ? texture : null, textureCoords);
+				addPrimitiveVertex(first + 2, color, lit, textured ? texture : null, textureCoords);
+				addPrimitiveVertex(first + 2, color, lit, textured ? texture : null, textureCoords);
+				addPrimitiveVertex(first + 1, color, lit, textured ? texture : null, textureCoords);
+				addPrimitiveVertex(first + 3, color, lit, textured ? texture : null, textureCoords);
+				continue;
+			}
+			for (int c = 0; c < corners; c++) {
+				addPrimitiveVertex(first + c, color, lit, textured ? texture : null, textureCoords);
+			}
+		}
+	}
+
+	boolean isEmpty() {
+		return batches.isEmpty();
+	}
+
+	/**
+	 * Drop the queued draws.
+	 */
+	void clear() {
+		for (Batch batch : batches) {
+			batch.texture = null;
+			batch.sphereMap = null;
+		}
+		pool.addAll(batches);
+		batches.clear();
+		current = null;
+		vertexCount = 0;
+	}
+
+	/**
+	 * Draw the queued batches into the rectangle of the framebuffer the target maps to.
+	 */
+	void flush(int x, int y, int width, int height) {
+		if (batches.isEmpty()) {
+			return;
+		}
+		if (program == null) {
+			program = new ShaderProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+			if (!program.isCompiled()) {
+				String log = program.getLog();
+				program.dispose();
+				program = null;
+				throw new IllegalStateException(log);
+			}
+		}
+		if (vbo == null || vboCapacity < vertexCount) {
+			if (vbo != null) {
+				vbo.dispose();
+			}
+			vboCapacity = Math.max(vertexCount, vertexData.length / VERTEX_SIZE);
+			vbo = new VertexBufferObject(false, vboCapacity, ATTRIBUTES);
+		}
+		vbo.setVertices(vertexData, 0, vertexCount * VERTEX_SIZE);
+
+		GL20 gl = Gdx.gl;
+		gl.glViewport(x, y, width, height);
+		gl.glEnable(GL20.GL_SCISSOR_TEST);
+		gl.glScissor(x, y, width, height);
+		gl.glDepthMask(true);
+		gl.glClearDepthf(1);
+		gl.glClear(GL20.GL_DEPTH_BUFFER_BIT);
+		gl.glEnable(GL20.GL_DEPTH_TEST);
+		gl.glDepthFunc(GL20.GL_LEQUAL);
+		gl.glDisable(GL20.GL_CULL_FACE);
+
+		program.begin();
+		program.setUniformi("u_texture", 0);
+		program.setUniformi("u_sphereMap", 1);
+		vbo.bind(program);
+		for (int pass = 0; pass < 2; pass++) {
+			for (Batch batch : batches) {
+				if ((batch.blend != BLEND_NONE) != (pass == 1)) {
+					continue;
+				}
+				float sx = width / (float) targetWidth;
+				float sy = height / (float) targetHeight;
+				gl.glScissor(x + Math.round(batch.clipLeft * sx),
+						y + Math.round((targetHeight - batch.clipBottom) * sy),
+						Math.round((batch.clipRight - batch.clipLeft) * sx),
+						Math.round((batch.clipBottom - batch.clipTop) * sy));
+				applyState(gl, batch);
+				gl.glDrawArrays(batch.mode, batch.first, batch.count);
+			}
+		}
+		vbo.unbind(program);
+		program.end();
+
+		gl.glDisable(GL20.GL_DEPTH_TEST);
+		gl.glDisable(GL20.GL_BLEND);
+		gl.glDisable(GL20.GL_SCISSOR_TEST);
+		gl.glBlendEquation(GL20.GL_FUNC_ADD);
+		gl.glDepthMask(true);
+		gl.glActiveTexture(GL20.GL_TEXTURE0);
+		clear();
+	}
+
+	void dispose() {
+		clear();
+		if (program != null) {
+			program.dispose();
+			program = null;
+		}
+		if (vbo != null) {
+			vbo.dispose();
+			vbo = null;
+		}
+	}
+
+	//------------------------------------------------------------------
+	// Private methods
+	//------------------------------------------------------------------
+
+	/**
+	 * Move, project and light the vertices of a draw.
+	 */
+	private void transform(int[] vertices, int[] normals, int count) {
+		if (shade.length < count) {
+			clip = new float[count * 4];
+			shade = new float[count];
+			sphereCoords = new float[count * 2];
+		}
+		int[] m = affine;
+		float ax = 2.0f / targetWidth;
+		float ay = 2.0f / targetHeight;
+		for (int i = 0; i < count; i++) {
+			int x = vertices[i * 3];
+			int y = vertices[i * 3 + 1];
+			int z = vertices[i * 3 + 2];
+			float vx = ((m[0] * x + m[1] * y + m[2] * z) >> 12) + m[3];
+			float vy = ((m[4] * x + m[5] * y + m[6] * z) >> 12) + m[7];
+			float vz = ((m[8] * x + m[9] * y + m[10] * z) >> 12) + m[11];
+			float w;
+			float cz;
+			if (perspective) {
+				w = vz;
+				cz = (vz * (far + near) - 2 * far * near) / (far - near);
+			} else {
+				w = 1;
+				cz = vz / 32768.0f;
+			}
+			// Screen position times w, then to clip space
+			float px = centerX * w + vx * focalX;
+			float py = centerY * w + vy * focalY;
+			clip[i * 4] = px * ax - w;
+			clip[i * 4 + 1] = w - py * ay;
+			clip[i * 4 + 2] = cz;
+			clip[i * 4 + 3] = w;
+
+			if (normals == null) {
+				shade[i] = 1;
+				continue;
+			}
+			x = normals[i * 3];
+			y = normals[i * 3 + 1];
+			z = normals[i * 3 + 2];
+			float nx = m[0] * x + m[1] * y + m[2] * z;
+			float ny = m[4] * x + m[5] * y + m[6] * z;
+			float nz = m[8] * x + m[9] * y + m[10] * z;
+			float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if (length != 0) {
+				nx /= length;
+				ny /= length;
+				nz /= length;
+			}
+			sphereCoords[i * 2] = nx * 0.5f + 0.5f;
+			sphereCoords[i * 2 + 1] = ny * 0.5f + 0.5f;
+			float intensity = 1;
+			if (lighting) {
+				intensity = ambient + directional * Math.max(nx * lightX + ny * lightY + nz * lightZ, 0);
+				if (toon) {
+					intensity = intensity < toonThreshold ? toonLow : toonHigh;
+				}
+			}
+			shade[i] = Math.min(intensity, 1);
+		}
+	}
+
+	/**
+	 * Start a new batch unless the current one has the same state.
+	 */
+	private void begin(int mode, Texture texture, Texture sphereMap, int blend, boolean colorKey) {
+		if (!semiTransparent) {
+			blend = BLEND_NONE;
+		}
+		Batch batch = current;
+		if (batch != null && batch.mode == mode && batch.texture == texture && batch.sphereMap == sphereMap
+				&& batch.blend == blend && batch.colorKey == colorKey
+				&& batch.clipLeft == clipLeft && batch.clipTop == clipTop
+				&& batch.clipRight == clipRight && batch.clipBottom == clipBottom) {
+			return;
+		}
+		batch = pool.isEmpty() ? new Batch() : pool.remove(pool.size() - 1);
+		batch.mode = mode;
+		batch.texture = texture;
+		batch.sphereMap = sphereMap;
+		batch.blend = blend;
+		batch.colorKey = colorKey;
+		batch.clipLeft = clipLeft;
+		batch.clipTop = clipTop;
+		batch.clipRight = clipRight;
+		batch.clipBottom = clipBottom;
+		batch.first = vertexCount;
+		batch.count = 0;
+		batches.add(batch);
+		current = batch;
+	}
+
+	private void addPrimitiveVertex(int vertex, int color, boolean lit, Texture texture, int[] textureCoords) {
+		int u = texture != null ? textureCoords[vertex * 2] : 0;
+		int v = texture != null ? textureCoords[vertex * 2 + 1] : 0;
+		addVertex(vertex, color, lit, texture, u, v);
+	}
+
+	private void addVertex(int vertex, int color, boolean lit, Texture texture, int u, int v) {
+		float[] data = reserve(1);
+		int offset = vertexCount * VERTEX_SIZE;
+		System.arraycopy(clip, vertex * 4, data, offset, 4);
+		float intensity = lit ? shade[vertex] : 1;
+		data[offset + 4] = ((color >> 16) & 0xFF) / 255.0f * intensity;
+		data[offset + 5] = ((color >> 8) & 0xFF) / 255.0f * intensity;
+		data[offset + 6] = (color & 0xFF) / 255.0f * intensity;
+		data[offset + 7] = 1;
+		if (texture != null) {
+			data[offset + 8] = u / (float) texture.width;
+			data[offset + 9] = v / (float) texture.height;
+		}
+		data[offset + 10] = sphereCoords[vertex * 2];
+		data[offset + 11] = sphereCoords[vertex * 2 + 1];
+		vertexCount++;
+		current.count++;
+	}
+
+	/**
+	 * Add a point sprite as two triangles facing the screen.
+	 *
+	 * @param params offset of width, height, angle, u0, v0, u1, v1 and flags in the parameters
+	 */
+	private void addSprite(int vertex, int color, Texture texture, int[] params, int offset) {
+		float w = clip[vertex * 4 + 3];
+		if (w <= 0) {
+			return;
+		}
+		int flags = params[offset + 7];
+		float width = params[offset];
+		float height = params[offset + 1];
+		if ((flags & Graphics3D.POINT_SPRITE_PIXEL_SIZE) == 0) {
+			width *= focalX;
+			height *= focalY;
+			if (perspective && (flags & Graphics3D.POINT_SPRITE_NO_PERS) == 0) {
+				width /= w;
+				height /= w;
+			}
+		}
+		// Half extents in clip space
+		float hx = width / targetWidth * w;
+		float hy = height / targetHeight * w;
+		float cos = Util3D.cos(params[offset + 2]) / 4096.0f;
+		float sin = Util3D.sin(params[offset + 2]) / 4096.0f;
+		float[] data = reserve(6);
+		int[] corners = {-1, -1, 1, -1, -1, 1, -1, 1, 1, -1, 1, 1};
+		for (int c = 0; c < 6; c++) {
+			int sx = corners[c * 2];
+			int sy = corners[c * 2 + 1];
+			int o = vertexCount * VERTEX_SIZE;
+			// Screen y is down, clip y is up
+			data[o] = clip[vertex * 4] + (sx * cos - sy * sin) * hx;
+			data[o + 1] = clip[vertex * 4 + 1] - (sx * sin + sy * cos) * hy;
+			data[o + 2] = clip[vertex * 4 + 2];
+			data[o + 3] = w;
+			data[o + 4] = ((color >> 16) & 0xFF) / 255.0f;
+			data[o + 5] = ((color >> 8) & 0xFF) / 255.0f;
+			data[o + 6] = (color & 0xFF) / 255.0f;
+			data[o + 7] = 1;
+			if (texture != null) {
+				data[o + 8] = params[offset + (sx < 0 ? 3 : 5)] / (float) texture.width;
+				data[o + 9] = params[offset + (sy < 0 ? 4 : 6)] / (float) texture.height;
+			}
+			vertexCount++;
+			current.count++;
+		}
+	}
+
+	private float[] reserve(int vertices) {
+		int size = (vertexCount + vertices) * VERTEX_SIZE;
+		if (size > vertexData.length) {
+			float[] data = new float[Math.max(size, vertexData.length * 2)];
+			System.arraycopy(vertexData, 0, data, 0, vertexCount * VERTEX_SIZE);
+			vertexData = data;
+		}
+		return vertexData;
+	}
+
+	private void applyState(GL20 gl, Batch batch) {
+		switch (batch.blend) {
+			case BLEND_HALF:
+				gl.glEnable(GL20.GL_BLEND);
+				gl.glBlendEquation(GL20.GL_FUNC_ADD);
+				gl.glBlendFunc(GL20.GL_SRC_ALPHA, GL20.GL_ONE_MINUS_SRC_ALPHA);
+				break;
+			case BLEND_ADD:
+				gl.glEnable(GL20.GL_BLEND);
+				gl.glBlendEquation(GL20.GL_FUNC_ADD);
+				gl.glBlendFunc(GL20.GL_ONE, GL20.GL_ONE);
+				break;
+			case BLEND_SUB:
+				gl.glEnable(GL20.GL_BLEND);
+				gl.glBlendEquation(GL20.GL_FUNC_REVERSE_SUBTRACT);
+				gl.glBlendFunc(GL20.GL_ONE, GL20.GL_ONE);
+				break;
+			default:
+				gl.glDisable(GL20.GL_BLEND);
+				break;
+		}
+		gl.glDepthMask(batch.blend == BLEND_NONE);
+		program.setUniformf("u_alpha", batch.blend == BLEND_HALF ? 0.5f : 1);
+		program.setUniformi("u_colorKey", batch.colorKey ? 1 : 0);
+		program.setUniformi("u_textured", batch.texture != null ? 1 : 0);
+		program.setUniformi("u_sphere", batch.sphereMap != null ? 1 : 0);
+		if (batch.sphereMap != null) {
+			bind(batch.sphereMap, 1);
+		}
+		if (batch.texture != null) {
+			bind(batch.texture, 0);
+		}
+	}
+
+	private static void bind(Texture texture, int unit) {
+		if (texture.glTexture == null) {
+			Pixmap pixmap = new Pixmap(texture.width, texture.height, Pixmap.Format.RGBA8888);
+			ByteBuffer pixels = pixmap.getPixels();
+			for (int argb : texture.pixels) {
+				pixels.put((byte) (argb >> 16));
+				pixels.put((byte) (argb >> 8));
+				pixels.put((byte) argb);
+				pixels.put((byte) (argb >>> 24));
+			}
+			pixels.flip();
+			texture.glTexture = new com.badlogic.gdx.graphics.Texture(pixmap);
+			texture.glTexture.setFilter(com.badlogic.gdx.graphics.Texture.TextureFilter.Nearest,
+					com.badlogic.gdx.graphics.Texture.TextureFilter.Nearest);
+			pixmap.dispose();
+		}
+		texture.glTexture.bind(unit);
+	}
+
+	/**
+	 * A run of vertices drawn with the same state
+	 */
+	private static final class Batch {
+		int mode;
+		Texture texture;
+		Texture sphereMap;
+		int blend;
+		boolean colorKey;
+		int clipLeft, clipTop, clipRight, clipBottom;
+		int first;
+		int count;
+	}
+}
@@ -16,18 +16,30 @@
 
 package com.mascotcapsule.micro3d.v3;
 
-import java.io.IOException;
-import java.io.InputStream;
+import com.badlogic.gdx.Gdx;
 
-import javax.microedition.util.ContextHolder;
+import java.io.IOException;
 
 public class Texture {
 	protected boolean isModel;
 
+	// Decoded bitmap, ARGB with palette index 0 transparent
+	int width;
+	int height;
+	int[] pixels;
+	// Created by the Renderer the first time the texture is drawn, on the
+	// thread that flushes the Graphics3D, which holds the GL context
+	com.badlogic.gdx.graphics.Texture glTexture;
+
 	public Texture(byte[] b, boolean isForModel) {
 		if (b == null) {
 			throw new RuntimeException();
 		}
+		try {
+			Loader.loadBitmap(this, b);
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e.getMessage());
+		}
 		this.isModel = isForModel;
 	}
 
@@ -35,13 +47,20 @@ public class Texture {
 		if (name == null) {
 			throw new NullPointerException();
 		}
-		InputStream is = ContextHolder.getResourceAsStream(null, name);
-		if (is == null) {
-			throw new IOException();
-		}
+		Loader.loadBitmap(this, Loader.readResource(name));
 		this.isModel = isForModel;
 	}
 
 	public final void dispose() {
+		com.badlogic.gdx.graphics.Texture texture = glTexture;
+		if (texture != null) {
+			glTexture = null;
+			// MIDlets dispose on their own thread, GL objects must be deleted on the GL thread
+			if (Gdx.app == null) {
+				texture.dispose();
+			} else {
+				Gdx.app.postRunnable(texture::dispose);
+			}
+		}
 	}
 }
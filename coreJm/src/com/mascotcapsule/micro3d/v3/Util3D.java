@@ -17,15 +17,42 @@
 package com.mascotcapsule.micro3d.v3;
 
 public class Util3D {
+	// One turn is 4096 units, sine values are scaled by 4096
+	private static final int[] SIN_TABLE = new int[4096];
+
+	static {
+		for (int i = 0; i < 4096; i++) {
+			SIN_TABLE[i] = (int) Math.round(Math.sin(i * Math.PI / 2048) * 4096);
+		}
+	}
+
 	public static final int sqrt(int p) {
-		return (int) Math.sqrt(p);
+		if (p <= 0) {
+			return 0;
+		}
+		// Integer square root, one result bit at a time
+		int root = 0;
+		int bit = 1 << 30;
+		while (bit > p) {
+			bit >>= 2;
+		}
+		while (bit != 0) {
+			if (p >= root + bit) {
+				p -= root + bit;
+				root = (root >> 1) + bit;
+			} else {
+				root >>= 1;
+			}
+			bit >>= 2;
+		}
+		return root;
 	}
 
 	public static final int sin(int p) {
-		return (int) Math.sin(p);
+		return SIN_TABLE[p & 4095];
 	}
 
 	public static final int cos(int p) {
-		return (int) Math.cos(p);
+		return SIN_TABLE[(p + 1024) & 4095];
 	}
 }
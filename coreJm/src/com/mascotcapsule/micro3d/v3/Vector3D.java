@@ -38,6 +38,14 @@ public class Vector3D {
 	}
 
 	public final void unit() {
+		long squared = (long) x * x + (long) y * y + (long) z * z;
+		if (squared == 0) {
+			return;
+		}
+		long length = squared <= Integer.MAX_VALUE ? Util3D.sqrt((int) squared) : (long) Math.sqrt(squared);
+		this.x = (int) (((long) x << 12) / length);
+		this.y = (int) (((long) y << 12) / length);
+		this.z = (int) (((long) z << 12) / length);
 	}
 
 	public final int getX() {
@@ -83,27 +91,32 @@ public class Vector3D {
 		if (v == null) {
 			throw new NullPointerException();
 		}
-		return 0;
+		return this.x * v.x + this.y * v.y + this.z * v.z;
 	}
 
 	public final void outerProduct(Vector3D v) {
 		if (v == null) {
 			throw new NullPointerException();
 		}
+		int x = this.y * v.z - this.z * v.y;
+		int y = this.z * v.x - this.x * v.z;
+		int z = this.x * v.y - this.y * v.x;
+		set(x, y, z);
 	}
 
 	public static final int innerProduct(Vector3D v1, Vector3D v2) {
-		if (v1 != null && v2 != null) {
-			return 0;
+		if (v1 == null || v2 == null) {
+			throw new NullPointerException();
 		}
-		throw new NullPointerException();
+		return v1.innerProduct(v2);
 	}
 
 	public static final Vector3D outerProduct(Vector3D v1, Vector3D v2) {
 		if (v1 == null || v2 == null) {
 			throw new NullPointerException();
 		}
-		Vector3D r = new Vector3D();
+		Vector3D r = new Vector3D(v1);
+		r.outerProduct(v2);
 		return r;
 	}
 }
@@ -16,10 +16,29 @@
 
 package com.nokia.mid.m3d;
 
+import java.util.Arrays;
+
 import javax.microedition.lcdui.Graphics;
 import javax.microedition.lcdui.Image;
 
 public class M3D {
+	// Screen coordinates are 28.4 fixed point, pixels are sampled at integer coordinates
+	private static final int SUBPIXEL_BITS = 4;
+	private static final int SUBPIXEL = 1 << SUBPIXEL_BITS;
+
+	// The depth buffer is kept per tile as well, to skip hidden tiles at once
+	private static final int TILE_BITS = 3;
+	private static final int TILE_SIZE = 1 << TILE_BITS;
+
+	// Depth is 1 / distance to the eye scaled to an int, nearer is larger
+	private static final float DEPTH_SCALE = 1 << 24;
+
+	// Nothing farther than 128 units from the eye is drawn
+	private static final int CLEAR_DEPTH = (int) (DEPTH_SCALE / 128);
+
+	// Projected vertices are clamped this far around the screen, which keeps the edge functions in range
+	private static final float GUARD_BAND = 1 << 16;
+
 	private double[] matrix = new double[16];
 
 	private double[] stack = new double[16];
@@ -44,19 +63,39 @@ public class M3D {
 
 	private boolean boundTexture = false;
 
-	private double[] verts = new double[256];
-	private double[] UVs = new double[256];
-	private double[] faces = new double[384];
-	private double[] faceUVs = new double[384];
-	private int[] debugColors = new int[384];
-	private int debugColor = 0xFF0000;
+	private float[] verts = new float[256];
+	private float[] eye = new float[256];
+	private int[] UVs = new int[256];
 	private int vertCount;
-	private int faceCount;
+
+	// Triangle clipped by the near plane: eye position and texel coordinates of up to 4 corners
+	private final int[] corners = new int[3];
+	private final float[] polyX = new float[4];
+	private final float[] polyY = new float[4];
+	private final float[] polyZ = new float[4];
+	private final float[] polyU = new float[4];
+	private final float[] polyV = new float[4];
+
+	// Projected polygon: fixed point screen position, 1 / w and texel coordinates over w
+	private final int[] screenX = new int[4];
+	private final int[] screenY = new int[4];
+	private final float[] screenQ = new float[4];
+	private final float[] screenS = new float[4];
+	private final float[] screenT = new float[4];
+
+	// Edge functions of the triangle being filled, at the top left of its bounds
+	private final long[] edge = new long[3];
+	private final long[] edgeStepX = new long[3];
+	private final long[] edgeStepY = new long[3];
 
 	private Image platformImage;
-	private Graphics gc;
+	// ARGB pixels of the platform image, the rasterizer writes them directly
+	private int[] pixels;
 
-	private double[] zbuffer;
+	private int[] zbuffer;
+	// Farthest depth of each tile
+	private int[] tileDepth;
+	private int tilesX;
 	private double near;
 	private double far;
 
@@ -73,8 +112,10 @@ public class M3D {
 		width = displayWidth;
 		height = displayHeight;
 		platformImage = Image.createImage(width, height);
-		gc = platformImage.getGraphics();
-		zbuffer = new double[width * height];
+		pixels = platformImage.getPixels();
+		zbuffer = new int[width * height];
+		tilesX = (width + TILE_SIZE - 1) >> TILE_BITS;
+		tileDepth = new int[tilesX * ((height + TILE_SIZE - 1) >> TILE_BITS)];
 		clear(0);
 	}
 
@@ -89,14 +130,11 @@ public class M3D {
 
 	public void clear(int mask) // GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT (16640)
 	{
-		gc.setColor(clearcolor);
-		gc.fillRect(0, 0, width, height);
-		gc.setColor(color);
+		Arrays.fill(pixels, clearcolor);
 		identity(matrix);
 		identity(stack);
-		for (int i = 0; i < zbuffer.length; i++) {
-			zbuffer[i] = -128;
-		}
+		Arrays.fill(zbuffer, CLEAR_DEPTH);
+		Arrays.fill(tileDepth, CLEAR_DEPTH);
 		boundTexture = false;
 	}
 
@@ -202,217 +240,27 @@ public class M3D {
 	}
 
 	public void vertexPointerub(int a, int b, byte[] vertices) {
-		for (int i = 0; i < vertices.length; i += 3) {
+		for (int i = 0; i < vertices.length; i++) {
 			verts[i] = vertices[i];
-			verts[i + 1] = vertices[i + 1];
-			verts[i + 2] = vertices[i + 2];
 		}
 		vertCount = vertices.length;
 	}
 
-	private void addFaces(double x1, double y1, double z1, double x2, double y2, double z2, double x3, double y3, double z3, double u1, double v1, double u2, double v2, double u3, double v3) {
-		debugColor = color;
-		// add faces -- split triangles that intersect near plane
-		if (z1 <= near && z2 <= near && z3 <= near) {
-			addFace(x1, y1, z1, x2, y2, z2, x3, y3, z3, u1, v1, u2, v2, u3, v3);
-			return;
-		}
-		// one point behind near plane, split in to two triangles
-		if (z1 > near && z2 <= near && z3 <= near) {
-			// point 1 behind near plane
-			addFace2(x2, y2, z2, x3, y3, z3, x1, y1, z1, u2, v2, u3, v3, u1, v1);
-			return;
-		}
-		if (z1 <= near && z2 > near && z3 <= near) {
-			addFace2(x1, y1, z1, x3, y3, z3, x2, y2, z2, u1, v1, u3, v3, u2, v2);
-			return;
-		}
-		if (z1 <= near && z2 <= near && z3 > near) {
-			addFace2(x1, y1, z1, x2, y2, z2, x3, y3, z3, u1, v1, u2, v2, u3, v3);
-			return;
-		}
-		// two points behind near plane, clip triangle
-		if (z1 > near && z2 > near && z3 <= near) {
-			addFace1(x3, y3, z3, x1, y1, z1, x2, y2, z2, u3, v3, u1, v1, u2, v2);
-			return;
-		}
-		if (z1 > near && z2 <= near && z3 > near) {
-			addFace1(x2, y2, z2, x1, y1, z1, x3, y3, z3, u2, v2, u1, v1, u3, v3);
-			return;
-		}
-		if (z1 <= near && z2 > near && z3 > near) {
-			addFace1(x1, y1, z1, x2, y2, z2, x3, y3, z3, u1, v1, u2, v2, u3, v3);
-			return;
-		}
-	}
-
-	private void addFace2(double x1, double y1, double z1, double x2, double y2, double z2, double x3, double y3, double z3, double u1, double v1, double u2, double v2, double u3, double v3) {
-		double dx, dy, dz, x4, y4, z4, x5, y5, z5;
-		// point3 is behind the near plane, create and add two new faces
-		dx = x3 - x1;
-		dy = y3 - y1;
-		dz = z1 - z3;
-		x4 = x1 + (dx / dz) * (z1 - near);
-		y4 = y1 + (dy / dz) * (z1 - near);
-		z4 = near;
-
-		dx = x3 - x2;
-		dy = y3 - y2;
-		dz = z2 - z3;
-		x5 = x2 + (dx / dz) * (z2 - near);
-		y5 = y2 + (dy / dz) * (z2 - near);
-		z5 = near;
-
-		addFace(x1, y1, z1, x2, y2, z2, x5, y5, z5, u1, v1, u2, v2, u3, v3);
-		addFace(x1, y1, z1, x5, y5, z5, x4, y4, z4, u1, v1, u2, v2, u3, v3);
-	}
-
-	private void addFace1(double x1, double y1, double z1, double x2, double y2, double z2, double x3, double y3, double z3, double u1, double v1, double u2, double v2, double u3, double v3) {
-		double dx, dy, dz;
-		// points 2 and 3 are behind the near plane, clip and add the new face
-		dx = x2 - x1;
-		dy = y2 - y1;
-		dz = z1 - z2;
-		x2 = x1 + (dx / dz) * (z1 - near);
-		y2 = y1 + (dy / dz) * (z1 - near);
-		z2 = near;
-
-		dx = x3 - x1;
-		dy = y3 - y1;
-		dz = z1 - z3;
-		x3 = x1 + (dx / dz) * (z1 - near);
-		y3 = y1 + (dy / dz) * (z1 - near);
-		z3 = near;
-
-		addFace(x1, y1, z1, x2, y2, z2, x3, y3, z3, u1, v1, u2, v2, u3, v3);
-	}
-
-	private void addFace(double x1, double y1, double z1, double x2, double y2, double z2, double x3, double y3, double z3, double u1, double v1, double u2, double v2, double u3, double v3) {
-		faces[faceCount * 3] = x1;
-		faces[faceCount * 3 + 1] = y1;
-		faces[faceCount * 3 + 2] = z1;
-		faceUVs[faceCount * 2] = u1;
-		faceUVs[faceCount * 2 + 1] = v1;
-		faceCount++;
-
-		faces[faceCount * 3] = x2;
-		faces[faceCount * 3 + 1] = y2;
-		faces[faceCount * 3 + 2] = z2;
-		faceUVs[faceCount * 2] = u2;
-		faceUVs[faceCount * 2 + 1] = v2;
-		faceCount++;
-
-		faces[faceCount * 3] = x3;
-		faces[faceCount * 3 + 1] = y3;
-		faces[faceCount * 3 + 2] = z3;
-		faceUVs[faceCount * 2] = u3;
-		faceUVs[faceCount * 2 + 1] = v3;
-		faceCount++;
-	}
-
 	public void drawElementsub(int A, int B, byte[] facelist) {
-		byte a, b;
-		double x1, y1, z1, x2, y2, z2, x3, y3, z3, w1;
-		double u1, v1, u2, v2, u3, v3;
-
-		double x, y, z, w;
-		double ox = width / 2;
-		double oy = height / 2;
-
-		u1 = v1 = u2 = v2 = u3 = v3 = 0;
-
-		gc.setColor(color);
-
-		applyMatrix(matrix);
-
-		// clip //
-		faceCount = 0;
-		for (int i = 0; i < facelist.length; i += 3) {
-			x1 = verts[(facelist[i] * 3)];
-			y1 = verts[(facelist[i] * 3) + 1];
-			z1 = verts[(facelist[i] * 3) + 2];
-
-			x2 = verts[(facelist[i + 1] * 3)];
-			y2 = verts[(facelist[i + 1] * 3) + 1];
-			z2 = verts[(facelist[i + 1] * 3) + 2];
-
-			x3 = verts[(facelist[i + 2] * 3)];
-			y3 = verts[(facelist[i + 2] * 3) + 1];
-			z3 = verts[(facelist[i + 2] * 3) + 2];
-
-			if (z1 > near && z2 > near && z3 > near) {
+		boolean textured = boundTexture && texture != null;
+		transformVertices();
+		for (int i = 0; i + 2 < facelist.length; i += 3) {
+			corners[0] = facelist[i] & 0xFF;
+			corners[1] = facelist[i + 1] & 0xFF;
+			corners[2] = facelist[i + 2] & 0xFF;
+			int count = clipNear(textured);
+			if (count < 3 || !project(count)) {
 				continue;
-			} // drop face
-
-			u1 = UVs[facelist[i] * 2];
-			v1 = UVs[facelist[i] * 2 + 1];
-
-			u2 = UVs[facelist[i + 1] * 2];
-			v2 = UVs[facelist[i + 1] * 2 + 1];
-
-			u3 = UVs[facelist[i + 2] * 2];
-			v3 = UVs[facelist[i + 2] * 2 + 1];
-
-			addFaces(x1, y1, z1, x2, y2, z2, x3, y3, z3, u1, v1, u2, v2, u3, v3);
-		}
-
-		// projection
-		for (int i = 0; i < faceCount; i++) {
-			x = faces[i * 3];
-			y = faces[i * 3 + 1];
-			z = faces[i * 3 + 2];
-			w = 1;
-
-			x1 = x * projm[0] + y * projm[4] + z * projm[8] + projm[12];
-			y1 = x * projm[1] + y * projm[5] + z * projm[9] + projm[13];
-			z1 = x * projm[2] + y * projm[6] + z * projm[10] + projm[14];
-			w1 = x * projm[3] + y * projm[7] + z * projm[11] + projm[15];
-
-			if (w1 != 1) {
-				faces[i * 3] = (x1 / w1);
-				faces[i * 3 + 1] = (y1 / w1);
 			}
-		}
-
-		// draw elements
-		for (int i = 0; i < faceCount; i += 3) {
-			x1 = faces[i * 3];
-			y1 = faces[i * 3 + 1];
-			z1 = faces[i * 3 + 2];
-
-			x2 = faces[i * 3 + 3];
-			y2 = faces[i * 3 + 4];
-			z2 = faces[i * 3 + 5];
-
-			x3 = faces[i * 3 + 6];
-			y3 = faces[i * 3 + 7];
-			z3 = faces[i * 3 + 8];
-
-			u1 = faceUVs[i * 2];
-			v1 = faceUVs[i * 2 + 1];
-
-			u2 = faceUVs[i * 2 + 2];
-			v2 = faceUVs[i * 2 + 3];
-
-			u3 = faceUVs[i * 2 + 4];
-			v3 = faceUVs[i * 2 + 5];
-
-			// scale and center on screen
-			x1 = (x1 * ox) + ox;
-			x2 = (x2 * ox) + ox;
-			x3 = (x3 * ox) + ox;
-			y1 = (y1 * oy) + oy;
-			y2 = (y2 * oy) + oy;
-			y3 = (y3 * oy) + oy;
-
-			//gc.setColor(debugColors[i]);
-
-			// draw
-			if (boundTexture) {
-				texture.setUVs((int) u1, (int) v1, (int) u2, (int) v2, (int) u3, (int) v3);
-				texture.mapto((int) x1, (int) y1, (int) x2, (int) y2, (int) x3, (int) y3);
+			fillTriangle(0, 1, 2, textured);
+			if (count == 4) {
+				fillTriangle(0, 2, 3, textured);
 			}
-			fillTriangle(x1, y1, z1, x2, y2, z2, x3, y3, z3);
 		}
 	}
 
@@ -425,19 +273,18 @@ public class M3D {
 	// And then fill everything below it with a color.
 	public void drawArrays(int a, int b, int c)  // called after clear -- background?
 	{
-		gc.setColor(color);
-		applyMatrix(matrix);
+		transformVertices();
 
 		// projection
 		double y, z;
-		y = verts[1];
-		z = verts[2];
+		y = eye[1];
+		z = eye[2];
 		y = y * projm[5] / (-z);
 		double oy = height / 2;
 		y = (y * oy) + oy;
 
-		gc.fillRect(0, (int) y, width, height - (int) y);
-
+		int top = (int) Math.max(Math.min(y, height), 0);
+		Arrays.fill(pixels, top * width, width * height, color);
 	}
 
 	public void bindTexture(int a, Texture b) {
@@ -465,7 +312,7 @@ public class M3D {
 
 	public void blit(Graphics g, int x, int y, int w, int h) // 0, 0, 95, 65
 	{
-		g.drawImage(platformImage, x, y, Graphics.LEFT | Graphics.TOP);
+		g.drawRGB(pixels, 0, width, x, y, width, height, false);
 	}
 
 	private void identity(double[] m) {
@@ -552,56 +399,268 @@ public class M3D {
 		m[15] = (a8 * b3 - a9 * b1 + a10 * b0) * det;
 	}
 
-	private void applyMatrix(double[] m) {
-		double x, y, z, w;
+	private void transformVertices() {
+		double[] m = matrix;
+		float m0 = (float) m[0], m1 = (float) m[1], m2 = (float) m[2];
+		float m4 = (float) m[4], m5 = (float) m[5], m6 = (float) m[6];
+		float m8 = (float) m[8], m9 = (float) m[9], m10 = (float) m[10];
+		float m12 = (float) m[12], m13 = (float) m[13], m14 = (float) m[14];
 		for (int i = 0; i < vertCount; i += 3) {
-			x = verts[i];
-			y = verts[i + 1];
-			z = verts[i + 2];
-			w = 1;
-			verts[i] = x * m[0] + y * m[4] + z * m[8] + w * m[12];
-			verts[i + 1] = x * m[1] + y * m[5] + z * m[9] + w * m[13];
-			verts[i + 2] = x * m[2] + y * m[6] + z * m[10] + w * m[14];
+			float x = verts[i];
+			float y = verts[i + 1];
+			float z = verts[i + 2];
+			eye[i] = x * m0 + y * m4 + z * m8 + m12;
+			eye[i + 1] = x * m1 + y * m5 + z * m9 + m13;
+			eye[i + 2] = x * m2 + y * m6 + z * m10 + m14;
 		}
 	}
 
-	private void fillTriangle(double x1, double y1, double z1, double x2, double y2, double z2, double x3, double y3, double z3) {
-		double a, b, c;
-		double depth;
-		double px, py;
-
-		// find rect, clip to screen
-		int maxX = (int) Math.min(Math.max(x1, Math.max(x2, x3)), width - 1);
-		int maxY = (int) Math.min(Math.max(y1, Math.max(y2, y3)), height - 1);
-		int minX = (int) Math.max(Math.min(x1, Math.min(x2, x3)), 0);
-		int minY = (int) Math.max(Math.min(y1, Math.min(y2, y3)), 0);
-
-		for (int x = minX; x <= maxX; x++) {
-			for (int y = minY; y <= maxY; y++) {
-				px = x;
-				py = y;
-
-				// point in triangle
-				//cross product to find area*2 of triangles around point
-				a = (x3 - x2) * -(py - y2) - -(y3 - y2) * (px - x2); // p1
-				b = (x1 - x3) * -(py - y3) - -(y1 - y3) * (px - x3); // p2
-				c = (x2 - x1) * -(py - y1) - -(y2 - y1) * (px - x1); // p3
-
-				if (a >= 0 && b >= 0 && c >= 0) {
-					//fragment depth
-					depth = (a * z1 + b * z2 + c * z3) / (a + b + c);
-
-					// plot
-					if (depth >= zbuffer[x + (y * width)]) {
-						zbuffer[x + (y * width)] = depth;
-						if (boundTexture) {
-							gc.setColorAlpha(texture.map(x, y));
+	/**
+	 * Clip the triangle of {@link #corners} to the near plane.
+	 *
+	 * @return number of corners of the clipped polygon, 0, 3 or 4
+	 */
+	private int clipNear(boolean textured) {
+		float near = (float) this.near;
+		int count = 0;
+		for (int k = 0; k < 3; k++) {
+			int a = corners[k] * 3;
+			int b = corners[(k + 1) % 3] * 3;
+			float za = eye[a + 2];
+			float zb = eye[b + 2];
+			float ua = 0, va = 0, ub = 0, vb = 0;
+			if (textured) {
+				ua = texture.toTexelX(UVs[a / 3 * 2]);
+				va = texture.toTexelY(UVs[a / 3 * 2 + 1]);
+				ub = texture.toTexelX(UVs[b / 3 * 2]);
+				vb = texture.toTexelY(UVs[b / 3 * 2 + 1]);
+			}
+			boolean inA = za <= near;
+			if (inA) {
+				polyX[count] = eye[a];
+				polyY[count] = eye[a + 1];
+				polyZ[count] = za;
+				polyU[count] = ua;
+				polyV[count] = va;
+				count++;
+			}
+			if (inA != (zb <= near)) {
+				float t = (near - za) / (zb - za);
+				polyX[count] = eye[a] + (eye[b] - eye[a]) * t;
+				polyY[count] = eye[a + 1] + (eye[b + 1] - eye[a + 1]) * t;
+				polyZ[count] = near;
+				polyU[count] = ua + (ub - ua) * t;
+				polyV[count] = va + (vb - va) * t;
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Project the clipped polygon to the screen.
+	 *
+	 * @return false if a corner is not in front of the eye
+	 */
+	private boolean project(int count) {
+		double[] p = projm;
+		float ox = width / 2;
+		float oy = height / 2;
+		for (int k = 0; k < count; k++) {
+			float x = polyX[k];
+			float y = polyY[k];
+			float z = polyZ[k];
+			float w = (float) (x * p[3] + y * p[7] + z * p[11] + p[15]);
+			if (!(w > 0)) {
+				return false;
+			}
+			float q = 1 / w;
+			float sx = (float) (x * p[0] + y * p[4] + z * p[8] + p[12]) * q * ox + ox;
+			float sy = (float) (x * p[1] + y * p[5] + z * p[9] + p[13]) * q * oy + oy;
+			sx = Math.max(Math.min(sx, GUARD_BAND), -GUARD_BAND);
+			sy = Math.max(Math.min(sy, GUARD_BAND), -GUARD_BAND);
+			screenX[k] = Math.round(sx * SUBPIXEL);
+			screenY[k] = Math.round(sy * SUBPIXEL);
+			screenQ[k] = q;
+			screenS[k] = polyU[k] * q;
+			screenT[k] = polyV[k] * q;
+		}
+		return true;
+	}
+
+	/**
+	 * Fill a projected triangle with the current color or the bound texture.
+	 * The bounds are walked in tiles: tiles outside an edge or behind the depth
+	 * of the tile are skipped, tiles inside all edges are filled without testing them.
+	 */
+	private void fillTriangle(int v1, int v2, int v3, boolean textured) {
+		long area = (long) (screenX[v2] - screenX[v1]) * (screenY[v3] - screenY[v1])
+				- (long) (screenY[v2] - screenY[v1]) * (screenX[v3] - screenX[v1]);
+		if (area == 0) {
+			return;
+		}
+		if (area < 0) {
+			// Both windings are drawn
+			int v = v2;
+			v2 = v3;
+			v3 = v;
+			area = -area;
+		}
+		int x1 = screenX[v1], y1 = screenY[v1];
+		int x2 = screenX[v2], y2 = screenY[v2];
+		int x3 = screenX[v3], y3 = screenY[v3];
+		int minX = Math.max((Math.min(x1, Math.min(x2, x3)) + SUBPIXEL - 1) >> SUBPIXEL_BITS, 0);
+		int minY = Math.max((Math.min(y1, Math.min(y2, y3)) + SUBPIXEL - 1) >> SUBPIXEL_BITS, 0);
+		int maxX = Math.min(Math.max(x1, Math.max(x2, x3)) >> SUBPIXEL_BITS, width - 1);
+		int maxY = Math.min(Math.max(y1, Math.max(y2, y3)) >> SUBPIXEL_BITS, height - 1);
+		if (minX > maxX || minY > maxY) {
+			return;
+		}
+		setupEdge(0, x1, y1, x2, y2, minX, minY);
+		setupEdge(1, x2, y2, x3, y3, minX, minY);
+		setupEdge(2, x3, y3, x1, y1, minX, minY);
+
+		// Planes of 1 / w and of the texel coordinates over w, in pixels from (minX, minY)
+		float fx1 = x1 / (float) SUBPIXEL, fy1 = y1 / (float) SUBPIXEL;
+		float dx2 = x2 / (float) SUBPIXEL - fx1, dy2 = y2 / (float) SUBPIXEL - fy1;
+		float dx3 = x3 / (float) SUBPIXEL - fx1, dy3 = y3 / (float) SUBPIXEL - fy1;
+		float det = area / (float) (SUBPIXEL * SUBPIXEL);
+		float ox = minX - fx1;
+		float oy = minY - fy1;
+		float q1 = screenQ[v1], dq2 = screenQ[v2] - q1, dq3 = screenQ[v3] - q1;
+		float qx = (dq2 * dy3 - dq3 * dy2) / det;
+		float qy = (dq3 * dx2 - dq2 * dx3) / det;
+		float q0 = q1 + qx * ox + qy * oy;
+		float s0 = 0, sx = 0, sy = 0, t0 = 0, tx = 0, ty = 0;
+		if (textured) {
+			float s1 = screenS[v1], ds2 = screenS[v2] - s1, ds3 = screenS[v3] - s1;
+			sx = (ds2 * dy3 - ds3 * dy2) / det;
+			sy = (ds3 * dx2 - ds2 * dx3) / det;
+			s0 = s1 + sx * ox + sy * oy;
+			float t1 = screenT[v1], dt2 = screenT[v2] - t1, dt3 = screenT[v3] - t1;
+			tx = (dt2 * dy3 - dt3 * dy2) / det;
+			ty = (dt3 * dx2 - dt2 * dx3) / det;
+			t0 = t1 + tx * ox + ty * oy;
+		}
+		float qMax = Math.max(screenQ[v1], Math.max(screenQ[v2], screenQ[v3]));
+
+		int[] texels = textured ? texture.texels : null;
+		int textureWidth = textured ? texture.width : 0;
+		int textureHeight = textured ? texture.height : 0;
+		for (int tileY = minY & -TILE_SIZE; tileY <= maxY; tileY += TILE_SIZE) {
+			int top = Math.max(tileY, minY);
+			int bottom = Math.min(tileY + TILE_SIZE - 1, maxY);
+			tiles:
+			for (int tileX = minX & -TILE_SIZE; tileX <= maxX; tileX += TILE_SIZE) {
+				int left = Math.max(tileX, minX);
+				int right = Math.min(tileX + TILE_SIZE - 1, maxX);
+
+				// Trivial reject and accept against the edges, at the corners of the tile
+				boolean covered = true;
+				for (int e = 0; e < 3; e++) {
+					long topLeft = edgeAt(e, left - minX, top - minY);
+					long topRight = topLeft + edgeStepX[e] * (right - left);
+					long bottomLeft = topLeft + edgeStepY[e] * (bottom - top);
+					long bottomRight = bottomLeft + edgeStepX[e] * (right - left);
+					if ((topLeft & topRight & bottomLeft & bottomRight) < 0) {
+						continue tiles;
+					}
+					if ((topLeft | topRight | bottomLeft | bottomRight) < 0) {
+						covered = false;
+					}
+				}
+
+				// Skip the tile if the triangle is behind everything in it
+				float cornerQ = q0 + qx * (qx > 0 ? right - minX : left - minX)
+						+ qy * (qy > 0 ? bottom - minY : top - minY);
+				int nearest = (int) (Math.min(cornerQ, qMax) * DEPTH_SCALE);
+				int tile = (tileY >> TILE_BITS) * tilesX + (tileX >> TILE_BITS);
+				if (nearest < tileDepth[tile]) {
+					continue;
+				}
+
+				boolean written = false;
+				int span = right - left;
+				for (int y = top; y <= bottom; y++) {
+					int px = left - minX;
+					int py = y - minY;
+					long w1 = edgeAt(0, px, py);
+					long w2 = edgeAt(1, px, py);
+					long w3 = edgeAt(2, px, py);
+					float q = q0 + qx * px + qy * py;
+
+					// Texel coordinates are exact at both ends of the span and linear in between, in 16.16
+					int u = 0, v = 0, du = 0, dv = 0;
+					if (textured) {
+						float uLeft = (s0 + sx * px + sy * py) / q;
+						float vLeft = (t0 + tx * px + ty * py) / q;
+						if (span > 0) {
+							float qRight = q + qx * span;
+							float uRight = (s0 + sx * (px + span) + sy * py) / qRight;
+							float vRight = (t0 + tx * (px + span) + ty * py) / qRight;
+							du = (int) ((uRight - uLeft) * 65536 / span);
+							dv = (int) ((vRight - vLeft) * 65536 / span);
 						}
-						gc.drawLine(x, y, x, y);
+						u = (int) (uLeft * 65536);
+						v = (int) (vLeft * 65536);
 					}
+					for (int i = y * width + left, end = i + span; i <= end; i++) {
+						if (covered || (w1 | w2 | w3) >= 0) {
+							int depth = (int) (q * DEPTH_SCALE);
+							if (depth >= zbuffer[i]) {
+								zbuffer[i] = depth;
+								if (textured) {
+									int texelX = Math.max(Math.min(u >> 16, textureWidth - 1), 0);
+									int texelY = Math.max(Math.min(v >> 16, textureHeight - 1), 0);
+									pixels[i] = texels[texelY * textureWidth + texelX];
+								} else {
+									pixels[i] = color;
+								}
+								written = true;
+							}
+						}
+						w1 += edgeStepX[0];
+						w2 += edgeStepX[1];
+						w3 += edgeStepX[2];
+						q += qx;
+						u += du;
+						v += dv;
+					}
+				}
+				if (written) {
+					updateTileDepth(tileX, tileY, tile);
 				}
 			}
 		}
 	}
 
+	/**
+	 * Set the edge function from (xa, ya) to (xb, yb), positive inside the triangle.
+	 * Pixels on the edge belong to the triangle if it is a top or a left edge.
+	 */
+	private void setupEdge(int e, int xa, int ya, int xb, int yb, int minX, int minY) {
+		long dx = xb - xa;
+		long dy = yb - ya;
+		boolean topLeft = dy < 0 || (dy == 0 && dx > 0);
+		edge[e] = dx * (((long) minY << SUBPIXEL_BITS) - ya) - dy * (((long) minX << SUBPIXEL_BITS) - xa)
+				- (topLeft ? 0 : 1);
+		edgeStepX[e] = -dy << SUBPIXEL_BITS;
+		edgeStepY[e] = dx << SUBPIXEL_BITS;
+	}
+
+	private long edgeAt(int e, int x, int y) {
+		return edge[e] + edgeStepX[e] * x + edgeStepY[e] * y;
+	}
+
+	private void updateTileDepth(int tileX, int tileY, int tile) {
+		int farthest = Integer.MAX_VALUE;
+		int right = Math.min(tileX + TILE_SIZE, width);
+		int bottom = Math.min(tileY + TILE_SIZE, height);
+		for (int y = tileY; y < bottom; y++) {
+			for (int i = y * width + tileX, end = y * width + right; i < end; i++) {
+				farthest = Math.min(farthest, zbuffer[i]);
+			}
+		}
+		tileDepth[tile] = farthest;
+	}
 }
@@ -25,10 +25,13 @@ import com.badlogic.gdx.scenes.scene2d.Stage;
 import com.badlogic.gdx.utils.IntIntMap;
 import com.badlogic.gdx.utils.IntMap;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import javax.microedition.lcdui.event.CanvasEvent;
 import javax.microedition.lcdui.event.Event;
 import javax.microedition.lcdui.event.EventFilter;
 import javax.microedition.lcdui.event.EventQueue;
+import javax.microedition.lcdui.overlay.DamageOverlay;
 import javax.microedition.lcdui.overlay.FpsCounter;
 import javax.microedition.lcdui.overlay.Overlay;
 import javax.microedition.lcdui.pointer.FixedKeyboard;
@@ -242,6 +245,78 @@ public abstract class Canvas extends Displayable {
 		Display.postEvent(CanvasEvent.getInstance(this, CanvasEvent.KEY_REPEATED, convertKeyCode(keyCode)));
 	}
 
+	/**
+	 * Queue a pointer press given in real screen coordinates.
+	 * The event comes from a preallocated pool, so input allocates nothing.
+	 */
+	public void postPointerPressed(int pointer, float x, float y) {
+		if (touchInput) {
+			Display.postEvent(CanvasEvent.getInstance(this, CanvasEvent.POINTER_PRESSED, pointer,
+					convertPointerX(x), convertPointerY(y)));
+		}
+	}
+
+	public void postPointerDragged(int pointer, float x, float y) {
+		if (touchInput) {
+			Display.postEvent(CanvasEvent.getInstance(this, CanvasEvent.POINTER_DRAGGED, pointer,
+					convertPointerX(x), convertPointerY(y)));
+		}
+	}
+
+	public void postPointerReleased(int pointer, float x, float y) {
+		if (touchInput) {
+			Display.postEvent(CanvasEvent.getInstance(this, CanvasEvent.POINTER_RELEASED, pointer,
+					convertPointerX(x), convertPointerY(y)));
+		}
+	}
+
+	/**
+	 * Touch input of the stage. Actors of the stage get the first chance to
+	 * handle it, then the overlay, and whatever is left goes to the MIDlet.
+	 * Stage takes its input events from a pool, so this allocates nothing.
+	 */
+	@Override
+	public boolean touchDown(int screenX, int screenY, int pointer, int button) {
+		if (super.touchDown(screenX, screenY, pointer, button)) {
+			return true;
+		}
+		Overlay overlay = this.overlay;
+		if (overlay != null && pointer == 0) {
+			overlay.show();
+		}
+		if (overlay == null || !overlay.pointerPressed(pointer, screenX, screenY)) {
+			postPointerPressed(pointer, screenX, screenY);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean touchDragged(int screenX, int screenY, int pointer) {
+		if (super.touchDragged(screenX, screenY, pointer)) {
+			return true;
+		}
+		Overlay overlay = this.overlay;
+		if (overlay == null || !overlay.pointerDragged(pointer, screenX, screenY)) {
+			postPointerDragged(pointer, screenX, screenY);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean touchUp(int screenX, int screenY, int pointer, int button) {
+		if (super.touchUp(screenX, screenY, pointer, button)) {
+			return true;
+		}
+		Overlay overlay = this.overlay;
+		if (overlay != null && pointer == 0) {
+			overlay.hide();
+		}
+		if (overlay == null || !overlay.pointerReleased(pointer, screenX, screenY)) {
+			postPointerReleased(pointer, screenX, screenY);
+		}
+		return true;
+	}
+
 //	private class InnerView extends SurfaceView implements SurfaceHolder.Callback {
 //
 //		OverlayView overlayView;
@@ -417,7 +492,7 @@ public abstract class Canvas extends Displayable {
 
 	private class PaintEvent extends Event implements EventFilter {
 
-		private Graphics mGraphics = new Graphics();
+		private Graphics mGraphics = Graphics.isSoftwareRendering() ? new SoftwareGraphics() : new Graphics();
 
 		@Override
 		public void process() {
@@ -426,15 +501,39 @@ public abstract class Canvas extends Displayable {
 				}
 				Graphics g = this.mGraphics;
 				//g.setCanvas(offscreen.getCanvas(), offscreen.getBitmap());
+				if (softwareRendering) {
+					((SoftwareGraphics) g).setTarget(offscreen);
+				}
 				g.reset();
+				Rectangle damage = Canvas.this.damage;
+				int state = dirtyRegion.take(damage, (int) getWidth(), (int) getHeight());
+				if (state == DirtyRegion.CLEAN) {
+					// nothing to paint, and the screen already shows the last frame
+					return;
+				}
+				boolean partial = state == DirtyRegion.PARTIAL;
+				int x = (int) damage.x;
+				int y = (int) damage.y;
+				int width = (int) damage.width;
+				int height = (int) damage.height;
+				if (partial) {
+					g.setClip(x, y, width, height);
+				}
 				try {
 					paint(g);
 				} catch (Throwable t) {
 					t.printStackTrace();
 				}
-				offscreen.copyPixels(offscreenCopy);
+				g.flush();
+				if (softwareRendering) {
+					softwareFrame = offscreen;
+				} else if (partial) {
+					offscreen.copyPixels(offscreenCopy, x, y, width, height);
+				} else {
+					offscreen.copyPixels(offscreenCopy);
+				}
 				if (!parallelRedraw) {
-					repaintScreen();
+					repaintScreen(partial);
 				}
 		}
 
@@ -442,27 +541,27 @@ public abstract class Canvas extends Displayable {
 		public void recycle() {
 		}
 
-		private int enqueued = 0;
+		private final AtomicBoolean pending = new AtomicBoolean();
 
 		@Override
 		public void enterQueue() {
-			enqueued++;
 		}
 
 		@Override
 		public void leaveQueue() {
-			enqueued--;
+			pending.set(false);
 		}
 
 		/**
-		 * The queue should contain no more than two repaint events
+		 * The queue should contain no more than one repaint event,
+		 * it paints everything that was requested until it is processed.
 		 * <p>
-		 * One won't be smooth enough, and if you add more than two,
-		 * then how to determine exactly how many of them need to be added?
+		 * Once the event is taken out for painting, the next repaint()
+		 * queues it again.
 		 */
 		@Override
-		public boolean placeableAfter(Event event) {
-			return event != this;
+		public boolean coalesce() {
+			return !pending.compareAndSet(false, true);
 		}
 
 		@Override
@@ -476,9 +575,11 @@ public abstract class Canvas extends Displayable {
 	private final Object paintSync = new Object();
 
 	private PaintEvent paintEvent = new PaintEvent();
+	private final DirtyRegion dirtyRegion = new DirtyRegion();
+	private final Rectangle damage = new Rectangle();
 
 //	private InnerView innerView;
-	private Graphics graphics = new Graphics();
+	private Graphics graphics = Graphics.isHeadless() ? null : new Graphics();
 
 	private float maxHeight;
 
@@ -496,6 +597,7 @@ public abstract class Canvas extends Displayable {
 	private static boolean parallelRedraw;
 	private static boolean forceFullscreen;
 	private static boolean showFps;
+	private static boolean showDamage;
 	private static int backgroundColor;
 	private static int scaleRatio;
 	private static int fpsLimit;
@@ -503,11 +605,17 @@ public abstract class Canvas extends Displayable {
 
 	private Image offscreen;
 	private Image offscreenCopy;
+	/**
+	 * The last frame drawn by {@link SoftwareGraphics}, uploaded as a whole on composition
+	 */
+	private Image softwareFrame;
+	private final boolean softwareRendering = Graphics.isSoftwareRendering();
 	private int onX, onY, onWidth, onHeight;
 	private long lastFrameTime = System.currentTimeMillis();
 
 	private Overlay overlay;
 	private FpsCounter fpsCounter;
+	private DamageOverlay damageOverlay;
 
 	public Canvas() {
 		displayWidth = ContextHolder.getDisplayWidth();
@@ -518,6 +626,9 @@ public abstract class Canvas extends Displayable {
 		} else {
 			updateSize();
 		}
+		if (showDamage) {
+			damageOverlay = new DamageOverlay();
+		}
 	}
 
 	public static void setScale(boolean scaleToFit, boolean keepAspectRatio, int scaleRatio) {
@@ -558,6 +669,10 @@ public abstract class Canvas extends Displayable {
 		Canvas.showFps = showFps;
 	}
 
+	public static void setShowDamage(boolean showDamage) {
+		Canvas.showDamage = showDamage;
+	}
+
 	public static void setLimitFps(boolean limitFps, int fpsLimit) {
 		Canvas.fpsLimit = limitFps ? fpsLimit : 0;
 	}
@@ -712,6 +827,7 @@ public abstract class Canvas extends Displayable {
 		if (overlay != null) {
 			overlay.resize(screen, virtualScreen);
 		}
+		dirtyRegion.invalidate();
 	}
 
 	/**
@@ -778,6 +894,10 @@ public abstract class Canvas extends Displayable {
 	}
 
 	public final void repaint(int x, int y, int width, int height) {
+		if (width <= 0 || height <= 0) {
+			return;
+		}
+		dirtyRegion.add(x, y, width, height);
 		limitFps();
 		Display.postEvent(paintEvent);
 	}
@@ -785,9 +905,13 @@ public abstract class Canvas extends Displayable {
 	// GameCanvas
 	public void flushBuffer(Image image) {
 		limitFps();
-			image.copyPixels(offscreenCopy);
+			if (softwareRendering) {
+				softwareFrame = image;
+			} else {
+				image.copyPixels(offscreenCopy);
+			}
 			if (!parallelRedraw) {
-				repaintScreen();
+				repaintScreen(false);
 			}
 	}
 
@@ -802,13 +926,51 @@ public abstract class Canvas extends Displayable {
 		lastFrameTime = System.currentTimeMillis();
 	}
 
-	private boolean repaintScreen() {
+	/**
+	 * Compose the virtual screen onto the real one.
+	 * <p>
+	 * Only the offscreen image is painted partially. The back buffer is not
+	 * preserved across swaps, so the whole image is always composed.
+	 *
+	 * @param partial if true, only the area in {@link #damage} was repainted
+	 */
+	private boolean repaintScreen(boolean partial) {
+		if (graphics == null) {
+			// headless, there is no screen to compose to
+			if (fpsCounter != null) {
+				fpsCounter.increment();
+			}
+			return true;
+		}
 		try {
 			Graphics g = this.graphics;
+			g.setClip(0, 0, displayWidth, displayHeight);
 			g.clear(backgroundColor);
-			g.drawImage(offscreenCopy, onX, onY, onWidth, onHeight, filter, 255);
+			if (softwareFrame != null) {
+				g.drawPixels(softwareFrame.getPixels(), softwareFrame.getWidth(), softwareFrame.getHeight(),
+						onX, onY, onWidth, onHeight);
+			} else {
+				g.drawImage(offscreenCopy, onX, onY, onWidth, onHeight, filter, 255);
+			}
+			if (damageOverlay != null) {
+				int x = onX, y = onY, width = onWidth, height = onHeight;
+				if (partial) {
+					// map the dirty rectangle to the screen, rounding outwards
+					float scaleX = onWidth / getWidth();
+					float scaleY = onHeight / getHeight();
+					x = onX + (int) Math.floor(damage.x * scaleX);
+					y = onY + (int) Math.floor(damage.y * scaleY);
+					width = (int) Math.ceil(damage.width * scaleX);
+					height = (int) Math.ceil(damage.height * scaleY);
+				}
+				damageOverlay.addDamage(x, y, width, height, partial);
+				damageOverlay.paint(g);
+			}
+			g.flush();
 			if (fpsCounter != null) {
 				fpsCounter.increment();
+				fpsCounter.setBatchStats(paintEvent.mGraphics.getDrawCallCount() + g.getDrawCallCount(),
+						paintEvent.mGraphics.getFlushCount() + g.getFlushCount());
 			}
 		} catch (Exception e) {
 			Gdx.app.log(TAG, "repaintScreen: " + e);
@@ -0,0 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui;
+
+import com.badlogic.gdx.math.Rectangle;
+
+/**
+ * Accumulates the rectangles passed to repaint() between two frames.
+ * <p>
+ * The rectangles are merged into their bounding box: MIDlets usually repaint
+ * one compact area (a HUD strip, a menu cursor), and a single rectangle keeps
+ * the paint clip to one scissor.
+ */
+class DirtyRegion {
+	private int left, top, right, bottom;
+	private boolean empty = true;
+	private boolean full;
+
+	/**
+	 * Add a rectangle to the region.
+	 */
+	public synchronized void add(int x, int y, int width, int height) {
+		if (width <= 0 || height <= 0 || full) {
+			return;
+		}
+		if (empty) {
+			left = x;
+			top = y;
+			right = x + width;
+			bottom = y + height;
+			empty = false;
+		} else {
+			left = Math.min(left, x);
+			top = Math.min(top, y);
+			right = Math.max(right, x + width);
+			bottom = Math.max(bottom, y + height);
+		}
+	}
+
+	/**
+	 * Mark the whole surface as dirty, e.g. after a resize or when the canvas is shown.
+	 */
+	public synchronized void invalidate() {
+		full = true;
+		empty = false;
+	}
+
+	/**
+	 * Nothing was repainted since the last frame.
+	 */
+	public static final int CLEAN = 0;
+	/**
+	 * Only the rectangle returned by {@link #take(Rectangle, int, int)} is dirty.
+	 */
+	public static final int PARTIAL = 1;
+	/**
+	 * The whole surface has to be redrawn.
+	 */
+	public static final int FULL = 2;
+
+	/**
+	 * Move the accumulated region into out and start a new frame.
+	 *
+	 * @param out    receives the dirty rectangle clamped to the surface
+	 * @param width  surface width
+	 * @param height surface height
+	 * @return {@link #CLEAN}, {@link #PARTIAL} or {@link #FULL}
+	 */
+	public synchronized int take(Rectangle out, int width, int height) {
+		int state;
+		if (full) {
+			state = FULL;
+		} else if (empty) {
+			state = CLEAN;
+		} else {
+			int l = Math.max(left, 0);
+			int t = Math.max(top, 0);
+			int r = Math.min(right, width);
+			int b = Math.min(bottom, height);
+			out.set(l, t, Math.max(r - l, 0), Math.max(b - t, 0));
+			if (out.width == 0 || out.height == 0) {
+				// only the outside of the surface was repainted
+				state = CLEAN;
+			} else if (out.width < width || out.height < height) {
+				state = PARTIAL;
+			} else {
+				state = FULL;
+			}
+		}
+		if (state != PARTIAL) {
+			out.set(0, 0, width, height);
+		}
+		empty = true;
+		full = false;
+		return state;
+	}
+}
@@ -21,8 +21,7 @@ import com.badlogic.gdx.graphics.g2d.BitmapFont;
 import ja.mgdx.JaMGDx;
 
 import java.util.Arrays;
-
-import javax.microedition.util.ContextHolder;
+import java.util.HashMap;
 
 public class Font {
 	public static final int FACE_MONOSPACE = 32;
@@ -40,8 +39,19 @@ public class Font {
 
 	private static final int SIZE_KEYBOARD = 22;
 
+	// Advances of the characters below this are kept in an array: Latin and Cyrillic
+	private static final int DENSE_CHARS = 0x500;
+
 	private static float[] sizes = new float[]{18, 22, 26};
 
+	// Fonts by face, style and size
+	private static final HashMap<Integer, Font> fonts = new HashMap<>();
+
+	// Scaled fonts by skin font and pixel size
+	private static final HashMap<String, Glyphs> scaledFonts = new HashMap<>();
+
+	private static Glyphs keyboardGlyphs;
+
 	public static void setSize(int size, float value) {
 		switch (size) {
 			case SIZE_SMALL:
@@ -59,92 +69,126 @@ public class Font {
 			default:
 				return;
 		}
+		synchronized (fonts) {
+			fonts.clear();
+		}
 	}
 
+	/**
+	 * The returned font is shared by every Font of the same face and size and must not be changed.
+	 */
 	public BitmapFont getPaint() {
 		return paint;
 	}
 
-	private BitmapFont paint;
+	private final BitmapFont paint;
+	private final Glyphs glyphs;
 	private int face, style ,size;
 
 	public Font(BitmapFont paint,int face, int style ,int size, boolean underline) {
-		this.paint =paint;
+		this(new Glyphs(paint), face, style, size);
+	}
+
+	private Font(Glyphs glyphs, int face, int style, int size) {
+		this.glyphs = glyphs;
+		this.paint = glyphs.paint;
 		this.style = style;
 		this.face = face;
 		this.size = size;
-//		paint.setTypeface(Typeface.create(face, style));
-//		paint.setUnderlineText(underline);
-//
-//		paint.setTextSize(size);                                             // at first, just set the size (no matter what is put here)
-//		paint.setTextSize(size * size / (paint.descent() - paint.ascent())); // and now we set the size equal to the given one (in pixels)
 	}
 
 	// Font for keyboard
 	public Font() {
-//		AssetManager manager = ContextHolder.getAppContext().getAssets();
-//		Typeface typeface = Typeface.createFromAsset(manager, "Roboto-Regular.ttf");
-//		paint.setTypeface(typeface);
-//		float size = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, SIZE_KEYBOARD,
-//				ContextHolder.getAppContext().getResources().getDisplayMetrics());
-//		paint.setTextSize(size);
-		paint = new BitmapFont();
-		paint.getData().scale(SIZE_KEYBOARD/14);
+		this(getKeyboardGlyphs(), FACE_SYSTEM, STYLE_PLAIN, SIZE_MEDIUM);
+	}
+
+	private static synchronized Glyphs getKeyboardGlyphs() {
+		if (keyboardGlyphs == null) {
+			BitmapFont paint = new BitmapFont();
+			paint.getData().scale(SIZE_KEYBOARD/14);
+			keyboardGlyphs = new Glyphs(paint);
+		}
+		return keyboardGlyphs;
 	}
 
 	public static Font getFont(int fontSpecifier) {
 		return getDefaultFont();
 	}
 
+	/**
+	 * @return the font of that face, style and size, the same instance for the same arguments
+	 */
 	public static Font getFont(int face, int style, int size) {
-
-			BitmapFont typeface;
-			boolean underline;
-
-			switch (face) {
-				case FACE_MONOSPACE:
-					typeface = JaMGDx.skin.getFont("FACE_MONOSPACE");
-					break;
-
-				case FACE_PROPORTIONAL:
-					typeface = JaMGDx.skin.getFont("FACE_PROPORTIONAL");
-					break;
-
-				default:
-				case FACE_SYSTEM:
-					typeface = JaMGDx.skin.getFont("default-font");
-					break;
+		if (face != FACE_MONOSPACE && face != FACE_PROPORTIONAL) {
+			face = FACE_SYSTEM;
+		}
+		if (size != SIZE_SMALL && size != SIZE_LARGE) {
+			size = SIZE_MEDIUM;
+		}
+		Integer key = face << 16 | (style & 0xFF) << 8 | size;
+		synchronized (fonts) {
+			Font font = fonts.get(key);
+			if (font == null) {
+				// Bold, italic and underline have no font of their own
+				font = new Font(getGlyphs(face, size), face, style, size);
+				fonts.put(key, font);
 			}
+			return font;
+		}
+	}
 
-			if ((style & STYLE_BOLD) != 0) {
+	/**
+	 * @return the skin font of a face scaled to the pixel size of a size
+	 */
+	private static Glyphs getGlyphs(int face, int size) {
+		String name;
+		switch (face) {
+			case FACE_MONOSPACE:
+				name = "FACE_MONOSPACE";
+				break;
 
-			}
+			case FACE_PROPORTIONAL:
+				name = "FACE_PROPORTIONAL";
+				break;
 
-			if ((style & STYLE_ITALIC) != 0) {
+			default:
+			case FACE_SYSTEM:
+				name = "default-font";
+				break;
+		}
+		float fsize;
+		switch (size) {
+			case SIZE_SMALL:
+				fsize = sizes[0];
+				break;
 
-			}
+			default:
+			case SIZE_MEDIUM:
+				fsize = sizes[1];
+				break;
 
-			underline = (style & STYLE_UNDERLINED) != 0;
-			float fsize;
-			switch (size) {
-				case SIZE_SMALL:
-					fsize = sizes[0];
-					break;
-
-				default:
-				case SIZE_MEDIUM:
-					fsize = sizes[1];
-					break;
-
-				case SIZE_LARGE:
-					fsize = sizes[2];
-					break;
+			case SIZE_LARGE:
+				fsize = sizes[2];
+				break;
+		}
+		String key = name + '@' + fsize;
+		Glyphs glyphs = scaledFonts.get(key);
+		if (glyphs == null) {
+			BitmapFont skinFont = JaMGDx.skin.getFont(name);
+			BitmapFont.BitmapFontData source = skinFont.getData();
+			BitmapFont paint = skinFont;
+			if (source.fontFile != null) {
+				// A copy of the font data sharing the skin textures, so the skin font keeps its scale
+				paint = new BitmapFont(new BitmapFont.BitmapFontData(source.fontFile, source.flipped),
+						skinFont.getRegions(), skinFont.usesIntegerPositions());
+				BitmapFont.BitmapFontData data = paint.getData();
+				float scale = fsize / data.lineHeight;
+				data.setScale(scale);
 			}
-
-			Font font = new Font(typeface, face, style, size, underline);
-			font.setTextSize(fsize);
-
-		return font;
+			glyphs = new Glyphs(paint);
+			scaledFonts.put(key, glyphs);
+		}
+		return glyphs;
 	}
 
 	public static Font getDefaultFont() {
@@ -154,9 +198,6 @@ public class Font {
 	public float getTextSize() {
 		return paint.getData().xHeight;
 	}
-	public void setTextSize(float size) {
-		paint.getData().scale(size/paint.getXHeight());
-	}
 
 	public int getFace() {
 		return face;
@@ -171,30 +212,35 @@ public class Font {
 	}
 
 	public int getHeight() {
-		return (int)paint.getXHeight();
+		return glyphs.height;
 	}
 
 	public int getBaselinePosition() {
-		return (int)paint.getData().padBottom;
+		return glyphs.baseline;
 	}
 
 	public int charWidth(char c) {
-		return paint.getData().getGlyph(c).width;
+		return (int) glyphs.getAdvance(c);
 	}
 
 	public int charsWidth(char[] ch, int offset, int length) {
-		int charsWidth = 0;
-		for(int i = offset;i < length; i++)
-			charsWidth += charWidth(ch[i]);
-		return charsWidth;
+		float charsWidth = 0;
+		for (int i = offset; i < offset + length; i++) {
+			charsWidth += glyphs.getAdvance(ch[i]);
+		}
+		return (int) charsWidth;
 	}
 
 	public int stringWidth(String text) {
-		return charsWidth(text.toCharArray(),0,text.length());
+		return substringWidth(text, 0, text.length());
 	}
 
-	public int substringWidth(String str, int i, int i2) {
-		return stringWidth(str.substring(i,i2));
+	public int substringWidth(String str, int offset, int len) {
+		float width = 0;
+		for (int i = offset; i < offset + len; i++) {
+			width += glyphs.getAdvance(str.charAt(i));
+		}
+		return (int) width;
 	}
 
 	public static int getFontStyle(int index) {
@@ -216,4 +262,65 @@ public class Font {
 	public boolean isItalic() {
 		return style == STYLE_ITALIC;
 	}
+
+	/**
+	 * Metrics of a scaled font, computed once: advances of the Latin and Cyrillic
+	 * characters by code, those of the other characters sorted by code.
+	 * Characters without a glyph have no width, as they are not drawn.
+	 */
+	private static final class Glyphs {
+		final BitmapFont paint;
+		final float[] advances = new float[DENSE_CHARS];
+		final char[] sparseChars;
+		final float[] sparseAdvances;
+		final int height;
+		final int baseline;
+
+		Glyphs(BitmapFont paint) {
+			this.paint = paint;
+			BitmapFont.BitmapFontData data = paint.getData();
+			int sparse = 0;
+			for (BitmapFont.Glyph[] page : data.glyphs) {
+				if (page == null) {
+					continue;
+				}
+				for (BitmapFont.Glyph glyph : page) {
+					if (glyph == null) {
+						continue;
+					}
+					if (glyph.id < DENSE_CHARS) {
+						advances[glyph.id] = glyph.xadvance * data.scaleX;
+					} else {
+						sparse++;
+					}
+				}
+			}
+			sparseChars = new char[sparse];
+			sparseAdvances = new float[sparse];
+			// Pages are in character order, so are the sparse characters
+			int i = 0;
+			for (BitmapFont.Glyph[] page : data.glyphs) {
+				if (page == null) {
+					continue;
+				}
+				for (BitmapFont.Glyph glyph : page) {
+					if (glyph != null && glyph.id >= DENSE_CHARS) {
+						sparseChars[i] = (char) glyph.id;
+						sparseAdvances[i] = glyph.xadvance * data.scaleX;
+						i++;
+					}
+				}
+			}
+			height = (int) data.lineHeight;
+			baseline = (int) data.capHeight;
+		}
+
+		float getAdvance(char c) {
+			if (c < DENSE_CHARS) {
+				return advances[c];
+			}
+			int i = Arrays.binarySearch(sparseChars, c);
+			return i >= 0 ? sparseAdvances[i] : 0;
+		}
+	}
 }
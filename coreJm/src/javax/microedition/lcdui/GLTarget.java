@@ -0,0 +1,168 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package javax.microedition.lcdui;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.glutils.FrameBuffer;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.BufferUtils;
+import com.badlogic.gdx.utils.Disposable;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * A rectangle that 3D APIs draw to straight through GL, shared by the m3g and
+ * micro3d renderers.
+ * <p>
+ * A {@link Graphics} drawn through GL is drawn to in place. Other graphics,
+ * software rendering and targets without a graphics are drawn to an offscreen
+ * framebuffer, which is read back at {@link #end()} and drawn to the graphics
+ * with drawRGB(), if any. Must be used on the GL thread.
+ */
+public class GLTarget implements Disposable {
+	private Graphics graphics;
+	private int clipX, clipY, clipWidth, clipHeight;
+	private boolean offscreen;
+
+	private FrameBuffer framebuffer;
+	private boolean framebufferDepth;
+	private final IntBuffer savedViewport = BufferUtils.newIntBuffer(16);
+	private final IntBuffer savedFramebuffer = BufferUtils.newIntBuffer(16);
+	private ByteBuffer readback;
+	private int[] readbackPixels;
+
+	/**
+	 * Set the rectangle to draw to, in untranslated coordinates.
+	 *
+	 * @param graphics the graphics to draw to, or null to only read back
+	 *                 the offscreen framebuffer
+	 */
+	public void set(Graphics graphics, int x, int y, int width, int height) {
+		this.graphics = graphics;
+		clipX = x;
+		clipY = y;
+		clipWidth = width;
+		clipHeight = height;
+		offscreen = graphics == null || !graphics.hasCanvas() || Graphics.isSoftwareRendering();
+	}
+
+	/**
+	 * @return true if drawing goes to the offscreen framebuffer
+	 */
+	public boolean isOffscreen() {
+		return offscreen;
+	}
+
+	/**
+	 * Save the GL viewport and framebuffer and, when offscreen, bind the
+	 * offscreen framebuffer and clear it to transparent black.
+	 *
+	 * @param depth true if a depth buffer is needed, which is then cleared too
+	 */
+	public void begin(boolean depth) {
+		GL20 gl = Gdx.gl;
+		gl.glGetIntegerv(GL20.GL_VIEWPORT, savedViewport);
+		gl.glGetIntegerv(GL20.GL_FRAMEBUFFER_BINDING, savedFramebuffer);
+		if (!offscreen) {
+			return;
+		}
+		if (framebuffer == null || framebuffer.getWidth() != clipWidth
+				|| framebuffer.getHeight() != clipHeight || framebufferDepth != depth) {
+			if (framebuffer != null) {
+				framebuffer.dispose();
+			}
+			framebuffer = new FrameBuffer(Pixmap.Format.RGBA8888, clipWidth, clipHeight, depth);
+			framebufferDepth = depth;
+		}
+		framebuffer.bind();
+		gl.glViewport(0, 0, clipWidth, clipHeight);
+		gl.glDisable(GL20.GL_SCISSOR_TEST);
+		gl.glDepthMask(true);
+		gl.glClearColor(0, 0, 0, 0);
+		gl.glClearDepthf(1);
+		gl.glClear(GL20.GL_COLOR_BUFFER_BIT | (depth ? GL20.GL_DEPTH_BUFFER_BIT : 0));
+	}
+
+	/**
+	 * Restore the GL viewport and framebuffer and, when offscreen, read the
+	 * offscreen framebuffer back and draw it to the graphics.
+	 *
+	 * @return the pixels read back as RGBA bytes, bottom row first, or null
+	 * if not offscreen. Valid until the next call.
+	 */
+	public ByteBuffer end() {
+		GL20 gl = Gdx.gl;
+		if (offscreen) {
+			int size = clipWidth * clipHeight * 4;
+			if (readback == null || readback.capacity() < size) {
+				readback = BufferUtils.newByteBuffer(size);
+			}
+			readback.clear();
+			gl.glPixelStorei(GL20.GL_PACK_ALIGNMENT, 1);
+			gl.glReadPixels(0, 0, clipWidth, clipHeight, GL20.GL_RGBA, GL20.GL_UNSIGNED_BYTE, readback);
+		}
+		gl.glBindFramebuffer(GL20.GL_FRAMEBUFFER, savedFramebuffer.get(0));
+		gl.glViewport(savedViewport.get(0), savedViewport.get(1), savedViewport.get(2), savedViewport.get(3));
+		if (!offscreen) {
+			return null;
+		}
+		if (graphics != null) {
+			drawReadback();
+		}
+		return readback;
+	}
+
+	/**
+	 * Map a rectangle in untranslated coordinates to framebuffer pixels.
+	 */
+	public void mapRect(int x, int y, int width, int height, Rectangle out) {
+		if (offscreen) {
+			out.set(x - clipX, clipHeight - (y - clipY) - height, width, height);
+		} else {
+			graphics.toFramebuffer(x, y, width, height, out);
+		}
+	}
+
+	@Override
+	public void dispose() {
+		if (framebuffer != null) {
+			framebuffer.dispose();
+			framebuffer = null;
+		}
+	}
+
+	private void drawReadback() {
+		int count = clipWidth * clipHeight;
+		if (readbackPixels == null || readbackPixels.length < count) {
+			readbackPixels = new int[count];
+		}
+		for (int row = 0; row < clipHeight; row++) {
+			int src = (clipHeight - 1 - row) * clipWidth * 4;
+			int dst = row * clipWidth;
+			for (int col = 0; col < clipWidth; col++, src += 4) {
+				readbackPixels[dst + col] = (readback.get(src + 3) & 0xFF) << 24
+						| (readback.get(src) & 0xFF) << 16
+						| (readback.get(src + 1) & 0xFF) << 8
+						| (readback.get(src + 2) & 0xFF);
+			}
+		}
+		graphics.drawRGB(readbackPixels, 0, clipWidth,
+				clipX - graphics.getTranslateX(), clipY - graphics.getTranslateY(), clipWidth, clipHeight, true);
+	}
+}
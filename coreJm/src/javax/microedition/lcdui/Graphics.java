@@ -17,13 +17,13 @@
 
 package javax.microedition.lcdui;
 
+import com.badlogic.gdx.Application;
+import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.Pixmap;
-import com.badlogic.gdx.graphics.Texture;
-import com.badlogic.gdx.graphics.g2d.SpriteBatch;
-import com.badlogic.gdx.graphics.glutils.FrameBuffer;
-import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.scenes.scene2d.utils.ScissorStack;
 import com.badlogic.gdx.utils.FloatArray;
 import com.badlogic.gdx.utils.ScreenUtils;
 
@@ -40,44 +40,124 @@ public class Graphics {
 	public static final int SOLID = 0;
 	public static final int DOTTED = 1;
 
+	private static final float WHITE_PACKED = Color.WHITE.toFloatBits();
+
+	private static boolean softwareRendering;
+
 	private Canvas canvas;
 	private Pixmap canvasBitmap;
 
-	private ShapeRenderer drawRender = new ShapeRenderer();
-	private SpriteBatch spriteBatch = new SpriteBatch();
+	private GraphicsBatch batch;
+	private StreamingTexture.Pool rgbTextures;
+	private Color color = new Color(Color.BLACK);
+	private float colorPacked = color.toFloatBits();
+	/**
+	 * The current color in ARGB, kept for the software renderer
+	 */
+	int argb = 0xFF000000;
 
 	private Rectangle clipRect = new Rectangle();
+	private Rectangle scissors = new Rectangle();
+	private final Rectangle framebufferArea = new Rectangle();
 	private int translateX;
 	private int translateY;
 
 	private FloatArray path = new FloatArray();
+	private float[] triangle = new float[6];
 
 	private int stroke;
 
 	private Font font = new Font();
+	private final TextLayoutCache textLayouts = new TextLayoutCache();
+	private final char[] singleChar = new char[1];
 
 	public Graphics() {
+		this(true);
+	}
+
+	/**
+	 * @param hardware if false, no GL resources are created and a subclass does the drawing
+	 */
+	Graphics(boolean hardware) {
+		if (hardware) {
+			batch = new GraphicsBatch();
+			rgbTextures = new StreamingTexture.Pool(batch);
+		}
 		setStrokeStyle(SOLID);
 	}
 
+	/**
+	 * Render MIDlet graphics on the CPU with {@link SoftwareGraphics}
+	 * instead of GL. Always on when there is no GL context.
+	 */
+	public static void setSoftwareRendering(boolean softwareRendering) {
+		Graphics.softwareRendering = softwareRendering;
+	}
+
+	public static boolean isSoftwareRendering() {
+		return softwareRendering || isHeadless();
+	}
+
+	/**
+	 * @return true if there is no display (and no GL context) at all
+	 */
+	public static boolean isHeadless() {
+		return Gdx.app == null || Gdx.app.getType() == Application.ApplicationType.HeadlessDesktop;
+	}
+
+	/**
+	 * Release the textures used by drawRGB(). Must be called on the GL thread
+	 * when the context may be lost, and on exit.
+	 */
+	public static void disposeStreamingTextures() {
+		StreamingTexture.Pool.disposeAll();
+	}
+
 	public void reset() {
 		setColor(0);
 		setFont(Font.getDefaultFont());
 		setStrokeStyle(SOLID);
-		resetClip();
 		resetTranslation();
+		resetClip();
 	}
 
 	private void resetTranslation() {
 		translateX = 0;
 		translateY = 0;
-		spriteBatch.getTransformMatrix().setTranslation(0,0,0);
 	}
 
 	private void resetClip() {
+		if (canvas == null) {
+			return;
+		}
+		batch.getProjectionMatrix().setToOrtho2D(0, 0, canvas.getWidth(), canvas.getHeight());
 		setClip(0, 0, (int)canvas.getWidth(), (int)canvas.getHeight());
 	}
 
+	/**
+	 * Submit everything drawn since the last flush and close the frame,
+	 * so that the per-frame counters become available.
+	 */
+	public void flush() {
+		if (batch.isDrawing()) {
+			batch.end();
+		}
+	}
+
+	/**
+	 * @return the number of draw calls issued in the last flushed frame
+	 */
+	public int getDrawCallCount() {
+		return batch.getFrameDrawCalls();
+	}
+
+	/**
+	 * @return the number of batch flushes in the last flushed frame
+	 */
+	public int getFlushCount() {
+		return batch.getFrameFlushes();
+	}
+
 	public void setCanvas(Canvas canvas, Pixmap canvasBitmap) {
 //		if (canvas.getSaveCount() > 1) {
 //			canvas.restoreToCount(1);
@@ -86,14 +166,14 @@ public class Graphics {
 //			canvas.save();
 //		}
 //		canvas.save();
-		clipRect.set(canvas.getRectangle());
 		this.canvas = canvas;
 		this.canvasBitmap = canvasBitmap;
+		resetClip();
 	}
 
 	public void setSurfaceCanvas(Canvas canvas) {
-		clipRect.set(canvas.getRectangle());
 		this.canvas = canvas;
+		resetClip();
 	}
 
 	public Canvas getCanvas() {
@@ -107,24 +187,21 @@ public class Graphics {
 	public void fillPolygon(int[] xPoints, int xOffset, int[] yPoints, int yOffset, int nPoints) {
 		if (nPoints > 0) {
 			FloatArray path = computePath(xPoints, xOffset, yPoints, yOffset, nPoints);
-			drawRender.set(ShapeRenderer.ShapeType.Filled);
-			drawRender.polygon(path.items);
+			batch.fillPolygon(path.items, nPoints, colorPacked);
 		}
 	}
 
 	public void drawPolygon(int[] xPoints, int xOffset, int[] yPoints, int yOffset, int nPoints) {
 		if (nPoints > 0) {
 			FloatArray path = computePath(xPoints, xOffset, yPoints, yOffset, nPoints);
-			drawRender.set(ShapeRenderer.ShapeType.Line);
-			drawRender.polygon(path.items);
+			batch.drawPolyline(path.items, nPoints, true, colorPacked);
 		}
 	}
 
 	private FloatArray computePath(int[] xPoints, int xOffset, int[] yPoints, int yOffset, int nPoints) {
 		path.clear();
-		path.add((float) xPoints[xOffset], (float) yPoints[yOffset]);
-		for (int i = 1; i < nPoints; i++) {
-			path.add((float) xPoints[xOffset + i], (float) yPoints[yOffset + i]);
+		for (int i = 0; i < nPoints; i++) {
+			path.add((float) (xPoints[xOffset + i] + translateX), (float) (yPoints[yOffset + i] + translateY));
 		}
 		return path;
 	}
@@ -134,11 +211,15 @@ public class Graphics {
 	}
 
 	public void setColorAlpha(int colorAlpha) {
-		drawRender.getColor().set(colorAlpha);
+		argb = colorAlpha;
+		Color.argb8888ToColor(color, colorAlpha);
+		colorPacked = color.toFloatBits();
 	}
 
 	public void setColor(int r, int g, int b) {
-		drawRender.setColor( r/255, g/255, b/255,1);
+		argb = 0xFF000000 | (r & 0xFF) << 16 | (g & 0xFF) << 8 | b & 0xFF;
+		color.set(r / 255f, g / 255f, b / 255f, 1);
+		colorPacked = color.toFloatBits();
 	}
 
 	public void setGrayScale(int value) {
@@ -150,19 +231,19 @@ public class Graphics {
 	}
 
 	public int getRedComponent() {
-		return (int)(drawRender.getColor().r*255);
+		return (int)(color.r*255);
 	}
 
 	public int getGreenComponent() {
-		return (int)(drawRender.getColor().g*255);
+		return (int)(color.g*255);
 	}
 
 	public int getBlueComponent() {
-		return (int)(drawRender.getColor().b*255);
+		return (int)(color.b*255);
 	}
 
 	public int getColor() {
-		return drawRender.getColor().toIntBits();
+		return Color.argb8888(color) & 0xFFFFFF;
 	}
 
 	public int getDisplayColor(int color) {
@@ -196,25 +277,53 @@ public class Graphics {
 	}
 
 	public void setClip(int x, int y, int width, int height) {
-		clipRect.set(x, y, width, height);
-		spriteBatch.getProjectionMatrix().setToOrtho2D(x , y, width, height);
-		spriteBatch.getTransformMatrix().setTranslation(translateX, translateY,0);
-		drawRender.getProjectionMatrix().setToOrtho2D(x , y, width, height);
+		clipRect.set(x + translateX, y + translateY, width, height);
+		applyClip();
 	}
 
 	public void clipRect(int x, int y, int width, int height) {
 		// Calculate the clip
-		clipRect.set(x, y, width, height);
-		//canvas.setBounds(x, y,  width,  height);
-		canvas.getViewport().setScreenBounds(x,y,width,height);
+		float left = Math.max(clipRect.x, x + translateX);
+		float top = Math.max(clipRect.y, y + translateY);
+		float right = Math.min(clipRect.x + clipRect.width, x + translateX + width);
+		float bottom = Math.min(clipRect.y + clipRect.height, y + translateY + height);
+		clipRect.set(left, top, Math.max(right - left, 0), Math.max(bottom - top, 0));
+		applyClip();
+	}
+
+	/**
+	 * The clip is kept in untranslated coordinates and converted to framebuffer
+	 * scissors only here, so that translate() never breaks the batch.
+	 */
+	private void applyClip() {
+		if (canvas == null) {
+			batch.setClip((int) clipRect.x, (int) clipRect.y, (int) clipRect.width, (int) clipRect.height);
+			return;
+		}
+		ScissorStack.calculateScissors(canvas.getCamera(), batch.getTransformMatrix(), clipRect, scissors);
+		batch.setClip(Math.round(scissors.x), Math.round(scissors.y),
+				Math.round(scissors.width), Math.round(scissors.height));
+	}
+
+	/**
+	 * Map a rectangle in untranslated coordinates to framebuffer pixels the
+	 * way the clip is mapped to scissors, for drawing straight through GL.
+	 */
+	public void toFramebuffer(int x, int y, int width, int height, Rectangle out) {
+		Rectangle area = framebufferArea.set(x, y, width, height);
+		if (canvas == null) {
+			out.set(area);
+			return;
+		}
+		ScissorStack.calculateScissors(canvas.getCamera(), batch.getTransformMatrix(), area, out);
 	}
 
 	public int getClipX() {
-		return (int)clipRect.getX();
+		return (int)clipRect.getX() - translateX;
 	}
 
 	public int getClipY() {
-		return (int)clipRect.getY();
+		return (int)clipRect.getY() - translateY;
 	}
 
 	public int getClipWidth() {
@@ -228,8 +337,6 @@ public class Graphics {
 	public void translate(int dx, int dy) {
 		translateX += dx;
 		translateY += dy;
-
-		spriteBatch.getProjectionMatrix().setTranslation(translateX, translateY,-1);
 	}
 
 	public int getTranslateX() {
@@ -245,86 +352,78 @@ public class Graphics {
 	}
 
 	public void drawLine(int x1, int y1, int x2, int y2) {
-		if (x2 >= x1) {
-			x2++;
-		} else {
-			x1++;
-		}
-
-		if (y2 >= y1) {
-			y2++;
-		} else {
-			y1++;
-		}
-		drawRender.line(x1, y1, x2, y2);
+		batch.drawLine(x1 + translateX, y1 + translateY, x2 + translateX, y2 + translateY, colorPacked);
 	}
 
 	public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
 		if (width <= 0 || height <= 0) return;
-//		rectF.set(x, y, x + width, y + height);
-//		canvas.drawArc(rectF, -startAngle, -arcAngle, false, drawRender);
-		drawRender.arc(x,y,1,1,1,1);
+		batch.drawArc(x + translateX, y + translateY, width, height, startAngle, arcAngle, colorPacked);
 	}
 
 	public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
 		if (width <= 0 || height <= 0) return;
-//		rectF.set(x, y, x + width, y + height);
-//		canvas.drawArc(rectF, -startAngle, -arcAngle, true, fillPaint);
-		drawRender.set(ShapeRenderer.ShapeType.Filled);
-		drawRender.arc(x,y,1,1,1,1);
+		batch.fillArc(x + translateX, y + translateY, width, height, startAngle, arcAngle, colorPacked);
 	}
 
 	public void drawRect(int x, int y, int width, int height) {
 		if (width <= 0 || height <= 0) return;
-		drawRender.rect(x, y, width, height);
+		batch.drawRect(x + translateX, y + translateY, width, height, colorPacked);
 	}
 
 	public void fillRect(int x, int y, int width, int height) {
 		if (width <= 0 || height <= 0) return;
-		drawRender.set(ShapeRenderer.ShapeType.Filled);
-		drawRender.rect(x, y, width, height);
+		batch.fillRect(x + translateX, y + translateY, width, height, colorPacked);
 	}
 
 	public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
 		if (width <= 0 || height <= 0) return;
-//		rectF.set(x, y, x + width, y + height);
-//		canvas.drawRoundRect(rectF, arcWidth, arcHeight, drawRender);
-		drawRender.rectLine(x, y, width, height, arcWidth);
+		batch.drawRoundRect(x + translateX, y + translateY, width, height, arcWidth, arcHeight, colorPacked);
 	}
 
 
 	public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
 		if (width <= 0 || height <= 0) return;
-//		rectF.set(x, y, x + width, y + height);
-//		canvas.drawRoundRect(rectF, arcWidth, arcHeight, fillPaint);
-
-		drawRender.set(ShapeRenderer.ShapeType.Filled);
-		drawRender.rectLine(x, y, width, height, arcWidth);
-
+		batch.fillRoundRect(x + translateX, y + translateY, width, height, arcWidth, arcHeight, colorPacked);
 	}
 
 	public void fillTriangle(int x1, int y1, int x2, int y2, int x3, int y3) {
-		fillPolygon(new int[]{x1, x2, x3}, 0, new int[]{y1, y2, y3}, 0, 3);
+		float[] points = triangle;
+		points[0] = x1 + translateX;
+		points[1] = y1 + translateY;
+		points[2] = x2 + translateX;
+		points[3] = y2 + translateY;
+		points[4] = x3 + translateX;
+		points[5] = y3 + translateY;
+		batch.fillConvex(points, 3, colorPacked);
 	}
 
 	public void drawChar(char character, int x, int y, int anchor) {
-		drawChars(new char[]{character}, 0, 1, x, y, anchor);
+		char[] chars = singleChar;
+		chars[0] = character;
+		drawText(null, chars, 0, 1, x, y, anchor);
 	}
 
 	public void drawChars(char[] data, int offset, int length, int x, int y, int anchor) {
-		drawString(new String(data, offset, length), x, y, anchor);
+		drawText(null, data, offset, length, x, y, anchor);
 	}
 
 	public void drawString(String text, int x, int y, int anchor) {
+		drawText(text, null, 0, text.length(), x, y, anchor);
+	}
+
+	private void drawText(String text, char[] chars, int offset, int length, int x, int y, int anchor) {
+		if (length == 0) {
+			return;
+		}
 		if (anchor == 0) {
 			anchor = LEFT | TOP;
 		}
 
-		if ((anchor & Graphics.LEFT) != 0) {
-		} else if ((anchor & Graphics.RIGHT) != 0) {
-			x += clipRect.width;
+		TextLayoutCache.Run run = textLayouts.get(font, text, chars, offset, length);
+		if ((anchor & Graphics.RIGHT) != 0) {
+			x -= (int) run.getWidth();
 		} else if ((anchor & Graphics.HCENTER) != 0) {
-			x += clipRect.width/2;
+			x -= (int) run.getWidth() / 2;
 		}
 
 		if ((anchor & Graphics.TOP) != 0) {
@@ -334,7 +433,21 @@ public class Graphics {
 			y += clipRect.height/2;
 		}
 
-		font.getPaint().draw(spriteBatch,text, x, y);
+		run.draw(batch, x + translateX, y + translateY, colorPacked);
+	}
+
+	/**
+	 * @return the number of texts drawn from an already laid out run
+	 */
+	public int getTextLayoutHits() {
+		return textLayouts.getHits();
+	}
+
+	/**
+	 * @return the number of texts that had to be laid out
+	 */
+	public int getTextLayoutMisses() {
+		return textLayouts.getMisses();
 	}
 
 	public void drawImage(Image image, int x, int y, int anchor) {
@@ -349,7 +462,9 @@ public class Graphics {
 		} else if ((anchor & Graphics.VCENTER) != 0) {
 			y -= image.getHeight() / 2;
 		}
-		spriteBatch.draw(image.getTexture(), x, y);
+		batch.setPackedColor(WHITE_PACKED);
+		bindImage(image);
+		batch.draw(image.getRegion(), x + translateX, y + translateY);
 //		canvas.drawBitmap(image.getBitmap(), x, y, null);
 	}
 
@@ -363,14 +478,41 @@ public class Graphics {
 //		} else {
 //			canvas.drawBitmap(image.getBitmap(), x, y, imagePaint);
 //		}
-		Color color = new Color(spriteBatch.getColor());
-		spriteBatch.setColor(1,1,1,alpha);
-		spriteBatch.draw(image.getTexture(), x, y, width, height);
-		spriteBatch.setColor(color);
+		// the tint is packed into the vertices, changing it does not flush the batch
+		batch.setColor(1, 1, 1, alpha / 255f);
+		bindImage(image);
+		if (width > 0 && height > 0) {
+			batch.draw(image.getRegion(), x + translateX, y + translateY, width, height);
+		} else {
+			batch.draw(image.getRegion(), x + translateX, y + translateY);
+		}
+	}
+
+	/**
+	 * Draw quads baked from the image's region, in the vertex layout of {@link GraphicsBatch}.
+	 * The vertices are in batch coordinates, so the translation must already be applied.
+	 * Not supported by the software renderer, check {@link #isSoftwareRendering()} first.
+	 *
+	 * @param count number of floats, 20 per quad
+	 */
+	public void drawVertices(Image image, float[] vertices, int offset, int count) {
+		bindImage(image);
+		batch.draw(image.getRegion().getTexture(), vertices, offset, count);
+	}
+
+	/**
+	 * Let the following solid shapes sample the white block of the image's atlas page,
+	 * so that interleaved sprites and shapes don't switch textures.
+	 */
+	private void bindImage(Image image) {
+		TextureRegion solid = image.getSolidRegion();
+		if (solid != null) {
+			batch.setSolidRegion(solid);
+		}
 	}
 
 	public void drawSubstring(String str, int offset, int len, int x, int y, int anchor) {
-		drawString(str.substring(offset, len + offset), x, y, anchor);
+		drawText(str, null, offset, len, x, y, anchor);
 	}
 
 	public void drawRegion(Image image, int srcx, int srcy, int width, int height, int transform, int dstx, int dsty, int anchor) {
@@ -411,7 +553,11 @@ public class Graphics {
 				dsty += height / 2;
 			}
 
-			spriteBatch.draw(image.getTexture(),dstx,dsty,srcx,srcy,width,height);
+			batch.setPackedColor(WHITE_PACKED);
+			bindImage(image);
+			TextureRegion region = image.getRegion();
+			batch.draw(region.getTexture(), dstx + translateX, dsty + translateY,
+					region.getRegionX() + srcx, region.getRegionY() + srcy, width, height);
 
 //			Rect srcR = new Rect(srcx, srcy, srcx + width, srcy + height);
 //			RectF dstR = new RectF(dstx, dsty, dstx + width, dsty + height);
@@ -425,15 +571,27 @@ public class Graphics {
 		if (scanlength < width) {
 			scanlength = width;
 		}
-		int rows = rgbData.length / scanlength;
+		int rows = (rgbData.length - offset) / scanlength;
 		if (rows < height) {
 			height = rows;
 		}
-
-		Pixmap pixmap = Image.createRGBIPixmap(rgbData, offset, width, height, processAlpha);
-		Texture texture = new Texture(pixmap);
-		// Use deprecated method due to perfomance issues
-		spriteBatch.draw(texture, x, y, width, height);
+		if (height <= 0) return;
+
+		StreamingTexture texture = rgbTextures.obtain(width, height);
+		texture.update(rgbData, offset, scanlength, width, height, processAlpha);
+		batch.setPackedColor(WHITE_PACKED);
+		batch.draw(texture.getTexture(), x + translateX, y + translateY, 0, 0, width, height);
+	}
+
+	/**
+	 * Draw ARGB pixels scaled to the given rectangle, used to compose software-rendered frames.
+	 */
+	void drawPixels(int[] rgbData, int width, int height, int x, int y, int dstWidth, int dstHeight) {
+		StreamingTexture texture = rgbTextures.obtain(width, height);
+		texture.update(rgbData, 0, width, width, height, false);
+		batch.setPackedColor(WHITE_PACKED);
+		batch.draw(texture.getTexture(), x + translateX, y + translateY, dstWidth, dstHeight,
+				0, 0, width, height, false, false);
 	}
 
 	public void copyArea(int x_src, int y_src, int width, int height, int x_dest, int y_dest, int anchor) {
@@ -0,0 +1,517 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.PolygonRegion;
+import com.badlogic.gdx.graphics.g2d.PolygonSpriteBatch;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.math.Affine2;
+import com.badlogic.gdx.math.EarClippingTriangulator;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.utils.ShortArray;
+
+/**
+ * Single vertex stream for everything {@link Graphics} draws.
+ * <p>
+ * Shapes are emitted as textured triangles that sample a solid white texel,
+ * with the current color packed into each vertex. Quads, lines, glyphs and
+ * image regions therefore share one stream, and the batch is flushed only
+ * when the texture, the blending mode or the clip actually changes.
+ */
+public class GraphicsBatch extends PolygonSpriteBatch {
+	private static final int VERTEX_SIZE = 5;
+	private static final int QUAD_SIZE = 4 * VERTEX_SIZE;
+
+	private static TextureRegion defaultSolid;
+
+	private final EarClippingTriangulator triangulator = new EarClippingTriangulator();
+	private final float[] quad = new float[QUAD_SIZE];
+	private float[] vertices = new float[64 * VERTEX_SIZE];
+	private short[] triangles = new short[64 * 3];
+	private float[] points = new float[128];
+
+	private TextureRegion solid;
+	private float solidU, solidV;
+
+	private boolean clipEnabled;
+	private int clipX, clipY, clipWidth, clipHeight;
+
+	private int flushes;
+	private int flushStamp;
+	private int frameDrawCalls;
+	private int frameFlushes;
+
+	public GraphicsBatch() {
+		super();
+		setSolidRegion(null);
+	}
+
+	private static TextureRegion getDefaultSolid() {
+		if (defaultSolid == null) {
+			Pixmap pixmap = new Pixmap(1, 1, Pixmap.Format.RGBA8888);
+			pixmap.setColor(0xFFFFFFFF);
+			pixmap.fill();
+			defaultSolid = new TextureRegion(new Texture(pixmap));
+			pixmap.dispose();
+		}
+		return defaultSolid;
+	}
+
+	/**
+	 * Set the white texel used for solid shapes.
+	 *
+	 * @param region a region whose center is opaque white, or null for the shared 1x1 texture
+	 */
+	public void setSolidRegion(TextureRegion region) {
+		if (region == null) {
+			region = getDefaultSolid();
+		}
+		if (region == solid) {
+			return;
+		}
+		solid = region;
+		solidU = (region.getU() + region.getU2()) / 2;
+		solidV = (region.getV() + region.getV2()) / 2;
+	}
+
+	/**
+	 * Fall back to the shared white texture if the atlas page of the solid region
+	 * has been disposed since it was set. Pages are disposed on the GL thread
+	 * between frames, so checking before each shape is enough.
+	 */
+	private void checkSolid() {
+		if (solid.getTexture().getTextureObjectHandle() == 0) {
+			setSolidRegion(null);
+		}
+	}
+
+	@Override
+	public void begin() {
+		super.begin();
+		flushes = 0;
+		renderCalls = 0;
+		if (clipEnabled) {
+			applyClip();
+		}
+	}
+
+	@Override
+	public void end() {
+		super.end();
+		if (clipEnabled) {
+			Gdx.gl.glDisable(GL20.GL_SCISSOR_TEST);
+		}
+		frameDrawCalls = renderCalls;
+		frameFlushes = flushes;
+	}
+
+	@Override
+	public void flush() {
+		int calls = renderCalls;
+		super.flush();
+		if (renderCalls != calls) {
+			flushes++;
+			flushStamp++;
+		}
+	}
+
+	/**
+	 * @return a value that changes every time pending vertices are submitted,
+	 * used to tell whether a texture drawn earlier may already be rewritten
+	 */
+	public int getFlushStamp() {
+		return flushStamp;
+	}
+
+	/**
+	 * @return the number of draw calls issued between the last begin() and end()
+	 */
+	public int getFrameDrawCalls() {
+		return frameDrawCalls;
+	}
+
+	/**
+	 * @return the number of non-empty flushes between the last begin() and end()
+	 */
+	public int getFrameFlushes() {
+		return frameFlushes;
+	}
+
+	/**
+	 * Restrict drawing to the given rectangle in framebuffer coordinates.
+	 * The pending vertices are flushed only if the rectangle actually changes.
+	 */
+	public void setClip(int x, int y, int width, int height) {
+		if (clipEnabled && clipX == x && clipY == y && clipWidth == width && clipHeight == height) {
+			return;
+		}
+		flush();
+		clipEnabled = true;
+		clipX = x;
+		clipY = y;
+		clipWidth = width;
+		clipHeight = height;
+		if (isDrawing()) {
+			applyClip();
+		}
+	}
+
+	public void disableClip() {
+		if (!clipEnabled) {
+			return;
+		}
+		flush();
+		clipEnabled = false;
+		if (isDrawing()) {
+			Gdx.gl.glDisable(GL20.GL_SCISSOR_TEST);
+		}
+	}
+
+	private void applyClip() {
+		Gdx.gl.glEnable(GL20.GL_SCISSOR_TEST);
+		Gdx.gl.glScissor(clipX, clipY, Math.max(clipWidth, 0), Math.max(clipHeight, 0));
+	}
+
+	private void ensureDrawing() {
+		if (!isDrawing()) {
+			begin();
+		}
+	}
+
+	// Every draw begins the batch lazily, so that the first primitive after
+	// a reset or a Graphics.flush() may be an image, a glyph or RGB data
+
+	@Override
+	public void draw(PolygonRegion region, float x, float y) {
+		ensureDrawing();
+		super.draw(region, x, y);
+	}
+
+	@Override
+	public void draw(PolygonRegion region, float x, float y, float width, float height) {
+		ensureDrawing();
+		super.draw(region, x, y, width, height);
+	}
+
+	@Override
+	public void draw(PolygonRegion region, float x, float y, float originX, float originY,
+					 float width, float height, float scaleX, float scaleY, float rotation) {
+		ensureDrawing();
+		super.draw(region, x, y, originX, originY, width, height, scaleX, scaleY, rotation);
+	}
+
+	@Override
+	public void draw(Texture texture, float[] polygonVertices, int verticesOffset, int verticesCount,
+					 short[] polygonTriangles, int trianglesOffset, int trianglesCount) {
+		ensureDrawing();
+		super.draw(texture, polygonVertices, verticesOffset, verticesCount,
+				polygonTriangles, trianglesOffset, trianglesCount);
+	}
+
+	@Override
+	public void draw(Texture texture, float x, float y, float originX, float originY, float width, float height,
+					 float scaleX, float scaleY, float rotation, int srcX, int srcY, int srcWidth, int srcHeight,
+					 boolean flipX, boolean flipY) {
+		ensureDrawing();
+		super.draw(texture, x, y, originX, originY, width, height, scaleX, scaleY, rotation,
+				srcX, srcY, srcWidth, srcHeight, flipX, flipY);
+	}
+
+	@Override
+	public void draw(Texture texture, float x, float y, float width, float height,
+					 int srcX, int srcY, int srcWidth, int srcHeight, boolean flipX, boolean flipY) {
+		ensureDrawing();
+		super.draw(texture, x, y, width, height, srcX, srcY, srcWidth, srcHeight, flipX, flipY);
+	}
+
+	@Override
+	public void draw(Texture texture, float x, float y, int srcX, int srcY, int srcWidth, int srcHeight) {
+		ensureDrawing();
+		super.draw(texture, x, y, srcX, srcY, srcWidth, srcHeight);
+	}
+
+	@Override
+	public void draw(Texture texture, float x, float y, float width, float height, float u, float v, float u2, float v2) {
+		ensureDrawing();
+		super.draw(texture, x, y, width, height, u, v, u2, v2);
+	}
+
+	@Override
+	public void draw(Texture texture, float x, float y) {
+		ensureDrawing();
+		super.draw(texture, x, y);
+	}
+
+	@Override
+	public void draw(Texture texture, float x, float y, float width, float height) {
+		ensureDrawing();
+		super.draw(texture, x, y, width, height);
+	}
+
+	@Override
+	public void draw(Texture texture, float[] spriteVertices, int offset, int count) {
+		ensureDrawing();
+		super.draw(texture, spriteVertices, offset, count);
+	}
+
+	@Override
+	public void draw(TextureRegion region, float x, float y) {
+		ensureDrawing();
+		super.draw(region, x, y);
+	}
+
+	@Override
+	public void draw(TextureRegion region, float x, float y, float width, float height) {
+		ensureDrawing();
+		super.draw(region, x, y, width, height);
+	}
+
+	@Override
+	public void draw(TextureRegion region, float x, float y, float originX, float originY,
+					 float width, float height, float scaleX, float scaleY, float rotation) {
+		ensureDrawing();
+		super.draw(region, x, y, originX, originY, width, height, scaleX, scaleY, rotation);
+	}
+
+	@Override
+	public void draw(TextureRegion region, float x, float y, float originX, float originY,
+					 float width, float height, float scaleX, float scaleY, float rotation, boolean clockwise) {
+		ensureDrawing();
+		super.draw(region, x, y, originX, originY, width, height, scaleX, scaleY, rotation, clockwise);
+	}
+
+	@Override
+	public void draw(TextureRegion region, float width, float height, Affine2 transform) {
+		ensureDrawing();
+		super.draw(region, width, height, transform);
+	}
+
+	public void fillRect(float x, float y, float width, float height, float color) {
+		ensureDrawing();
+		checkSolid();
+		float[] v = quad;
+		putVertex(v, 0, x, y, color);
+		putVertex(v, 5, x, y + height, color);
+		putVertex(v, 10, x + width, y + height, color);
+		putVertex(v, 15, x + width, y, color);
+		draw(solid.getTexture(), v, 0, QUAD_SIZE);
+	}
+
+	/**
+	 * Draw a one pixel wide line. Both end points are treated as pixel centers and are included.
+	 */
+	public void drawLine(float x1, float y1, float x2, float y2, float color) {
+		float dx = x2 - x1;
+		float dy = y2 - y1;
+		float len = (float) Math.sqrt(dx * dx + dy * dy);
+		if (len < 0.001f) {
+			fillRect(x1, y1, 1, 1, color);
+			return;
+		}
+		if (dx == 0) {
+			fillRect(x1, Math.min(y1, y2), 1, Math.abs(dy) + 1, color);
+			return;
+		}
+		if (dy == 0) {
+			fillRect(Math.min(x1, x2), y1, Math.abs(dx) + 1, 1, color);
+			return;
+		}
+		ensureDrawing();
+		checkSolid();
+		// half-pixel direction and normal vectors
+		dx = dx / len * 0.5f;
+		dy = dy / len * 0.5f;
+		float sx = x1 + 0.5f - dx;
+		float sy = y1 + 0.5f - dy;
+		float ex = x2 + 0.5f + dx;
+		float ey = y2 + 0.5f + dy;
+		float[] v = quad;
+		putVertex(v, 0, sx - dy, sy + dx, color);
+		putVertex(v, 5, sx + dy, sy - dx, color);
+		putVertex(v, 10, ex + dy, ey - dx, color);
+		putVertex(v, 15, ex - dy, ey + dx, color);
+		draw(solid.getTexture(), v, 0, QUAD_SIZE);
+	}
+
+	public void drawRect(float x, float y, float width, float height, float color) {
+		fillRect(x, y, width + 1, 1, color);
+		fillRect(x, y + height, width + 1, 1, color);
+		fillRect(x, y + 1, 1, height - 1, color);
+		fillRect(x + width, y + 1, 1, height - 1, color);
+	}
+
+	/**
+	 * Fill an arbitrary (possibly concave) polygon.
+	 *
+	 * @param points x, y pairs
+	 * @param count  number of points
+	 */
+	public void fillPolygon(float[] points, int count, float color) {
+		if (count < 3) {
+			return;
+		}
+		ShortArray indices = triangulator.computeTriangles(points, 0, count * 2);
+		checkSolid();
+		ensureVertices(count);
+		float[] v = vertices;
+		for (int i = 0, p = 0; i < count; i++, p += 2) {
+			putVertex(v, i * VERTEX_SIZE, points[p], points[p + 1], color);
+		}
+		ensureDrawing();
+		draw(solid.getTexture(), v, 0, count * VERTEX_SIZE, indices.items, 0, indices.size);
+	}
+
+	/**
+	 * Fill a convex polygon as a triangle fan around its first point.
+	 */
+	public void fillConvex(float[] points, int count, float color) {
+		if (count < 3) {
+			return;
+		}
+		checkSolid();
+		ensureVertices(count);
+		float[] v = vertices;
+		short[] t = triangles;
+		for (int i = 0, p = 0; i < count; i++, p += 2) {
+			putVertex(v, i * VERTEX_SIZE, points[p], points[p + 1], color);
+		}
+		int n = 0;
+		for (int i = 1; i < count - 1; i++) {
+			t[n++] = 0;
+			t[n++] = (short) i;
+			t[n++] = (short) (i + 1);
+		}
+		ensureDrawing();
+		draw(solid.getTexture(), v, 0, count * VERTEX_SIZE, t, 0, n);
+	}
+
+	public void drawPolyline(float[] points, int count, boolean closed, float color) {
+		for (int i = 0, p = 0; i < count - 1; i++, p += 2) {
+			drawLine(points[p], points[p + 1], points[p + 2], points[p + 3], color);
+		}
+		if (closed && count > 2) {
+			int last = (count - 1) * 2;
+			drawLine(points[last], points[last + 1], points[0], points[1], color);
+		}
+	}
+
+	/**
+	 * Compute the outline of an elliptical arc in MIDP convention:
+	 * angles are in degrees, 0 is at 3 o'clock and positive values go counter-clockwise.
+	 *
+	 * @param out    destination of x, y pairs
+	 * @param offset the first point index in out
+	 * @return the number of points written
+	 */
+	public static int arcPoints(float[] out, int offset, float x, float y, float width, float height,
+								float startAngle, float arcAngle, int segments) {
+		float rx = width / 2;
+		float ry = height / 2;
+		float cx = x + rx;
+		float cy = y + ry;
+		float step = arcAngle / segments;
+		int p = offset * 2;
+		for (int i = 0; i <= segments; i++) {
+			float angle = startAngle + step * i;
+			out[p++] = cx + rx * MathUtils.cosDeg(angle);
+			out[p++] = cy - ry * MathUtils.sinDeg(angle);
+		}
+		return segments + 1;
+	}
+
+	public static int arcSegments(float width, float height, float arcAngle) {
+		float radius = Math.max(width, height) / 2;
+		int segments = (int) (6 * (float) Math.cbrt(radius) * Math.abs(arcAngle) / 360f);
+		return Math.max(2, segments);
+	}
+
+	public void fillArc(float x, float y, float width, float height, float startAngle, float arcAngle, float color) {
+		int segments = arcSegments(width, height, arcAngle);
+		float[] points = pointBuffer(segments + 2);
+		points[0] = x + width / 2;
+		points[1] = y + height / 2;
+		int count = 1 + arcPoints(points, 1, x, y, width, height, startAngle, arcAngle, segments);
+		fillConvex(points, count, color);
+	}
+
+	public void drawArc(float x, float y, float width, float height, float startAngle, float arcAngle, float color) {
+		int segments = arcSegments(width, height, arcAngle);
+		float[] points = pointBuffer(segments + 1);
+		int count = arcPoints(points, 0, x, y, width, height, startAngle, arcAngle, segments);
+		drawPolyline(points, count, false, color);
+	}
+
+	private int roundRectPoints(float[] points, float x, float y, float width, float height,
+								float arcWidth, float arcHeight, int segments) {
+		float aw = Math.min(arcWidth, width);
+		float ah = Math.min(arcHeight, height);
+		int n = 0;
+		n += arcPoints(points, n, x + width - aw, y, aw, ah, 0, 90, segments);
+		n += arcPoints(points, n, x, y, aw, ah, 90, 90, segments);
+		n += arcPoints(points, n, x, y + height - ah, aw, ah, 180, 90, segments);
+		n += arcPoints(points, n, x + width - aw, y + height - ah, aw, ah, 270, 90, segments);
+		return n;
+	}
+
+	public void fillRoundRect(float x, float y, float width, float height, float arcWidth, float arcHeight, float color) {
+		if (arcWidth <= 0 || arcHeight <= 0) {
+			fillRect(x, y, width, height, color);
+			return;
+		}
+		int segments = arcSegments(arcWidth, arcHeight, 90);
+		float[] points = pointBuffer(4 * (segments + 1));
+		int count = roundRectPoints(points, x, y, width, height, arcWidth, arcHeight, segments);
+		fillConvex(points, count, color);
+	}
+
+	public void drawRoundRect(float x, float y, float width, float height, float arcWidth, float arcHeight, float color) {
+		if (arcWidth <= 0 || arcHeight <= 0) {
+			drawRect(x, y, width, height, color);
+			return;
+		}
+		int segments = arcSegments(arcWidth, arcHeight, 90);
+		float[] points = pointBuffer(4 * (segments + 1));
+		int count = roundRectPoints(points, x, y, width, height, arcWidth, arcHeight, segments);
+		drawPolyline(points, count, true, color);
+	}
+
+	private float[] pointBuffer(int count) {
+		if (points.length < count * 2) {
+			points = new float[count * 2];
+		}
+		return points;
+	}
+
+	private void ensureVertices(int count) {
+		if (vertices.length < count * VERTEX_SIZE) {
+			vertices = new float[count * VERTEX_SIZE];
+		}
+		if (triangles.length < (count - 2) * 3) {
+			triangles = new short[(count - 2) * 3];
+		}
+	}
+
+	private void putVertex(float[] v, int i, float x, float y, float color) {
+		v[i] = x;
+		v[i + 1] = y;
+		v[i + 2] = color;
+		v[i + 3] = solidU;
+		v[i + 4] = solidV;
+	}
+}
@@ -19,44 +19,116 @@ package javax.microedition.lcdui;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.Pixmap;
 import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
 
 public class Image {
 	private Pixmap bitmap;
-	private Texture texture;
+	private boolean mutable;
+	/**
+	 * ARGB copy of the bitmap, created on demand; the drawing surface of {@link SoftwareGraphics}
+	 */
+	private int[] pixels;
+	private int modificationCount;
+
+	TextureRegion region;
+	TextureRegion solidRegion;
+	TextureAtlasManager.ImageRef atlasRef;
 
 	public Texture getTexture() {
-		return texture;
+		return region == null ? null : region.getTexture();
+	}
+
+	/**
+	 * @return the area of {@link #getTexture()} that holds this image,
+	 * immutable images share their texture with other images
+	 */
+	public TextureRegion getRegion() {
+		return region;
 	}
+
+	/**
+	 * @return a white area of the image texture that solid shapes can sample,
+	 * or null if the texture has none
+	 */
+	TextureRegion getSolidRegion() {
+		return solidRegion;
+	}
+
 	public Pixmap getBitmap() {
 		return bitmap;
 	}
 
+	/**
+	 * Create an immutable image. The bitmap is packed into a shared texture atlas
+	 * which takes ownership of it.
+	 */
 	public Image(Pixmap bitmap) {
+		this(bitmap, false);
+	}
+
+	Image(Pixmap bitmap, boolean mutable) {
 		if (bitmap == null) {
 			throw new NullPointerException();
 		}
 		this.bitmap = bitmap;
-		this.texture = new Texture(bitmap);
+		this.mutable = mutable;
+		if (Graphics.isSoftwareRendering()) {
+			return;
+		}
+		if (mutable) {
+			region = new TextureRegion(TextureAtlasManager.createTexture(bitmap));
+		} else {
+			TextureAtlasManager.add(null, bitmap, this);
+		}
+	}
+
+	private Image() {
+	}
+
+	/**
+	 * Release the texture memory of the image. The image must not be used afterwards.
+	 * Images that are not disposed explicitly are released once they are garbage collected.
+	 */
+	public void dispose() {
+		if (mutable || Graphics.isSoftwareRendering()) {
+			if (region != null) {
+				TextureAtlasManager.dispose(region.getTexture());
+			}
+			if (bitmap != null) {
+				bitmap.dispose();
+			}
+		} else {
+			TextureAtlasManager.release(this);
+		}
+		region = null;
+		solidRegion = null;
+		pixels = null;
 	}
 
 	public static Image createImage(int width, int height, Image reuse) {
 		Pixmap bitmap = new Pixmap(width, height, Pixmap.Format.RGB888);
 		if (reuse == null) {
-			reuse = new Image(bitmap);
+			reuse = new Image(bitmap, true);
 		}else {
-			reuse.texture = new Texture(bitmap);
+			reuse.dispose();
+			if (!Graphics.isSoftwareRendering()) {
+				reuse.region = new TextureRegion(TextureAtlasManager.createTexture(bitmap));
+			}
 			reuse.bitmap = bitmap;
+			reuse.mutable = true;
 		}
 		return reuse;
 	}
 
 	public static Image createTransparentImage(int width, int height) {
-		return new Image(new Pixmap(width, height, Pixmap.Format.RGB888));
+		return new Image(new Pixmap(width, height, Pixmap.Format.RGB888), true);
 	}
 
 
@@ -65,12 +137,21 @@ public class Image {
 		Pixmap b = new Pixmap(width, height, Pixmap.Format.RGB888);
 		b.setColor(Color.WHITE);
 		b.fill();
-		return new Image(b);
+		return new Image(b, true);
 	}
 
 	public static Image createImage(String resname) throws IOException {
-		Pixmap b = new Pixmap(Gdx.files.absolute(resname));
-		return new Image(b);
+		if (Graphics.isSoftwareRendering()) {
+			return new Image(new Pixmap(Gdx.files.absolute(resname)));
+		}
+		Image image = new Image();
+		Pixmap b = TextureAtlasManager.acquire(resname, image);
+		if (b == null) {
+			b = new Pixmap(Gdx.files.absolute(resname));
+			TextureAtlasManager.add(resname, b, image);
+		}
+		image.bitmap = b;
+		return image;
 	}
 
 	public static Image createImage(InputStream stream) throws IOException {
@@ -103,24 +184,21 @@ public class Image {
 	}
 
 	public static Pixmap createRGBIPixmap(int[] rgb,int offset, int width, int height, boolean processAlpha){
-		Pixmap px = new Pixmap(width, height, Pixmap.Format.RGB888);
-		if (!processAlpha) {
-			final int length = width * height;
-			int[] rgbCopy = new int[length];
-			System.arraycopy(rgb, 0, rgbCopy, 0, length);
-			for (int i = offset; i < length; i++) {
-				rgbCopy[i] |= 0xFF << 24;
-				px.drawPixel(i%width,i/width,rgbCopy[i]);
-			}
-		}else{
-			for (int i = offset; i < rgb.length; i++) {
-				px.drawPixel(i%width,i/width,rgb[i]);
-			}
+		Pixmap px = new Pixmap(width, height, Pixmap.Format.RGBA8888);
+		// write whole rows straight into the native buffer instead of drawPixel() per pixel
+		IntBuffer pixels = px.getPixels().order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++) {
+			StreamingTexture.toRGBA(rgb, offset + y * width, row, 0, width, processAlpha);
+			pixels.put(row, 0, width);
 		}
 		return px;
 	}
 
 	public Graphics getGraphics() {
+		if (Graphics.isSoftwareRendering()) {
+			return new SoftwareGraphics(this);
+		}
 		Graphics graphics = new Graphics();
 //		graphics.setCanvas(new Canvas() {
 //			@Override
@@ -132,7 +210,7 @@ public class Image {
 	}
 
 	public boolean isMutable() {
-		return false;
+		return mutable;
 	}
 
 	public int getWidth() {
@@ -144,8 +222,85 @@ public class Image {
 	}
 
 	public void getRGB(int[] rgbData, int offset, int scanlength, int x, int y, int width, int height) {
+		if (x < 0 || y < 0 || x + width > getWidth() || y + height > getHeight()) {
+			throw new IllegalArgumentException("area out of bounds");
+		}
+		if (Math.abs(scanlength) < width) {
+			throw new IllegalArgumentException("scanlength < width");
+		}
+		int[] pixels = getPixels();
+		int stride = getWidth();
+		for (int row = 0; row < height; row++) {
+			System.arraycopy(pixels, (y + row) * stride + x, rgbData, offset + row * scanlength, width);
+		}
+	}
+
+	/**
+	 * @return true if the pixels of the image may be translucent
+	 */
+	public boolean hasAlpha() {
+		Pixmap.Format format = bitmap.getFormat();
+		return format != Pixmap.Format.RGB888 && format != Pixmap.Format.RGB565;
+	}
+
+	/**
+	 * Get the image pixels in ARGB. The array is created from the bitmap on first use
+	 * and is written directly by {@link SoftwareGraphics}.
+	 */
+	public int[] getPixels() {
+		if (pixels == null) {
+			int width = bitmap.getWidth();
+			int height = bitmap.getHeight();
+			int[] argb = new int[width * height];
+			if (bitmap.getFormat() == Pixmap.Format.RGBA8888) {
+				IntBuffer buffer = bitmap.getPixels().order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+				buffer.get(argb);
+				for (int i = 0; i < argb.length; i++) {
+					int rgba = argb[i];
+					argb[i] = rgba >>> 8 | rgba << 24;
+				}
+			} else {
+				for (int y = 0, i = 0; y < height; y++) {
+					for (int x = 0; x < width; x++, i++) {
+						int rgba = bitmap.getPixel(x, y);
+						argb[i] = rgba >>> 8 | rgba << 24;
+					}
+				}
+			}
+			pixels = argb;
+		}
+		return pixels;
+	}
+
+	/**
+	 * @return a count that changes whenever the pixels of a mutable image may have changed
+	 */
+	public int getModificationCount() {
+		return modificationCount;
 	}
+
+	void markModified() {
+		modificationCount++;
+	}
+
 	public void copyPixels(Image image){
 		this.bitmap.drawPixmap(image.bitmap,0,0);
+		if (pixels != null) {
+			int[] src = image.getPixels();
+			System.arraycopy(src, 0, pixels, 0, Math.min(pixels.length, src.length));
+		}
+		modificationCount++;
+	}
+
+	public void copyPixels(Image image, int x, int y, int width, int height) {
+		this.bitmap.drawPixmap(image.bitmap, x, y, x, y, width, height);
+		if (pixels != null) {
+			int[] src = image.getPixels();
+			int stride = getWidth();
+			for (int row = y; row < y + height; row++) {
+				System.arraycopy(src, row * stride + x, pixels, row * stride + x, width);
+			}
+		}
+		modificationCount++;
 	}
 }
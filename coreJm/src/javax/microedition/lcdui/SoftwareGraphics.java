@@ -0,0 +1,968 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.g2d.BitmapFont;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Rectangle;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import javax.microedition.lcdui.game.Sprite;
+
+/**
+ * Pure Java implementation of {@link Graphics} that draws into the ARGB pixels of an image.
+ * <p>
+ * Nothing here touches GL, so it works without a GPU and in headless mode.
+ * All shapes are reduced to clipped horizontal spans, opaque spans are filled
+ * with {@link Arrays#fill(int[], int, int, int)}, and the drawing loops don't allocate.
+ */
+public class SoftwareGraphics extends Graphics {
+	private static final String TAG = SoftwareGraphics.class.getName();
+	private static final IdentityHashMap<BitmapFont.BitmapFontData, GlyphPages> glyphPages = new IdentityHashMap<>();
+
+	private Image target;
+	private Canvas canvas;
+	private int[] pixels;
+	private int width;
+	private int height;
+
+	private int translateX;
+	private int translateY;
+	/**
+	 * Clip in surface coordinates, right and bottom edges are exclusive
+	 */
+	private int clipLeft, clipTop, clipRight, clipBottom;
+
+	private int[] spanBuffer = new int[32];
+	private float[] arcBuffer = new float[128];
+	private final int[] triangleX = new int[3];
+	private final int[] triangleY = new int[3];
+	private final char[] singleChar = new char[1];
+
+	public SoftwareGraphics() {
+		super(false);
+	}
+
+	public SoftwareGraphics(Image target) {
+		super(false);
+		setTarget(target);
+	}
+
+	/**
+	 * Draw into the pixels of the given image. The clip and translation are reset.
+	 */
+	public void setTarget(Image target) {
+		this.target = target;
+		this.pixels = target.getPixels();
+		this.width = target.getWidth();
+		this.height = target.getHeight();
+		translateX = 0;
+		translateY = 0;
+		setClipInternal(0, 0, width, height);
+	}
+
+	public Image getTarget() {
+		return target;
+	}
+
+	@Override
+	public void reset() {
+		setColor(0);
+		setFont(Font.getDefaultFont());
+		setStrokeStyle(SOLID);
+		translateX = 0;
+		translateY = 0;
+		setClipInternal(0, 0, width, height);
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public int getDrawCallCount() {
+		return 0;
+	}
+
+	@Override
+	public int getFlushCount() {
+		return 0;
+	}
+
+	/**
+	 * The canvas is only remembered, drawing still goes to the target image
+	 * set with {@link #setTarget(Image)}.
+	 */
+	@Override
+	public void setCanvas(Canvas canvas, Pixmap canvasBitmap) {
+		this.canvas = canvas;
+	}
+
+	@Override
+	public void setSurfaceCanvas(Canvas canvas) {
+		this.canvas = canvas;
+	}
+
+	@Override
+	public Canvas getCanvas() {
+		return canvas;
+	}
+
+	@Override
+	public boolean hasCanvas() {
+		return canvas != null;
+	}
+
+	// region clip and translation
+
+	private void setClipInternal(int left, int top, int right, int bottom) {
+		clipLeft = Math.max(left, 0);
+		clipTop = Math.max(top, 0);
+		clipRight = Math.max(Math.min(right, width), clipLeft);
+		clipBottom = Math.max(Math.min(bottom, height), clipTop);
+	}
+
+	@Override
+	public void setClip(int x, int y, int width, int height) {
+		x += translateX;
+		y += translateY;
+		setClipInternal(x, y, x + width, y + height);
+	}
+
+	@Override
+	public void clipRect(int x, int y, int width, int height) {
+		x += translateX;
+		y += translateY;
+		setClipInternal(Math.max(clipLeft, x), Math.max(clipTop, y),
+				Math.min(clipRight, x + width), Math.min(clipBottom, y + height));
+	}
+
+	@Override
+	public int getClipX() {
+		return clipLeft - translateX;
+	}
+
+	@Override
+	public int getClipY() {
+		return clipTop - translateY;
+	}
+
+	@Override
+	public int getClipWidth() {
+		return clipRight - clipLeft;
+	}
+
+	@Override
+	public int getClipHeight() {
+		return clipBottom - clipTop;
+	}
+
+	@Override
+	public void translate(int dx, int dy) {
+		translateX += dx;
+		translateY += dy;
+	}
+
+	@Override
+	public int getTranslateX() {
+		return translateX;
+	}
+
+	@Override
+	public int getTranslateY() {
+		return translateY;
+	}
+
+	/**
+	 * There is no framebuffer, the surface is the target image.
+	 */
+	@Override
+	public void toFramebuffer(int x, int y, int width, int height, Rectangle out) {
+		out.set(x, y, width, height);
+	}
+
+	// endregion
+
+	// region pixel primitives
+
+	/**
+	 * Source-over blend of src onto dst, both in ARGB.
+	 */
+	static int blend(int dst, int src) {
+		int a = src >>> 24;
+		if (a == 0xFF) {
+			return src;
+		} else if (a == 0) {
+			return dst;
+		}
+		int na = 0xFF - a;
+		int rb = ((src & 0xFF00FF) * a + (dst & 0xFF00FF) * na) >>> 8 & 0xFF00FF;
+		int g = ((src & 0xFF00) * a + (dst & 0xFF00) * na) >>> 8 & 0xFF00;
+		int da = a + ((dst >>> 24) * na >>> 8);
+		return da << 24 | rb | g;
+	}
+
+	/**
+	 * Fill the pixels [x1, x2) of row y, clipped.
+	 */
+	private void span(int y, int x1, int x2, int color) {
+		target.markModified();
+		if (y < clipTop || y >= clipBottom) {
+			return;
+		}
+		if (x1 < clipLeft) x1 = clipLeft;
+		if (x2 > clipRight) x2 = clipRight;
+		if (x1 >= x2) {
+			return;
+		}
+		int row = y * width;
+		if (color >>> 24 == 0xFF) {
+			Arrays.fill(pixels, row + x1, row + x2, color);
+		} else {
+			int[] pixels = this.pixels;
+			for (int i = row + x1, end = row + x2; i < end; i++) {
+				pixels[i] = blend(pixels[i], color);
+			}
+		}
+	}
+
+	private void plot(int x, int y, int color) {
+		target.markModified();
+		if (x >= clipLeft && x < clipRight && y >= clipTop && y < clipBottom) {
+			int i = y * width + x;
+			pixels[i] = blend(pixels[i], color);
+		}
+	}
+
+	/**
+	 * Bresenham line in surface coordinates, both end points are included.
+	 */
+	private void line(int x1, int y1, int x2, int y2, int color, boolean dotted) {
+		if (y1 == y2 && !dotted) {
+			span(y1, Math.min(x1, x2), Math.max(x1, x2) + 1, color);
+			return;
+		}
+		int dx = Math.abs(x2 - x1);
+		int dy = -Math.abs(y2 - y1);
+		int sx = x1 < x2 ? 1 : -1;
+		int sy = y1 < y2 ? 1 : -1;
+		int err = dx + dy;
+		int n = 0;
+		while (true) {
+			if (!dotted || (n++ & 2) == 0) {
+				plot(x1, y1, color);
+			}
+			if (x1 == x2 && y1 == y2) {
+				break;
+			}
+			int e2 = 2 * err;
+			if (e2 >= dy) {
+				err += dy;
+				x1 += sx;
+			}
+			if (e2 <= dx) {
+				err += dx;
+				y1 += sy;
+			}
+		}
+	}
+
+	// endregion
+
+	@Override
+	public void clear(int color) {
+		color |= 0xFF000000;
+		for (int y = clipTop; y < clipBottom; y++) {
+			span(y, clipLeft, clipRight, color);
+		}
+	}
+
+	@Override
+	public void drawLine(int x1, int y1, int x2, int y2) {
+		line(x1 + translateX, y1 + translateY, x2 + translateX, y2 + translateY, argb, getStrokeStyle() == DOTTED);
+	}
+
+	@Override
+	public void fillRect(int x, int y, int width, int height) {
+		if (width <= 0 || height <= 0) return;
+		x += translateX;
+		y += translateY;
+		int top = Math.max(y, clipTop);
+		int bottom = Math.min(y + height, clipBottom);
+		for (int row = top; row < bottom; row++) {
+			span(row, x, x + width, argb);
+		}
+	}
+
+	@Override
+	public void drawRect(int x, int y, int width, int height) {
+		if (width < 0 || height < 0) return;
+		x += translateX;
+		y += translateY;
+		boolean dotted = getStrokeStyle() == DOTTED;
+		line(x, y, x + width, y, argb, dotted);
+		if (height > 0) {
+			line(x, y + height, x + width, y + height, argb, dotted);
+		}
+		if (height > 1) {
+			line(x, y + 1, x, y + height - 1, argb, dotted);
+			if (width > 0) {
+				line(x + width, y + 1, x + width, y + height - 1, argb, dotted);
+			}
+		}
+	}
+
+	/**
+	 * Half-width of the ellipse (a, b) at the vertical distance dy from its center.
+	 */
+	private static int ellipseHalfWidth(float a, float b, float dy) {
+		if (b <= 0) {
+			return (int) a;
+		}
+		float t = 1 - dy * dy / (b * b);
+		return t <= 0 ? 0 : (int) (a * (float) Math.sqrt(t) + 0.5f);
+	}
+
+	@Override
+	public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+		if (width <= 0 || height <= 0) return;
+		x += translateX;
+		y += translateY;
+		arcWidth = Math.min(Math.max(arcWidth, 0), width);
+		arcHeight = Math.min(Math.max(arcHeight, 0), height);
+		float a = arcWidth / 2f;
+		float b = arcHeight / 2f;
+		int top = Math.max(y, clipTop);
+		int bottom = Math.min(y + height, clipBottom);
+		for (int row = top; row < bottom; row++) {
+			int inset = 0;
+			float dy = -1;
+			if (row < y + b) {
+				dy = y + b - row - 0.5f;
+			} else if (row >= y + height - b) {
+				dy = row + 0.5f - (y + height - b);
+			}
+			if (dy >= 0) {
+				inset = (int) a - ellipseHalfWidth(a, b, dy);
+			}
+			span(row, x + inset, x + width - inset, argb);
+		}
+	}
+
+	@Override
+	public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+		if (width < 0 || height < 0) return;
+		arcWidth = Math.min(Math.max(arcWidth, 0), width);
+		arcHeight = Math.min(Math.max(arcHeight, 0), height);
+		if (arcWidth == 0 || arcHeight == 0) {
+			drawRect(x, y, width, height);
+			return;
+		}
+		int aw = arcWidth / 2;
+		int ah = arcHeight / 2;
+		drawArc(x, y, arcWidth, arcHeight, 90, 90);
+		drawArc(x + width - arcWidth, y, arcWidth, arcHeight, 0, 90);
+		drawArc(x, y + height - arcHeight, arcWidth, arcHeight, 180, 90);
+		drawArc(x + width - arcWidth, y + height - arcHeight, arcWidth, arcHeight, 270, 90);
+		x += translateX;
+		y += translateY;
+		boolean dotted = getStrokeStyle() == DOTTED;
+		line(x + aw, y, x + width - aw, y, argb, dotted);
+		line(x + aw, y + height, x + width - aw, y + height, argb, dotted);
+		line(x, y + ah, x, y + height - ah, argb, dotted);
+		line(x + width, y + ah, x + width, y + height - ah, argb, dotted);
+	}
+
+	@Override
+	public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+		if (width <= 0 || height <= 0 || arcAngle == 0) return;
+		x += translateX;
+		y += translateY;
+		if (arcAngle < 0) {
+			startAngle += arcAngle;
+			arcAngle = -arcAngle;
+		}
+		boolean full = arcAngle >= 360;
+		startAngle = (startAngle % 360 + 360) % 360;
+		// sector edges, with y pointing up as in the MIDP angle convention
+		float sx = MathUtils.cosDeg(startAngle);
+		float sy = MathUtils.sinDeg(startAngle);
+		float ex = MathUtils.cosDeg(startAngle + arcAngle);
+		float ey = MathUtils.sinDeg(startAngle + arcAngle);
+		boolean wide = arcAngle > 180;
+
+		float a = width / 2f;
+		float b = height / 2f;
+		float cx = x + a;
+		float cy = y + b;
+		int top = Math.max(y, clipTop);
+		int bottom = Math.min(y + height, clipBottom);
+		int color = argb;
+		for (int row = top; row < bottom; row++) {
+			float dy = row + 0.5f - cy;
+			int half = ellipseHalfWidth(a, b, Math.abs(dy));
+			int left = (int) (cx - half + 0.5f);
+			int right = (int) (cx + half + 0.5f);
+			if (full) {
+				span(row, left, right, color);
+				continue;
+			}
+			int from = Math.max(left, clipLeft);
+			int to = Math.min(right, clipRight);
+			int runStart = -1;
+			float py = -dy;
+			for (int col = from; col < to; col++) {
+				float px = col + 0.5f - cx;
+				boolean afterStart = sx * py - sy * px >= 0;
+				boolean beforeEnd = ex * py - ey * px <= 0;
+				boolean inside = wide ? afterStart || beforeEnd : afterStart && beforeEnd;
+				if (inside) {
+					if (runStart < 0) runStart = col;
+				} else if (runStart >= 0) {
+					span(row, runStart, col, color);
+					runStart = -1;
+				}
+			}
+			if (runStart >= 0) {
+				span(row, runStart, to, color);
+			}
+		}
+	}
+
+	@Override
+	public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+		if (width < 0 || height < 0 || arcAngle == 0) return;
+		x += translateX;
+		y += translateY;
+		if (arcAngle > 360) arcAngle = 360;
+		if (arcAngle < -360) arcAngle = -360;
+		int segments = Math.max(4, (int) (Math.max(width, height) * Math.abs(arcAngle) / 180f));
+		if (arcBuffer.length < (segments + 1) * 2) {
+			arcBuffer = new float[(segments + 1) * 2];
+		}
+		float[] points = arcBuffer;
+		GraphicsBatch.arcPoints(points, 0, x, y, width, height, startAngle, arcAngle, segments);
+		boolean dotted = getStrokeStyle() == DOTTED;
+		int px = Math.round(points[0]);
+		int py = Math.round(points[1]);
+		for (int i = 1, p = 2; i <= segments; i++, p += 2) {
+			int nx = Math.round(points[p]);
+			int ny = Math.round(points[p + 1]);
+			if (nx != px || ny != py) {
+				line(px, py, nx, ny, argb, dotted);
+				px = nx;
+				py = ny;
+			}
+		}
+	}
+
+	@Override
+	public void fillTriangle(int x1, int y1, int x2, int y2, int x3, int y3) {
+		int[] xs = triangleX;
+		int[] ys = triangleY;
+		xs[0] = x1;
+		xs[1] = x2;
+		xs[2] = x3;
+		ys[0] = y1;
+		ys[1] = y2;
+		ys[2] = y3;
+		fillPolygon(xs, 0, ys, 0, 3);
+	}
+
+	/**
+	 * Scanline polygon fill with the even-odd rule, sampling pixel centers.
+	 */
+	@Override
+	public void fillPolygon(int[] xPoints, int xOffset, int[] yPoints, int yOffset, int nPoints) {
+		if (nPoints < 3) return;
+		int minY = Integer.MAX_VALUE;
+		int maxY = Integer.MIN_VALUE;
+		for (int i = 0; i < nPoints; i++) {
+			int py = yPoints[yOffset + i];
+			if (py < minY) minY = py;
+			if (py > maxY) maxY = py;
+		}
+		int tx = translateX;
+		int ty = translateY;
+		int top = Math.max(minY + ty, clipTop);
+		int bottom = Math.min(maxY + ty, clipBottom);
+		if (spanBuffer.length < nPoints) {
+			spanBuffer = new int[nPoints];
+		}
+		int[] crossings = spanBuffer;
+		for (int row = top; row < bottom; row++) {
+			float sy = row + 0.5f - ty;
+			int n = 0;
+			for (int i = 0, j = nPoints - 1; i < nPoints; j = i++) {
+				int yi = yPoints[yOffset + i];
+				int yj = yPoints[yOffset + j];
+				if (yi <= sy && yj > sy || yj <= sy && yi > sy) {
+					int xi = xPoints[xOffset + i];
+					int xj = xPoints[xOffset + j];
+					float cross = xi + (sy - yi) * (xj - xi) / (yj - yi);
+					crossings[n++] = (int) (cross + 0.5f) + tx;
+				}
+			}
+			// insertion sort, the number of crossings per row is tiny
+			for (int i = 1; i < n; i++) {
+				int v = crossings[i];
+				int k = i - 1;
+				while (k >= 0 && crossings[k] > v) {
+					crossings[k + 1] = crossings[k];
+					k--;
+				}
+				crossings[k + 1] = v;
+			}
+			for (int i = 0; i + 1 < n; i += 2) {
+				span(row, crossings[i], crossings[i + 1], argb);
+			}
+		}
+	}
+
+	@Override
+	public void drawPolygon(int[] xPoints, int xOffset, int[] yPoints, int yOffset, int nPoints) {
+		if (nPoints <= 0) return;
+		boolean dotted = getStrokeStyle() == DOTTED;
+		int tx = translateX;
+		int ty = translateY;
+		for (int i = 0, j = nPoints - 1; i < nPoints; j = i++) {
+			line(xPoints[xOffset + j] + tx, yPoints[yOffset + j] + ty,
+					xPoints[xOffset + i] + tx, yPoints[yOffset + i] + ty, argb, dotted);
+		}
+	}
+
+	// region images
+
+	@Override
+	public void drawImage(Image image, int x, int y, int anchor) {
+		drawRegion(image, 0, 0, image.getWidth(), image.getHeight(), Sprite.TRANS_NONE, x, y, anchor);
+	}
+
+	@Override
+	public void drawImage(Image image, int x, int y, int width, int height, boolean filter, int alpha) {
+		target.markModified();
+		int srcWidth = image.getWidth();
+		int srcHeight = image.getHeight();
+		if (width <= 0 || height <= 0) {
+			width = srcWidth;
+			height = srcHeight;
+		}
+		x += translateX;
+		y += translateY;
+		int[] src = image.getPixels();
+		int left = Math.max(x, clipLeft);
+		int right = Math.min(x + width, clipRight);
+		int top = Math.max(y, clipTop);
+		int bottom = Math.min(y + height, clipBottom);
+		boolean opaque = !image.hasAlpha() && alpha >= 0xFF;
+		for (int row = top; row < bottom; row++) {
+			int srcRow = (row - y) * srcHeight / height * srcWidth;
+			int dst = row * this.width;
+			for (int col = left; col < right; col++) {
+				int pixel = src[srcRow + (col - x) * srcWidth / width];
+				if (opaque) {
+					pixels[dst + col] = pixel;
+				} else {
+					int a = (pixel >>> 24) * alpha / 0xFF;
+					pixels[dst + col] = blend(pixels[dst + col], a << 24 | pixel & 0xFFFFFF);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void drawRegion(Image image, int srcx, int srcy, int width, int height, int transform, int dstx, int dsty, int anchor) {
+		if (width <= 0 || height <= 0) return;
+		if (srcx < 0 || srcy < 0 || srcx > image.getWidth() - width || srcy > image.getHeight() - height) {
+			throw new IllegalArgumentException("Area out of Image");
+		}
+		target.markModified();
+		boolean swap = (transform & 4) != 0;
+		int dw = swap ? height : width;
+		int dh = swap ? width : height;
+
+		if ((anchor & Graphics.RIGHT) != 0) {
+			dstx -= dw;
+		} else if ((anchor & Graphics.HCENTER) != 0) {
+			dstx -= dw / 2;
+		}
+		if ((anchor & Graphics.BOTTOM) != 0) {
+			dsty -= dh;
+		} else if ((anchor & Graphics.VCENTER) != 0) {
+			dsty -= dh / 2;
+		}
+		dstx += translateX;
+		dsty += translateY;
+
+		/*
+		 * source = origin + col * (xdx, ydx) + row * (xdy, ydy),
+		 * where col and row are relative to the destination rectangle
+		 */
+		int ox, oy, xdx, ydx, xdy, ydy;
+		switch (transform) {
+			case Sprite.TRANS_NONE:
+				ox = 0; oy = 0; xdx = 1; ydx = 0; xdy = 0; ydy = 1;
+				break;
+			case Sprite.TRANS_MIRROR:
+				ox = width - 1; oy = 0; xdx = -1; ydx = 0; xdy = 0; ydy = 1;
+				break;
+			case Sprite.TRANS_MIRROR_ROT180:
+				ox = 0; oy = height - 1; xdx = 1; ydx = 0; xdy = 0; ydy = -1;
+				break;
+			case Sprite.TRANS_ROT180:
+				ox = width - 1; oy = height - 1; xdx = -1; ydx = 0; xdy = 0; ydy = -1;
+				break;
+			case Sprite.TRANS_ROT90:
+				ox = 0; oy = height - 1; xdx = 0; ydx = -1; xdy = 1; ydy = 0;
+				break;
+			case Sprite.TRANS_ROT270:
+				ox = width - 1; oy = 0; xdx = 0; ydx = 1; xdy = -1; ydy = 0;
+				break;
+			case Sprite.TRANS_MIRROR_ROT90:
+				ox = width - 1; oy = height - 1; xdx = 0; ydx = -1; xdy = -1; ydy = 0;
+				break;
+			case Sprite.TRANS_MIRROR_ROT270:
+				ox = 0; oy = 0; xdx = 0; ydx = 1; xdy = 1; ydy = 0;
+				break;
+			default:
+				throw new IllegalArgumentException("transform: " + transform);
+		}
+
+		int[] src = image.getPixels();
+		int stride = image.getWidth();
+		int left = Math.max(dstx, clipLeft);
+		int right = Math.min(dstx + dw, clipRight);
+		int top = Math.max(dsty, clipTop);
+		int bottom = Math.min(dsty + dh, clipBottom);
+		if (left >= right) return;
+		boolean opaque = !image.hasAlpha();
+		int step = ydx * stride + xdx;
+		int[] pixels = this.pixels;
+		for (int row = top; row < bottom; row++) {
+			int col0 = left - dstx;
+			int r = row - dsty;
+			int sx = srcx + ox + col0 * xdx + r * xdy;
+			int sy = srcy + oy + col0 * ydx + r * ydy;
+			int s = sy * stride + sx;
+			int d = row * this.width + left;
+			int end = row * this.width + right;
+			if (opaque && step == 1) {
+				System.arraycopy(src, s, pixels, d, end - d);
+				continue;
+			}
+			for (; d < end; d++, s += step) {
+				pixels[d] = blend(pixels[d], src[s]);
+			}
+		}
+	}
+
+	@Override
+	public void drawRGB(int[] rgbData, int offset, int scanlength, int x, int y, int width, int height, boolean processAlpha) {
+		if (width <= 0 || height <= 0) return;
+		target.markModified();
+		x += translateX;
+		y += translateY;
+		int left = Math.max(x, clipLeft);
+		int right = Math.min(x + width, clipRight);
+		int top = Math.max(y, clipTop);
+		int bottom = Math.min(y + height, clipBottom);
+		if (left >= right) return;
+		int[] pixels = this.pixels;
+		for (int row = top; row < bottom; row++) {
+			int s = offset + (row - y) * scanlength + (left - x);
+			int d = row * this.width + left;
+			int count = right - left;
+			if (!processAlpha) {
+				for (int i = 0; i < count; i++) {
+					pixels[d + i] = rgbData[s + i] | 0xFF000000;
+				}
+			} else {
+				for (int i = 0; i < count; i++) {
+					pixels[d + i] = blend(pixels[d + i], rgbData[s + i]);
+				}
+			}
+		}
+	}
+
+	@Override
+	void drawPixels(int[] rgbData, int width, int height, int x, int y, int dstWidth, int dstHeight) {
+		if (width <= 0 || height <= 0 || dstWidth <= 0 || dstHeight <= 0) return;
+		target.markModified();
+		x += translateX;
+		y += translateY;
+		int left = Math.max(x, clipLeft);
+		int right = Math.min(x + dstWidth, clipRight);
+		int top = Math.max(y, clipTop);
+		int bottom = Math.min(y + dstHeight, clipBottom);
+		for (int row = top; row < bottom; row++) {
+			int srcRow = (row - y) * height / dstHeight * width;
+			int dst = row * this.width;
+			for (int col = left; col < right; col++) {
+				pixels[dst + col] = rgbData[srcRow + (col - x) * width / dstWidth] | 0xFF000000;
+			}
+		}
+	}
+
+	/**
+	 * Draw axis-aligned quads of 4 vertices of x, y, color, u, v, in surface
+	 * coordinates. Images have no texture region in software mode, so the
+	 * texture coordinates are relative to the image itself. The pixels are
+	 * sampled at the center of each covered pixel and the color is ignored.
+	 */
+	@Override
+	public void drawVertices(Image image, float[] vertices, int offset, int count) {
+		target.markModified();
+		int[] src = image.getPixels();
+		int srcWidth = image.getWidth();
+		int srcHeight = image.getHeight();
+		int[] pixels = this.pixels;
+		for (int i = offset, end = offset + count; i + 20 <= end; i += 20) {
+			float x1 = vertices[i];
+			float y1 = vertices[i + 1];
+			float u1 = vertices[i + 3] * srcWidth;
+			float v1 = vertices[i + 4] * srcHeight;
+			// the opposite corner
+			float x2 = vertices[i + 10];
+			float y2 = vertices[i + 11];
+			float u2 = vertices[i + 13] * srcWidth;
+			float v2 = vertices[i + 14] * srcHeight;
+			if (x1 == x2 || y1 == y2) continue;
+			int left = Math.max(Math.round(Math.min(x1, x2)), clipLeft);
+			int right = Math.min(Math.round(Math.max(x1, x2)), clipRight);
+			int top = Math.max(Math.round(Math.min(y1, y2)), clipTop);
+			int bottom = Math.min(Math.round(Math.max(y1, y2)), clipBottom);
+			float du = (u2 - u1) / (x2 - x1);
+			float dv = (v2 - v1) / (y2 - y1);
+			for (int row = top; row < bottom; row++) {
+				int sy = MathUtils.clamp((int) (v1 + (row + 0.5f - y1) * dv), 0, srcHeight - 1);
+				int srcRow = sy * srcWidth;
+				int d = row * this.width;
+				for (int col = left; col < right; col++) {
+					int sx = MathUtils.clamp((int) (u1 + (col + 0.5f - x1) * du), 0, srcWidth - 1);
+					pixels[d + col] = blend(pixels[d + col], src[srcRow + sx]);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void copyArea(int x_src, int y_src, int width, int height, int x_dest, int y_dest, int anchor) {
+		if (width <= 0 || height <= 0) return;
+		target.markModified();
+		if ((anchor & Graphics.RIGHT) != 0) {
+			x_dest -= width;
+		} else if ((anchor & Graphics.HCENTER) != 0) {
+			x_dest -= width / 2;
+		}
+		if ((anchor & Graphics.BOTTOM) != 0) {
+			y_dest -= height;
+		} else if ((anchor & Graphics.VCENTER) != 0) {
+			y_dest -= height / 2;
+		}
+		x_src += translateX;
+		y_src += translateY;
+		x_dest += translateX;
+		y_dest += translateY;
+		if (x_src < 0 || y_src < 0 || x_src + width > this.width || y_src + height > this.height) {
+			throw new IllegalArgumentException("area out of bounds");
+		}
+		// clip the destination and shift the source accordingly
+		int left = Math.max(x_dest, clipLeft);
+		int right = Math.min(x_dest + width, clipRight);
+		int top = Math.max(y_dest, clipTop);
+		int bottom = Math.min(y_dest + height, clipBottom);
+		if (left >= right || top >= bottom) return;
+		int count = right - left;
+		int dx = x_src - x_dest;
+		int dy = y_src - y_dest;
+		// copy in the direction that never reads an already overwritten row
+		if (dy < 0) {
+			for (int row = bottom - 1; row >= top; row--) {
+				System.arraycopy(pixels, (row + dy) * this.width + left + dx, pixels, row * this.width + left, count);
+			}
+		} else {
+			for (int row = top; row < bottom; row++) {
+				System.arraycopy(pixels, (row + dy) * this.width + left + dx, pixels, row * this.width + left, count);
+			}
+		}
+	}
+
+	@Override
+	public void getPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+		for (int row = 0; row < height; row++) {
+			System.arraycopy(this.pixels, (y + row) * this.width + x, pixels, offset + row * stride, width);
+		}
+	}
+
+	// endregion
+
+	// region text
+
+	@Override
+	public void drawString(String text, int x, int y, int anchor) {
+		drawText(text, null, 0, text.length(), x, y, anchor);
+	}
+
+	@Override
+	public void drawSubstring(String str, int offset, int len, int x, int y, int anchor) {
+		drawText(str, null, offset, len, x, y, anchor);
+	}
+
+	@Override
+	public void drawChars(char[] data, int offset, int length, int x, int y, int anchor) {
+		drawText(null, data, offset, length, x, y, anchor);
+	}
+
+	@Override
+	public void drawChar(char character, int x, int y, int anchor) {
+		char[] chars = singleChar;
+		chars[0] = character;
+		drawText(null, chars, 0, 1, x, y, anchor);
+	}
+
+	private void drawText(String text, char[] chars, int offset, int length, int x, int y, int anchor) {
+		BitmapFont.BitmapFontData data = getFont().getPaint().getData();
+		GlyphPages pages = getGlyphPages(data);
+		if (pages == null) {
+			return;
+		}
+		if (anchor == 0) {
+			anchor = LEFT | TOP;
+		}
+		float scaleX = data.scaleX;
+		float scaleY = data.scaleY;
+		if ((anchor & (RIGHT | HCENTER)) != 0) {
+			float width = 0;
+			for (int i = offset; i < offset + length; i++) {
+				BitmapFont.Glyph glyph = data.getGlyph(text != null ? text.charAt(i) : chars[i]);
+				if (glyph != null) {
+					width += glyph.xadvance * scaleX;
+				}
+			}
+			x -= (anchor & RIGHT) != 0 ? (int) width : (int) width / 2;
+		}
+		// setScale() already scaled the line metrics, only the glyphs are unscaled
+		if ((anchor & BOTTOM) != 0) {
+			y -= (int) data.lineHeight;
+		} else if ((anchor & BASELINE) != 0) {
+			y -= (int) data.capHeight;
+		}
+		float penX = x + translateX;
+		int top = y + translateY;
+		for (int i = offset; i < offset + length; i++) {
+			BitmapFont.Glyph glyph = data.getGlyph(text != null ? text.charAt(i) : chars[i]);
+			if (glyph == null) {
+				continue;
+			}
+			int glyphTop = data.flipped ? glyph.yoffset : -(glyph.yoffset + glyph.height);
+			drawGlyph(pages, glyph, (int) (penX + glyph.xoffset * scaleX), top + (int) (glyphTop * scaleY),
+					(int) (glyph.width * scaleX + 0.5f), (int) (glyph.height * scaleY + 0.5f));
+			penX += glyph.xadvance * scaleX;
+		}
+	}
+
+	private void drawGlyph(GlyphPages pages, BitmapFont.Glyph glyph, int x, int y, int width, int height) {
+		target.markModified();
+		if (width <= 0 || height <= 0 || glyph.page >= pages.alpha.length) {
+			return;
+		}
+		byte[] alpha = pages.alpha[glyph.page];
+		int stride = pages.widths[glyph.page];
+		int color = argb & 0xFFFFFF;
+		int colorAlpha = argb >>> 24;
+		int left = Math.max(x, clipLeft);
+		int right = Math.min(x + width, clipRight);
+		int top = Math.max(y, clipTop);
+		int bottom = Math.min(y + height, clipBottom);
+		for (int row = top; row < bottom; row++) {
+			int srcRow = (glyph.srcY + (row - y) * glyph.height / height) * stride + glyph.srcX;
+			int d = row * this.width;
+			for (int col = left; col < right; col++) {
+				int a = alpha[srcRow + (col - x) * glyph.width / width] & 0xFF;
+				if (a != 0) {
+					a = a * colorAlpha / 0xFF;
+					pixels[d + col] = blend(pixels[d + col], a << 24 | color);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Coverage of the font texture pages, loaded once per font without any GL texture.
+	 */
+	private static class GlyphPages {
+		byte[][] alpha;
+		int[] widths;
+	}
+
+	private static GlyphPages getGlyphPages(BitmapFont.BitmapFontData data) {
+		synchronized (glyphPages) {
+			GlyphPages pages = glyphPages.get(data);
+			if (pages != null || glyphPages.containsKey(data)) {
+				return pages;
+			}
+			try {
+				pages = new GlyphPages();
+				int count = data.imagePaths.length;
+				pages.alpha = new byte[count][];
+				pages.widths = new int[count];
+				for (int i = 0; i < count; i++) {
+					Pixmap pixmap = new Pixmap(getPageFile(data, data.imagePaths[i]));
+					int w = pixmap.getWidth();
+					int h = pixmap.getHeight();
+					byte[] alpha = new byte[w * h];
+					for (int py = 0; py < h; py++) {
+						for (int px = 0; px < w; px++) {
+							alpha[py * w + px] = (byte) pixmap.getPixel(px, py);
+						}
+					}
+					pixmap.dispose();
+					pages.alpha[i] = alpha;
+					pages.widths[i] = w;
+				}
+			} catch (Exception e) {
+				if (Gdx.app != null) {
+					Gdx.app.error(TAG, "can't load glyphs of " + data.name, e);
+				}
+				pages = null;
+			}
+			glyphPages.put(data, pages);
+			return pages;
+		}
+	}
+
+	/**
+	 * Resolve a font page without Gdx.files when headless. The page paths
+	 * were built from the font file's parent, so they are resolved against it again.
+	 */
+	private static FileHandle getPageFile(BitmapFont.BitmapFontData data, String path) {
+		if (Gdx.files != null) {
+			return Gdx.files.getFileHandle(path, data.fontFile.type());
+		}
+		FileHandle parent = data.fontFile.parent();
+		String prefix = parent.path().replace('\\', '/');
+		if (!prefix.isEmpty() && path.startsWith(prefix + "/")) {
+			return parent.child(path.substring(prefix.length() + 1));
+		}
+		return parent.child(path.substring(path.lastIndexOf('/') + 1));
+	}
+
+	// endregion
+}
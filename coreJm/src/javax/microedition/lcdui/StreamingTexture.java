@@ -0,0 +1,179 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.BufferUtils;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.IntMap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * A texture that is rewritten from int[] ARGB data on every use, for drawRGB().
+ * <p>
+ * Pixels are converted to RGBA into a preallocated direct buffer and uploaded
+ * with glTexSubImage2D, so an update allocates nothing on the Java heap and
+ * only touches the part of the texture that is actually drawn.
+ */
+class StreamingTexture implements Disposable {
+	/**
+	 * Sizes are rounded up to this step, so that slightly different
+	 * drawRGB() sizes share the same textures.
+	 */
+	private static final int SIZE_STEP = 64;
+
+	private final Texture texture;
+	private final IntBuffer buffer;
+	private final int[] row;
+	private int flushStamp = -1;
+
+	private StreamingTexture(int width, int height) {
+		texture = new Texture(width, height, Pixmap.Format.RGBA8888);
+		ByteBuffer bytes = BufferUtils.newByteBuffer(width * height * 4);
+		// big endian, so that an RGBA int is laid out as R, G, B, A bytes
+		buffer = bytes.order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+		row = new int[width];
+	}
+
+	public Texture getTexture() {
+		return texture;
+	}
+
+	/**
+	 * Convert count ARGB pixels to RGBA, as expected by GL_RGBA/GL_UNSIGNED_BYTE
+	 * when written to a big endian buffer.
+	 */
+	static void toRGBA(int[] src, int srcOffset, int[] dst, int dstOffset, int count, boolean processAlpha) {
+		int alpha = processAlpha ? 0 : 0xFF;
+		for (int i = 0; i < count; i++) {
+			int argb = src[srcOffset + i];
+			dst[dstOffset + i] = argb << 8 | argb >>> 24 | alpha;
+		}
+	}
+
+	/**
+	 * Upload the pixels into the top-left corner of the texture.
+	 */
+	public void update(int[] rgbData, int offset, int scanlength, int width, int height, boolean processAlpha) {
+		IntBuffer buffer = this.buffer;
+		int[] row = this.row;
+		buffer.clear();
+		for (int y = 0; y < height; y++) {
+			toRGBA(rgbData, offset + y * scanlength, row, 0, width, processAlpha);
+			buffer.put(row, 0, width);
+		}
+		buffer.flip();
+		texture.bind();
+		Gdx.gl.glPixelStorei(GL20.GL_UNPACK_ALIGNMENT, 4);
+		Gdx.gl.glTexSubImage2D(GL20.GL_TEXTURE_2D, 0, 0, 0, width, height,
+				GL20.GL_RGBA, GL20.GL_UNSIGNED_BYTE, buffer);
+	}
+
+	@Override
+	public void dispose() {
+		texture.dispose();
+	}
+
+	/**
+	 * Size-keyed pool of streaming textures for one {@link GraphicsBatch}.
+	 * <p>
+	 * A texture that was drawn but not yet flushed can't be rewritten, so the
+	 * pool hands out another texture of the same size, and flushes the batch
+	 * only when all of them are pending.
+	 * <p>
+	 * A disposed pool stays usable and creates its textures again on demand.
+	 */
+	static class Pool implements Disposable {
+		private static final int TEXTURES_PER_SIZE = 2;
+		private static final Set<Pool> pools = Collections.newSetFromMap(new WeakHashMap<>());
+
+		private final GraphicsBatch batch;
+		private final IntMap<Array<StreamingTexture>> textures = new IntMap<>();
+
+		Pool(GraphicsBatch batch) {
+			this.batch = batch;
+			synchronized (pools) {
+				pools.add(this);
+			}
+		}
+
+		/**
+		 * Release the textures of every pool. Must be called on the GL thread
+		 * when the context is about to be lost, and on exit.
+		 */
+		public static void disposeAll() {
+			ArrayList<Pool> list;
+			synchronized (pools) {
+				list = new ArrayList<>(pools);
+			}
+			for (Pool pool : list) {
+				pool.dispose();
+			}
+		}
+
+		/**
+		 * @return a texture of at least the given size that may be rewritten right now
+		 */
+		public synchronized StreamingTexture obtain(int width, int height) {
+			int w = (width + SIZE_STEP - 1) / SIZE_STEP * SIZE_STEP;
+			int h = (height + SIZE_STEP - 1) / SIZE_STEP * SIZE_STEP;
+			int key = w << 16 | h;
+			Array<StreamingTexture> list = textures.get(key);
+			if (list == null) {
+				list = new Array<>(false, TEXTURES_PER_SIZE);
+				textures.put(key, list);
+			}
+			int stamp = batch.getFlushStamp();
+			for (int i = 0; i < list.size; i++) {
+				StreamingTexture texture = list.get(i);
+				if (texture.flushStamp != stamp) {
+					texture.flushStamp = stamp;
+					return texture;
+				}
+			}
+			StreamingTexture texture;
+			if (list.size < TEXTURES_PER_SIZE) {
+				texture = new StreamingTexture(w, h);
+				list.add(texture);
+			} else {
+				batch.flush();
+				texture = list.first();
+			}
+			texture.flushStamp = batch.getFlushStamp();
+			return texture;
+		}
+
+		@Override
+		public synchronized void dispose() {
+			for (Array<StreamingTexture> list : textures.values()) {
+				for (StreamingTexture texture : list) {
+					texture.dispose();
+				}
+			}
+			textures.clear();
+		}
+	}
+}
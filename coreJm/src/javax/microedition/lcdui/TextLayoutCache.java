@@ -0,0 +1,188 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package javax.microedition.lcdui;
+
+import com.badlogic.gdx.graphics.g2d.BitmapFont;
+import com.badlogic.gdx.graphics.g2d.BitmapFontCache;
+import com.badlogic.gdx.graphics.g2d.GlyphLayout;
+import com.badlogic.gdx.utils.Align;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Laid out text runs of one {@link Graphics}, by font and text.
+ * <p>
+ * A run keeps the glyph vertices of its text, so redrawing it only moves and
+ * recolors them when the position or the color changed. Lookups go through a
+ * reused probe key and never allocate; only a miss lays the text out. The
+ * least recently drawn runs are dropped once there are too many runs or
+ * characters cached.
+ */
+class TextLayoutCache {
+	private static final int MAX_RUNS = 512;
+	private static final int MAX_CHARS = 16 * 1024;
+
+	private final LinkedHashMap<Key, Run> runs = new LinkedHashMap<>(64, 0.75f, true);
+	private final Key probe = new Key();
+	private int chars;
+
+	private int hits;
+	private int misses;
+	private int evictions;
+
+	/**
+	 * @return the run of the characters [offset, offset + length) of either text or chars
+	 */
+	public Run get(Font font, String text, char[] chars, int offset, int length) {
+		Key probe = this.probe;
+		probe.set(font, text, chars, offset, length);
+		Run run = runs.get(probe);
+		probe.set(null, null, null, 0, 0);
+		if (run != null) {
+			hits++;
+			return run;
+		}
+		misses++;
+		char[] copy = new char[length];
+		if (text != null) {
+			text.getChars(offset, offset + length, copy, 0);
+		} else {
+			System.arraycopy(chars, offset, copy, 0, length);
+		}
+		BitmapFont paint = font.getPaint();
+		BitmapFontCache cache = new BitmapFontCache(paint, paint.usesIntegerPositions());
+		GlyphLayout layout = text != null
+				? cache.setText(text, 0, 0, offset, offset + length, 0, Align.left, false)
+				: cache.setText(new String(copy), 0, 0);
+		run = new Run(cache, layout.width);
+		Key key = new Key();
+		key.set(font, null, copy, 0, length);
+		runs.put(key, run);
+		this.chars += length;
+		trim();
+		return run;
+	}
+
+	private void trim() {
+		Iterator<Key> iterator = runs.keySet().iterator();
+		while ((runs.size() > MAX_RUNS || chars > MAX_CHARS) && iterator.hasNext()) {
+			chars -= iterator.next().length;
+			iterator.remove();
+			evictions++;
+		}
+	}
+
+	public void clear() {
+		runs.clear();
+		chars = 0;
+	}
+
+	public int getHits() {
+		return hits;
+	}
+
+	public int getMisses() {
+		return misses;
+	}
+
+	public int getEvictions() {
+		return evictions;
+	}
+
+	public int size() {
+		return runs.size();
+	}
+
+	/**
+	 * Glyph vertices of a text, at the last position and color it was drawn with.
+	 */
+	static final class Run {
+		private final BitmapFontCache cache;
+		private final float width;
+		private float color;
+
+		Run(BitmapFontCache cache, float width) {
+			this.cache = cache;
+			this.width = width;
+			this.color = cache.getColor().toFloatBits();
+		}
+
+		public float getWidth() {
+			return width;
+		}
+
+		public void draw(GraphicsBatch batch, float x, float y, float color) {
+			if (color != this.color) {
+				cache.setColors(color);
+				this.color = color;
+			}
+			cache.setPosition(x, y);
+			cache.draw(batch);
+		}
+	}
+
+	/**
+	 * Either a probe over the caller's String or char[], or a copy owned by the cache.
+	 */
+	private static final class Key {
+		Font font;
+		String text;
+		char[] chars;
+		int offset;
+		int length;
+		int hash;
+
+		void set(Font font, String text, char[] chars, int offset, int length) {
+			this.font = font;
+			this.text = text;
+			this.chars = chars;
+			this.offset = offset;
+			this.length = length;
+			int hash = System.identityHashCode(font);
+			for (int i = offset; i < offset + length; i++) {
+				hash = 31 * hash + charAt(i);
+			}
+			this.hash = hash;
+		}
+
+		char charAt(int i) {
+			return text != null ? text.charAt(i) : chars[i];
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			if (other.font != font || other.length != length || other.hash != hash) {
+				return false;
+			}
+			for (int i = 0; i < length; i++) {
+				if (other.charAt(other.offset + i) != charAt(offset + i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,381 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.utils.IntArray;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Packs immutable images into shared texture pages.
+ * <p>
+ * Every image holds a reference on its atlas entry. The reference is dropped
+ * either explicitly by {@link Image#dispose()} or when the image is garbage
+ * collected, since MIDlets never dispose their images themselves. Entries
+ * loaded by name stay in an LRU cache after their last reference is gone, so
+ * that reloading the same resource does not upload it again. Unreferenced
+ * entries are evicted whenever the total texture memory exceeds the budget,
+ * packed entries counting for their own area. The space of a freed entry is
+ * reused by the next entries that fit into it, and a page is disposed as soon
+ * as it holds no live entry. Textures are always created, uploaded and
+ * disposed on the GL thread.
+ */
+public class TextureAtlasManager {
+	private static final String TAG = TextureAtlasManager.class.getName();
+
+	private static final int PAGE_SIZE = 1024;
+	private static final int MAX_PACKED_SIZE = 256;
+	private static final int PADDING = 1;
+	private static final int BYTES_PER_PIXEL = 4;
+
+	private static long budget = 64 * 1024 * 1024;
+	private static long used;
+
+	private static final ArrayList<Page> pages = new ArrayList<>();
+	private static final LinkedHashMap<Object, Entry> cache = new LinkedHashMap<>(64, 0.75f, true);
+	private static final HashSet<ImageRef> refs = new HashSet<>();
+	private static final ReferenceQueue<Image> queue = new ReferenceQueue<>();
+
+	/**
+	 * Set the amount of texture memory the atlas may use before it starts evicting
+	 * unreferenced entries. Referenced entries are never evicted, so the budget
+	 * can be exceeded if the MIDlet keeps more images alive than fits into it.
+	 *
+	 * @param bytes the budget in bytes
+	 */
+	public static synchronized void setBudget(long bytes) {
+		budget = bytes;
+		trim();
+	}
+
+	public static synchronized long getBudget() {
+		return budget;
+	}
+
+	public static synchronized long getUsedMemory() {
+		return used;
+	}
+
+	public static synchronized int getPageCount() {
+		return pages.size();
+	}
+
+	/**
+	 * Find a cached entry and take a reference on it for the given image.
+	 *
+	 * @return the shared bitmap of the entry, or null if nothing is cached under the key
+	 */
+	static synchronized Pixmap acquire(Object key, Image image) {
+		poll();
+		Entry entry = cache.get(key);
+		if (entry == null) {
+			return null;
+		}
+		bind(entry, image);
+		return entry.bitmap;
+	}
+
+	/**
+	 * Upload the bitmap into the atlas and take a reference on it for the given image.
+	 * The atlas takes ownership of the bitmap.
+	 *
+	 * @param key cache key, or null if the image can't be reloaded by name
+	 */
+	static synchronized void add(Object key, Pixmap bitmap, Image image) {
+		poll();
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		Entry entry = new Entry(key, bitmap);
+		if (width > MAX_PACKED_SIZE || height > MAX_PACKED_SIZE) {
+			reserve((long) width * height * BYTES_PER_PIXEL);
+			entry.region = new TextureRegion(createTexture(bitmap));
+			used += entry.size();
+		} else {
+			reserve(entry.size());
+			allocate(entry, width, height);
+			used += entry.size();
+			if (bitmap.getFormat() == Pixmap.Format.RGBA8888) {
+				upload(entry.page.texture, bitmap, entry.x, entry.y);
+			} else {
+				Pixmap upload = new Pixmap(width, height, Pixmap.Format.RGBA8888);
+				upload.setBlending(Pixmap.Blending.None);
+				upload.drawPixmap(bitmap, 0, 0);
+				upload(entry.page.texture, upload, entry.x, entry.y);
+				upload.dispose();
+			}
+			entry.region = new TextureRegion(entry.page.texture, entry.x, entry.y, width, height);
+		}
+		if (key != null) {
+			Entry old = cache.put(key, entry);
+			if (old != null && old.refCount == 0) {
+				free(old);
+			}
+		}
+		bind(entry, image);
+	}
+
+	/**
+	 * Drop the reference of a disposed image.
+	 */
+	static synchronized void release(Image image) {
+		ImageRef ref = image.atlasRef;
+		if (ref != null) {
+			image.atlasRef = null;
+			ref.clear();
+			release(ref);
+		}
+		poll();
+	}
+
+	private static void bind(Entry entry, Image image) {
+		entry.refCount++;
+		ImageRef ref = new ImageRef(image, entry);
+		refs.add(ref);
+		image.atlasRef = ref;
+		image.region = entry.region;
+		image.solidRegion = entry.page != null ? entry.page.solid : null;
+	}
+
+	private static void release(ImageRef ref) {
+		if (!refs.remove(ref)) {
+			return;
+		}
+		Entry entry = ref.entry;
+		if (--entry.refCount == 0) {
+			if (entry.key == null || cache.get(entry.key) != entry) {
+				free(entry);
+			} else {
+				trim();
+			}
+		}
+	}
+
+	private static void poll() {
+		ImageRef ref;
+		while ((ref = (ImageRef) queue.poll()) != null) {
+			release(ref);
+		}
+	}
+
+	/**
+	 * Evict unreferenced cached entries, least recently used first, until the budget is met.
+	 */
+	private static void trim() {
+		Iterator<Entry> iterator = cache.values().iterator();
+		while (used > budget && iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if (entry.refCount == 0) {
+				iterator.remove();
+				free(entry);
+			}
+		}
+	}
+
+	private static void reserve(long bytes) {
+		if (used + bytes > budget) {
+			poll();
+			trim();
+			if (used + bytes > budget) {
+				Gdx.app.log(TAG, "texture budget exceeded: " + (used + bytes) + " > " + budget);
+			}
+		}
+	}
+
+	private static void allocate(Entry entry, int width, int height) {
+		for (Page page : pages) {
+			if (page.allocate(entry, width, height)) {
+				return;
+			}
+		}
+		Page page = new Page();
+		pages.add(page);
+		page.allocate(entry, width, height);
+	}
+
+	private static void free(Entry entry) {
+		Page page = entry.page;
+		used -= entry.size();
+		if (page == null) {
+			dispose(entry.region.getTexture());
+		} else if (--page.entries == 0) {
+			pages.remove(page);
+			dispose(page.texture);
+		} else {
+			page.free(entry);
+		}
+		entry.bitmap.dispose();
+	}
+
+	/**
+	 * Images are created from MIDlet threads, while GL objects may only be
+	 * created and written on the GL thread.
+	 */
+	static Texture createTexture(Pixmap bitmap) {
+		Texture[] texture = new Texture[1];
+		ViewHandler.runOnGLThread(() -> texture[0] = new Texture(bitmap));
+		return texture[0];
+	}
+
+	private static void upload(Texture texture, Pixmap bitmap, int x, int y) {
+		ViewHandler.runOnGLThread(() -> texture.draw(bitmap, x, y));
+	}
+
+	/**
+	 * Images are released from MIDlet threads and the finalizer queue,
+	 * while GL objects may only be deleted on the GL thread.
+	 */
+	static void dispose(Texture texture) {
+		if (Gdx.app == null) {
+			texture.dispose();
+		} else {
+			Gdx.app.postRunnable(texture::dispose);
+		}
+	}
+
+	static class ImageRef extends WeakReference<Image> {
+		final Entry entry;
+
+		ImageRef(Image image, Entry entry) {
+			super(image, queue);
+			this.entry = entry;
+		}
+	}
+
+	private static class Entry {
+		final Object key;
+		final Pixmap bitmap;
+		TextureRegion region;
+		Page page;
+		int x, y;
+		int refCount;
+
+		Entry(Object key, Pixmap bitmap) {
+			this.key = key;
+			this.bitmap = bitmap;
+		}
+
+		long size() {
+			return (long) bitmap.getWidth() * bitmap.getHeight() * BYTES_PER_PIXEL;
+		}
+	}
+
+	/**
+	 * A texture page filled shelf by shelf. The top-left corner holds a white
+	 * block, so that shapes drawn between sprites can sample the same texture.
+	 * Freed entries leave rectangles, padding included, that later entries are
+	 * cut from before the shelves grow.
+	 */
+	private static class Page {
+		final Texture texture;
+		final TextureRegion solid;
+		int shelfY, shelfHeight, shelfX;
+		int entries;
+		// x, y, width, height of each free rectangle
+		final IntArray freeRects = new IntArray();
+
+		Page() {
+			Pixmap white = new Pixmap(2, 2, Pixmap.Format.RGBA8888);
+			white.setColor(0xFFFFFFFF);
+			white.fill();
+			Texture[] page = new Texture[1];
+			ViewHandler.runOnGLThread(() -> {
+				page[0] = new Texture(PAGE_SIZE, PAGE_SIZE, Pixmap.Format.RGBA8888);
+				page[0].draw(white, 0, 0);
+			});
+			texture = page[0];
+			white.dispose();
+			solid = new TextureRegion(texture, 0, 0, 2, 2);
+			shelfX = 2 + PADDING;
+			shelfHeight = 2;
+		}
+
+		boolean allocate(Entry entry, int width, int height) {
+			if (allocateFree(entry, width, height)) {
+				return true;
+			}
+			if (shelfX + width > PAGE_SIZE || height > shelfHeight && shelfX > 0) {
+				// the image doesn't fit into the current shelf, open a new one
+				if (shelfY + shelfHeight + PADDING + height > PAGE_SIZE) {
+					return false;
+				}
+				shelfY += shelfHeight + PADDING;
+				shelfX = 0;
+				shelfHeight = 0;
+			}
+			if (shelfX == 0) {
+				shelfHeight = height;
+			}
+			entry.page = this;
+			entry.x = shelfX;
+			entry.y = shelfY;
+			shelfX += width + PADDING;
+			entries++;
+			return true;
+		}
+
+		/**
+		 * Place the entry into the smallest free rectangle it fits in, and
+		 * give the rest of the rectangle back as two smaller ones.
+		 */
+		private boolean allocateFree(Entry entry, int width, int height) {
+			int[] rects = freeRects.items;
+			int best = -1;
+			long bestArea = Long.MAX_VALUE;
+			for (int i = 0; i < freeRects.size; i += 4) {
+				int w = rects[i + 2];
+				int h = rects[i + 3];
+				long area = (long) w * h;
+				if (width + PADDING <= w && height + PADDING <= h && area < bestArea) {
+					best = i;
+					bestArea = area;
+				}
+			}
+			if (best < 0) {
+				return false;
+			}
+			int x = rects[best];
+			int y = rects[best + 1];
+			int w = rects[best + 2];
+			int h = rects[best + 3];
+			freeRects.removeRange(best, best + 3);
+			int usedWidth = width + PADDING;
+			int usedHeight = height + PADDING;
+			if (w > usedWidth) {
+				freeRects.add(x + usedWidth, y, w - usedWidth, usedHeight);
+			}
+			if (h > usedHeight) {
+				freeRects.add(x, y + usedHeight, w, h - usedHeight);
+			}
+			entry.page = this;
+			entry.x = x;
+			entry.y = y;
+			entries++;
+			return true;
+		}
+
+		void free(Entry entry) {
+			freeRects.add(entry.x, entry.y, entry.bitmap.getWidth() + PADDING, entry.bitmap.getHeight() + PADDING);
+		}
+	}
+}
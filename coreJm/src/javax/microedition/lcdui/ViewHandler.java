@@ -20,11 +20,65 @@ package javax.microedition.lcdui;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.utils.Timer;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
 /**
  * Class for centrally creating and modifying View.
  * Needed, because Android does not allow to change the View from different threads.
  */
 public class ViewHandler {
+	private static volatile Thread glThread;
+
+	/**
+	 * Remember the thread that owns the GL context. Must be called from
+	 * {@code ApplicationListener.create()}.
+	 */
+	public static void setGLThread(Thread thread) {
+		glThread = thread;
+	}
+
+	public static boolean isGLThread() {
+		return Thread.currentThread() == glThread;
+	}
+
+	/**
+	 * Run the task on the GL thread and wait for it to complete. The task runs
+	 * in place on the GL thread itself, and before the application is created.
+	 * The caller must not hold a lock that the GL thread may wait for.
+	 */
+	public static void runOnGLThread(Runnable task) {
+		if (Gdx.app == null || glThread == null || isGLThread()) {
+			task.run();
+			return;
+		}
+		FutureTask<Void> future = new FutureTask<>(task, null);
+		Gdx.app.postRunnable(future);
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					future.get();
+					return;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					} else if (cause instanceof Error) {
+						throw (Error) cause;
+					}
+					throw new RuntimeException(cause);
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
 	public static void postEvent(Runnable event) {
 		Gdx.app.postRunnable(event);
 	}
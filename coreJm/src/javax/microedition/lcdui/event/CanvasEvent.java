@@ -18,13 +18,33 @@ package javax.microedition.lcdui.event;
 
 import com.badlogic.gdx.Gdx;
 
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 import javax.microedition.lcdui.Canvas;
-import javax.microedition.util.ArrayStack;
 
 public class CanvasEvent extends Event {
 
 	private static final String TAG = CanvasEvent.class.getName();
-	private static final ArrayStack<CanvasEvent> recycled = new ArrayStack<>();
+
+	/**
+	 * Number of preallocated events. Input events are recycled as soon as
+	 * they are processed, so only a burst that outgrows the queue's
+	 * coalescing can run the arena dry.
+	 */
+	private static final int ARENA_SIZE = 256;
+
+	private static final CanvasEvent[] arena = new CanvasEvent[ARENA_SIZE];
+	private static int available;
+	private static long hits, misses;
+
+	static {
+		for (int i = 0; i < ARENA_SIZE; i++) {
+			arena[i] = new CanvasEvent();
+		}
+		available = ARENA_SIZE;
+	}
 
 	public static final int KEY_PRESSED = 0,
 			KEY_REPEATED = 1,
@@ -36,7 +56,17 @@ public class CanvasEvent extends Event {
 			HIDE_NOTIFY = 7,
 			SIZE_CHANGED = 8;
 
-	private static int[] enqueued = new int[9];
+	private static final AtomicIntegerArray enqueued = new AtomicIntegerArray(9);
+
+	/**
+	 * Drags are coalesced per pointer, up to this many pointers.
+	 */
+	private static final int MAX_POINTERS = 10;
+
+	/**
+	 * The queued drag event of each pointer that hasn't been taken out for processing yet.
+	 */
+	private static final AtomicReferenceArray<CanvasEvent> pendingDrags = new AtomicReferenceArray<>(MAX_POINTERS);
 
 	private Canvas canvas;
 	private int eventType;
@@ -46,15 +76,17 @@ public class CanvasEvent extends Event {
 	private int pointer;
 	private float x, y;
 
+	/**
+	 * Latest position of a drag, both coordinates packed as float bits,
+	 * so that a newer drag can update it while the event is pending.
+	 */
+	private final AtomicLong dragPosition = new AtomicLong();
+
 	private int width;
 	private int height;
 
 	public static Event getInstance(Canvas canvas, int eventType) {
-		CanvasEvent instance = recycled.pop();
-
-		if (instance == null) {
-			instance = new CanvasEvent();
-		}
+		CanvasEvent instance = obtain();
 
 		instance.canvas = canvas;
 		instance.eventType = eventType;
@@ -63,11 +95,7 @@ public class CanvasEvent extends Event {
 	}
 
 	public static Event getInstance(Canvas canvas, int eventType, int keyCode) {
-		CanvasEvent instance = recycled.pop();
-
-		if (instance == null) {
-			instance = new CanvasEvent();
-		}
+		CanvasEvent instance = obtain();
 
 		instance.canvas = canvas;
 		instance.eventType = eventType;
@@ -77,27 +105,21 @@ public class CanvasEvent extends Event {
 	}
 
 	public static Event getInstance(Canvas canvas, int eventType, int pointer, float x, float y) {
-		CanvasEvent instance = recycled.pop();
-
-		if (instance == null) {
-			instance = new CanvasEvent();
-		}
+		CanvasEvent instance = obtain();
 
 		instance.canvas = canvas;
 		instance.eventType = eventType;
 		instance.pointer = pointer;
 		instance.x = x;
 		instance.y = y;
+		instance.dragPosition.set((long) Float.floatToRawIntBits(x) << 32
+				| Float.floatToRawIntBits(y) & 0xFFFFFFFFL);
 
 		return instance;
 	}
 
 	public static Event getInstance(Canvas canvas, int eventType, int width, int height) {
-		CanvasEvent instance = recycled.pop();
-
-		if (instance == null) {
-			instance = new CanvasEvent();
-		}
+		CanvasEvent instance = obtain();
 
 		instance.canvas = canvas;
 		instance.eventType = eventType;
@@ -107,6 +129,40 @@ public class CanvasEvent extends Event {
 		return instance;
 	}
 
+	/**
+	 * Take an event from the arena, or allocate one if the arena is empty.
+	 */
+	private static CanvasEvent obtain() {
+		synchronized (arena) {
+			if (available > 0) {
+				hits++;
+				CanvasEvent instance = arena[--available];
+				arena[available] = null;
+				return instance;
+			}
+			misses++;
+		}
+		return new CanvasEvent();
+	}
+
+	/**
+	 * @return the number of events taken from the arena
+	 */
+	public static long getPoolHits() {
+		synchronized (arena) {
+			return hits;
+		}
+	}
+
+	/**
+	 * @return the number of events allocated because the arena was empty
+	 */
+	public static long getPoolMisses() {
+		synchronized (arena) {
+			return misses;
+		}
+	}
+
 	@Override
 	public void process() {
 		switch (eventType) {
@@ -143,8 +199,10 @@ public class CanvasEvent extends Event {
 				break;
 
 			case POINTER_DRAGGED:
+				long position = dragPosition.get();
 				try {
-					canvas.pointerDragged(pointer, x, y);
+					canvas.pointerDragged(pointer, Float.intBitsToFloat((int) (position >>> 32)),
+							Float.intBitsToFloat((int) position));
 				} catch (Exception e) {
 					Gdx.app.log(TAG, "pointerDragged: ", e);
 				}
@@ -189,28 +247,70 @@ public class CanvasEvent extends Event {
 	@Override
 	public void recycle() {
 		canvas = null;
-		recycled.push(this);
+		synchronized (arena) {
+			// events allocated on a miss are left to the GC once the arena is full again
+			if (available < ARENA_SIZE) {
+				arena[available++] = this;
+			}
+		}
 	}
 
 	@Override
 	public void enterQueue() {
-		enqueued[eventType]++;
+		enqueued.incrementAndGet(eventType);
 	}
 
 	@Override
 	public void leaveQueue() {
-		enqueued[eventType]--;
+		enqueued.decrementAndGet(eventType);
+		if (eventType == POINTER_DRAGGED && pointer >= 0 && pointer < MAX_POINTERS) {
+			synchronized (this) {
+				// from now on, a new drag must be queued after this one
+				pendingDrags.compareAndSet(pointer, this, null);
+			}
+		}
 	}
 
 	@Override
-	public boolean placeableAfter(Event event) {
-		if (event instanceof CanvasEvent) {
-			switch (eventType) {
-				case KEY_REPEATED:
-				case POINTER_DRAGGED:
-					return enqueued[eventType] < 2;
-			}
+	public boolean coalesce() {
+		switch (eventType) {
+			case KEY_REPEATED:
+				return enqueued.get(KEY_REPEATED) >= 2;
+
+			case POINTER_PRESSED:
+			case POINTER_RELEASED:
+				if (pointer >= 0 && pointer < MAX_POINTERS) {
+					// a later drag must not be merged into one queued before this event
+					pendingDrags.set(pointer, null);
+				}
+				return false;
+
+			case POINTER_DRAGGED:
+				if (pointer < 0 || pointer >= MAX_POINTERS) {
+					return false;
+				}
+				CanvasEvent pending = pendingDrags.get(pointer);
+				if (pending != null && pending.merge(this)) {
+					return true;
+				}
+				pendingDrags.set(pointer, this);
+				return false;
+		}
+		return false;
+	}
+
+	/**
+	 * Move this pending drag to the position of a newer drag of the same pointer.
+	 * Holding the lock keeps this event from leaving the queue, and so from
+	 * being recycled and reused, between the check and the update.
+	 *
+	 * @return false if this event is no longer the pending drag of the pointer
+	 */
+	private synchronized boolean merge(CanvasEvent drag) {
+		if (pendingDrags.get(drag.pointer) != this || canvas != drag.canvas) {
+			return false;
 		}
+		dragPosition.set(drag.dragPosition.get());
 		return true;
 	}
 }
@@ -92,7 +92,7 @@ public class CommandActionEvent extends Event {
 	}
 
 	@Override
-	public boolean placeableAfter(Event event) {
-		return true;
+	public boolean coalesce() {
+		return false;
 	}
 }
\ No newline at end of file
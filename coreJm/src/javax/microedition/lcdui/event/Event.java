@@ -44,7 +44,6 @@ public abstract class Event implements Runnable {
 		} catch (Exception e) {
 			e.printStackTrace();
 		} finally {
-			leaveQueue();
 			recycle();
 		}
 	}
@@ -56,17 +55,18 @@ public abstract class Event implements Runnable {
 	public abstract void enterQueue();
 
 	/**
-	 * Called when an event has left the queue.
-	 * Here you can increase the count of such events in the queue.
+	 * Called when an event has left the queue,
+	 * either taken out for processing or removed.
+	 * Here you can decrease the count of such events in the queue.
 	 */
 	public abstract void leaveQueue();
 
 	/**
-	 * Check if this event can be queued
-	 * immediately after some other event.
+	 * Called before the event is queued, possibly concurrently with
+	 * the processing of other events. An event that an equivalent
+	 * pending event can stand for merges itself into it here.
 	 *
-	 * @param event event after which we can put in queue
-	 * @return true, if we agree to that
+	 * @return true, if the event has been merged and must not be queued
 	 */
-	public abstract boolean placeableAfter(Event event);
+	public abstract boolean coalesce();
 }
\ No newline at end of file
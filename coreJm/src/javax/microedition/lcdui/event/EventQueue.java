@@ -17,31 +17,65 @@
 
 package javax.microedition.lcdui.event;
 
-import javax.microedition.util.LinkedEntry;
-import javax.microedition.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * The event queue. A really complicated thing.
+ * <p>
+ * Events are kept in a bounded ring buffer. Any thread may post events without
+ * taking a lock, the single event thread takes them in posting order. Each slot
+ * has a sequence number telling whether it is free for the producers or
+ * published for the consumer, as in Dmitry Vyukov's bounded queue.
+ * <p>
+ * Before an event is queued, it may merge itself into an equivalent event that
+ * is still pending, see {@link Event#coalesce()}.
  */
 public class EventQueue implements Runnable {
-	protected LinkedList<Event> queue;
-	protected Event event;
+	private static final int CAPACITY = 1024;
+	private static final int MASK = CAPACITY - 1;
 
-	protected boolean enabled;
-	protected Thread thread;
+	/**
+	 * Number of histogram buckets, bucket i counts values in [2^(i-1), 2^i).
+	 */
+	public static final int HISTOGRAM_BUCKETS = 24;
+
+	/**
+	 * Takes the slot of an event removed by {@link #removeEvents(EventFilter)}.
+	 */
+	private static final Event REMOVED = new SimpleEvent() {
+		@Override
+		public void process() {
+		}
+	};
+
+	private final AtomicReferenceArray<Event> buffer = new AtomicReferenceArray<>(CAPACITY);
+	private final AtomicLongArray sequence = new AtomicLongArray(CAPACITY);
+	private final long[] postTime = new long[CAPACITY];
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long head;
+
+	protected volatile Event event;
+
+	protected volatile boolean enabled;
+	protected volatile Thread thread;
+	private volatile boolean sleeping;
 
-	private final Object waiter;
 	private final Object interlock;
 
-	private boolean running;
-	private boolean continuerun;
+	private final AtomicLongArray depthHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+	private final AtomicLongArray latencyHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+	private final AtomicLong coalesced = new AtomicLong();
 
 	private static boolean immediate;
 
 	public EventQueue() {
-		queue = new LinkedList<>();
+		for (int i = 0; i < CAPACITY; i++) {
+			sequence.set(i, i);
+		}
 
-		waiter = new Object();
 		interlock = new Object();
 
 		immediate = false;
@@ -69,8 +103,8 @@ public class EventQueue implements Runnable {
 	 * the event is processed here,
 	 * in this case there is no queue at all
 	 * <p>
-	 * If an event has been added to the queue,
-	 * its enterQueue() method is called.
+	 * If the event merged into a pending one, it is recycled.
+	 * Otherwise its enterQueue() method is called and it is added to the queue.
 	 *
 	 * @param event the added event
 	 */
@@ -82,44 +116,66 @@ public class EventQueue implements Runnable {
 			return;            // and nothing to do here
 		}
 
-		boolean empty;
-
-		synchronized (queue)    // all operations with the queue must be synchronized (on itself)
-		{
-			empty = queue.isEmpty();
-
-			if (empty || event.placeableAfter(queue.getLast())) {
-				/*
-				 * If the queue itself is empty, then this already implies that either
-				 * exactly one event remains and it is now being processed,
-				 * or there is not a single event left at all.
-				 *
-				 * In both cases, a new event should be added to the queue,
-				 * regardless of event.placeableAfter() value.
-				 */
+		if (event.coalesce()) {
+			coalesced.incrementAndGet();
+			event.recycle();
+			return;
+		}
 
-				queue.addLast(event);
-				event.enterQueue();
-			} else {
-				// it is more correct, but additional checks are required
-				// queue.setLast(event).recycle(); // remove the previous event and add the new one.
-				event.recycle(); // more reliable // leave the previous event, recycle the new one.
+		event.enterQueue();
+
+		long pos;
+		while (true) {
+			pos = tail.get();
+			int index = (int) pos & MASK;
+			long diff = sequence.get(index) - pos;
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					postTime[index] = System.nanoTime();
+					buffer.set(index, event);
+					// publish the slot to the consumer
+					sequence.set(index, pos + 1);
+					break;
+				}
+			} else if (diff < 0) {
+				// the queue is full
+				if (Thread.currentThread() == thread) {
+					// the event thread can't wait for itself
+					event.leaveQueue();
+					event.run();
+					return;
+				}
+				Thread.yield();
 			}
 		}
 
-		if (empty) {
-			/*
-			 * on the other hand, if the queue was non-empty,
-			 * there is at least one more iteration for the events,
-			 * and this is not necessary
-			 */
+		depthHistogram.incrementAndGet(bucket(pos + 1 - head));
 
-			synchronized (waiter) {
-				if (running) {
-					continuerun = true;
-				} else {
-					waiter.notifyAll();
-				}
+		if (sleeping) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Take the next event out of the queue. Only called by the event thread.
+	 *
+	 * @return the event, or null if the queue is empty
+	 */
+	private Event take() {
+		while (true) {
+			long pos = head;
+			int index = (int) pos & MASK;
+			if (sequence.get(index) != pos + 1) {
+				return null;
+			}
+			Event e = buffer.getAndSet(index, null);
+			long latency = (System.nanoTime() - postTime[index]) / 1000;
+			sequence.set(index, pos + CAPACITY);
+			head = pos + 1;
+			if (e != REMOVED) {
+				latencyHistogram.incrementAndGet(bucket(latency));
+				e.leaveQueue();
+				return e;
 			}
 		}
 	}
@@ -131,35 +187,19 @@ public class EventQueue implements Runnable {
 	 * @return true, if something has been removed
 	 */
 	public boolean removeEvents(EventFilter filter) {
-		if (queue.isEmpty()) {
-			return false;
-		}
-
 		boolean removed = false;
 
-		synchronized (queue) {
-
-			LinkedEntry<Event> entry = queue.firstEntry();
-			LinkedEntry<Event> last = queue.lastEntry();
-			LinkedEntry<Event> next;
-
-			while (true) {
-
-				next = entry.nextEntry();
-
-				Event element = entry.getElement();
-				if (filter.accept(element)) {
-					element.leaveQueue();
-					element.recycle();
-					queue.recycleEntry(entry);
-					removed = true;
-				}
-
-				if (entry != last) {
-					entry = next;
-				} else {
-					break;
-				}
+		long end = tail.get();
+		for (long pos = Math.max(head, end - CAPACITY); pos < end; pos++) {
+			int index = (int) pos & MASK;
+			Event element = buffer.get(index);
+			// a slot that is not yet published or already taken holds null,
+			// the event thread nulls it before processing, so only one of us wins
+			if (element != null && element != REMOVED && filter.accept(element)
+					&& buffer.compareAndSet(index, element, REMOVED)) {
+				element.leaveQueue();
+				element.recycle();
+				removed = true;
 			}
 		}
 
@@ -172,16 +212,14 @@ public class EventQueue implements Runnable {
 	 * @return true, if the queue is empty
 	 */
 	public boolean isEmpty() {
-		return queue.isEmpty();
+		return head == tail.get();
 	}
 
 	/**
 	 * Clear the queue.
 	 */
 	public void clear() {
-		synchronized (queue) {
-			queue.clear();
-		}
+		removeEvents(element -> true);
 	}
 
 	/**
@@ -204,8 +242,9 @@ public class EventQueue implements Runnable {
 	public void stopProcessing() {
 		enabled = false;
 
-		synchronized (waiter) {
-			waiter.notifyAll();
+		Thread t = thread;
+		if (t != null) {
+			LockSupport.unpark(t);
 		}
 
 		synchronized (interlock) {
@@ -220,61 +259,91 @@ public class EventQueue implements Runnable {
 		return event;
 	}
 
+	/**
+	 * Get the histogram of the number of pending events, sampled when an event is posted.
+	 *
+	 * @return counts per bucket, bucket i counts depths in [2^(i-1), 2^i)
+	 */
+	public long[] getDepthHistogram() {
+		return snapshot(depthHistogram);
+	}
+
+	/**
+	 * Get the histogram of the time events spent waiting in the queue.
+	 *
+	 * @return counts per bucket, bucket i counts latencies in [2^(i-1), 2^i) microseconds
+	 */
+	public long[] getLatencyHistogram() {
+		return snapshot(latencyHistogram);
+	}
+
+	/**
+	 * @return the number of events that were merged into pending events instead of being queued
+	 */
+	public long getCoalescedCount() {
+		return coalesced.get();
+	}
+
+	public void resetStatistics() {
+		for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+			depthHistogram.set(i, 0);
+			latencyHistogram.set(i, 0);
+		}
+		coalesced.set(0);
+	}
+
+	private static long[] snapshot(AtomicLongArray histogram) {
+		long[] counts = new long[HISTOGRAM_BUCKETS];
+		for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+			counts[i] = histogram.get(i);
+		}
+		return counts;
+	}
+
+	private static int bucket(long value) {
+		return Math.min(64 - Long.numberOfLeadingZeros(Math.max(value, 0)), HISTOGRAM_BUCKETS - 1);
+	}
+
 	/**
 	 * Here is the main event loop.
 	 */
 	@Override
 	public void run() {
 		synchronized (interlock) {
-			running = true;
-
 			while (enabled) {
 				/*
-				 * blocking order:
-				 *
-				 * 1 - this
-				 * 2 - queue
-				 *
-				 * accordingly, inside the Canvas.serviceRepaints(), the order must be the same,
-				 * otherwise mutual blocking of two threads is possible (everything will hang)
+				 * Canvas.serviceRepaints() locks this queue to check currentEvent(),
+				 * so the event is taken and released while holding the same lock
 				 */
 
+				Event e;
 				synchronized (this)        // needed for Canvas.serviceRepaints()
 				{
-					synchronized (queue)    // needed for postEvent()
-					{
-						event = queue.removeFirst();    // get the first item and immediately remove from the queue
-					}
+					e = take();
+					event = e;
 				}
 
-				if (event != null) {
-					event.run();
+				if (e != null) {
+					e.run();
 
 					synchronized (this) {
-						synchronized (queue) {
-							event = null;
-						}
+						event = null;
 
 						this.notifyAll();
 					}
 				} else {
-					synchronized (waiter) {
-						if (continuerun) {
-							continuerun = false;
-						} else {
-							running = false;
-
-							try {
-								waiter.wait();
-							} catch (InterruptedException ie) {
-								ie.printStackTrace();
-							}
-
-							running = true;
-						}
+					/*
+					 * the flag is raised before checking the queue again,
+					 * so a producer either sees it and unparks us,
+					 * or has already published its event
+					 */
+					sleeping = true;
+					if (isEmpty() && enabled) {
+						LockSupport.park(this);
 					}
+					sleeping = false;
 				}
 			}
 		}
 	}
-}
\ No newline at end of file
+}
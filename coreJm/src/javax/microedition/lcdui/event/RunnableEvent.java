@@ -56,7 +56,7 @@ public class RunnableEvent extends Event {
 	}
 
 	@Override
-	public boolean placeableAfter(Event event) {
-		return true;
+	public boolean coalesce() {
+		return false;
 	}
 }
\ No newline at end of file
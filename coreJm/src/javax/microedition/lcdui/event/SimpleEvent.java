@@ -31,7 +31,7 @@ public abstract class SimpleEvent extends Event {
 	}
 
 	@Override
-	public boolean placeableAfter(Event event) {
-		return true;
+	public boolean coalesce() {
+		return false;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,179 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.lcdui.game;
+
+import com.badlogic.gdx.utils.LongMap;
+
+import java.util.WeakHashMap;
+
+import javax.microedition.lcdui.Image;
+
+/**
+ * One bit per pixel opacity mask of an image region, laid out as painted
+ * with a given transform.
+ * <p>
+ * Each row is packed into 64 bit words, the leftmost pixel in the lowest bit,
+ * so that two masks are compared 64 pixels at a time. Masks are shared by
+ * all layers using the same region. Masks of mutable images remember the
+ * modification count of the image and are only rebuilt once it changes.
+ */
+final class CollisionMask {
+	/**
+	 * Bit mask for channel value in ARGB pixel.
+	 */
+	private static final int ALPHA_BITMASK = 0xff000000;
+
+	/**
+	 * Alpha channel value for full opacity.
+	 */
+	private static final int FULLY_OPAQUE_ALPHA = 0xff000000;
+
+	private static final WeakHashMap<Image, LongMap<CollisionMask>> cache = new WeakHashMap<>();
+
+	final int width;
+	final int height;
+	private final int rowWords;
+	private final long[] bits;
+	/**
+	 * Modification count of the image when the mask was built
+	 */
+	private int modificationCount;
+
+	private CollisionMask(int width, int height) {
+		this.width = width;
+		this.height = height;
+		rowWords = (width + 63) >>> 6;
+		bits = new long[rowWords * height];
+	}
+
+	/**
+	 * Get the mask of an image region.
+	 *
+	 * @param reuse mask returned by a previous call for the same region, or null;
+	 *              masks of mutable images are rebuilt into it once the pixels change
+	 */
+	static CollisionMask get(Image image, int x, int y, int width, int height, int transform,
+							 CollisionMask reuse) {
+		if (reuse != null) {
+			if (image.isMutable()) {
+				reuse.update(image, x, y, transform);
+			}
+			return reuse;
+		}
+		long key = (long) x << 47 | (long) y << 31 | (long) width << 17 | (long) height << 3 | transform;
+		synchronized (cache) {
+			LongMap<CollisionMask> masks = cache.get(image);
+			if (masks == null) {
+				masks = new LongMap<>();
+				cache.put(image, masks);
+			}
+			CollisionMask mask = masks.get(key);
+			if (mask == null) {
+				mask = create(width, height, transform);
+				mask.build(image, x, y, transform);
+				masks.put(key, mask);
+			} else if (image.isMutable()) {
+				mask.update(image, x, y, transform);
+			}
+			return mask;
+		}
+	}
+
+	private static CollisionMask create(int width, int height, int transform) {
+		if ((transform & Sprite.INVERTED_AXES) != 0) {
+			return new CollisionMask(height, width);
+		}
+		return new CollisionMask(width, height);
+	}
+
+	/**
+	 * Rebuild the mask if the pixels of the image changed since it was built.
+	 */
+	private void update(Image image, int x, int y, int transform) {
+		if (modificationCount != image.getModificationCount()) {
+			build(image, x, y, transform);
+		}
+	}
+
+	/**
+	 * Build the mask from the current ARGB pixels of the image, which mutable
+	 * images keep in sync with every write.
+	 */
+	private void build(Image image, int x, int y, int transform) {
+		modificationCount = image.getModificationCount();
+		int[] pixels = image.getPixels();
+		int stride = image.getWidth();
+		boolean inverted = (transform & Sprite.INVERTED_AXES) != 0;
+		boolean flipX = (transform & Sprite.X_FLIP) != 0;
+		boolean flipY = (transform & Sprite.Y_FLIP) != 0;
+		int width = this.width;
+		int height = this.height;
+		long[] bits = this.bits;
+		for (int dy = 0; dy < height; dy++) {
+			int row = dy * rowWords;
+			for (int w = 0; w < rowWords; w++) {
+				bits[row + w] = 0;
+			}
+			for (int dx = 0; dx < width; dx++) {
+				int sx, sy;
+				if (inverted) {
+					sx = flipX ? height - 1 - dy : dy;
+					sy = flipY ? width - 1 - dx : dx;
+				} else {
+					sx = flipX ? width - 1 - dx : dx;
+					sy = flipY ? height - 1 - dy : dy;
+				}
+				if ((pixels[(y + sy) * stride + x + sx] & ALPHA_BITMASK) == FULLY_OPAQUE_ALPHA) {
+					bits[row + (dx >>> 6)] |= 1L << dx;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return 64 pixels of a row starting at x, pixels past the row end are clear
+	 */
+	private long word(int row, int x) {
+		int index = row * rowWords + (x >>> 6);
+		int shift = x & 63;
+		long value = bits[index] >>> shift;
+		if (shift != 0 && (x >>> 6) + 1 < rowWords) {
+			value |= bits[index + 1] << (64 - shift);
+		}
+		return value;
+	}
+
+	/**
+	 * Check whether two masks have an opaque pixel in common within an overlap
+	 * region, given by its top-left corner in each mask and its size.
+	 */
+	static boolean intersects(CollisionMask a, int ax, int ay,
+							  CollisionMask b, int bx, int by,
+							  int width, int height) {
+		for (int row = 0; row < height; row++) {
+			for (int col = 0; col < width; col += 64) {
+				long common = a.word(ay + row, ax + col) & b.word(by + row, bx + col);
+				int remaining = width - col;
+				if (remaining < 64) {
+					common &= (1L << remaining) - 1;
+				}
+				if (common != 0) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
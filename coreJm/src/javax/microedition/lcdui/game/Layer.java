@@ -19,6 +19,7 @@ package javax.microedition.lcdui.game;
 import javax.microedition.lcdui.Graphics;
 
 public abstract class Layer {
+	private static final LayerManager[] NO_MANAGERS = new LayerManager[0];
 
 	int x;
 
@@ -30,6 +31,18 @@ public abstract class Layer {
 
 	boolean visible = true;
 
+	/**
+	 * Range of grid cells covered by the layer, see {@link LayerManager}.
+	 */
+	int gridLeft, gridTop, gridRight, gridBottom;
+
+	/**
+	 * Last query of a {@link LayerManager} that found this layer.
+	 */
+	int queryStamp;
+
+	private LayerManager[] managers = NO_MANAGERS;
+
 	Layer(int width, int height) {
 		setWidthImpl(width);
 		setHeightImpl(height);
@@ -38,11 +51,13 @@ public abstract class Layer {
 	public void setPosition(int x, int y) {
 		this.x = x;
 		this.y = y;
+		boundsChanged();
 	}
 
 	public void move(int dx, int dy) {
 		x += dx;
 		y += dy;
+		boundsChanged();
 	}
 
 	public final int getX() {
@@ -76,6 +91,7 @@ public abstract class Layer {
 			throw new IllegalArgumentException();
 		}
 		this.width = width;
+		boundsChanged();
 	}
 
 	void setHeightImpl(int height) {
@@ -83,5 +99,56 @@ public abstract class Layer {
 			throw new IllegalArgumentException();
 		}
 		this.height = height;
+		boundsChanged();
+	}
+
+	/**
+	 * Must be called whenever x, y, width or height change, so that the layer
+	 * managers holding this layer can move it to its new grid cells.
+	 */
+	void boundsChanged() {
+		int left = LayerManager.gridCell(x);
+		int top = LayerManager.gridCell(y);
+		int right = LayerManager.gridCell(x + Math.max(width, 1) - 1);
+		int bottom = LayerManager.gridCell(y + Math.max(height, 1) - 1);
+		if (left == gridLeft && top == gridTop && right == gridRight && bottom == gridBottom) {
+			return;
+		}
+		LayerManager[] managers = this.managers;
+		for (LayerManager manager : managers) {
+			manager.unindex(this);
+		}
+		gridLeft = left;
+		gridTop = top;
+		gridRight = right;
+		gridBottom = bottom;
+		for (LayerManager manager : managers) {
+			manager.index(this);
+		}
+	}
+
+	void addManager(LayerManager manager) {
+		int n = managers.length;
+		LayerManager[] newManagers = new LayerManager[n + 1];
+		System.arraycopy(managers, 0, newManagers, 0, n);
+		newManagers[n] = manager;
+		managers = newManagers;
+	}
+
+	void removeManager(LayerManager manager) {
+		int n = managers.length;
+		for (int i = 0; i < n; i++) {
+			if (managers[i] == manager) {
+				if (n == 1) {
+					managers = NO_MANAGERS;
+				} else {
+					LayerManager[] newManagers = new LayerManager[n - 1];
+					System.arraycopy(managers, 0, newManagers, 0, i);
+					System.arraycopy(managers, i + 1, newManagers, i, n - i - 1);
+					managers = newManagers;
+				}
+				return;
+			}
+		}
 	}
 }
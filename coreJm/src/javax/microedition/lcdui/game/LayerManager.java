@@ -16,13 +16,42 @@
 
 package javax.microedition.lcdui.game;
 
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.LongMap;
+
 import javax.microedition.lcdui.Graphics;
 
+/**
+ * Layers are indexed by a uniform grid of square cells, kept up to date by
+ * {@link Layer#boundsChanged()}, so that painting and collision queries only
+ * visit the layers near the area of interest. Layers covering too many cells,
+ * typically tiled backgrounds, are kept in a separate list and always checked.
+ */
 public class LayerManager {
+	/**
+	 * Grid cells are 2^CELL_SHIFT pixels wide.
+	 */
+	private static final int CELL_SHIFT = 6;
+
+	/**
+	 * Layers covering more cells than this are not put into the grid.
+	 */
+	private static final int MAX_LAYER_CELLS = 64;
+
+	private static int queryStamp;
+
 	private int nlayers;
 	private Layer component[] = new Layer[4];
 	private int viewX, viewY, viewWidth, viewHeight;
 
+	private final LongMap<Array<Layer>> grid = new LongMap<>();
+	private final Array<Layer> largeLayers = new Array<>(false, 4);
+
+	// state of the running query
+	private Layer[] found;
+	private Layer exclude;
+	private int queryCount;
+
 	public LayerManager() {
 		setViewWindow(0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE);
 	}
@@ -71,11 +100,21 @@ public class LayerManager {
 		// set the clip to view window
 		g.clipRect(viewX, viewY, viewWidth, viewHeight);
 
-		// draw last to first
-		for (int i = nlayers; --i >= 0; ) {
-			Layer comp = component[i];
-			if (comp.visible) {
-				comp.paint(g);
+		// only the layers within the clip, which is now in LayerManager
+		// co-ordinates, are painted
+		int left = g.getClipX();
+		int top = g.getClipY();
+		int right = left + g.getClipWidth();
+		int bottom = top + g.getClipHeight();
+		if (left < right && top < bottom) {
+			int stamp = query(left, top, right, bottom, null, null);
+
+			// draw last to first
+			for (int i = nlayers; --i >= 0; ) {
+				Layer comp = component[i];
+				if (comp.visible && comp.queryStamp == stamp) {
+					comp.paint(g);
+				}
 			}
 		}
 
@@ -94,6 +133,142 @@ public class LayerManager {
 		viewHeight = height;
 	}
 
+	/**
+	 * Find the layers that may collide with a sprite, that is the visible layers
+	 * whose bounds intersect the bounds or the collision rectangle of the sprite.
+	 * Candidates are not in any particular order, and still need to be checked
+	 * with {@link Sprite#collidesWith}.
+	 *
+	 * @param candidates receives the candidates, except the sprite itself
+	 * @return the number of candidates, which may exceed the length of the
+	 * array, in which case only the first candidates are stored
+	 */
+	public int getCollisionCandidates(Sprite sprite, Layer[] candidates) {
+		int left = sprite.x + Math.min(0, sprite.t_collisionRectX);
+		int top = sprite.y + Math.min(0, sprite.t_collisionRectY);
+		int right = sprite.x + Math.max(sprite.width,
+				sprite.t_collisionRectX + sprite.t_collisionRectWidth);
+		int bottom = sprite.y + Math.max(sprite.height,
+				sprite.t_collisionRectY + sprite.t_collisionRectHeight);
+		query(left, top, right, bottom, candidates, sprite);
+		return queryCount;
+	}
+
+	/**
+	 * Mark the visible layers intersecting the rectangle with a new query stamp.
+	 *
+	 * @param found   if not null, receives the marked layers
+	 * @param exclude layer left out of the results, or null
+	 * @return the query stamp
+	 */
+	private int query(int left, int top, int right, int bottom, Layer[] found, Layer exclude) {
+		this.found = found;
+		this.exclude = exclude;
+		queryCount = 0;
+		int stamp = ++queryStamp;
+		for (int i = 0; i < largeLayers.size; i++) {
+			mark(largeLayers.get(i), stamp, left, top, right, bottom);
+		}
+		int cellLeft = gridCell(left);
+		int cellTop = gridCell(top);
+		int cellRight = gridCell(right - 1);
+		int cellBottom = gridCell(bottom - 1);
+		if ((long) (cellRight - cellLeft + 1) * (cellBottom - cellTop + 1) > grid.size) {
+			// the area covers more cells than the grid holds, walk the grid instead
+			for (Array<Layer> cell : grid.values()) {
+				for (int i = 0; i < cell.size; i++) {
+					mark(cell.get(i), stamp, left, top, right, bottom);
+				}
+			}
+		} else {
+			for (int cy = cellTop; cy <= cellBottom; cy++) {
+				for (int cx = cellLeft; cx <= cellRight; cx++) {
+					Array<Layer> cell = grid.get(cellKey(cx, cy));
+					if (cell == null) {
+						continue;
+					}
+					for (int i = 0; i < cell.size; i++) {
+						mark(cell.get(i), stamp, left, top, right, bottom);
+					}
+				}
+			}
+		}
+		this.found = null;
+		this.exclude = null;
+		return stamp;
+	}
+
+	private void mark(Layer layer, int stamp, int left, int top, int right, int bottom) {
+		if (layer.queryStamp == stamp || !layer.visible || layer == exclude) {
+			return;
+		}
+		if (layer.x >= right || layer.y >= bottom
+				|| layer.x + layer.width <= left || layer.y + layer.height <= top) {
+			return;
+		}
+		layer.queryStamp = stamp;
+		if (found != null) {
+			if (queryCount < found.length) {
+				found[queryCount] = layer;
+			}
+			queryCount++;
+		}
+	}
+
+	static int gridCell(int coordinate) {
+		return coordinate >> CELL_SHIFT;
+	}
+
+	private static long cellKey(int cx, int cy) {
+		return (long) cx << 32 | (cy & 0xffffffffL);
+	}
+
+	private static boolean isLarge(Layer layer) {
+		return (long) (layer.gridRight - layer.gridLeft + 1)
+				* (layer.gridBottom - layer.gridTop + 1) > MAX_LAYER_CELLS;
+	}
+
+	/**
+	 * Add the layer to the cells of its current grid range.
+	 */
+	void index(Layer layer) {
+		if (isLarge(layer)) {
+			largeLayers.add(layer);
+			return;
+		}
+		for (int cy = layer.gridTop; cy <= layer.gridBottom; cy++) {
+			for (int cx = layer.gridLeft; cx <= layer.gridRight; cx++) {
+				long key = cellKey(cx, cy);
+				Array<Layer> cell = grid.get(key);
+				if (cell == null) {
+					cell = new Array<>(false, 4);
+					grid.put(key, cell);
+				}
+				cell.add(layer);
+			}
+		}
+	}
+
+	/**
+	 * Remove the layer from the cells of its current grid range.
+	 */
+	void unindex(Layer layer) {
+		if (isLarge(layer)) {
+			largeLayers.removeValue(layer, true);
+			return;
+		}
+		for (int cy = layer.gridTop; cy <= layer.gridBottom; cy++) {
+			for (int cx = layer.gridLeft; cx <= layer.gridRight; cx++) {
+				long key = cellKey(cx, cy);
+				Array<Layer> cell = grid.get(key);
+				// empty cells are kept, so that moving around allocates nothing
+				if (cell != null) {
+					cell.removeValue(layer, true);
+				}
+			}
+		}
+	}
+
 	private void addImpl(Layer layer, int index) {
 		if (nlayers == component.length) {
 			Layer newcomponents[] = new Layer[nlayers + 4];
@@ -108,6 +283,8 @@ public class LayerManager {
 
 		component[index] = layer;
 		nlayers++;
+		layer.addManager(this);
+		index(layer);
 	}
 
 	private void removeImpl(Layer l) {
@@ -136,6 +313,9 @@ public class LayerManager {
 	}
 
 	private void remove(int index) {
+		Layer layer = component[index];
+		unindex(layer);
+		layer.removeManager(this);
 		System.arraycopy(component, index + 1,
 				component, index,
 				nlayers - index - 1);
@@ -37,29 +37,19 @@ public class Sprite extends Layer {
 	 * If this bit is set, it denotes that the transform causes the
 	 * axes to be interchanged
 	 */
-	private static final int INVERTED_AXES = 0x4;
+	static final int INVERTED_AXES = 0x4;
 
 	/**
 	 * If this bit is set, it denotes that the transform causes the
 	 * x axis to be flipped.
 	 */
-	private static final int X_FLIP = 0x2;
+	static final int X_FLIP = 0x2;
 
 	/**
 	 * If this bit is set, it denotes that the transform causes the
 	 * y axis to be flipped.
 	 */
-	private static final int Y_FLIP = 0x1;
-
-	/**
-	 * Bit mask for channel value in ARGB pixel.
-	 */
-	private static final int ALPHA_BITMASK = 0xff000000;
-
-	/**
-	 * Alpha channel value for full opacity.
-	 */
-	private static final int FULLY_OPAQUE_ALPHA = 0xff000000;
+	static final int Y_FLIP = 0x1;
 
 	Image sourceImage;
 
@@ -101,6 +91,11 @@ public class Sprite extends Layer {
 
 	int t_collisionRectHeight;
 
+	/**
+	 * Collision masks of the frames, indexed by frame * 8 + transform.
+	 */
+	private CollisionMask[] collisionMasks;
+
 
 	public Sprite(Image image) {
 		super(image.getWidth(), image.getHeight());
@@ -206,7 +201,7 @@ public class Sprite extends Layer {
 				t_currentTransformation);
 		y = inp_y - getTransformedPtY(dRefX, dRefY,
 				t_currentTransformation);
-
+		boundsChanged();
 	}
 
 	public int getRefPixelX() {
@@ -358,6 +353,7 @@ public class Sprite extends Layer {
 			// and transformed width and height
 
 			computeTransformedBounds(this.t_currentTransformation);
+			boundsChanged();
 
 		} else {
 			// just reinitialize the animation frames.
@@ -472,38 +468,11 @@ public class Sprite extends Layer {
 				int intersectWidth = Math.abs(intersectRight - intersectLeft);
 				int intersectHeight = Math.abs(intersectBottom - intersectTop);
 
-				// have the coordinates in painter space,
-				// need coordinates of top left and width, height
-				// in source image of Sprite.
-
-				int thisImageXOffset = getImageTopLeftX(intersectLeft,
-						intersectTop,
-						intersectRight,
-						intersectBottom);
-
-				int thisImageYOffset = getImageTopLeftY(intersectLeft,
-						intersectTop,
-						intersectRight,
-						intersectBottom);
-
-				int otherImageXOffset = s.getImageTopLeftX(intersectLeft,
-						intersectTop,
-						intersectRight,
-						intersectBottom);
-
-				int otherImageYOffset = s.getImageTopLeftY(intersectLeft,
-						intersectTop,
-						intersectRight,
-						intersectBottom);
-
-				// check if opaque pixels intersect.
-
-				return doPixelCollision(thisImageXOffset, thisImageYOffset,
-						otherImageXOffset, otherImageYOffset,
-						this.sourceImage,
-						this.t_currentTransformation,
-						s.sourceImage,
-						s.t_currentTransformation,
+				// check if opaque pixels intersect,
+				// the masks are laid out in painter space.
+				return CollisionMask.intersects(
+						getCollisionMask(), intersectLeft - this.x, intersectTop - this.y,
+						s.getCollisionMask(), intersectLeft - s.x, intersectTop - s.y,
 						intersectWidth, intersectHeight);
 
 			} else {
@@ -673,29 +642,12 @@ public class Sprite extends Layer {
 						int intersectWidth = intersectRight - intersectLeft;
 						int intersectHeight = intersectBottom - intersectTop;
 
-						int image1XOffset = getImageTopLeftX(intersectLeft,
-								intersectTop,
-								intersectRight,
-								intersectBottom);
-
-						int image1YOffset = getImageTopLeftY(intersectLeft,
-								intersectTop,
-								intersectRight,
-								intersectBottom);
-
-						int image2XOffset = t.tileSetX[tileIndex] +
-								(intersectLeft - cellLeft);
-						int image2YOffset = t.tileSetY[tileIndex] +
-								(intersectTop - cellTop);
-
-						if (doPixelCollision(image1XOffset,
-								image1YOffset,
-								image2XOffset,
-								image2YOffset,
-								this.sourceImage,
-								this.t_currentTransformation,
-								t.sourceImage,
-								TRANS_NONE,
+						if (CollisionMask.intersects(getCollisionMask(),
+								intersectLeft - this.x,
+								intersectTop - this.y,
+								t.getCollisionMask(tileIndex),
+								intersectLeft - cellLeft,
+								intersectTop - cellTop,
 								intersectWidth, intersectHeight)) {
 							// intersection found with this tile
 							return true;
@@ -780,30 +732,12 @@ public class Sprite extends Layer {
 				int intersectWidth = Math.abs(intersectRight - intersectLeft);
 				int intersectHeight = Math.abs(intersectBottom - intersectTop);
 
-				// have the coordinates in painter space,
-				// need coordinates of top left and width, height
-				// in source image of Sprite.
-
-				int thisImageXOffset = getImageTopLeftX(intersectLeft,
-						intersectTop,
-						intersectRight,
-						intersectBottom);
-
-				int thisImageYOffset = getImageTopLeftY(intersectLeft,
-						intersectTop,
-						intersectRight,
-						intersectBottom);
-
-				int otherImageXOffset = intersectLeft - inp_x;
-				int otherImageYOffset = intersectTop - inp_y;
-
 				// check if opaque pixels intersect.
-				return doPixelCollision(thisImageXOffset, thisImageYOffset,
-						otherImageXOffset, otherImageYOffset,
-						this.sourceImage,
-						this.t_currentTransformation,
-						image,
-						Sprite.TRANS_NONE,
+				CollisionMask imageMask = CollisionMask.get(image, 0, 0,
+						image.getWidth(), image.getHeight(), TRANS_NONE, null);
+				return CollisionMask.intersects(
+						getCollisionMask(), intersectLeft - this.x, intersectTop - this.y,
+						imageMask, intersectLeft - inp_x, intersectTop - inp_y,
 						intersectWidth, intersectHeight);
 
 			} else {
@@ -834,6 +768,8 @@ public class Sprite extends Layer {
 		frameCoordsX = new int[numberFrames];
 		frameCoordsY = new int[numberFrames];
 
+		collisionMasks = new CollisionMask[numberFrames << 3];
+
 		if (!maintainCurFrame) {
 			sequenceIndex = 0;
 		}
@@ -880,216 +816,18 @@ public class Sprite extends Layer {
 		}
 	}
 
-	private static boolean doPixelCollision(int image1XOffset,
-											int image1YOffset,
-											int image2XOffset,
-											int image2YOffset,
-											Image image1, int transform1,
-											Image image2, int transform2,
-											int width, int height) {
-
-		// starting point of comparison
-		int startY1;
-		// x and y increments
-		int xIncr1, yIncr1;
-
-		// .. for image 2
-		int startY2;
-		int xIncr2, yIncr2;
-
-		int numPixels = height * width;
-
-		int[] argbData1 = new int[numPixels];
-		int[] argbData2 = new int[numPixels];
-
-		if (0x0 != (transform1 & INVERTED_AXES)) {
-
-			if (0x0 != (transform1 & Y_FLIP)) {
-				xIncr1 = -(height); // - scanlength
-
-				startY1 = numPixels - height; // numPixels - scanlength
-			} else {
-				xIncr1 = height; // + scanlength
-
-				startY1 = 0;
-			}
-
-			if (0x0 != (transform1 & X_FLIP)) {
-				yIncr1 = -1;
-
-				startY1 += (height - 1);
-			} else {
-				yIncr1 = +1;
-			}
-
-			image1.getRGB(argbData1, 0, height, // scanlength = height
-					image1XOffset, image1YOffset, height, width);
-
-		} else {
-
-			if (0x0 != (transform1 & Y_FLIP)) {
-
-				startY1 = numPixels - width; // numPixels - scanlength
-
-				yIncr1 = -(width); // - scanlength
-			} else {
-				startY1 = 0;
-
-				yIncr1 = width; // + scanlength
-			}
-
-			if (0x0 != (transform1 & X_FLIP)) {
-				xIncr1 = -1;
-
-				startY1 += (width - 1);
-			} else {
-				xIncr1 = +1;
-			}
-
-			image1.getRGB(argbData1, 0, width, image1XOffset, image1YOffset, width, height);
+	private CollisionMask getCollisionMask() {
+		int frame = frameSequence[sequenceIndex];
+		int index = frame << 3 | t_currentTransformation;
+		CollisionMask mask = collisionMasks[index];
+		CollisionMask result = CollisionMask.get(sourceImage,
+				frameCoordsX[frame], frameCoordsY[frame],
+				srcFrameWidth, srcFrameHeight,
+				t_currentTransformation, mask);
+		if (result != mask) {
+			collisionMasks[index] = result;
 		}
-
-		if (0x0 != (transform2 & INVERTED_AXES)) {
-			// inverted axes
-
-			if (0x0 != (transform2 & Y_FLIP)) {
-				xIncr2 = -(height);
-
-				startY2 = numPixels - height;
-			} else {
-				xIncr2 = height;
-
-				startY2 = 0;
-			}
-
-			if (0x0 != (transform2 & X_FLIP)) {
-				yIncr2 = -1;
-
-				startY2 += height - 1;
-			} else {
-				yIncr2 = +1;
-			}
-
-			image2.getRGB(argbData2, 0, height,
-					image2XOffset, image2YOffset, height, width);
-
-		} else {
-
-			if (0x0 != (transform2 & Y_FLIP)) {
-				startY2 = numPixels - width;
-
-				yIncr2 = -(width);
-			} else {
-				startY2 = 0;
-
-				yIncr2 = +width;
-			}
-
-			if (0x0 != (transform2 & X_FLIP)) {
-				xIncr2 = -1;
-
-				startY2 += (width - 1);
-			} else {
-				xIncr2 = +1;
-			}
-
-			image2.getRGB(argbData2, 0, width, image2XOffset, image2YOffset, width, height);
-		}
-
-		int x1, x2;
-		int xLocalBegin1, xLocalBegin2;
-
-		// the loop counters
-		int numIterRows;
-		int numIterColumns;
-
-		for (numIterRows = 0, xLocalBegin1 = startY1, xLocalBegin2 = startY2;
-			 numIterRows < height;
-			 xLocalBegin1 += yIncr1, xLocalBegin2 += yIncr2, numIterRows++) {
-
-			for (numIterColumns = 0, x1 = xLocalBegin1, x2 = xLocalBegin2;
-				 numIterColumns < width;
-				 x1 += xIncr1, x2 += xIncr2, numIterColumns++) {
-
-				if (((argbData1[x1] & ALPHA_BITMASK) == FULLY_OPAQUE_ALPHA) &&
-						((argbData2[x2] & ALPHA_BITMASK) == FULLY_OPAQUE_ALPHA)) {
-
-					return true;
-				}
-
-			} // end for x
-
-		} // end for y
-
-		// worst case!  couldn't find a single colliding pixel!
-		return false;
-	}
-
-	private int getImageTopLeftX(int x1, int y1, int x2, int y2) {
-		int retX = 0;
-
-		switch (this.t_currentTransformation) {
-
-			case TRANS_NONE:
-			case TRANS_MIRROR_ROT180:
-				retX = x1 - this.x;
-				break;
-
-			case TRANS_MIRROR:
-			case TRANS_ROT180:
-				retX = (this.x + this.width) - x2;
-				break;
-
-			case TRANS_ROT90:
-			case TRANS_MIRROR_ROT270:
-				retX = y1 - this.y;
-				break;
-
-			case TRANS_ROT270:
-			case TRANS_MIRROR_ROT90:
-				retX = (this.y + this.height) - y2;
-				break;
-
-			default:
-				return retX;
-		}
-
-		retX += frameCoordsX[frameSequence[sequenceIndex]];
-
-		return retX;
-	}
-
-	private int getImageTopLeftY(int x1, int y1, int x2, int y2) {
-		int retY = 0;
-		switch (this.t_currentTransformation) {
-
-			case TRANS_NONE:
-			case TRANS_MIRROR:
-				retY = y1 - this.y;
-				break;
-
-			case TRANS_ROT180:
-			case TRANS_MIRROR_ROT180:
-				retY = (this.y + this.height) - y2;
-				break;
-
-			case TRANS_ROT270:
-			case TRANS_MIRROR_ROT270:
-				retY = x1 - this.x;
-				break;
-
-			case TRANS_ROT90:
-			case TRANS_MIRROR_ROT90:
-				retY = (this.x + this.width) - x2;
-				break;
-
-			default:
-				return retY;
-		}
-
-		retY += frameCoordsY[frameSequence[sequenceIndex]];
-
-		return retY;
+		return result;
 	}
 
 	private void setTransformImpl(int transform) {
@@ -1118,7 +856,7 @@ public class Sprite extends Layer {
 
 		// set the current transform to be the one requested
 		t_currentTransformation = transform;
-
+		boundsChanged();
 	}
 
 	private void computeTransformedBounds(int transform) {
@@ -16,10 +16,25 @@
 
 package javax.microedition.lcdui.game;
 
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.utils.Bits;
+
 import javax.microedition.lcdui.Graphics;
 import javax.microedition.lcdui.Image;
 
 public class TiledLayer extends Layer {
+	/**
+	 * Number of cells along each side of a chunk.
+	 */
+	private static final int CHUNK_SIZE = 16;
+
+	/**
+	 * Number of floats per baked tile, 4 vertices of x, y, color, u, v.
+	 */
+	private static final int TILE_VERTICES = 20;
+
 	private int cellHeight;
 	private int cellWidth;
 	private int rows;
@@ -32,6 +47,11 @@ public class TiledLayer extends Layer {
 	int[] tileSetY;
 	private int[] anim_to_static;
 	private int numOfAnimTiles;
+	private CollisionMask[] collisionMasks;
+
+	private int chunkColumns;
+	private Chunk[] chunks;
+	private TextureRegion bakedRegion;
 
 	public TiledLayer(int columns, int rows, Image image, int tileWidth,
 					  int tileHeight) {
@@ -47,6 +67,13 @@ public class TiledLayer extends Layer {
 
 		cellMatrix = new int[rows][columns];
 
+		chunkColumns = (columns + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		int chunkRows = (rows + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		chunks = new Chunk[chunkColumns * chunkRows];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = new Chunk();
+		}
+
 		int noOfFrames = (image.getWidth() / tileWidth) * (image.getHeight() / tileHeight);
 		createStaticSet(image, noOfFrames + 1, tileWidth, tileHeight, true);
 	}
@@ -84,8 +111,14 @@ public class TiledLayer extends Layer {
 			throw new IndexOutOfBoundsException();
 		}
 
-		anim_to_static[animatedTileIndex] = staticTileIndex;
-
+		if (anim_to_static[animatedTileIndex] != staticTileIndex) {
+			anim_to_static[animatedTileIndex] = staticTileIndex;
+			for (Chunk chunk : chunks) {
+				if (chunk.animatedTiles.get(animatedTileIndex)) {
+					chunk.dirty = true;
+				}
+			}
+		}
 	}
 
 	public int getAnimatedTile(int animatedTileIndex) {
@@ -116,8 +149,10 @@ public class TiledLayer extends Layer {
 			}
 		}
 
-		cellMatrix[row][col] = tileIndex;
-
+		if (cellMatrix[row][col] != tileIndex) {
+			cellMatrix[row][col] = tileIndex;
+			chunks[row / CHUNK_SIZE * chunkColumns + col / CHUNK_SIZE].dirty = true;
+		}
 	}
 
 	public int getCell(int col, int row) {
@@ -156,6 +191,10 @@ public class TiledLayer extends Layer {
 				cellMatrix[rowCount][columnCount] = tileIndex;
 			}
 		}
+
+		if (numCols > 0 && numRows > 0) {
+			invalidateChunks(col, row, col + numCols - 1, row + numRows - 1);
+		}
 	}
 
 	public final int getCellWidth() {
@@ -206,73 +245,236 @@ public class TiledLayer extends Layer {
 		}
 
 		if (visible) {
-			int startColumn = 0;
-			int endColumn = this.columns;
-			int startRow = 0;
-			int endRow = this.rows;
-
-			// calculate the number of columns left of the clip
-			int number = (g.getClipX() - this.x) / cellWidth;
-			if (number > 0) {
-				startColumn = number;
+			if (Graphics.isSoftwareRendering()) {
+				paintCells(g);
+			} else {
+				paintChunks(g);
 			}
+		}
+	}
 
-			// calculate the number of columns right of the clip
-			int endX = this.x + (this.columns * cellWidth);
-			int endClipX = g.getClipX() + g.getClipWidth();
-			number = (endX - endClipX) / cellWidth;
-			if (number > 0) {
-				endColumn -= number;
-			}
+	/**
+	 * Draw every visible cell on its own.
+	 */
+	private void paintCells(Graphics g) {
+		int startColumn = 0;
+		int endColumn = this.columns;
+		int startRow = 0;
+		int endRow = this.rows;
+
+		// calculate the number of columns left of the clip
+		int number = (g.getClipX() - this.x) / cellWidth;
+		if (number > 0) {
+			startColumn = number;
+		}
+
+		// calculate the number of columns right of the clip
+		int endX = this.x + (this.columns * cellWidth);
+		int endClipX = g.getClipX() + g.getClipWidth();
+		number = (endX - endClipX) / cellWidth;
+		if (number > 0) {
+			endColumn -= number;
+		}
+
+		// calculate the number of rows above the clip
+		number = (g.getClipY() - this.y) / cellHeight;
+		if (number > 0) {
+			startRow = number;
+		}
+
+		// calculate the number of rows below the clip
+		int endY = this.y + (this.rows * cellHeight);
+		int endClipY = g.getClipY() + g.getClipHeight();
+		number = (endY - endClipY) / cellHeight;
+		if (number > 0) {
+			endRow -= number;
+		}
+
+		// paint all visible cells
+		int tileIndex = 0;
+
+		// y-coordinate
+		int ty = this.y + (startRow * cellHeight);
+		for (int row = startRow;
+			 row < endRow; row++, ty += cellHeight) {
+
+			// reset the x-coordinate at the beginning of every row
+			// x-coordinate to draw tile into
+			int tx = this.x + (startColumn * cellWidth);
+			for (int column = startColumn; column < endColumn;
+				 column++, tx += cellWidth) {
+
+				tileIndex = cellMatrix[row][column];
+				// check the indices
+				// if animated get the corresponding
+				// static index from anim_to_static table
+				if (tileIndex == 0) { // transparent tile
+					continue;
+				} else if (tileIndex < 0) {
+					tileIndex = getAnimatedTile(tileIndex);
+				}
 
-			// calculate the number of rows above the clip
-			number = (g.getClipY() - this.y) / cellHeight;
-			if (number > 0) {
-				startRow = number;
+				g.drawRegion(sourceImage,
+						tileSetX[tileIndex],
+						tileSetY[tileIndex],
+						cellWidth, cellHeight,
+						Sprite.TRANS_NONE,
+						tx, ty,
+						Graphics.TOP | Graphics.LEFT);
 			}
+		}
+	}
+
+	/**
+	 * Draw the chunks within the clip from their baked vertices. Vertices are
+	 * baked in batch coordinates and only shifted when the layer or the
+	 * translation of the graphics moves.
+	 */
+	private void paintChunks(Graphics g) {
+		TextureRegion region = sourceImage.getRegion();
+		if (region != bakedRegion) {
+			bakedRegion = region;
+			invalidateChunks(0, 0, columns - 1, rows - 1);
+		}
 
-			// calculate the number of rows below the clip
-			int endY = this.y + (this.rows * cellHeight);
-			int endClipY = g.getClipY() + g.getClipHeight();
-			number = (endY - endClipY) / cellHeight;
-			if (number > 0) {
-				endRow -= number;
+		int chunkWidth = CHUNK_SIZE * cellWidth;
+		int chunkHeight = CHUNK_SIZE * cellHeight;
+		int chunkRows = chunks.length / chunkColumns;
+
+		int left = g.getClipX() - this.x;
+		int top = g.getClipY() - this.y;
+		int right = left + g.getClipWidth() - 1;
+		int bottom = top + g.getClipHeight() - 1;
+		if (right < 0 || bottom < 0) {
+			return;
+		}
+		int startColumn = left <= 0 ? 0 : left / chunkWidth;
+		int startRow = top <= 0 ? 0 : top / chunkHeight;
+		int endColumn = Math.min(right / chunkWidth, chunkColumns - 1);
+		int endRow = Math.min(bottom / chunkHeight, chunkRows - 1);
+
+		float originX = this.x + g.getTranslateX();
+		float originY = this.y + g.getTranslateY();
+
+		for (int row = startRow; row <= endRow; row++) {
+			for (int column = startColumn; column <= endColumn; column++) {
+				Chunk chunk = chunks[row * chunkColumns + column];
+				if (chunk.dirty) {
+					bake(chunk, column, row, region, originX, originY);
+				} else if (chunk.originX != originX || chunk.originY != originY) {
+					chunk.move(originX, originY);
+				}
+				if (chunk.count > 0) {
+					g.drawVertices(sourceImage, chunk.vertices, 0, chunk.count);
+				}
 			}
+		}
+	}
 
-			// paint all visible cells
-			int tileIndex = 0;
-
-			// y-coordinate
-			int ty = this.y + (startRow * cellHeight);
-			for (int row = startRow;
-				 row < endRow; row++, ty += cellHeight) {
-
-				// reset the x-coordinate at the beginning of every row
-				// x-coordinate to draw tile into
-				int tx = this.x + (startColumn * cellWidth);
-				for (int column = startColumn; column < endColumn;
-					 column++, tx += cellWidth) {
-
-					tileIndex = cellMatrix[row][column];
-					// check the indices
-					// if animated get the corresponding
-					// static index from anim_to_static table
-					if (tileIndex == 0) { // transparent tile
-						continue;
-					} else if (tileIndex < 0) {
-						tileIndex = getAnimatedTile(tileIndex);
-					}
-
-					g.drawRegion(sourceImage,
-							tileSetX[tileIndex],
-							tileSetY[tileIndex],
-							cellWidth, cellHeight,
-							Sprite.TRANS_NONE,
-							tx, ty,
-							Graphics.TOP | Graphics.LEFT);
+	/**
+	 * Write the quads of the non-empty cells of a chunk, the same quads as
+	 * drawRegion() with TOP | LEFT would draw for them.
+	 */
+	private void bake(Chunk chunk, int chunkColumn, int chunkRow, TextureRegion region,
+					  float originX, float originY) {
+		int startColumn = chunkColumn * CHUNK_SIZE;
+		int startRow = chunkRow * CHUNK_SIZE;
+		int endColumn = Math.min(startColumn + CHUNK_SIZE, columns);
+		int endRow = Math.min(startRow + CHUNK_SIZE, rows);
+
+		float[] vertices = chunk.vertices;
+		if (vertices == null) {
+			vertices = new float[(endColumn - startColumn) * (endRow - startRow) * TILE_VERTICES];
+			chunk.vertices = vertices;
+		}
+
+		Texture texture = region.getTexture();
+		float invWidth = 1f / texture.getWidth();
+		float invHeight = 1f / texture.getHeight();
+		int regionX = region.getRegionX();
+		int regionY = region.getRegionY();
+		float color = Color.WHITE_FLOAT_BITS;
+
+		Bits animatedTiles = chunk.animatedTiles;
+		animatedTiles.clear();
+		int n = 0;
+		for (int row = startRow; row < endRow; row++) {
+			int[] cells = cellMatrix[row];
+			for (int column = startColumn; column < endColumn; column++) {
+				int tileIndex = cells[column];
+				if (tileIndex < 0) {
+					animatedTiles.set(-tileIndex);
+					tileIndex = anim_to_static[-tileIndex];
+				}
+				if (tileIndex == 0) {
+					continue;
 				}
+
+				float x = originX + column * cellWidth;
+				float y = originY + row * cellHeight + cellHeight;
+				float x2 = x + cellWidth;
+				float y2 = y + cellHeight;
+				int srcX = regionX + tileSetX[tileIndex];
+				int srcY = regionY + tileSetY[tileIndex];
+				float u = srcX * invWidth;
+				float v = (srcY + cellHeight) * invHeight;
+				float u2 = (srcX + cellWidth) * invWidth;
+				float v2 = srcY * invHeight;
+
+				vertices[n++] = x;
+				vertices[n++] = y;
+				vertices[n++] = color;
+				vertices[n++] = u;
+				vertices[n++] = v;
+
+				vertices[n++] = x;
+				vertices[n++] = y2;
+				vertices[n++] = color;
+				vertices[n++] = u;
+				vertices[n++] = v2;
+
+				vertices[n++] = x2;
+				vertices[n++] = y2;
+				vertices[n++] = color;
+				vertices[n++] = u2;
+				vertices[n++] = v2;
+
+				vertices[n++] = x2;
+				vertices[n++] = y;
+				vertices[n++] = color;
+				vertices[n++] = u2;
+				vertices[n++] = v;
 			}
 		}
+		chunk.count = n;
+		chunk.originX = originX;
+		chunk.originY = originY;
+		chunk.dirty = false;
+	}
+
+	private void invalidateChunks(int startColumn, int startRow, int endColumn, int endRow) {
+		for (int row = startRow / CHUNK_SIZE; row <= endRow / CHUNK_SIZE; row++) {
+			for (int column = startColumn / CHUNK_SIZE; column <= endColumn / CHUNK_SIZE; column++) {
+				chunks[row * chunkColumns + column].dirty = true;
+			}
+		}
+	}
+
+	/**
+	 * @param tileIndex static or animated tile index, not 0
+	 */
+	CollisionMask getCollisionMask(int tileIndex) {
+		if (tileIndex < 0) {
+			tileIndex = getAnimatedTile(tileIndex);
+		}
+		CollisionMask mask = collisionMasks[tileIndex];
+		CollisionMask result = CollisionMask.get(sourceImage,
+				tileSetX[tileIndex], tileSetY[tileIndex],
+				cellWidth, cellHeight, Sprite.TRANS_NONE, mask);
+		if (result != mask) {
+			collisionMasks[tileIndex] = result;
+		}
+		return result;
 	}
 
 	private void createStaticSet(Image image, int noOfFrames, int tileWidth,
@@ -288,6 +490,8 @@ public class TiledLayer extends Layer {
 		numberOfTiles = noOfFrames;
 		tileSetX = new int[numberOfTiles];
 		tileSetY = new int[numberOfTiles];
+		collisionMasks = new CollisionMask[numberOfTiles];
+		invalidateChunks(0, 0, columns - 1, rows - 1);
 
 		if (!maintainIndices) {
 			// populate cell matrix, all the indices are 0 to begin with
@@ -313,4 +517,30 @@ public class TiledLayer extends Layer {
 			}
 		}
 	}
+
+	/**
+	 * Baked vertices of a block of CHUNK_SIZE x CHUNK_SIZE cells.
+	 */
+	private static class Chunk {
+		float[] vertices;
+		int count;
+		float originX, originY;
+		/**
+		 * The animated tile indices, negated, used by the baked cells
+		 */
+		final Bits animatedTiles = new Bits();
+		boolean dirty = true;
+
+		void move(float x, float y) {
+			float dx = x - originX;
+			float dy = y - originY;
+			float[] vertices = this.vertices;
+			for (int i = 0; i < count; i += 5) {
+				vertices[i] += dx;
+				vertices[i + 1] += dy;
+			}
+			originX = x;
+			originY = y;
+		}
+	}
 }
@@ -0,0 +1,58 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package javax.microedition.lcdui.overlay;
+
+import javax.microedition.lcdui.Graphics;
+
+/**
+ * Debug layer that outlines the screen area repainted in the last frames.
+ * Partial updates are drawn in green, full-screen ones in red.
+ */
+public class DamageOverlay implements Layer {
+
+	private static final int HISTORY = 8;
+
+	private final int[] rects = new int[HISTORY * 4];
+	private final boolean[] partial = new boolean[HISTORY];
+	private int head;
+	private int count;
+
+	/**
+	 * Record the area that was composed in the current frame.
+	 */
+	public synchronized void addDamage(int x, int y, int width, int height, boolean partial) {
+		int i = head * 4;
+		rects[i] = x;
+		rects[i + 1] = y;
+		rects[i + 2] = width;
+		rects[i + 3] = height;
+		this.partial[head] = partial;
+		head = (head + 1) % HISTORY;
+		if (count < HISTORY) {
+			count++;
+		}
+	}
+
+	public synchronized void paint(Graphics g) {
+		for (int n = 0; n < count; n++) {
+			// the oldest entries are the most transparent
+			int slot = (head - count + n + HISTORY) % HISTORY;
+			int alpha = 0x20 + 0xA0 * (n + 1) / count;
+			int rgb = partial[slot] ? 0x00FF00 : 0xFF0000;
+			int i = slot * 4;
+			g.setColorAlpha(alpha << 24 | rgb);
+			g.drawRect(rects[i], rects[i + 1], rects[i + 2] - 1, rects[i + 3] - 1);
+		}
+	}
+}
@@ -28,6 +28,8 @@ public class FpsCounter extends TimerTask implements Layer {
 	private final View view;
 	private String prevFrameCount = "0";
 	private int totalFrameCount;
+	private int drawCalls;
+	private int flushes;
 	private Timer mTimer;
 
 	public FpsCounter(View view) {
@@ -37,7 +39,7 @@ public class FpsCounter extends TimerTask implements Layer {
 	}
 
 	public void run() {
-		prevFrameCount = String.valueOf(totalFrameCount);
+		prevFrameCount = totalFrameCount + " dc:" + drawCalls + " fl:" + flushes;
 		totalFrameCount = 0;
 		view.postInvalidate();
 	}
@@ -46,6 +48,17 @@ public class FpsCounter extends TimerTask implements Layer {
 		totalFrameCount++;
 	}
 
+	/**
+	 * Report the batching statistics of the last composed frame.
+	 *
+	 * @param drawCalls the number of GL draw calls
+	 * @param flushes   the number of batch flushes
+	 */
+	public void setBatchStats(int drawCalls, int flushes) {
+		this.drawCalls = drawCalls;
+		this.flushes = flushes;
+	}
+
 	public void paint(Graphics g) {
 		String fps = prevFrameCount;
 		Font font = g.getFont();
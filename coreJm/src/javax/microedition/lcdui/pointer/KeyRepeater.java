@@ -17,8 +17,6 @@
 
 package javax.microedition.lcdui.pointer;
 
-import java.util.HashSet;
-
 import javax.microedition.lcdui.Canvas;
 import javax.microedition.lcdui.pointer.VirtualKeyboard.VirtualKey;
 
@@ -30,12 +28,17 @@ public class KeyRepeater implements Runnable {
 
 	private Thread thread;
 	private final Object waiter;
-	private final HashSet<VirtualKey> keys;
+
+	/**
+	 * The held keys. A plain array, so that repeating them allocates nothing.
+	 */
+	private VirtualKey[] keys;
+	private int count;
 
 	private boolean enabled;
 
 	public KeyRepeater() {
-		keys = new HashSet<>();
+		keys = new VirtualKey[10];
 		waiter = new Object();
 
 		thread = new Thread(this, "MIDletKeyRepeater");
@@ -43,9 +46,12 @@ public class KeyRepeater implements Runnable {
 	}
 
 	public void setTarget(Canvas canvas) {
-		synchronized (keys) {
+		synchronized (waiter) {
 			releaseAllKeys();
-			keys.clear();
+			for (int i = 0; i < count; i++) {
+				keys[i] = null;
+			}
+			count = 0;
 			enabled = false;
 		}
 
@@ -53,7 +59,8 @@ public class KeyRepeater implements Runnable {
 	}
 
 	private void releaseAllKeys() {
-		for (VirtualKey key : keys) {
+		for (int i = 0; i < count; i++) {
+			VirtualKey key = keys[i];
 			target.postKeyReleased(key.getKeyCode());
 			if (key.getSecondKeyCode() != 0) {
 				target.postKeyReleased(key.getSecondKeyCode());
@@ -66,26 +73,43 @@ public class KeyRepeater implements Runnable {
 			return;
 		}
 
-		synchronized (keys) {
-			keys.add(key);
-			enabled = true;
-		}
-
 		synchronized (waiter) {
+			if (indexOf(key) < 0) {
+				if (count == keys.length) {
+					VirtualKey[] newKeys = new VirtualKey[count * 2];
+					System.arraycopy(keys, 0, newKeys, 0, count);
+					keys = newKeys;
+				}
+				keys[count++] = key;
+			}
+			enabled = true;
 			waiter.notifyAll();
 		}
 	}
 
 	public void remove(VirtualKey key) {
-		synchronized (keys) {
-			keys.remove(key);
+		synchronized (waiter) {
+			int index = indexOf(key);
+			if (index >= 0) {
+				keys[index] = keys[--count];
+				keys[count] = null;
+			}
 
-			if (keys.isEmpty()) {
+			if (count == 0) {
 				enabled = false;
 			}
 		}
 	}
 
+	private int indexOf(VirtualKey key) {
+		for (int i = 0; i < count; i++) {
+			if (keys[i] == key) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
 	@Override
 	public void run() {
 		while (true) {
@@ -99,8 +123,9 @@ public class KeyRepeater implements Runnable {
 				while (enabled) {
 					Thread.sleep(INTERVAL);
 
-					synchronized (keys) {
-						for (VirtualKey key : keys) {
+					synchronized (waiter) {
+						for (int i = 0; i < count; i++) {
+							VirtualKey key = keys[i];
 							target.postKeyRepeated(key.getKeyCode());
 							if (key.getSecondKeyCode() != 0) {
 								target.postKeyRepeated(key.getSecondKeyCode());
@@ -18,18 +18,22 @@
 package javax.microedition.m3g;
 
 public class AnimationController extends Object3D {
+	//------------------------------------------------------------------
+	// Instance data
+	//------------------------------------------------------------------
+
+	private int activeIntervalStart;
+	private int activeIntervalEnd;
+	private float speed = 1.0f;
+	private int refWorldTime;
+	private float refSequenceTime;
+	private float weight = 1.0f;
+
 	//------------------------------------------------------------------
 	// Constructor
 	//------------------------------------------------------------------
 
 	public AnimationController() {
-		super(_ctor(Interface.getHandle()));
-	}
-
-	/**
-	 */
-	AnimationController(long handle) {
-		super(handle);
 	}
 
 	//------------------------------------------------------------------
@@ -37,69 +41,75 @@ public class AnimationController extends Object3D {
 	//------------------------------------------------------------------
 
 	public void setActiveInterval(int worldTimeMin, int worldTimeMax) {
-		_setActiveInterval(handle, worldTimeMin, worldTimeMax);
+		if (worldTimeMin > worldTimeMax) {
+			throw new IllegalArgumentException();
+		}
+		activeIntervalStart = worldTimeMin;
+		activeIntervalEnd = worldTimeMax;
 	}
 
 	public int getActiveIntervalStart() {
-		return _getActiveIntervalStart(handle);
+		return activeIntervalStart;
 	}
 
 	public int getActiveIntervalEnd() {
-		return _getActiveIntervalEnd(handle);
+		return activeIntervalEnd;
 	}
 
 	public void setSpeed(float factor, int worldTime) {
-		_setSpeed(handle, factor, worldTime);
+		refSequenceTime = getPosition(worldTime);
+		refWorldTime = worldTime;
+		speed = factor;
 	}
 
 	public float getSpeed() {
-		return _getSpeed(handle);
+		return speed;
 	}
 
 	public void setPosition(float time, int worldTime) {
-		_setPosition(handle, time, worldTime);
+		refSequenceTime = time;
+		refWorldTime = worldTime;
 	}
 
 	public float getPosition(int worldTime) {
-		return _getPosition(handle, worldTime);
+		return refSequenceTime + speed * (float) (worldTime - refWorldTime);
 	}
 
 	public void setWeight(float weight) {
-		_setWeight(handle, weight);
+		if (weight < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.weight = weight;
 	}
 
 	public float getWeight() {
-		return _getWeight(handle);
+		return weight;
 	}
 
 	// M3G maintenance version 1.1
 	public int getRefWorldTime() {
-		return _getRefWorldTime(handle);
+		return refWorldTime;
 	}
 
+	//------------------------------------------------------------------
+	// Package private methods
+	//------------------------------------------------------------------
 
-	// Native methods
-	private native static long _ctor(long hInterface);
-
-	private native static void _setActiveInterval(long handle, int worldTimeMin, int worldTimeMax);
-
-	private native static int _getActiveIntervalStart(long handle);
-
-	private native static int _getActiveIntervalEnd(long handle);
-
-	private native static void _setSpeed(long handle, float factor, int worldTime);
-
-	private native static float _getSpeed(long handle);
-
-	private native static void _setPosition(long handle, float time, int worldTime);
-
-	private native static float _getPosition(long handle, int worldTime);
-
-	private native static void _setWeight(long handle, float weight);
-
-	private native static float _getWeight(long handle);
-
-	// M3G maintenance version 1.1
-	private native static int _getRefWorldTime(long handle);
+	boolean isActive(int worldTime) {
+		return activeIntervalStart == activeIntervalEnd
+				|| (worldTime >= activeIntervalStart && worldTime < activeIntervalEnd);
+	}
 
+	/**
+	 * @return the world time left until the controller is activated or deactivated
+	 */
+	int getValidity(int worldTime) {
+		if (activeIntervalStart == activeIntervalEnd || worldTime >= activeIntervalEnd) {
+			return Integer.MAX_VALUE;
+		}
+		if (worldTime < activeIntervalStart) {
+			return activeIntervalStart - worldTime;
+		}
+		return activeIntervalEnd - worldTime;
+	}
 }
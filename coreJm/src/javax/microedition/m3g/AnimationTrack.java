@@ -50,21 +50,22 @@ public class AnimationTrack extends Object3D {
 
 	private AnimationController controller;
 	private KeyframeSequence sequence;
+	private final int property;
 
 	//------------------------------------------------------------------
 	// Constructors
 	//------------------------------------------------------------------
 
-	AnimationTrack(long handle) {
-		super(handle);
-		controller = (AnimationController) getInstance(_getController(handle));
-		sequence = (KeyframeSequence) getInstance(_getSequence(handle));
-	}
-
 	public AnimationTrack(KeyframeSequence sequence, int property) {
-		super(_ctor(Interface.getHandle(),
-				sequence != null ? sequence.handle : 0, property));
+		if (sequence == null) {
+			throw new NullPointerException();
+		}
+		if (property < ALPHA || property > VISIBILITY || !isValidComponentCount(property,
+				sequence.getComponentCount())) {
+			throw new IllegalArgumentException();
+		}
 		this.sequence = sequence;
+		this.property = property;
 	}
 
 	//------------------------------------------------------------------
@@ -72,7 +73,6 @@ public class AnimationTrack extends Object3D {
 	//------------------------------------------------------------------
 
 	public void setController(AnimationController controller) {
-		_setController(handle, controller != null ? controller.handle : 0);
 		this.controller = controller;
 	}
 
@@ -85,22 +85,39 @@ public class AnimationTrack extends Object3D {
 	}
 
 	public int getTargetProperty() {
-		return _getTargetProperty(handle);
+		return property;
 	}
 
 	//------------------------------------------------------------------
-	// Private methods
+	// Package private methods
 	//------------------------------------------------------------------
 
-	private native static long _ctor(long hInterface,
-									long hSequence,
-									int property);
-
-	private native static long _getController(long handle);
-
-	private native static long _getSequence(long handle);
-
-	private native static int _getTargetProperty(long handle);
+	@Override
+	int getReferences(Object3D[] references, int n) {
+		n = super.getReferences(references, n);
+		n = addReference(references, n, sequence);
+		return addReference(references, n, controller);
+	}
 
-	private native static void _setController(long handle, long hController);
+	private static boolean isValidComponentCount(int property, int components) {
+		switch (property) {
+			case AMBIENT_COLOR:
+			case COLOR:
+			case DIFFUSE_COLOR:
+			case EMISSIVE_COLOR:
+			case SPECULAR_COLOR:
+			case TRANSLATION:
+				return components == 3;
+			case CROP:
+				return components == 2 || components == 4;
+			case ORIENTATION:
+				return components == 4;
+			case SCALE:
+				return components == 1 || components == 3;
+			case MORPH_WEIGHTS:
+				return true;
+			default:
+				return components == 1;
+		}
+	}
 }
@@ -17,6 +17,8 @@
 
 package javax.microedition.m3g;
 
+import java.util.IdentityHashMap;
+
 public class Appearance extends Object3D {
 	//------------------------------------------------------------------
 	// Instance data
@@ -26,31 +28,14 @@ public class Appearance extends Object3D {
 	private Fog fog;
 	private Material material;
 	private PolygonMode polygonMode;
-	private Texture2D[] textures;
+	private Texture2D[] textures = new Texture2D[Defs.NUM_TEXTURE_UNITS];
+	private int layer;
 
 	//------------------------------------------------------------------
 	// Constructor(s)
 	//------------------------------------------------------------------
 
 	public Appearance() {
-		super(_ctor(Interface.getHandle()));
-	}
-
-	/**
-	 */
-	Appearance(long handle) {
-		super(handle);
-
-		compositingMode = (CompositingMode) getInstance(_getCompositingMode(handle));
-		fog = (Fog) getInstance(_getFog(handle));
-		material = (Material) getInstance(_getMaterial(handle));
-		polygonMode = (PolygonMode) getInstance(_getPolygonMode(handle));
-
-		textures = new Texture2D[Defs.NUM_TEXTURE_UNITS];
-
-		for (int i = 0; i < Defs.NUM_TEXTURE_UNITS; ++i) {
-			textures[i] = (Texture2D) getInstance(_getTexture(handle, i));
-		}
 	}
 
 	//------------------------------------------------------------------
@@ -58,10 +43,6 @@ public class Appearance extends Object3D {
 	//------------------------------------------------------------------
 
 	public void setCompositingMode(CompositingMode compositingMode) {
-		_setCompositingMode(handle,
-				compositingMode != null
-						? compositingMode.handle
-						: 0);
 		this.compositingMode = compositingMode;
 	}
 
@@ -70,7 +51,6 @@ public class Appearance extends Object3D {
 	}
 
 	public void setFog(Fog fog) {
-		_setFog(handle, fog != null ? fog.handle : 0);
 		this.fog = fog;
 	}
 
@@ -79,7 +59,6 @@ public class Appearance extends Object3D {
 	}
 
 	public void setPolygonMode(PolygonMode polygonMode) {
-		_setPolygonMode(handle, polygonMode != null ? polygonMode.handle : 0);
 		this.polygonMode = polygonMode;
 	}
 
@@ -88,15 +67,17 @@ public class Appearance extends Object3D {
 	}
 
 	public void setLayer(int index) {
-		_setLayer(handle, index);
+		if (index < -63 || index > 63) {
+			throw new IndexOutOfBoundsException();
+		}
+		layer = index;
 	}
 
 	public int getLayer() {
-		return _getLayer(handle);
+		return layer;
 	}
 
 	public void setMaterial(Material material) {
-		_setMaterial(handle, material != null ? material.handle : 0);
 		this.material = material;
 	}
 
@@ -105,47 +86,47 @@ public class Appearance extends Object3D {
 	}
 
 	public void setTexture(int unit, Texture2D texture) {
-		_setTexture(handle, unit, texture != null ? texture.handle : 0);
-
-		if (textures == null) {
-			textures = new Texture2D[Defs.NUM_TEXTURE_UNITS];
+		if (unit < 0 || unit >= Defs.NUM_TEXTURE_UNITS) {
+			throw new IndexOutOfBoundsException();
 		}
 		textures[unit] = texture;
 	}
 
 	public Texture2D getTexture(int unit) {
-		return (Texture2D) getInstance(_getTexture(handle, unit));
+		if (unit < 0 || unit >= Defs.NUM_TEXTURE_UNITS) {
+			throw new IndexOutOfBoundsException();
+		}
+		return textures[unit];
 	}
 
 	//------------------------------------------------------------------
-	// Private methods
+	// Package private methods
 	//------------------------------------------------------------------
 
-	private static native long _ctor(long hInterface);
-
-	private static native long _getCompositingMode(long hApp);
-
-	private static native long _getFog(long hApp);
-
-	private static native int _getLayer(long hApp);
-
-	private static native long _getMaterial(long hApp);
-
-	private static native long _getPolygonMode(long hApp);
-
-	private static native long _getTexture(long hApp, int unit);
-
-	private static native void _setCompositingMode(long hApp, long hMode);
-
-	private static native void _setFog(long hApp, long hFog);
-
-	private static native void _setLayer(long hApp, int layer);
-
-	private static native void _setMaterial(long hApp, long hMaterial);
+	/**
+	 * @return true if fragments are blended with the color buffer
+	 */
+	boolean isBlended() {
+		return compositingMode != null && compositingMode.getBlending() != CompositingMode.REPLACE;
+	}
 
-	private static native void _setPolygonMode(long hApp, long hMode);
+	@Override
+	int getReferences(Object3D[] references, int n) {
+		n = super.getReferences(references, n);
+		n = addReference(references, n, compositingMode);
+		n = addReference(references, n, fog);
+		n = addReference(references, n, material);
+		n = addReference(references, n, polygonMode);
+		for (Texture2D texture : textures) {
+			n = addReference(references, n, texture);
+		}
+		return n;
+	}
 
-	private static native void _setTexture(long hApp,
-										   int unit,
-										   long hTexture);
+	@Override
+	Object3D duplicate(IdentityHashMap<Object3D, Object3D> duplicates) {
+		Appearance copy = (Appearance) super.duplicate(duplicates);
+		copy.textures = textures.clone();
+		return copy;
+	}
 }
@@ -30,20 +30,18 @@ public class Background extends Object3D {
 	//------------------------------------------------------------------
 
 	private Image2D image;
+	private int color;
+	private int modeX = BORDER;
+	private int modeY = BORDER;
+	private boolean colorClearEnabled = true;
+	private boolean depthClearEnabled = true;
+	private int cropX, cropY, cropWidth, cropHeight;
 
 	//------------------------------------------------------------------
 	// Constructors
 	//------------------------------------------------------------------
 
 	public Background() {
-		super(_ctor(Interface.getHandle()));
-	}
-
-	/**
-	 */
-	Background(long handle) {
-		super(handle);
-		image = (Image2D) getInstance(_getImage(handle));
 	}
 
 	//------------------------------------------------------------------
@@ -51,16 +49,22 @@ public class Background extends Object3D {
 	//------------------------------------------------------------------
 
 	public void setColor(int ARGB) {
-		_setColor(handle, ARGB);
+		color = ARGB;
 	}
 
 	public int getColor() {
-		return _getColor(handle);
+		return color;
 	}
 
 	public void setImage(Image2D image) {
-		_setImage(handle, image != null ? image.handle : 0);
+		if (image != null && image.getFormat() != Image2D.RGB && image.getFormat() != Image2D.RGBA) {
+			throw new IllegalArgumentException();
+		}
 		this.image = image;
+		cropX = 0;
+		cropY = 0;
+		cropWidth = image != null ? image.getWidth() : 0;
+		cropHeight = image != null ? image.getHeight() : 0;
 	}
 
 	public Image2D getImage() {
@@ -68,77 +72,107 @@ public class Background extends Object3D {
 	}
 
 	public void setImageMode(int modeX, int modeY) {
-		_setImageMode(handle, modeX, modeY);
+		if ((modeX != BORDER && modeX != REPEAT) || (modeY != BORDER && modeY != REPEAT)) {
+			throw new IllegalArgumentException();
+		}
+		this.modeX = modeX;
+		this.modeY = modeY;
 	}
 
 	public int getImageModeX() {
-		return _getImageMode(handle, Defs.GET_MODEX);
+		return modeX;
 	}
 
 	public int getImageModeY() {
-		return _getImageMode(handle, Defs.GET_MODEY);
+		return modeY;
 	}
 
 	public void setColorClearEnable(boolean enable) {
-		_enable(handle, Defs.SETGET_COLORCLEAR, enable);
+		colorClearEnabled = enable;
 	}
 
 	public void setDepthClearEnable(boolean enable) {
-		_enable(handle, Defs.SETGET_DEPTHCLEAR, enable);
+		depthClearEnabled = enable;
 	}
 
 	public boolean isColorClearEnabled() {
-		return _isEnabled(handle, Defs.SETGET_COLORCLEAR);
+		return colorClearEnabled;
 	}
 
 	public boolean isDepthClearEnabled() {
-		return _isEnabled(handle, Defs.SETGET_DEPTHCLEAR);
+		return depthClearEnabled;
 	}
 
 	public void setCrop(int cropX, int cropY, int width, int height) {
-		_setCrop(handle, cropX, cropY, width, height);
+		if (width < 0 || height < 0 || width > Defs.MAX_TEXTURE_DIMENSION || height > Defs.MAX_TEXTURE_DIMENSION) {
+			throw new IllegalArgumentException();
+		}
+		this.cropX = cropX;
+		this.cropY = cropY;
+		cropWidth = width;
+		cropHeight = height;
 	}
 
 	public int getCropX() {
-		return _getCrop(handle, Defs.GET_CROPX);
+		return cropX;
 	}
 
 	public int getCropY() {
-		return _getCrop(handle, Defs.GET_CROPY);
+		return cropY;
 	}
 
 	public int getCropWidth() {
-		return _getCrop(handle, Defs.GET_CROPWIDTH);
+		return cropWidth;
 	}
 
 	public int getCropHeight() {
-		return _getCrop(handle, Defs.GET_CROPHEIGHT);
+		return cropHeight;
 	}
 
 	//------------------------------------------------------------------
-	// Private methods
+	// Package private methods
 	//------------------------------------------------------------------
 
-	// Native functions
-	private static native long _ctor(long hInterface);
-
-	private static native void _setColor(long handle, int ARGB);
-
-	private static native int _getColor(long handle);
-
-	private static native void _setImage(long handle, long hImage);
-
-	private static native long _getImage(long handle);
-
-	private static native void _setImageMode(long handle, int modeX, int modeY);
-
-	private static native int _getImageMode(long handle, int which);
-
-	private static native void _enable(long handle, int which, boolean enable);
-
-	private static native boolean _isEnabled(long handle, int which);
-
-	private static native void _setCrop(long handle, int cropX, int cropY, int width, int height);
-
-	private static native int _getCrop(long handle, int which);
+	@Override
+	int getReferences(Object3D[] references, int n) {
+		n = super.getReferences(references, n);
+		return addReference(references, n, image);
+	}
+
+	@Override
+	boolean isCompatible(AnimationTrack track) {
+		switch (track.getTargetProperty()) {
+			case AnimationTrack.ALPHA:
+			case AnimationTrack.COLOR:
+			case AnimationTrack.CROP:
+				return true;
+			default:
+				return super.isCompatible(track);
+		}
+	}
+
+	@Override
+	void updateProperty(int property, float[] value) {
+		switch (property) {
+			case AnimationTrack.ALPHA:
+				color = (color & 0xFFFFFF) | toAlpha(value[0]);
+				break;
+			case AnimationTrack.COLOR:
+				color = (color & 0xFF000000) | toRGB(value);
+				break;
+			case AnimationTrack.CROP:
+				if (value.length == 4) {
+					cropX = Math.round(value[0]);
+					cropY = Math.round(value[1]);
+					cropWidth = Math.max(0, Math.round(value[2]));
+					cropHeight = Math.max(0, Math.round(value[3]));
+				} else {
+					cropX = Math.round(value[0]);
+					cropY = Math.round(value[1]);
+				}
+				break;
+			default:
+				super.updateProperty(property, value);
+		}
+	}
 }
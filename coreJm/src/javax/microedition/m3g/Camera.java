@@ -17,6 +17,8 @@
 
 package javax.microedition.m3g;
 
+import java.util.IdentityHashMap;
+
 public class Camera extends Node {
 	//------------------------------------------------------------------
 	// Static data
@@ -26,18 +28,20 @@ public class Camera extends Node {
 	public static final int PARALLEL = 49;
 	public static final int PERSPECTIVE = 50;
 
+	//------------------------------------------------------------------
+	// Instance data
+	//------------------------------------------------------------------
+
+	private int projectionType = GENERIC;
+	private float fovy, aspectRatio, near, far;
+	private float[] projection = new float[16];
+
 	//------------------------------------------------------------------
 	// Constructors
 	//------------------------------------------------------------------
 
 	public Camera() {
-		super(_ctor(Interface.getHandle()));
-	}
-
-	/**
-	 */
-	Camera(long handle) {
-		super(handle);
+		Transform.setIdentity(projection);
 	}
 
 	//------------------------------------------------------------------
@@ -45,39 +49,126 @@ public class Camera extends Node {
 	//------------------------------------------------------------------
 
 	public void setParallel(float height, float aspectRatio, float near, float far) {
-		_setParallel(handle, height, aspectRatio, near, far);
+		if (height <= 0 || aspectRatio <= 0 || near == far) {
+			throw new IllegalArgumentException();
+		}
+		setProjection(PARALLEL, height, aspectRatio, near, far);
 	}
 
 	public void setPerspective(float fovy, float aspectRatio, float near, float far) {
-		_setPerspective(handle, fovy, aspectRatio, near, far);
+		if (fovy <= 0 || fovy >= 180 || aspectRatio <= 0 || near <= 0 || far <= 0 || near == far) {
+			throw new IllegalArgumentException();
+		}
+		setProjection(PERSPECTIVE, fovy, aspectRatio, near, far);
 	}
 
 	public void setGeneric(Transform transform) {
-		_setGeneric(handle, transform.matrix);
+		System.arraycopy(transform.matrix, 0, projection, 0, 16);
+		projectionType = GENERIC;
 	}
 
 	public int getProjection(Transform transform) {
-		return _getProjectionAsTransform(handle, transform != null ? transform.matrix : null);
+		if (transform != null) {
+			transform.set(projection);
+		}
+		return projectionType;
 	}
 
 	public int getProjection(float[] params) {
-		return _getProjectionAsParams(handle, params);
+		if (params != null && projectionType != GENERIC) {
+			if (params.length < 4) {
+				throw new IllegalArgumentException();
+			}
+			params[0] = fovy;
+			params[1] = aspectRatio;
+			params[2] = near;
+			params[3] = far;
+		}
+		return projectionType;
 	}
 
 	//------------------------------------------------------------------
-	// Private methods
+	// Package private methods
 	//------------------------------------------------------------------
 
-	// Native methods
-	private static native long _ctor(long hInterface);
+	float[] getProjectionMatrix() {
+		return projection;
+	}
 
-	private static native void _setParallel(long handle, float height, float aspectRatio, float near, float far);
+	@Override
+	Object3D duplicate(IdentityHashMap<Object3D, Object3D> duplicates) {
+		Camera copy = (Camera) super.duplicate(duplicates);
+		copy.projection = projection.clone();
+		return copy;
+	}
 
-	private static native void _setPerspective(long handle, float fovy, float aspectRatio, float near, float far);
+	@Override
+	boolean isCompatible(AnimationTrack track) {
+		switch (track.getTargetProperty()) {
+			case AnimationTrack.FAR_DISTANCE:
+			case AnimationTrack.FIELD_OF_VIEW:
+			case AnimationTrack.NEAR_DISTANCE:
+				return true;
+			default:
+				return super.isCompatible(track);
+		}
+	}
 
-	private static native void _setGeneric(long handle, byte[] transform);
+	@Override
+	void updateProperty(int property, float[] value) {
+		switch (property) {
+			case AnimationTrack.FAR_DISTANCE:
+				far = value[0];
+				break;
+			case AnimationTrack.FIELD_OF_VIEW:
+				fovy = value[0];
+				break;
+			case AnimationTrack.NEAR_DISTANCE:
+				near = value[0];
+				break;
+			default:
+				super.updateProperty(property, value);
+				return;
+		}
+		if (projectionType != GENERIC) {
+			if (projectionType == PERSPECTIVE) {
+				fovy = clamp(fovy, 1e-3f, 179.999f);
+			}
+			setProjection(projectionType, fovy, aspectRatio, near, far);
+		}
+	}
 
-	private static native int _getProjectionAsTransform(long handle, byte[] transform);
+	//------------------------------------------------------------------
+	// Private methods
+	//------------------------------------------------------------------
 
-	private static native int _getProjectionAsParams(long handle, float[] params);
+	private void setProjection(int type, float fovy, float aspectRatio, float near, float far) {
+		projectionType = type;
+		this.fovy = fovy;
+		this.aspectRatio = aspectRatio;
+		this.near = near;
+		this.far = far;
+		float[] m = projection;
+		for (int i = 0; i < 16; i++) {
+			m[i] = 0;
+		}
+		float depth = near - far;
+		if (depth == 0) {
+			return;
+		}
+		if (type == PERSPECTIVE) {
+			float h = (float) Math.tan(Math.toRadians(fovy) / 2);
+			m[0] = 1 / (aspectRatio * h);
+			m[5] = 1 / h;
+			m[10] = (near + far) / depth;
+			m[11] = 2 * near * far / depth;
+			m[14] = -1;
+		} else {
+			m[0] = 2 / (aspectRatio * fovy);
+			m[5] = 2 / fovy;
+			m[10] = 2 / depth;
+			m[11] = (near + far) / depth;
+			m[15] = 1;
+		}
+	}
 }
@@ -28,18 +28,24 @@ public class CompositingMode extends Object3D {
 	public static final int MODULATE_X2 = 67;
 	public static final int REPLACE = 68;
 
+	//------------------------------------------------------------------
+	// Instance data
+	//------------------------------------------------------------------
+
+	private int blending = REPLACE;
+	private float alphaThreshold;
+	private boolean alphaWrite = true;
+	private boolean colorWrite = true;
+	private boolean depthWrite = true;
+	private boolean depthTest = true;
+	private float depthOffsetFactor;
+	private float depthOffsetUnits;
+
 	//------------------------------------------------------------------
 	// Constructors
 	//------------------------------------------------------------------
 
 	public CompositingMode() {
-		super(_ctor(Interface.getHandle()));
-	}
-
-	/**
-	 */
-	CompositingMode(long handle) {
-		super(handle);
 	}
 
 	//------------------------------------------------------------------
@@ -47,98 +53,69 @@ public class CompositingMode extends Object3D {
 	//------------------------------------------------------------------
 
 	public void setBlending(int mode) {
-		_setBlending(handle, mode);
+		if (mode < ALPHA || mode > REPLACE) {
+			throw new IllegalArgumentException();
+		}
+		blending = mode;
 	}
 
 	public int getBlending() {
-		return _getBlending(handle);
+		return blending;
 	}
 
 	public void setAlphaThreshold(float threshold) {
-		_setAlphaThreshold(handle, threshold);
+		if (threshold < 0 || threshold > 1) {
+			throw new IllegalArgumentException();
+		}
+		alphaThreshold = threshold;
 	}
 
 	public float getAlphaThreshold() {
-		return _getAlphaThreshold(handle);
+		return alphaThreshold;
 	}
 
 	public void setAlphaWriteEnable(boolean enable) {
-		_setAlphaWriteEnable(handle, enable);
+		alphaWrite = enable;
 	}
 
 	public boolean isAlphaWriteEnabled() {
-		return _isAlphaWriteEnabled(handle);
+		return alphaWrite;
 	}
 
 	public void setColorWriteEnable(boolean enable) {
-		_enableColorWrite(handle, enable);
+		colorWrite = enable;
 	}
 
 	public boolean isColorWriteEnabled() {
-		return _isColorWriteEnabled(handle);
+		return colorWrite;
 	}
 
 	public void setDepthWriteEnable(boolean enable) {
-		_enableDepthWrite(handle, enable);
+		depthWrite = enable;
 	}
 
 	public boolean isDepthWriteEnabled() {
-		return _isDepthWriteEnabled(handle);
+		return depthWrite;
 	}
 
 	public void setDepthTestEnable(boolean enable) {
-		_enableDepthTest(handle, enable);
+		depthTest = enable;
 	}
 
 	public boolean isDepthTestEnabled() {
-		return _isDepthTestEnabled(handle);
+		return depthTest;
 	}
 
 	public void setDepthOffset(float factor, float units) {
-		_setDepthOffset(handle, factor, units);
+		depthOffsetFactor = factor;
+		depthOffsetUnits = units;
 	}
 
 	public float getDepthOffsetFactor() {
-		return _getDepthOffsetFactor(handle);
+		return depthOffsetFactor;
 	}
 
 	public float getDepthOffsetUnits() {
-		return _getDepthOffsetUnits(handle);
+		return depthOffsetUnits;
 	}
-
-	//------------------------------------------------------------------
-	// Private methods
-	//------------------------------------------------------------------
-
-	private native static long _ctor(long hInterface);
-
-	private native static void _setBlending(long handle, int mode);
-
-	private native static int _getBlending(long handle);
-
-	private native static void _setAlphaThreshold(long handle, float threshold);
-
-	private native static float _getAlphaThreshold(long handle);
-
-	private native static void _setAlphaWriteEnable(long handle, boolean enable);
-
-	private native static boolean _isAlphaWriteEnabled(long handle);
-
-	private native static void _enableDepthTest(long handle, boolean enable);
-
-	private native static boolean _isDepthTestEnabled(long handle);
-
-	private native static void _enableDepthWrite(long handle, boolean enable);
-
-	private native static boolean _isDepthWriteEnabled(long handle);
-
-	private native static void _enableColorWrite(long handle, boolean enable);
-
-	private native static boolean _isColorWriteEnabled(long handle);
-
-	private native static void _setDepthOffset(long handle, float factor, float units);
-
-	private native static float _getDepthOffsetFactor(long handle);
-
-	private native static float _getDepthOffsetUnits(long handle);
 }
@@ -21,68 +21,88 @@ public class Fog extends Object3D {
 	public static final int EXPONENTIAL = 80;
 	public static final int LINEAR = 81;
 
-	public Fog() {
-		super(_ctor(Interface.getHandle()));
-	}
+	private int mode = LINEAR;
+	private float near = 0.0f;
+	private float far = 1.0f;
+	private float density = 1.0f;
+	private int color;
 
-	/**
-	 */
-	Fog(long handle) {
-		super(handle);
+	public Fog() {
 	}
 
 	public void setMode(int mode) {
-		_setMode(handle, mode);
+		if (mode != EXPONENTIAL && mode != LINEAR) {
+			throw new IllegalArgumentException();
+		}
+		this.mode = mode;
 	}
 
 	public int getMode() {
-		return _getMode(handle);
+		return mode;
 	}
 
 	public void setLinear(float near, float far) {
-		_setLinear(handle, near, far);
+		this.near = near;
+		this.far = far;
 	}
 
 	public float getNearDistance() {
-		return _getDistance(handle, Defs.GET_NEAR);
+		return near;
 	}
 
 	public float getFarDistance() {
-		return _getDistance(handle, Defs.GET_FAR);
+		return far;
 	}
 
 	public void setDensity(float density) {
-		_setDensity(handle, density);
+		if (density < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.density = density;
 	}
 
 	public float getDensity() {
-		return _getDensity(handle);
+		return density;
 	}
 
 	public void setColor(int RGB) {
-		_setColor(handle, RGB);
+		color = RGB & 0xFFFFFF;
 	}
 
 	public int getColor() {
-		return _getColor(handle);
+		return color;
 	}
 
-	// Native methods
-	private static native long _ctor(long hInterface);
-
-	private static native void _setMode(long handle, int mode);
-
-	private static native int _getMode(long handle);
-
-	private static native void _setLinear(long handle, float near, float far);
-
-	private static native float _getDistance(long handle, int which);
-
-	private static native void _setDensity(long handle, float density);
-
-	private static native float _getDensity(long handle);
-
-	private static native void _setColor(long handle, int RGB);
+	@Override
+	boolean isCompatible(AnimationTrack track) {
+		switch (track.getTargetProperty()) {
+			case AnimationTrack.COLOR:
+			case AnimationTrack.DENSITY:
+			case AnimationTrack.FAR_DISTANCE:
+			case AnimationTrack.NEAR_DISTANCE:
+				return true;
+			default:
+				return super.isCompatible(track);
+		}
+	}
 
-	private static native int _getColor(long handle);
+	@Override
+	void updateProperty(int property, float[] value) {
+		switch (property) {
+			case AnimationTrack.COLOR:
+				color = toRGB(value);
+				break;
+			case AnimationTrack.DENSITY:
+				density = Math.max(0, value[0]);
+				break;
+			case AnimationTrack.FAR_DISTANCE:
+				far = value[0];
+				break;
+			case AnimationTrack.NEAR_DISTANCE:
+				near = value[0];
+				break;
+			default:
+				super.updateProperty(property, value);
+		}
+	}
 }
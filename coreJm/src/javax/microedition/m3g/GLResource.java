@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.m3g;
+
+import com.badlogic.gdx.utils.Disposable;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * A GL object (buffer, texture) cached for an M3G object, freed by reference count.
+ * <p>
+ * The owner holds one reference for as long as it keeps the resource and the
+ * renderer holds another one while a queued draw uses it, so a resource
+ * replaced in the middle of a frame lives until the frame is drawn. When the
+ * owner itself is garbage collected its reference is dropped the next time
+ * a target is bound, on the GL thread, instead of from a finalizer.
+ */
+final class GLResource<T extends Disposable> {
+	private static final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+	private static final Set<Tracker> trackers = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	private final T object;
+	private final Tracker tracker;
+	private int refCount = 1;
+
+	/**
+	 * Wrap a new GL object, the owner gets the initial reference.
+	 *
+	 * @param owner object whose collection releases that reference
+	 */
+	GLResource(Object owner, T object) {
+		this.object = object;
+		tracker = new Tracker(owner, this);
+		synchronized (trackers) {
+			trackers.add(tracker);
+		}
+	}
+
+	T get() {
+		return object;
+	}
+
+	void retain() {
+		refCount++;
+	}
+
+	/**
+	 * Drop a reference, the GL object is deleted with the last one.
+	 * Must be called on the GL thread.
+	 */
+	void release() {
+		if (--refCount == 0) {
+			object.dispose();
+		}
+	}
+
+	/**
+	 * Drop the owner reference, when the owner replaces or discards the resource.
+	 */
+	void releaseOwner() {
+		synchronized (trackers) {
+			if (!trackers.remove(tracker)) {
+				return;
+			}
+		}
+		tracker.clear();
+		release();
+	}
+
+	/**
+	 * Release the owner reference of every resource whose owner was collected.
+	 * Must be called on the GL thread.
+	 */
+	static void releaseCollected() {
+		Reference<?> reference;
+		while ((reference = collected.poll()) != null) {
+			Tracker tracker = (Tracker) reference;
+			synchronized (trackers) {
+				if (!trackers.remove(tracker)) {
+					continue;
+				}
+			}
+			tracker.resource.release();
+		}
+	}
+
+	private static final class Tracker extends PhantomReference<Object> {
+		final GLResource<?> resource;
+
+		Tracker(Object owner, GLResource<?> resource) {
+			super(owner, collected);
+			this.resource = resource;
+		}
+	}
+}
@@ -15,14 +15,18 @@
  *
  */
 
+
 package javax.microedition.m3g;
 
-import android.graphics.Bitmap;
-import android.graphics.Rect;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.math.Rectangle;
 
+import java.nio.ByteBuffer;
 import java.util.Hashtable;
 import java.util.Vector;
 
+import javax.microedition.lcdui.GLTarget;
 import javax.microedition.lcdui.Graphics;
 
 public class Graphics3D {
@@ -44,58 +48,32 @@ public class Graphics3D {
 	// Instance data
 	//------------------------------------------------------------------
 
-	private long handle;
-	private Bitmap buffer;
-	private int cur_width, cur_height;
-
 	private Camera camera = null;
-	private Vector lights = new Vector();
+	private final float[] cameraTransform = new float[16];
+	// Root transforms of the node being rendered, reused every frame
+	private final float[] renderCamera = new float[16];
+	private final float[] renderRoot = new float[16];
+	private final float[] nodeTransform = new float[16];
+	private final Vector<Light> lights = new Vector<>();
+	private final Vector<float[]> lightTransforms = new Vector<>();
 
 	private java.lang.Object currentTarget = null;
 	private int offsetX, offsetY, hints = 0;
 	private boolean depthEnabled = true;
-	private Destroyer destroyer;
-	private Interface iInterface;
-
-	// this flag is for identification of image target types
-	// - True for mutable off-screen images
-	// - False for canvas/GameCanvas framebuffer
-	private boolean iIsImageTarget;
-
-	// this flag is for identification if MBX HW accelerator is present
-	// - True - MBX is NOT present
-	// - False - MBX is present
-	private boolean iIsProperRenderer;
-
-	private boolean iNativeInitialized = false;
-
-	// Shutdown listener
-	private class Destroyer {
-		Graphics3D target;
-
-		Destroyer(Graphics3D g3d) {
-			target = g3d;
-		}
+	private int viewportX, viewportY, viewportWidth, viewportHeight;
+	private float depthNear = 0.0f;
+	private float depthFar = 1.0f;
 
-		// This method gets called when application is shuttingdown
-		public void shuttingDown() {
+	// Part of the target that may be drawn to, in untranslated target coordinates
+	private int clipX, clipY, clipWidth, clipHeight;
 
-			// Finalize native peer
-			Platform.finalizeObject(target.handle, target.iInterface);
-
-			// signal shutdown (set shutdown flag)
-			// and remove references
-			target.iInterface.signalShutdown();
-			target.iInterface = null;
-			target.camera = null;
-			//target.s_instance = null;
-
-			// All done, Call gc() and finalization to collect
-			// remaining objects, thus zeroying liveObjects count
-			// in interface instance
-
-		}
-	}
+	// GL side, unused without a GL context or with an empty clip.
+	// Image2D targets and Graphics not drawn through GL are rendered
+	// to an offscreen framebuffer that is read back at release.
+	private boolean drawing;
+	private Renderer renderer;
+	private final GLTarget glTarget = new GLTarget();
+	private final Rectangle mapped = new Rectangle();
 
 	//------------------------------------------------------------------
 	// Constructor(s)
@@ -109,15 +87,15 @@ public class Graphics3D {
 	}
 
 	public static void initGraphics3D() {
+		final Graphics3D previous = s_instance;
 		s_instance = null;
+		if (previous != null && previous.renderer != null && Gdx.app != null) {
+			Gdx.app.postRunnable(previous::dispose);
+		}
 	}
 
 	private Graphics3D() {
-		iInterface = Interface.getInstance();
-		initNativePeer();
-
-		// setup listener for singleton teardown
-		destroyer = new Destroyer(this);
+		Transform.setIdentity(cameraTransform);
 	}
 
 	//------------------------------------------------------------------
@@ -134,7 +112,6 @@ public class Graphics3D {
 	 *
 	 */
 	public void bindTarget(java.lang.Object target, boolean depth, int flags) {
-		integrityCheck();
 		if (currentTarget != null) {
 			throw new IllegalStateException();
 		}
@@ -142,148 +119,115 @@ public class Graphics3D {
 			throw new NullPointerException();
 		}
 
-		final int finalFlags = flags;
-		final boolean finalDepth = depth;
-
 		if (target instanceof Graphics) {
-			final Graphics finalG = (Graphics) target;
-			android.graphics.Canvas canvas = finalG.getCanvas();
-			Rect bounds = canvas.getClipBounds();
-			if (bounds.width() > Defs.MAX_VIEWPORT_WIDTH ||
-					bounds.height() > Defs.MAX_VIEWPORT_HEIGHT) {
+			Graphics g = (Graphics) target;
+			offsetX = g.getTranslateX();
+			offsetY = g.getTranslateY();
+			clipX = g.getClipX() + offsetX;
+			clipY = g.getClipY() + offsetY;
+			clipWidth = g.getClipWidth();
+			clipHeight = g.getClipHeight();
+			if (clipWidth > Defs.MAX_VIEWPORT_WIDTH ||
+					clipHeight > Defs.MAX_VIEWPORT_HEIGHT) {
 				throw new IllegalArgumentException();
 			}
-
-			final int width = canvas.getWidth();
-			final int height = canvas.getHeight();
-			buffer = finalG.getBitmap();
-
-			// TODO: draw on background? Probably should fix alpha
-			/*
-			android.graphics.Bitmap bitmap;
-			try {
-				java.lang.reflect.Field mBitmap = canvas.getClass().getDeclaredField("mBitmap");
-				mBitmap.setAccessible(true);
-				bitmap = (Bitmap) mBitmap.get(canvas);
-				bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
-				for (int i = 0; i < pixels.length; i++)
-					pixels[i] |= 0xFF000000;
-			} catch (Exception e) {
-				e.printStackTrace();
-			}*/
-
-			Platform.executeInUIThread(
-					new M3gRunnable() {
-						@Override
-						public void doRun() {
-							iIsImageTarget = _bindGraphics(
-									handle,
-									0, width, height,
-									bounds.left, bounds.top,
-									bounds.width(), bounds.height(),
-									finalDepth, finalFlags,
-									iIsProperRenderer,
-									buffer);
-						}
-					});
-			currentTarget = finalG;
-			cur_width = width;
-			cur_height = height;
+			// Whatever was drawn in 2D so far goes below the 3D rendering
+			g.flush();
+			glTarget.set(g, clipX, clipY, clipWidth, clipHeight);
 		} else if (target instanceof Image2D) {
 			Image2D img = (Image2D) target;
-
+			if (!img.isMutable()
+					|| (img.getFormat() != Image2D.RGB && img.getFormat() != Image2D.RGBA)
+					|| img.getWidth() > Defs.MAX_VIEWPORT_WIDTH
+					|| img.getHeight() > Defs.MAX_VIEWPORT_HEIGHT) {
+				throw new IllegalArgumentException();
+			}
 			offsetX = offsetY = 0;
-			final long imageHandle = img.handle;
-
-			Platform.executeInUIThread(
-					new M3gRunnable() {
-						@Override
-						public void doRun() {
-							_bindImage(handle, imageHandle, finalDepth, finalFlags);
-						}
-					});
-			currentTarget = img;
+			clipX = clipY = 0;
+			clipWidth = img.getWidth();
+			clipHeight = img.getHeight();
+			glTarget.set(null, clipX, clipY, clipWidth, clipHeight);
 		} else {
 			throw new IllegalArgumentException();
 		}
 
+		currentTarget = target;
 		hints = flags;
 		depthEnabled = depth;
+		viewportX = clipX;
+		viewportY = clipY;
+		viewportWidth = Math.max(clipWidth, 1);
+		viewportHeight = Math.max(clipHeight, 1);
+		drawing = clipWidth > 0 && clipHeight > 0 && !Graphics.isHeadless() && Gdx.gl != null;
+		if (drawing) {
+			beginTarget();
+		}
 	}
 
 	/**
 	 *
 	 */
 	public void releaseTarget() {
-		integrityCheck();
 		if (currentTarget == null) {
 			return;
 		}
-
-		if (currentTarget instanceof Graphics) {
-			Platform.executeInUIThread(
-					new M3gRunnable() {
-						@Override
-						public void doRun() {
-							_releaseGraphics(handle,
-									0, iIsImageTarget, iIsProperRenderer, buffer);
-						}
-					});
-		} else if (currentTarget instanceof Image2D) {
-			Platform.executeInUIThread(
-					new M3gRunnable() {
-						@Override
-						public void doRun() {
-							_releaseImage(handle);
-						}
-					});
-		} else {
-			throw new Error();
+		if (drawing) {
+			endTarget();
 		}
 		currentTarget = null;
+		drawing = false;
 	}
 
 	/**
 	 *
 	 */
 	public void setViewport(int x, int y, int width, int height) {
-		integrityCheck();
 		if (width <= 0 || height <= 0
 				|| width > Defs.MAX_VIEWPORT_DIMENSION
 				|| height > Defs.MAX_VIEWPORT_DIMENSION) {
 			throw new IllegalArgumentException();
 		}
-		_setViewport(handle, x + offsetX, y + offsetY, width, height);
+		viewportX = x + offsetX;
+		viewportY = y + offsetY;
+		viewportWidth = width;
+		viewportHeight = height;
 	}
 
 	/**
 	 *
 	 */
 	public void clear(Background background) {
-		integrityCheck();
-		final Background finalBackground = background;
-		Platform.executeInUIThread(
-				new M3gRunnable() {
-					@Override
-					public void doRun() {
-						_clear(handle, finalBackground != null ? finalBackground.handle : 0);
-					}
-				});
+		checkTarget();
+		if (drawing) {
+			applyViewport();
+			renderer.clear(background);
+		}
 	}
 
 	/**
 	 *
 	 */
 	public void render(World world) {
-		integrityCheck();
-		final World finalWorld = world;
-		Platform.executeInUIThread(
-				new M3gRunnable() {
-					@Override
-					public void doRun() {
-						_renderWorld(handle, finalWorld.handle);
-					}
-				});
+		if (world == null) {
+			throw new NullPointerException();
+		}
+		checkTarget();
+		Camera activeCamera = world.getActiveCamera();
+		float[] cameraToWorld = renderCamera;
+		if (activeCamera == null || !activeCamera.getTransformToAncestor(world, cameraToWorld, nodeTransform)) {
+			throw new IllegalStateException();
+		}
+		if (!drawing) {
+			return;
+		}
+		float[] identity = renderRoot;
+		Transform.setIdentity(identity);
+		applyViewport();
+		renderer.setCamera(activeCamera, cameraToWorld);
+		renderer.addLights(world, identity);
+		renderer.clear(world.getBackground());
+		renderer.queue(world, identity, 1.0f);
+		renderer.flush();
 	}
 
 	/**
@@ -294,7 +238,6 @@ public class Graphics3D {
 					   Appearance appearance,
 					   Transform transform) {
 		// Call rendering method with default visibility
-		integrityCheck();
 		render(vertices, primitives, appearance, transform, -1);
 	}
 
@@ -306,28 +249,22 @@ public class Graphics3D {
 					   Appearance appearance,
 					   Transform transform,
 					   int scope) {
-
-		// null pointer exceptions thrown automatically below
-		integrityCheck();
-
-		final VertexBuffer finalVertices = vertices;
-		final IndexBuffer finalPrimitives = primitives;
-		final Appearance finalAppearance = appearance;
-		final Transform finalTransform = transform;
-		final int finalScope = scope;
-
-		Platform.executeInUIThread(
-				new M3gRunnable() {
-					@Override
-					public void doRun() {
-						_render(handle,
-								finalVertices.handle,
-								finalPrimitives.handle,
-								finalAppearance.handle,
-								finalTransform != null ? finalTransform.matrix : null,
-								finalScope);
-					}
-				});
+		if (vertices == null || primitives == null || appearance == null) {
+			throw new NullPointerException();
+		}
+		checkCamera();
+		if (vertices.getPositions(null) == null) {
+			throw new IllegalStateException();
+		}
+		if (primitives.getMaxIndex() >= vertices.getVertexCount()) {
+			throw new IllegalArgumentException();
+		}
+		if (!drawing) {
+			return;
+		}
+		beginImmediate();
+		renderer.queue(vertices, primitives, appearance, transform != null ? transform.matrix : null, scope);
+		renderer.flush();
 	}
 
 	/**
@@ -340,64 +277,63 @@ public class Graphics3D {
 				&& node != null) {
 			throw new IllegalArgumentException();
 		}
-		integrityCheck();
-
-		final Node finalNode = node;
-		final Transform finalTransform = transform;
-
-		Platform.executeInUIThread(
-				new M3gRunnable() {
-					@Override
-					public void doRun() {
-						_renderNode(handle,
-								finalNode.handle,
-								finalTransform != null ? finalTransform.matrix : null);
-					}
-				});
+		if (node == null) {
+			throw new NullPointerException();
+		}
+		checkCamera();
+		if (!drawing) {
+			return;
+		}
+		float[] nodeToWorld = renderRoot;
+		if (transform != null) {
+			System.arraycopy(transform.matrix, 0, nodeToWorld, 0, 16);
+		} else {
+			Transform.setIdentity(nodeToWorld);
+		}
+		beginImmediate();
+		renderer.queue(node, nodeToWorld, 1.0f);
+		renderer.flush();
 	}
 
-
 	public void setCamera(Camera camera, Transform transform) {
-		integrityCheck();
-		_setCamera(handle,
-				camera != null ? camera.handle : 0,
-				transform != null ? transform.matrix : null);
-
+		if (transform != null) {
+			if (!Transform.invert(new float[16], transform.matrix)) {
+				throw new ArithmeticException();
+			}
+			System.arraycopy(transform.matrix, 0, cameraTransform, 0, 16);
+		} else {
+			Transform.setIdentity(cameraTransform);
+		}
 		this.camera = camera;
 	}
 
 	/**
 	 */
 	public int addLight(Light light, Transform transform) {
-		integrityCheck();
-		int index = _addLight(handle,
-				light.handle,
-				transform != null ? transform.matrix : null);
-		if (lights.size() < index + 1) {
-			lights.setSize(index + 1);
+		if (light == null) {
+			throw new NullPointerException();
 		}
-		lights.setElementAt(light, index);
-		return index;
+		lights.addElement(light);
+		lightTransforms.addElement(copyTransform(transform));
+		return lights.size() - 1;
 	}
 
 	/**
 	 *
 	 */
 	public void setLight(int index, Light light, Transform transform) {
-		integrityCheck();
-		_setLight(handle,
-				index,
-				light != null ? light.handle : 0,
-				transform != null ? transform.matrix : null);
+		if (index < 0 || index >= lights.size()) {
+			throw new IndexOutOfBoundsException();
+		}
 		lights.setElementAt(light, index);
+		lightTransforms.setElementAt(copyTransform(transform), index);
 	}
 
 	/**
 	 */
 	public void resetLights() {
-		integrityCheck();
-		_resetLights(handle);
 		lights.removeAllElements();
+		lightTransforms.removeAllElements();
 	}
 
 	/**
@@ -406,8 +342,7 @@ public class Graphics3D {
 	public static final Hashtable getProperties() {
 		Hashtable props = new Hashtable();
 
-		props.put("supportAntialiasing", new java.lang.Boolean(
-				_isAASupported(Interface.getHandle())));
+		props.put("supportAntialiasing", new java.lang.Boolean(Defs.supportAntialiasing));
 		props.put("supportTrueColor", new java.lang.Boolean(Defs.supportTrueColor));
 		props.put("supportDithering", new java.lang.Boolean(Defs.supportDithering));
 		props.put("supportMipmapping", new java.lang.Boolean(Defs.supportMipmapping));
@@ -432,45 +367,42 @@ public class Graphics3D {
 	 *
 	 */
 	public void setDepthRange(float near, float far) {
-		integrityCheck();
-		_setDepthRange(handle, near, far);
+		if (near < 0 || near > 1 || far < 0 || far > 1) {
+			throw new IllegalArgumentException();
+		}
+		depthNear = near;
+		depthFar = far;
 	}
 
 	// M3G 1.1
 
 	public Camera getCamera(Transform transform) {
-		integrityCheck();
 		if (transform != null) {
-			_getViewTransform(handle, transform.matrix);
+			transform.set(cameraTransform);
 		}
-
-		return (Camera) Object3D.getInstance(_getCamera(handle));
+		return camera;
 	}
 
 	public float getDepthRangeFar() {
-		integrityCheck();
-		return _getDepthRangeFar(handle);
+		return depthFar;
 	}
 
 	public float getDepthRangeNear() {
-		integrityCheck();
-		return _getDepthRangeNear(handle);
+		return depthNear;
 	}
 
 	public Light getLight(int index, Transform transform) {
-		integrityCheck();
-		if (index < 0 || index >= _getLightCount(handle)) {
+		if (index < 0 || index >= lights.size()) {
 			throw new IndexOutOfBoundsException();
 		}
-
-		return (Light) Object3D.getInstance(_getLightTransform(handle,
-				index,
-				transform != null ? transform.matrix : null));
+		if (transform != null) {
+			transform.set(lightTransforms.elementAt(index));
+		}
+		return lights.elementAt(index);
 	}
 
 	public int getLightCount() {
-		integrityCheck();
-		return _getLightCount(handle);
+		return lights.size();
 	}
 
 	public java.lang.Object getTarget() {
@@ -478,23 +410,19 @@ public class Graphics3D {
 	}
 
 	public int getViewportHeight() {
-		integrityCheck();
-		return _getViewportHeight(handle);
+		return viewportHeight;
 	}
 
 	public int getViewportWidth() {
-		integrityCheck();
-		return _getViewportWidth(handle);
+		return viewportWidth;
 	}
 
 	public int getViewportX() {
-		integrityCheck();
-		return _getViewportX(handle) - offsetX;
+		return viewportX - offsetX;
 	}
 
 	public int getViewportY() {
-		integrityCheck();
-		return _getViewportY(handle) - offsetY;
+		return viewportY - offsetY;
 	}
 
 	public int getHints() {
@@ -511,139 +439,87 @@ public class Graphics3D {
 	// Private methods
 	//------------------------------------------------------------------
 
-	private void integrityCheck() {
-		if (iInterface == null) {
-			throw new RuntimeException("Graphics3D closed");
+	private void checkTarget() {
+		if (currentTarget == null) {
+			throw new IllegalStateException();
 		}
-		if (!iNativeInitialized) {
-			// If native interface cannot be initialized we cannot recover from it
-			if (!initNativePeer()) {
-				throw new Error("UI thread not available");
-			}
+	}
+
+	private void checkCamera() {
+		checkTarget();
+		if (camera == null) {
+			throw new IllegalStateException();
 		}
 	}
 
-	/**
-	 * Initializes native peer
-	 *
-	 * @return true if native interface was succesfully inialized otherwise false
-	 */
-	private boolean initNativePeer() {
-		if (iNativeInitialized) {
-			return true;
-		}
-		if (iInterface.isFullyInitialized() && Platform.uiThreadAvailable()) {
-			handle = _ctor(Interface.getHandle());
-			_addRef(handle);
-
-			Platform.executeInUIThread(
-					new M3gRunnable() {
-						@Override
-						public void doRun() {
-							iIsProperRenderer = _isProperRenderer();
-						}
-					});
-			iNativeInitialized = true;
-			return true;
+	private static float[] copyTransform(Transform transform) {
+		float[] m = new float[16];
+		if (transform != null) {
+			System.arraycopy(transform.matrix, 0, m, 0, 16);
 		} else {
-			return false;
+			Transform.setIdentity(m);
 		}
+		return m;
 	}
 
-	//------------------------------------------------------------------
-	// Native implementation methods
-	//------------------------------------------------------------------
-	private native static long _ctor(long hInterface);
-
-	private native static void _addRef(long hObject);
-
-	private native static int _addLight(long handle,
-										long hLight,
-										byte[] transform);
-
-	private native static boolean _bindGraphics(long handle,
-												long surfaceHandle,
-												int width, int height,
-												int clipX, int clipY,
-												int clipW, int clipH,
-												boolean depth,
-												int hintBits,
-												boolean aIsProperRenderer,
-												Bitmap pixels);
-
-	private native static void _bindImage(long handle, long imgHandle, boolean depth, int hintBits);
-
-	private native static void _releaseGraphics(long handle,
-												long surfaceHandle,
-												boolean aIsImageTarget,
-												boolean aIsProperRenderer,
-												Bitmap pixels);
-
-	private native static void _releaseImage(long handle);
-
-	private native static void _resetLights(long handle);
-
-	private native static void _clear(long handle, long hBackground);
-
-	private native static void _render(long handle,
-									   long hVtxBuffer,
-									   long hIdxBuffer,
-									   long hAppearance,
-									   byte[] transform,
-									   int scope);
-
-	private native static void _renderNode(long handle, long hNode, byte[] transform);
-
-	private native static void _renderWorld(long handle, long hWorld);
-
-	private native static void _setCamera(long handle,
-										  long hCamera,
-										  byte[] transform);
-
-	private native static void _setViewport(long handle,
-											int x, int y,
-											int width, int height);
-
-	private native static void _setLight(long handle,
-										 int index,
-										 long hLight,
-										 byte[] transform);
-
-	private native static void _setDepthRange(long handle,
-											  float near,
-											  float far);
-
-	// M3G 1.1
-	// Maintenance release getters
-
-	private native static void _getViewTransform(long handle,
-												 byte[] transform);
-
-	private native static long _getCamera(long handle);
-
-	private native static long _getLightTransform(long handle,
-												 int index,
-												 byte[] transform);
-
-	private native static int _getLightCount(long handle);
-
-	private native static float _getDepthRangeNear(long handle);
-
-	private native static float _getDepthRangeFar(long handle);
-
-	private native static int _getViewportX(long handle);
-
-	private native static int _getViewportY(long handle);
+	private void beginTarget() {
+		GLResource.releaseCollected();
+		if (renderer == null) {
+			renderer = new Renderer();
+		}
+		glTarget.begin(depthEnabled);
+		if (currentTarget instanceof Image2D) {
+			// Render on top of the current content of the image
+			renderer.drawImage((Image2D) currentTarget);
+		}
+		Gdx.gl.glEnable(GL20.GL_SCISSOR_TEST);
+	}
 
-	private native static int _getViewportWidth(long handle);
+	private void endTarget() {
+		renderer.end();
+		Gdx.gl.glDisable(GL20.GL_SCISSOR_TEST);
+		ByteBuffer readback = glTarget.end();
+		if (currentTarget instanceof Image2D) {
+			((Image2D) currentTarget).setFromFramebuffer(readback);
+		}
+	}
 
-	private native static int _getViewportHeight(long handle);
+	private void beginImmediate() {
+		applyViewport();
+		renderer.setCamera(camera, cameraTransform);
+		for (int i = 0; i < lights.size(); i++) {
+			Light light = lights.elementAt(i);
+			if (light != null) {
+				renderer.addLight(light, lightTransforms.elementAt(i));
+			}
+		}
+	}
 
-	/* Statistics support, MUST be disabled in official releases! */
-    /*
-        public native static int getStatistics(int[] statistics);
-    */
-	private native static boolean _isAASupported(long handle);
+	/**
+	 * Point GL at the viewport and scissor it to the clip rectangle.
+	 */
+	private void applyViewport() {
+		GL20 gl = Gdx.gl;
+		glTarget.mapRect(viewportX, viewportY, viewportWidth, viewportHeight, mapped);
+		gl.glViewport(Math.round(mapped.x), Math.round(mapped.y),
+				Math.round(mapped.width), Math.round(mapped.height));
+		int left = Math.max(viewportX, clipX);
+		int top = Math.max(viewportY, clipY);
+		int right = Math.min(viewportX + viewportWidth, clipX + clipWidth);
+		int bottom = Math.min(viewportY + viewportHeight, clipY + clipHeight);
+		if (right > left && bottom > top) {
+			glTarget.mapRect(left, top, right - left, bottom - top, mapped);
+			gl.glScissor(Math.round(mapped.x), Math.round(mapped.y),
+					Math.round(mapped.width), Math.round(mapped.height));
+		} else {
+			gl.glScissor(0, 0, 0, 0);
+		}
+		gl.glDepthRangef(depthNear, depthFar);
+		renderer.setTarget(viewportWidth, viewportHeight, depthEnabled);
+	}
 
-	private native static boolean _isProperRenderer();
+	private void dispose() {
+		renderer.dispose();
+		glTarget.dispose();
+	}
 }
@@ -17,6 +17,7 @@
 
 package javax.microedition.m3g;
 
+import java.util.IdentityHashMap;
 import java.util.Vector;
 
 public class Group extends Node {
@@ -24,25 +25,13 @@ public class Group extends Node {
 	// Instance data
 	//------------------------------------------------------------------
 
-	// The child links are duplicated on the Java side for the same
-	// reason as the other node->node references; see Node.java
-
-	Vector children;
+	Vector<Node> children;
 
 	//------------------------------------------------------------------
 	// Constructors
 	//------------------------------------------------------------------
 
 	public Group() {
-		super(_ctor(Interface.getHandle()));
-	}
-
-	Group(long handle) {
-		super(handle);
-		int n = _getChildCount(handle);
-		while (n-- > 0) {
-			linkChild((Node) getInstance(_getChild(handle, n)));
-		}
 	}
 
 	//------------------------------------------------------------------
@@ -50,90 +39,192 @@ public class Group extends Node {
 	//------------------------------------------------------------------
 
 	public void addChild(Node child) {
-		_addChild(handle, child != null ? child.handle : 0);
-		if (child != null) {
-			linkChild(child);
+		if (child == null) {
+			throw new NullPointerException();
+		}
+		if (child.getParent() == this) {
+			return;
+		}
+		if (child == this || child instanceof World || child.getParent() != null) {
+			throw new IllegalArgumentException();
 		}
+		for (Node node = this; node != null; node = node.getParent()) {
+			if (node == child) {
+				throw new IllegalArgumentException();
+			}
+		}
+		linkChild(child);
 	}
 
 	public void removeChild(Node child) {
 		if (child != null) {
-			_removeChild(handle, child.handle);
 			detachChild(child);
 		}
 	}
 
 	public int getChildCount() {
-		return _getChildCount(handle);
+		return children == null ? 0 : children.size();
 	}
 
 	public Node getChild(int index) {
-
-		/* Instead of trying to match the indexing of children on the
-		 * native side, we just call the native getter. This may have
-		 * some performance penalty, but likely not enough to make it
-		 * worth the extra maintenance burden of duplicating the
-		 * native ordering here. */
-
-		return (Node) getInstance(_getChild(handle, index));
+		if (children == null || index < 0 || index >= children.size()) {
+			throw new IndexOutOfBoundsException();
+		}
+		return children.elementAt(index);
 	}
 
 	public boolean pick(int mask,
 						float ox, float oy, float oz,
 						float dx, float dy, float dz,
 						RayIntersection ri) {
-		float[] result = RayIntersection.createResult();
-		float[] ray = {ox, oy, oz, dx, dy, dz};
-		long hIntersected;
+		if (dx == 0 && dy == 0 && dz == 0) {
+			throw new IllegalArgumentException();
+		}
+		return pick(mask, new float[]{ox, oy, oz, dx, dy, dz}, ri);
+	}
 
-		hIntersected = _pick3D(handle, mask, ray, result);
+	public boolean pick(int mask, float x, float y, Camera camera, RayIntersection ri) {
+		if (camera == null) {
+			throw new NullPointerException();
+		}
+		Transform toGroup = new Transform();
+		if (!camera.getTransformTo(this, toGroup)) {
+			throw new IllegalStateException();
+		}
+		float[] unproject = new float[16];
+		if (!Transform.invert(unproject, camera.getProjectionMatrix())) {
+			throw new ArithmeticException();
+		}
+		Transform.mul(unproject, toGroup.matrix, unproject);
+		float[] near = {2 * x - 1, 1 - 2 * y, -1, 1};
+		float[] far = {2 * x - 1, 1 - 2 * y, 1, 1};
+		Transform.transform(unproject, near, 0, near, 0);
+		Transform.transform(unproject, far, 0, far, 0);
+		float[] ray = new float[6];
+		for (int i = 0; i < 3; i++) {
+			ray[i] = near[i] / near[3];
+			ray[3 + i] = far[i] / far[3] - ray[i];
+		}
+		return pick(mask, ray, ri);
+	}
+
+	//------------------------------------------------------------------
+	// Package private methods
+	//------------------------------------------------------------------
 
-		if (hIntersected != 0) {
-			if (ri != null) {
-				ri.fill(hIntersected, result);
+	@Override
+	void alignSubtree(Node reference) {
+		super.alignSubtree(reference);
+		if (children != null) {
+			for (Node child : children) {
+				child.alignSubtree(reference);
 			}
-			return true;
-		} else {
-			return false;
 		}
 	}
 
-	public boolean pick(int mask, float x, float y, Camera camera, RayIntersection ri) {
-		float[] result = RayIntersection.createResult();
-		long hIntersected;
-
-		hIntersected = _pick2D(handle, mask, x, y, camera != null ? camera.handle : 0, result);
+	@Override
+	int getReferences(Object3D[] references, int n) {
+		n = super.getReferences(references, n);
+		if (children != null) {
+			for (Node child : children) {
+				n = addReference(references, n, child);
+			}
+		}
+		return n;
+	}
 
-		if (hIntersected != 0) {
-			if (ri != null) {
-				ri.fill(hIntersected, result);
+	@Override
+	Object3D duplicate(IdentityHashMap<Object3D, Object3D> duplicates) {
+		Group copy = (Group) super.duplicate(duplicates);
+		copy.children = null;
+		if (children != null) {
+			for (Node child : children) {
+				copy.linkChild((Node) child.duplicate(duplicates));
 			}
-			return true;
-		} else {
-			return false;
 		}
+		return copy;
 	}
 
 	//------------------------------------------------------------------
 	// Private methods
 	//------------------------------------------------------------------
 
+	private boolean pick(int mask, float[] ray, RayIntersection ri) {
+		float[] result = RayIntersection.createResult();
+		result[0] = Float.MAX_VALUE;
+		float[] toGroup = new float[16];
+		Transform.setIdentity(toGroup);
+		Node intersected = pick(this, toGroup, mask, ray, result);
+		if (intersected == null) {
+			return false;
+		}
+		if (ri != null) {
+			System.arraycopy(ray, 0, result, result.length - 6, 6);
+			ri.fill(intersected, result);
+		}
+		return true;
+	}
+
 	/**
-	 * Adds a Java-side child link in this Group.
+	 * Pick the descendants of a node.
+	 *
+	 * @param toGroup transformation from the node to this group
+	 * @return the closest node hit, or null if none is closer than result[0]
 	 */
-	private void linkChild(Node child) {
-		if (child == null) {
-			throw new Error(); // DEBUG
+	private static Node pick(Node node, float[] toGroup, int mask, float[] ray, float[] result) {
+		Node closest = null;
+		Vector<Node> children = null;
+		if (node instanceof Group) {
+			children = ((Group) node).children;
+		} else if (node instanceof SkinnedMesh) {
+			children = new Vector<>();
+			children.add(((SkinnedMesh) node).getSkeleton());
 		}
 		if (children == null) {
-			children = new Vector();
+			return null;
+		}
+		for (Node child : children) {
+			if (!child.isPickingEnabled()) {
+				continue;
+			}
+			float[] m = new float[16];
+			child.getCompositeTransform(m);
+			Transform.mul(m, toGroup, m);
+			if (child instanceof Mesh && (child.getScope() & mask) != 0) {
+				float[] toChild = new float[16];
+				if (Transform.invert(toChild, m)) {
+					float[] origin = {ray[0], ray[1], ray[2], 1};
+					float[] direction = {ray[3], ray[4], ray[5], 0};
+					Transform.transform(toChild, origin, 0, origin, 0);
+					Transform.transform(toChild, direction, 0, direction, 0);
+					float[] localRay = {origin[0] / origin[3], origin[1] / origin[3], origin[2] / origin[3],
+							direction[0], direction[1], direction[2]};
+					if (((Mesh) child).intersect(localRay, result)) {
+						closest = child;
+					}
+				}
+			}
+			Node hit = pick(child, m, mask, ray, result);
+			if (hit != null) {
+				closest = hit;
+			}
+		}
+		return closest;
+	}
+
+	/**
+	 * Adds a child link in this Group.
+	 */
+	private void linkChild(Node child) {
+		if (children == null) {
+			children = new Vector<>();
 		}
 		children.addElement(child);
 		child.setParent(this);
 	}
 
 	/**
-	 * Removes a Java-side child link from this Group.
+	 * Removes a child link from this Group.
 	 */
 	private void detachChild(Node child) {
 		if (children != null) {
@@ -151,19 +242,4 @@ public class Group extends Node {
 			}
 		}
 	}
-
-	// Native methods
-	private static native long _ctor(long hInterface);
-
-	private static native void _addChild(long handle, long hNode);
-
-	private static native void _removeChild(long handle, long hNode);
-
-	private static native int _getChildCount(long handle);
-
-	private static native long _getChild(long handle, int index);
-
-	private static native long _pick3D(long handle, int mask, float[] ray, float[] result);
-
-	private static native long _pick2D(long handle, int mask, float x, float y, long hCamera, float[] result);
 }
@@ -17,6 +17,12 @@
 
 package javax.microedition.m3g;
 
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+
 public class Image2D extends Object3D {
 	//------------------------------------------------------------------
 	// Static data
@@ -28,37 +34,116 @@ public class Image2D extends Object3D {
 	public static final int RGB = 99;
 	public static final int RGBA = 100;
 
-	static long tempHandle;
+	//------------------------------------------------------------------
+	// Instance data
+	//------------------------------------------------------------------
+
+	private final int format;
+	private final int width;
+	private final int height;
+	private boolean mutable;
+	private byte[] pixels;
+	private int version;
+
+	// GL texture, built on first use and rebuilt after set()
+	private GLResource<Texture> texture;
+	private int textureVersion;
 
 	//------------------------------------------------------------------
 	// Constructor(s)
 	//------------------------------------------------------------------
 
 	public Image2D(int format, Object image) {
-		// If image is instance of lcdui.Image then checkAndCreate
-		// builds the image and returns the handle to native image,
-		// otherwise throws exception Done this way because class of
-		// image cannot be checked befor calling super()
-		super(Image2D.checkAndCreate(format, image));
+		if (image == null) {
+			throw new NullPointerException();
+		}
+		if (!(image instanceof javax.microedition.lcdui.Image)) {
+			throw new IllegalArgumentException();
+		}
+		javax.microedition.lcdui.Image cgfxImage = (javax.microedition.lcdui.Image) image;
+		int bpp = getBytesPerPixel(format);
+		this.format = format;
+		width = cgfxImage.getWidth();
+		height = cgfxImage.getHeight();
+		mutable = false;
+
+		int[] argbArr = new int[width * height];
+		cgfxImage.getRGB(argbArr, 0, width, 0, 0, width, height);
+		pixels = new byte[width * height * bpp];
+		int index = 0;
+		for (int packedPixel : argbArr) {
+			int a = packedPixel >>> 24;
+			int r = (packedPixel >> 16) & 0xFF;
+			int g = (packedPixel >> 8) & 0xFF;
+			int b = packedPixel & 0xFF;
+			switch (format) {
+				case ALPHA:
+					pixels[index++] = (byte) a;
+					break;
+				case LUMINANCE:
+					pixels[index++] = (byte) luminance(r, g, b);
+					break;
+				case LUMINANCE_ALPHA:
+					pixels[index++] = (byte) luminance(r, g, b);
+					pixels[index++] = (byte) a;
+					break;
+				case RGB:
+				case RGBA:
+					pixels[index++] = (byte) r;
+					pixels[index++] = (byte) g;
+					pixels[index++] = (byte) b;
+					if (format == RGBA) {
+						pixels[index++] = (byte) a;
+					}
+					break;
+			}
+		}
 	}
 
 	public Image2D(int format, int width, int height, byte[] image) {
-		super(createHandle(format, width, height, image));
+		this(format, width, height);
+		if (image == null) {
+			throw new NullPointerException();
+		}
+		if (image.length < pixels.length) {
+			throw new IllegalArgumentException();
+		}
+		System.arraycopy(image, 0, pixels, 0, pixels.length);
+		mutable = false;
 	}
 
 	public Image2D(int format,
 				   int width, int height,
 				   byte[] image,
 				   byte[] palette) {
-		super(createHandle(format, width, height, image, palette));
+		this(format, width, height);
+		if (image == null || palette == null) {
+			throw new NullPointerException();
+		}
+		int bpp = getBytesPerPixel(format);
+		int count = width * height;
+		if (image.length < count || palette.length < bpp || palette.length % bpp != 0) {
+			throw new IllegalArgumentException();
+		}
+		int entries = Math.min(palette.length / bpp, 256);
+		for (int i = 0; i < count; i++) {
+			int entry = image[i] & 0xFF;
+			if (entry < entries) {
+				System.arraycopy(palette, entry * bpp, pixels, i * bpp, bpp);
+			}
+		}
+		mutable = false;
 	}
 
 	public Image2D(int format, int width, int height) {
-		super(createHandle(format, width, height));
-	}
-
-	Image2D(long handle) {
-		super(handle);
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException();
+		}
+		this.format = format;
+		this.width = width;
+		this.height = height;
+		pixels = new byte[width * height * getBytesPerPixel(format)];
+		mutable = true;
 	}
 
 	//------------------------------------------------------------------
@@ -69,33 +154,159 @@ public class Image2D extends Object3D {
 		if (image == null) {
 			throw new NullPointerException();
 		}
-		_set(handle, x, y, width, height, image);
+		if (!isMutable()) {
+			throw new IllegalStateException();
+		}
+		int bpp = getBytesPerPixel(format);
+		if (x < 0 || y < 0 || width <= 0 || height <= 0
+				|| x + width > this.width || y + height > this.height
+				|| image.length < width * height * bpp) {
+			throw new IllegalArgumentException();
+		}
+		for (int row = 0; row < height; row++) {
+			System.arraycopy(image, row * width * bpp,
+					pixels, ((y + row) * this.width + x) * bpp, width * bpp);
+		}
+		version++;
 	}
 
 	public boolean isMutable() {
-		return _isMutable(handle);
+		return mutable;
 	}
 
 	public int getFormat() {
-		return _getFormat(handle);
+		return format;
 	}
 
 	public int getWidth() {
-		return _getWidth(handle);
+		return width;
 	}
 
 	public int getHeight() {
-		return _getHeight(handle);
+		return height;
 	}
 
 	//------------------------------------------------------------------
-	// Private methods
+	// Package private methods
 	//------------------------------------------------------------------
 
-	private static int getBytesPerPixel(int format) {
+	@Override
+	Object3D duplicate(IdentityHashMap<Object3D, Object3D> duplicates) {
+		Image2D copy = (Image2D) super.duplicate(duplicates);
+		copy.pixels = pixels.clone();
+		copy.texture = null;
+		return copy;
+	}
+
+	/**
+	 * Get the texture holding the image, uploading it if needed.
+	 * Must be called on the GL thread.
+	 */
+	Texture getTexture() {
+		if (texture != null && textureVersion != version) {
+			texture.releaseOwner();
+			texture = null;
+		}
+		if (texture == null) {
+			Pixmap pixmap = toPixmap();
+			texture = new GLResource<>(this, new Texture(pixmap, isPowerOfTwo()));
+			pixmap.dispose();
+			textureVersion = version;
+		}
+		return texture.get();
+	}
+
+	/**
+	 * The texture resource returned by the last call to {@link #getTexture()}.
+	 */
+	GLResource<Texture> getTextureResource() {
+		return texture;
+	}
+
+	boolean isPowerOfTwo() {
+		return (width & (width - 1)) == 0 && (height & (height - 1)) == 0;
+	}
+
+	/**
+	 * Overwrite the image from bottom-up RGBA rows, as read back from GL.
+	 */
+	void setFromFramebuffer(ByteBuffer rgba) {
+		int bpp = getBytesPerPixel(format);
+		for (int row = 0; row < height; row++) {
+			int src = (height - 1 - row) * width * 4;
+			int dst = row * width * bpp;
+			for (int col = 0; col < width; col++, src += 4, dst += bpp) {
+				int r = rgba.get(src) & 0xFF;
+				int g = rgba.get(src + 1) & 0xFF;
+				int b = rgba.get(src + 2) & 0xFF;
+				byte a = rgba.get(src + 3);
+				switch (format) {
+					case ALPHA:
+						pixels[dst] = a;
+						break;
+					case LUMINANCE:
+						pixels[dst] = (byte) luminance(r, g, b);
+						break;
+					case LUMINANCE_ALPHA:
+						pixels[dst] = (byte) luminance(r, g, b);
+						pixels[dst + 1] = a;
+						break;
+					default:
+						pixels[dst] = (byte) r;
+						pixels[dst + 1] = (byte) g;
+						pixels[dst + 2] = (byte) b;
+						if (format == RGBA) {
+							pixels[dst + 3] = a;
+						}
+						break;
+				}
+			}
+		}
+		version++;
+	}
+
+	/**
+	 * Copy the image into top-down RGBA rows, as used for uploads.
+	 */
+	void getRGBA(ByteBuffer rgba) {
+		int bpp = getBytesPerPixel(format);
+		int count = width * height;
+		for (int i = 0, src = 0; i < count; i++, src += bpp) {
+			byte r, g, b, a;
+			switch (format) {
+				case ALPHA:
+					r = g = b = (byte) 0xFF;
+					a = pixels[src];
+					break;
+				case LUMINANCE:
+					r = g = b = pixels[src];
+					a = (byte) 0xFF;
+					break;
+				case LUMINANCE_ALPHA:
+					r = g = b = pixels[src];
+					a = pixels[src + 1];
+					break;
+				case RGB:
+					r = pixels[src];
+					g = pixels[src + 1];
+					b = pixels[src + 2];
+					a = (byte) 0xFF;
+					break;
+				default:
+					r = pixels[src];
+					g = pixels[src + 1];
+					b = pixels[src + 2];
+					a = pixels[src + 3];
+					break;
+			}
+			rgba.put(r).put(g).put(b).put(a);
+		}
+		rgba.flip();
+	}
+
+	static int getBytesPerPixel(int format) {
 		switch (format) {
 			case ALPHA:
-				return 1;
 			case LUMINANCE:
 				return 1;
 			case LUMINANCE_ALPHA:
@@ -105,132 +316,23 @@ public class Image2D extends Object3D {
 			case RGBA:
 				return 4;
 			default:
-				throw new RuntimeException("Invalid format on image");
-		}
-	}
-
-	private static long checkAndCreate(int format, Object image) {
-		if (image == null) {
-			throw new NullPointerException();
-		}
-		if (!(image instanceof javax.microedition.lcdui.Image)) {
-			throw new IllegalArgumentException();
-		}
-
-		final int finalFormat = format;
-		tempHandle = 0;
-
-		// TODO
-		if (image instanceof javax.microedition.lcdui.Image) {
-			final javax.microedition.lcdui.Image cgfxImage = (javax.microedition.lcdui.Image) image;
-
-			int bpp = getBytesPerPixel(finalFormat);
-			int[] argbArr = new int[cgfxImage.getWidth() * cgfxImage.getHeight()];
-			final byte[] byteArr = new byte[cgfxImage.getWidth() * cgfxImage.getHeight() * bpp];
-			int index = 0;
-
-			cgfxImage.getRGB(argbArr, 0, cgfxImage.getWidth(), 0, 0, cgfxImage.getWidth(), cgfxImage.getHeight());
-
-			for (int row = 0; row < cgfxImage.getHeight(); ++row) {
-				for (int col = 0; col < cgfxImage.getWidth(); ++col) {
-					int packedPixel = argbArr[row * cgfxImage.getWidth() + col];
-					if (bpp == 1)
-						byteArr[index++] = ((byte) ((packedPixel >> 24) & 0xFF));
-					else if (bpp == 2) {
-						// TODO
-					} else if (bpp >= 3) {
-						byteArr[index++] = ((byte) ((packedPixel >> 16) & 0xFF));
-						byteArr[index++] = ((byte) ((packedPixel >> 8) & 0xFF));
-						byteArr[index++] = ((byte) ((packedPixel) & 0xFF));
-						if (bpp >= 4)
-							byteArr[index++] = ((byte) ((packedPixel >> 24) & 0xFF));
-					}
-				}
-			}
-
-			// excute in UI thread
-			Platform.executeInUIThread(
-					new M3gRunnable() {
-						@Override
-						void doRun() {
-							tempHandle = createHandle(finalFormat, cgfxImage.getWidth(), cgfxImage.getHeight(), byteArr);
-						}
-					});
+				throw new IllegalArgumentException();
 		}
-		return tempHandle;
 	}
 
-	//Platform.heuristicGC();
-	//ToolkitInvoker invoker = ToolkitInvoker.getToolkitInvoker();
-
-	// Decide if trueAlpha
-	//Image i = (Image)image;
-	//boolean trueAlpha = !(i.isMutable() && format == ALPHA);
-
-	//Platform.sync((Image) image);
-
-//        Platform.getUIThread().syncExec(
-//                    new Runnable() {
-//                        public void run() {
-//                                               tempHandle = _ctorImage(/*Interface.getEventSourceHandle(),*/ Interface.getHandle(), finalFormat, /*invoker.imageGetHandle(image)*/ 5);
-//                                          }
-//                                  });
-//          return tempHandle;
-
-
-	private static long createHandle(int format, int width, int height, byte[] image) {
-		Platform.heuristicGC();
-		return _ctorSizePixels(Interface.getHandle(),
-				format,
-				width, height,
-				image);
-	}
+	//------------------------------------------------------------------
+	// Private methods
+	//------------------------------------------------------------------
 
-	private static long createHandle(int format,
-									int width, int height,
-									byte[] image,
-									byte[] palette) {
-		Platform.heuristicGC();
-		return _ctorSizePixelsPalette(Interface.getHandle(),
-				format,
-				width, height,
-				image, palette);
+	private Pixmap toPixmap() {
+		Pixmap pixmap = new Pixmap(width, height, Pixmap.Format.RGBA8888);
+		ByteBuffer buffer = pixmap.getPixels();
+		buffer.clear();
+		getRGBA(buffer);
+		return pixmap;
 	}
 
-	private static long createHandle(int format, int width, int height) {
-		Platform.heuristicGC();
-		return _ctorSize(Interface.getHandle(), format, width, height);
+	private static int luminance(int r, int g, int b) {
+		return (r * 77 + g * 150 + b * 29) >> 8;
 	}
-
-	// Native methods
-	private native static long _ctorImage(/*int eventSourceHandle,*/
-			long hInterface,
-			int format,
-			long imageHandle);
-
-	private native static long _ctorSizePixels(long hInterface,
-											  int format,
-											  int width, int height,
-											  byte[] image);
-
-	private native static long _ctorSizePixelsPalette(long hInterface,
-													 int format,
-													 int width, int height,
-													 byte[] image,
-													 byte[] palette);
-
-	private native static long _ctorSize(long hInterface,
-										int format,
-										int width, int height);
-
-	private native static void _set(long handle, int x, int y, int width,
-									int height, byte[] image);
-
-	private native static boolean _isMutable(long handle);
-
-	private native static int _getFormat(long handle);
-
-	private native static int _getWidth(long handle);
-
-	private native static int _getHeight(long handle);
 }
@@ -17,15 +17,59 @@
 
 package javax.microedition.m3g;
 
+import com.badlogic.gdx.graphics.glutils.IndexBufferObject;
+
+import java.util.IdentityHashMap;
+
 public abstract class IndexBuffer extends Object3D {
+	// Primitives as a triangle list
+	int[] triangles;
+
+	// GL copy of the triangle list
+	private GLResource<IndexBufferObject> ibo;
+
 	/**
 	 * Only a package private constructor exists for this class.
 	 */
-	IndexBuffer(long handle) {
-		super(handle);
+	IndexBuffer() {
 	}
 
 	public abstract int getIndexCount();
 
 	public abstract void getIndices(int[] indices);
+
+	/**
+	 * Get the GL buffer holding the triangle list. Index buffers are immutable,
+	 * it is built once. Must be called on the GL thread.
+	 */
+	GLResource<IndexBufferObject> getIBO() {
+		if (ibo == null) {
+			short[] indices = new short[triangles.length];
+			for (int i = 0; i < indices.length; i++) {
+				indices[i] = (short) triangles[i];
+			}
+			IndexBufferObject object = new IndexBufferObject(true, indices.length);
+			object.setIndices(indices, 0, indices.length);
+			ibo = new GLResource<>(this, object);
+		}
+		return ibo;
+	}
+
+	/**
+	 * @return the largest vertex index referenced
+	 */
+	int getMaxIndex() {
+		int max = -1;
+		for (int index : triangles) {
+			max = Math.max(max, index);
+		}
+		return max;
+	}
+
+	@Override
+	Object3D duplicate(IdentityHashMap<Object3D, Object3D> duplicates) {
+		IndexBuffer copy = (IndexBuffer) super.duplicate(duplicates);
+		copy.ibo = null;
+		return copy;
+	}
 }
@@ -17,6 +17,8 @@
 
 package javax.microedition.m3g;
 
+import java.util.IdentityHashMap;
+
 public class KeyframeSequence extends Object3D {
 	//------------------------------------------------------------------
 	// Static data
@@ -31,6 +33,20 @@ public class KeyframeSequence extends Object3D {
 	public static final int CONSTANT = 192;
 	public static final int LOOP = 193;
 
+	//------------------------------------------------------------------
+	// Instance data
+	//------------------------------------------------------------------
+
+	private final int numKeyframes;
+	private final int numComponents;
+	private final int interpolation;
+	private int[] times;
+	private float[] values;
+	private int validFirst;
+	private int validLast;
+	private int duration;
+	private int repeatMode = CONSTANT;
+
 	//------------------------------------------------------------------
 	// Constructor
 	//------------------------------------------------------------------
@@ -38,16 +54,16 @@ public class KeyframeSequence extends Object3D {
 	public KeyframeSequence(int numKeyframes,
 							int numComponents,
 							int interpolation) {
-		super(_ctor(Interface.getHandle(),
-				numKeyframes,
-				numComponents,
-				interpolation));
-	}
-
-	/**
-	 */
-	KeyframeSequence(long handle) {
-		super(handle);
+		if (numKeyframes < 1 || numComponents < 1 || interpolation < LINEAR || interpolation > STEP
+				|| ((interpolation == SLERP || interpolation == SQUAD) && numComponents != 4)) {
+			throw new IllegalArgumentException();
+		}
+		this.numKeyframes = numKeyframes;
+		this.numComponents = numComponents;
+		this.interpolation = interpolation;
+		times = new int[numKeyframes];
+		values = new float[numKeyframes * numComponents];
+		validLast = numKeyframes - 1;
 	}
 
 	//------------------------------------------------------------------
@@ -55,91 +71,332 @@ public class KeyframeSequence extends Object3D {
 	//------------------------------------------------------------------
 
 	public void setKeyframe(int index, int time, float[] value) {
-		_setKeyframe(handle, index, time, value);
+		if (value == null) {
+			throw new NullPointerException();
+		}
+		if (index < 0 || index >= numKeyframes) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (value.length < numComponents || time < 0) {
+			throw new IllegalArgumentException();
+		}
+		times[index] = time;
+		int offset = index * numComponents;
+		System.arraycopy(value, 0, values, offset, numComponents);
+		if (interpolation == SLERP || interpolation == SQUAD) {
+			normalize(values, offset);
+		}
 	}
 
 	public void setValidRange(int first, int last) {
-		_setValidRange(handle, first, last);
+		if (first < 0 || first >= numKeyframes || last < 0 || last >= numKeyframes) {
+			throw new IndexOutOfBoundsException();
+		}
+		validFirst = first;
+		validLast = last;
 	}
 
 	public void setDuration(int duration) {
-		_setDuration(handle, duration);
+		if (duration <= 0) {
+			throw new IllegalArgumentException();
+		}
+		this.duration = duration;
 	}
 
 	public int getDuration() {
-		return _getDuration(handle);
+		return duration;
 	}
 
 	/**
 	 */
 	public void setRepeatMode(int mode) {
-		_setRepeatMode(handle, mode);
+		if (mode != CONSTANT && mode != LOOP) {
+			throw new IllegalArgumentException();
+		}
+		repeatMode = mode;
 	}
 
 	/**
 	 */
 	public int getRepeatMode() {
-		return _getRepeatMode(handle);
+		return repeatMode;
 	}
 
 	// M3G 1.1 Maintenance release getters
 
 	public int getComponentCount() {
-		return _getComponentCount(handle);
+		return numComponents;
 	}
 
 	public int getInterpolationType() {
-		return _getInterpolationType(handle);
+		return interpolation;
 	}
 
 	public int getKeyframe(int index, float[] value) {
-		return _getKeyframe(handle, index, value);
+		if (index < 0 || index >= numKeyframes) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (value != null) {
+			if (value.length < numComponents) {
+				throw new IllegalArgumentException();
+			}
+			System.arraycopy(values, index * numComponents, value, 0, numComponents);
+		}
+		return times[index];
 	}
 
 	public int getKeyframeCount() {
-		return _getKeyframeCount(handle);
+		return numKeyframes;
 	}
 
 	public int getValidRangeFirst() {
-		return _getValidRangeFirst(handle);
+		return validFirst;
 	}
 
 	public int getValidRangeLast() {
-		return _getValidRangeLast(handle);
+		return validLast;
 	}
 
-
 	//------------------------------------------------------------------
-	// Private methods
+	// Package private methods
 	//------------------------------------------------------------------
 
-	private native static long _ctor(long hInterface,
-									int numKeyframes,
-									int numComponents,
-									int interpolation);
-
-	private native static void _setValidRange(long handle, int first, int last);
+	@Override
+	Object3D duplicate(IdentityHashMap<Object3D, Object3D> duplicates) {
+		KeyframeSequence copy = (KeyframeSequence) super.duplicate(duplicates);
+		copy.times = times.clone();
+		copy.values = values.clone();
+		return copy;
+	}
 
-	private native static void _setKeyframe(long handle, int index, int time, float[] value);
+	/**
+	 * Interpolate the value of the sequence at a sequence time.
+	 *
+	 * @return the sequence time during which the value stays the same, 0 if
+	 * it keeps changing
+	 */
+	int sample(float time, float[] out) {
+		int count = validLast >= validFirst ? validLast - validFirst + 1
+				: numKeyframes - validFirst + validLast + 1;
+		int[] keys = new int[count];
+		for (int i = 0; i < count; i++) {
+			keys[i] = (validFirst + i) % numKeyframes;
+			if (i > 0 && times[keys[i]] < times[keys[i - 1]]) {
+				throw new IllegalStateException();
+			}
+		}
+		if (duration <= 0 || times[keys[count - 1]] > duration) {
+			throw new IllegalStateException();
+		}
+		boolean loop = repeatMode == LOOP;
+		if (loop) {
+			time %= duration;
+			if (time < 0) {
+				time += duration;
+			}
+		}
+		float first = times[keys[0]];
+		float last = times[keys[count - 1]];
+		if (count == 1 || (!loop && time < first)) {
+			System.arraycopy(values, keys[0] * numComponents, out, 0, numComponents);
+			return count == 1 ? Integer.MAX_VALUE : (int) Math.ceil(first - time);
+		}
+		if (!loop && time >= last) {
+			System.arraycopy(values, keys[count - 1] * numComponents, out, 0, numComponents);
+			return Integer.MAX_VALUE;
+		}
+
+		// locate the segment [k, k + 1] containing the time; when looping,
+		// the last segment wraps from the last keyframe to the first one
+		int k;
+		float start, end;
+		if (time < first || time >= last) {
+			k = count - 1;
+			start = last;
+			end = first + duration;
+			if (time < first) {
+				time += duration;
+			}
+		} else {
+			k = 0;
+			while (k < count - 2 && times[keys[k + 1]] <= time) {
+				k++;
+			}
+			start = times[keys[k]];
+			end = times[keys[k + 1]];
+		}
+		int a = keys[k];
+		int b = keys[(k + 1) % count];
+		if (interpolation == STEP || end == start) {
+			System.arraycopy(values, a * numComponents, out, 0, numComponents);
+			return Math.max(1, (int) Math.ceil(end - time));
+		}
+		float s = (time - start) / (end - start);
+		switch (interpolation) {
+			case LINEAR:
+				for (int i = 0; i < numComponents; i++) {
+					out[i] = values[a * numComponents + i] * (1 - s) + values[b * numComponents + i] * s;
+				}
+				break;
+			case SLERP:
+				slerp(out, values, a * 4, values, b * 4, s);
+				break;
+			case SPLINE:
+				spline(out, keys, k, s, loop);
+				break;
+			case SQUAD:
+				squad(out, keys, k, s, loop);
+				break;
+		}
+		return 0;
+	}
 
-	private native static void _setDuration(long handle, int duration);
+	private float keyTime(int[] keys, int k) {
+		int count = keys.length;
+		if (k < 0) {
+			return times[keys[k + count]] - duration;
+		}
+		if (k >= count) {
+			return times[keys[k - count]] + duration;
+		}
+		return times[keys[k]];
+	}
 
-	private native static int _getDuration(long handle);
+	/**
+	 * Index of the neighbouring keyframe, or -1 past the ends of a constant sequence.
+	 */
+	private int neighbour(int[] keys, int k, boolean loop) {
+		int count = keys.length;
+		if (k >= 0 && k < count) {
+			return keys[k];
+		}
+		return loop ? keys[(k + count) % count] : -1;
+	}
 
-	private native static void _setRepeatMode(long handle, int mode);
+	private void spline(float[] out, int[] keys, int k, float s, boolean loop) {
+		int p0 = neighbour(keys, k - 1, loop);
+		int p1 = keys[k];
+		int p2 = keys[(k + 1) % keys.length];
+		int p3 = neighbour(keys, k + 2, loop);
+		float t0 = keyTime(keys, k - 1);
+		float t1 = keyTime(keys, k);
+		float t2 = keyTime(keys, k + 1);
+		float t3 = keyTime(keys, k + 2);
+		// tangents scaled for uneven keyframe spacing
+		float f1 = p0 < 0 ? 0 : 2 * (t2 - t1) / (t2 - t0);
+		float f2 = p3 < 0 ? 0 : 2 * (t2 - t1) / (t3 - t1);
+		float s2 = s * s;
+		float s3 = s2 * s;
+		float h1 = 2 * s3 - 3 * s2 + 1;
+		float h2 = -2 * s3 + 3 * s2;
+		float h3 = s3 - 2 * s2 + s;
+		float h4 = s3 - s2;
+		int n = numComponents;
+		for (int i = 0; i < n; i++) {
+			float v1 = values[p1 * n + i];
+			float v2 = values[p2 * n + i];
+			float tan1 = p0 < 0 ? 0 : f1 * (v2 - values[p0 * n + i]) / 2;
+			float tan2 = p3 < 0 ? 0 : f2 * (values[p3 * n + i] - v1) / 2;
+			out[i] = h1 * v1 + h2 * v2 + h3 * tan1 + h4 * tan2;
+		}
+	}
 
-	private native static int _getRepeatMode(long handle);
+	private void squad(float[] out, int[] keys, int k, float s, boolean loop) {
+		int p0 = neighbour(keys, k - 1, loop);
+		int p1 = keys[k];
+		int p2 = keys[(k + 1) % keys.length];
+		int p3 = neighbour(keys, k + 2, loop);
+		float[] a = new float[4];
+		float[] b = new float[4];
+		squadControl(a, p0 < 0 ? p1 : p0, p1, p2);
+		squadControl(b, p1, p2, p3 < 0 ? p2 : p3);
+		float[] q = new float[4];
+		float[] c = new float[4];
+		slerp(q, values, p1 * 4, values, p2 * 4, s);
+		slerp(c, a, 0, b, 0, s);
+		slerp(out, q, 0, c, 0, 2 * s * (1 - s));
+	}
 
-	// M3G 1.1 Maintenance release getters
-	private native static int _getComponentCount(long handle);
+	/**
+	 * Inner control point of a squad segment at keyframe cur:
+	 * cur * exp(-(log(cur^-1 * next) + log(cur^-1 * prev)) / 4)
+	 */
+	private void squadControl(float[] out, int prev, int cur, int next) {
+		float[] inv = {-values[cur * 4], -values[cur * 4 + 1], -values[cur * 4 + 2], values[cur * 4 + 3]};
+		float[] l1 = new float[4];
+		float[] l2 = new float[4];
+		mulQuat(l1, inv, 0, values, next * 4);
+		mulQuat(l2, inv, 0, values, prev * 4);
+		logQuat(l1);
+		logQuat(l2);
+		for (int i = 0; i < 3; i++) {
+			l1[i] = -(l1[i] + l2[i]) / 4;
+		}
+		expQuat(l1);
+		mulQuat(out, values, cur * 4, l1, 0);
+	}
 
-	private native static int _getInterpolationType(long handle);
+	private static void mulQuat(float[] out, float[] a, int ao, float[] b, int bo) {
+		float ax = a[ao], ay = a[ao + 1], az = a[ao + 2], aw = a[ao + 3];
+		float bx = b[bo], by = b[bo + 1], bz = b[bo + 2], bw = b[bo + 3];
+		out[0] = aw * bx + ax * bw + ay * bz - az * by;
+		out[1] = aw * by - ax * bz + ay * bw + az * bx;
+		out[2] = aw * bz + ax * by - ay * bx + az * bw;
+		out[3] = aw * bw - ax * bx - ay * by - az * bz;
+	}
 
-	private native static int _getKeyframe(long handle, int index, float[] value);
+	private static void logQuat(float[] q) {
+		float length = (float) Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2]);
+		float angle = (float) Math.atan2(length, q[3]);
+		float scale = length > 1e-6f ? angle / length : 1;
+		q[0] *= scale;
+		q[1] *= scale;
+		q[2] *= scale;
+		q[3] = 0;
+	}
 
-	private native static int _getKeyframeCount(long handle);
+	private static void expQuat(float[] q) {
+		float angle = (float) Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2]);
+		float scale = angle > 1e-6f ? (float) Math.sin(angle) / angle : 1;
+		q[0] *= scale;
+		q[1] *= scale;
+		q[2] *= scale;
+		q[3] = (float) Math.cos(angle);
+	}
 
-	private native static int _getValidRangeFirst(long handle);
+	static void slerp(float[] out, float[] a, int ao, float[] b, int bo, float s) {
+		float cos = a[ao] * b[bo] + a[ao + 1] * b[bo + 1] + a[ao + 2] * b[bo + 2] + a[ao + 3] * b[bo + 3];
+		float sign = 1;
+		if (cos < 0) {
+			cos = -cos;
+			sign = -1;
+		}
+		float wa, wb;
+		if (cos > 0.9995f) {
+			wa = 1 - s;
+			wb = s;
+		} else {
+			float angle = (float) Math.acos(cos);
+			float sin = (float) Math.sin(angle);
+			wa = (float) Math.sin((1 - s) * angle) / sin;
+			wb = (float) Math.sin(s * angle) / sin;
+		}
+		wb *= sign;
+		for (int i = 0; i < 4; i++) {
+			out[i] = a[ao + i] * wa + b[bo + i] * wb;
+		}
+		normalize(out, 0);
+	}
 
-	private native static int _getValidRangeLast(long handle);
+	private static void normalize(float[] q, int offset) {
+		float length = (float) Math.sqrt(q[offset] * q[offset] + q[offset + 1] * q[offset + 1]
+				+ q[offset + 2] * q[offset + 2] + q[offset + 3] * q[offset + 3]);
+		if (length == 0) {
+			q[offset + 3] = 1;
+			return;
+		}
+		for (int i = 0; i < 4; i++) {
+			q[offset + i] /= length;
+		}
+	}
 }
@@ -23,96 +23,119 @@ public class Light extends Node {
 	public static final int OMNI = 130;
 	public static final int SPOT = 131;
 
-	public Light() {
-		super(_ctor(Interface.getHandle()));
-	}
+	private int mode = DIRECTIONAL;
+	private int color = 0xFFFFFF;
+	private float intensity = 1.0f;
+	private float spotAngle = 45.0f;
+	private float spotExponent = 0.0f;
+	private float constant = 1.0f;
+	private float linear = 0.0f;
+	private float quadratic = 0.0f;
 
-	/**
-	 */
-	Light(long handle) {
-		super(handle);
+	public Light() {
 	}
 
 	public void setIntensity(float intensity) {
-		_setIntensity(handle, intensity);
+		this.intensity = intensity;
 	}
 
 	public float getIntensity() {
-		return _getIntensity(handle);
+		return intensity;
 	}
 
 	public void setColor(int RGB) {
-		_setColor(handle, RGB);
+		color = RGB & 0xFFFFFF;
 	}
 
 	public int getColor() {
-		return _getColor(handle);
+		return color;
 	}
 
 	public void setMode(int mode) {
-		_setMode(handle, mode);
+		if (mode < AMBIENT || mode > SPOT) {
+			throw new IllegalArgumentException();
+		}
+		this.mode = mode;
 	}
 
 	public int getMode() {
-		return _getMode(handle);
+		return mode;
 	}
 
 	public void setSpotAngle(float angle) {
-		_setSpotAngle(handle, angle);
+		if (angle < 0 || angle > 90) {
+			throw new IllegalArgumentException();
+		}
+		spotAngle = angle;
 	}
 
 	public float getSpotAngle() {
-		return _getSpotAngle(handle);
+		return spotAngle;
 	}
 
 	public void setSpotExponent(float exponent) {
-		_setSpotExponent(handle, exponent);
+		if (exponent < 0 || exponent > 128) {
+			throw new IllegalArgumentException();
+		}
+		spotExponent = exponent;
 	}
 
 	public float getSpotExponent() {
-		return _getSpotExponent(handle);
+		return spotExponent;
 	}
 
 	public void setAttenuation(float constant, float linear, float quadratic) {
-		_setAttenuation(handle, constant, linear, quadratic);
+		if (constant < 0 || linear < 0 || quadratic < 0
+				|| (constant == 0 && linear == 0 && quadratic == 0)) {
+			throw new IllegalArgumentException();
+		}
+		this.constant = constant;
+		this.linear = linear;
+		this.quadratic = quadratic;
 	}
 
 	public float getConstantAttenuation() {
-		return _getAttenuation(handle, Defs.GET_CONSTANT);
+		return constant;
 	}
 
 	public float getLinearAttenuation() {
-		return _getAttenuation(handle, Defs.GET_LINEAR);
+		return linear;
 	}
 
 	public float getQuadraticAttenuation() {
-		return _getAttenuation(handle, Defs.GET_QUADRATIC);
+		return quadratic;
+	}
+
+	@Override
+	boolean isCompatible(AnimationTrack track) {
+		switch (track.getTargetProperty()) {
+			case AnimationTrack.COLOR:
+			case AnimationTrack.INTENSITY:
+			case AnimationTrack.SPOT_ANGLE:
+			case AnimationTrack.SPOT_EXPONENT:
+				return true;
+			default:
+				return super.isCompatible(track);
+		}
+	}
+
+	@Override
+	void updateProperty(int property, float[] value) {
+		switch (property) {
+			case AnimationTrack.COLOR:
+				color = toRGB(value);
+				break;
+			case AnimationTrack.INTENSITY:
+				intensity = value[0];
+				break;
+			case AnimationTrack.SPOT_ANGLE:
+				spotAngle = clamp(value[0], 0, 90);
+				break;
+			case AnimationTrack.SPOT_EXPONENT:
+				spotExponent = clamp(value[0], 0, 128);
+				break;
+			default:
+				super.updateProperty(property, value);
+		}
 	}
-
-	// Native methods
-	private static native long _ctor(long hInterface);
-
-	private static native void _setIntensity(long handle, float intensity);
-
-	private static native float _getIntensity(long handle);
-
-	private static native void _setColor(long handle, int RGB);
-
-	private static native int _getColor(long handle);
-
-	private static native void _setMode(long handle, int mode);
-
-	private static native int _getMode(long handle);
-
-	private static native void _setSpotAngle(long handle, float angle);
-
-	private static native float _getSpotAngle(long handle);
-
-	private static native void _setSpotExponent(long handle, float exponent);
-
-	private static native float _getSpotExponent(long handle);
-
-	private static native void _setAttenuation(long handle, float constant, float linear, float quadratic);
-
-	private static native float _getAttenuation(long handle, int type);
 }
@@ -17,12 +17,31 @@
 
 package javax.microedition.m3g;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 import javax.microedition.io.Connector;
 import javax.microedition.io.HttpConnection;
@@ -65,40 +84,33 @@ public class Loader {
 	// Misc.
 	private static final int MAX_IDENTIFIER_LENGTH = M3G_FILE_IDENTIFIER.length;
 
-	// Initial buffer length for the header
-	private static final int AVG_HEADER_SEC_LENGTH = 64;
+	// Sections are inflated on a small shared pool, whose threads go away when idle
+	private static final int INFLATER_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+	private static final long INFLATER_KEEP_ALIVE = 5000;
+	// Sections read ahead of the decoder, bounds the memory held by a load
+	private static final int MAX_PENDING_SECTIONS = 2 * INFLATER_THREADS;
 
-	// Initial buffer length for the xref section
-	private static final int AVG_XREF_SEC_LENGTH = 128;
+	private static ExecutorService inflaters;
+	private static volatile ProgressListener progressListener;
 
 	// Instance specific
-	long handle;
-
-	private Vector iLoadedObjects = new Vector();
+	private Vector<Object3D> iObjects = new Vector<>();
+	private Vector<PendingAlignment> iAlignments = new Vector<>();
 	private Vector iFileHistory = new Vector();
 	private String iResourceName = null;
 	private String iParentResourceName = null;
 
 	private int iTotalFileSize = 0;
 	private int iBytesRead = M3G_FILE_IDENTIFIER.length;
+	private int iBytesDecoded = M3G_FILE_IDENTIFIER.length;
 
 	private byte[] iStreamData = null;
 	private int iStreamOffset = 0;
 
-	private Interface iInterface;
-
-	//#ifdef RD_JAVA_OMJ
-	@Override
-	protected void finalize() {
-		doFinalize();
-	}
-//#endif // RD_JAVA_OMJ
-
 	/**
 	 * Default ctor
 	 */
 	private Loader() {
-		iInterface = Interface.getInstance();
 	}
 
 	/**
@@ -110,7 +122,6 @@ public class Loader {
 	private Loader(Vector aFileHistory, String aParentResourceName) {
 		iParentResourceName = aParentResourceName;
 		iFileHistory = aFileHistory;
-		iInterface = Interface.getInstance();
 	}
 
 	public static Object3D[] load(String name) throws IOException {
@@ -148,6 +159,16 @@ public class Loader {
 		}
 	}
 
+	/**
+	 * Set the listener told about the progress of every M3G file loaded,
+	 * including the files referenced by other ones.
+	 *
+	 * @param listener the listener, null to remove it
+	 */
+	public static void setProgressListener(ProgressListener listener) {
+		progressListener = listener;
+	}
+
 	/**
 	 * @see javax.microedition.m3g.Loader#load(String)
 	 */
@@ -161,11 +182,11 @@ public class Loader {
 		}
 		iResourceName = aName;
 		iFileHistory.addElement(aName);
-		PeekInputStream stream = new PeekInputStream(
-				getInputStream(aName), MAX_IDENTIFIER_LENGTH);
+		BufferedInputStream stream = new BufferedInputStream(getInputStream(aName));
 		// png, jpeg or m3g
+		stream.mark(MAX_IDENTIFIER_LENGTH);
 		int type = getIdentifierType(stream);
-		stream.rewind();
+		stream.reset();
 		iStreamData = null;
 		iStreamOffset = 0;
 
@@ -425,227 +446,925 @@ public class Loader {
 		return new Object3D[]{i2d};
 	}
 
-
 	/**
-	 * M3G resource loader
+	 * M3G resource loader. Sections are read ahead of the decoder, at most
+	 * MAX_PENDING_SECTIONS at a time, and checked and inflated on the worker pool.
+	 * Objects only refer to the ones before them, so the sections are decoded in
+	 * file order on the calling thread as they become ready.
 	 *
 	 * @param aStream Resource stream
 	 * @return An array of newly created Object3D instances
 	 */
 	private Object3D[] loadM3G(InputStream aStream) throws IOException {
-		aStream.skip(M3G_FILE_IDENTIFIER.length);
-		if (aStream instanceof PeekInputStream)
-			((PeekInputStream) aStream).increasePeekBuffer(AVG_HEADER_SEC_LENGTH);
-
-		// Read header
-		int compressionScheme = readByte(aStream);
-		int totalSectionLength = readUInt32(aStream);
-		if (aStream instanceof PeekInputStream && totalSectionLength > AVG_HEADER_SEC_LENGTH)
-			((PeekInputStream) aStream).increasePeekBuffer(totalSectionLength - AVG_HEADER_SEC_LENGTH);
-		int uncompressedLength = readUInt32(aStream);
-
-		int objectType = readByte(aStream);
-		int length = readUInt32(aStream);
-
-		byte vMajor = (byte) readByte(aStream);
-		byte vMinor = (byte) readByte(aStream);
-		boolean externalLinks = readBoolean(aStream);
-		iTotalFileSize = readUInt32(aStream);
-		int approximateContentSize = readUInt32(aStream);
-		String authoringField = readString(aStream);
-
-		int checksum = readUInt32(aStream);
-
-		/* Create and register a new native Loader */
-		handle = _ctor(Interface.getHandle());
-		Interface.register(this);
-
-		if (externalLinks) {
-			if (aStream instanceof PeekInputStream)
-				((PeekInputStream) aStream).increasePeekBuffer(AVG_XREF_SEC_LENGTH);
-			loadExternalRefs(aStream);
-			if (iLoadedObjects.size() > 0)   // Load and set external references
-			{
-				long[] xRef = new long[iLoadedObjects.size()];
-				for (int i = 0; i < xRef.length; i++)
-					xRef[i] = ((Object3D) iLoadedObjects.elementAt(i)).handle;
-				_setExternalReferences(handle, xRef);
-			} else {
-				throw new IOException("No external sections [" + iResourceName + "].");
+		DataInputStream in = new DataInputStream(aStream);
+		in.readFully(new byte[M3G_FILE_IDENTIFIER.length]);
+
+		// Index 0 is the null reference, the header object takes index 1
+		iObjects.addElement(null);
+		// The header section holds the total file size, the others are read up to it
+		Section header = readSection(in);
+		if (header == null) {
+			throw new IOException("Invalid file length [" + iResourceName + "].");
+		}
+		decodeSection(header.call(), header.totalLength);
+
+		ArrayDeque<Future<ByteBuffer>> pending = new ArrayDeque<>();
+		ArrayDeque<Section> sections = new ArrayDeque<>();
+		try {
+			while (true) {
+				while (pending.size() < MAX_PENDING_SECTIONS && iBytesRead < iTotalFileSize) {
+					Section section = readSection(in);
+					if (section == null) {
+						throw new IOException("Invalid file length [" + iResourceName + "].");
+					}
+					pending.add(unpack(section));
+					sections.add(section);
+				}
+				Future<ByteBuffer> next = pending.poll();
+				if (next == null) {
+					break;
+				}
+				decodeSection(await(next), sections.poll().totalLength);
 			}
+		} finally {
+			for (Future<ByteBuffer> future : pending) {
+				future.cancel(false);
+			}
+		}
+		if (iBytesRead != iTotalFileSize) {
+			throw new IOException("Invalid file length [" + iResourceName + "].");
 		}
 
-		// Reset stream
-		if (aStream instanceof PeekInputStream)
-			((PeekInputStream) aStream).rewind();
-		else if (aStream.markSupported())
-			aStream.reset(); // Reset is supported in ByteArrayInputStreams
+		for (PendingAlignment alignment : iAlignments) {
+			alignment.node.setAlignment(
+					getObject(alignment.zReference, Node.class), alignment.zTarget,
+					getObject(alignment.yReference, Node.class), alignment.yTarget);
+		}
+		return getRootObjects();
+	}
 
-		int read = 0;
-		int size = aStream.available();
+	/**
+	 * Read the header and the raw contents of a section.
+	 *
+	 * @return null at the end of the stream
+	 */
+	private Section readSection(DataInputStream aStream) throws IOException {
+		int compressionScheme = aStream.read();
+		if (compressionScheme == -1) {
+			return null;
+		}
+		ByteBuffer fields = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		aStream.readFully(fields.array());
+		Section section = new Section();
+		section.resourceName = iResourceName;
+		section.compressionScheme = compressionScheme;
+		section.totalLength = fields.getInt();
+		section.uncompressedLength = fields.getInt();
+		if (section.totalLength < 13 || section.uncompressedLength < 0
+				|| (iTotalFileSize > 0 && section.totalLength > iTotalFileSize - iBytesRead)) {
+			throw new IOException("Section length mismatch [" + iResourceName + "].");
+		}
+		section.data = new byte[section.totalLength - 13];
+		aStream.readFully(section.data);
+		section.checksum = Integer.reverseBytes(aStream.readInt());
+		iBytesRead += section.totalLength;
+		return section;
+	}
 
-		if (size == 0) {
-			size = 2048;    // start with some size
+	/**
+	 * Check and inflate a section, on the worker pool unless it is stored as is.
+	 */
+	private static Future<ByteBuffer> unpack(Section aSection) {
+		FutureTask<ByteBuffer> task = new FutureTask<>(aSection);
+		if (aSection.compressionScheme == 0) {
+			task.run();
+		} else {
+			getInflaters().execute(task);
 		}
+		return task;
+	}
 
-		while (read < iTotalFileSize) {
-			if (read + size > iTotalFileSize) {
-				size = iTotalFileSize - read;
-			}
-			// Use native loader to load objects
-			byte[] data = new byte[size];
-			if (aStream.read(data) == -1) {
-				break;
+	private static ByteBuffer await(Future<ByteBuffer> aFuture) throws IOException {
+		try {
+			return aFuture.get();
+		} catch (InterruptedException e) {
+			aFuture.cancel(false);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
 			}
-			read += size;
+			throw new IOException("Load error " + cause);
+		}
+	}
 
-			size = _decodeData(handle, 0, data);
-			if (size > 0 && aStream.available() > size) {
-				size = aStream.available();
+	private static synchronized ExecutorService getInflaters() {
+		if (inflaters == null) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(INFLATER_THREADS, INFLATER_THREADS,
+					INFLATER_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+				Thread thread = new Thread(runnable, "M3G inflater");
+				thread.setDaemon(true);
+				return thread;
+			});
+			executor.allowCoreThreadTimeOut(true);
+			inflaters = executor;
+		}
+		return inflaters;
+	}
+
+	/**
+	 * Decode the object records of an uncompressed section.
+	 *
+	 * @param aLength length of the section in the file, for progress reporting
+	 */
+	private void decodeSection(ByteBuffer aBuffer, int aLength) throws IOException {
+		try {
+			while (aBuffer.hasRemaining()) {
+				int objectType = readByte(aBuffer);
+				int length = readUInt32(aBuffer);
+				if (length < 0 || length > aBuffer.remaining()) {
+					throw new IOException("Object length mismatch [" + iResourceName + "].");
+				}
+				// Records may not read past their own end
+				int limit = aBuffer.limit();
+				aBuffer.limit(aBuffer.position() + length);
+				iObjects.addElement(loadObject(objectType, aBuffer));
+				if (aBuffer.hasRemaining()) {
+					throw new IOException("Object length mismatch [" + iResourceName + "].");
+				}
+				aBuffer.limit(limit);
 			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Object length mismatch [" + iResourceName + "].");
 		}
-		if (size != 0 || read != iTotalFileSize) {
-			throw new IOException("Invalid file length [" + iResourceName + "].");
+		iBytesDecoded += aLength;
+		ProgressListener listener = progressListener;
+		if (listener != null) {
+			listener.onProgress(iResourceName, iBytesDecoded, iTotalFileSize);
 		}
+	}
+
+	private static void updateUInt32(Adler32 adler, int value) {
+		adler.update(value);
+		adler.update(value >>> 8);
+		adler.update(value >>> 16);
+		adler.update(value >>> 24);
+	}
 
-		Object3D[] objects = null;
-		int num = _getLoadedObjects(handle, null);
-		if (num > 0) {
-			long[] obj = new long[num];
-			_getLoadedObjects(handle, obj);
-			objects = new Object3D[num];
-			for (int i = 0; i < objects.length; i++) {
-				objects[i] = Interface.getObjectInstance(obj[i]);
+	/**
+	 * The loaded objects not referenced by any other loaded object, in file order.
+	 */
+	private Object3D[] getRootObjects() {
+		IdentityHashMap<Object3D, Boolean> referenced = new IdentityHashMap<>();
+		for (Object3D object : iObjects) {
+			if (object == null) {
+				continue;
+			}
+			Object3D[] references = new Object3D[object.getReferences(null)];
+			object.getReferences(references);
+			for (Object3D reference : references) {
+				referenced.put(reference, Boolean.TRUE);
 			}
-			setUserObjects();
 		}
+		Vector<Object3D> roots = new Vector<>();
+		for (Object3D object : iObjects) {
+			if (object != null && !referenced.containsKey(object) && !roots.contains(object)) {
+				roots.addElement(object);
+			}
+		}
+		Object3D[] objects = new Object3D[roots.size()];
+		roots.copyInto(objects);
 		return objects;
 	}
 
 	/**
+	 * Decode one object record.
 	 *
+	 * @return the new object, null for the header
 	 */
-	private void setUserObjects() throws IOException {
-		int numObjects = _getObjectsWithUserParameters(handle, null);
-		long[] obj = null;
-		if (numObjects > 0) {
-			obj = new long[numObjects];
-			_getObjectsWithUserParameters(handle, obj);
-		}
-		for (int i = 0; i < numObjects; i++) {
-			int num = _getNumUserParameters(handle, i);
-			if (num > 0) {
-				Hashtable hash = new Hashtable();
-				for (int j = 0; j < num; j++) {
-					int len = _getUserParameter(handle, i, j, null);
-					byte[] data = new byte[len];
-					int id = _getUserParameter(handle, i, j, data);
-					if (hash.put(new Integer(id), data) != null)
-						throw new IOException("Duplicate id in user data [" + iResourceName + "].");
-				}
-				Object3D object = Interface.getObjectInstance(obj[i]);
-				object.setUserObject(hash);
+	private Object3D loadObject(int aType, ByteBuffer aBuffer) throws IOException {
+		switch (aType) {
+			case 0:
+				loadHeader(aBuffer);
+				return null;
+			case 1:
+				return loadAnimationController(aBuffer);
+			case 2:
+				return loadAnimationTrack(aBuffer);
+			case 3:
+				return loadAppearance(aBuffer);
+			case 4:
+				return loadBackground(aBuffer);
+			case 5:
+				return loadCamera(aBuffer);
+			case 6:
+				return loadCompositingMode(aBuffer);
+			case 7:
+				return loadFog(aBuffer);
+			case 8:
+				return loadPolygonMode(aBuffer);
+			case 9:
+				return loadGroup(aBuffer, new Group());
+			case 10:
+				return loadImage2D(aBuffer);
+			case 11:
+				return loadTriangleStripArray(aBuffer);
+			case 12:
+				return loadLight(aBuffer);
+			case 13:
+				return loadMaterial(aBuffer);
+			case 14:
+			case 15:
+			case 16:
+				return loadMesh(aBuffer, aType);
+			case 17:
+				return loadTexture2D(aBuffer);
+			case 18:
+				return loadSprite3D(aBuffer);
+			case 19:
+				return loadKeyframeSequence(aBuffer);
+			case 20:
+				return loadVertexArray(aBuffer);
+			case 21:
+				return loadVertexBuffer(aBuffer);
+			case 22:
+				return loadWorld(aBuffer);
+			case 255:
+				String xref = readString(aBuffer);
+				return (new Loader(iFileHistory, iResourceName)).loadFromStream(xref)[0];
+			default:
+				throw new IOException("Unknown object type " + aType + " [" + iResourceName + "].");
+		}
+	}
+
+	private void loadHeader(ByteBuffer aBuffer) throws IOException {
+		if (iObjects.size() != 1) {
+			throw new IOException("Misplaced header [" + iResourceName + "].");
+		}
+		int vMajor = readByte(aBuffer);
+		int vMinor = readByte(aBuffer);
+		if (vMajor != 1) {
+			throw new IOException("Unsupported version " + vMajor + "." + vMinor + " [" + iResourceName + "].");
+		}
+		boolean externalLinks = readBoolean(aBuffer);
+		iTotalFileSize = readUInt32(aBuffer);
+		int approximateContentSize = readUInt32(aBuffer);
+		String authoringField = readString(aBuffer);
+	}
+
+	private Object3D loadAnimationController(ByteBuffer aBuffer) throws IOException {
+		ObjectData data = loadObject3D(aBuffer);
+		AnimationController controller = new AnimationController();
+		float speed = readFloat32(aBuffer);
+		float weight = readFloat32(aBuffer);
+		int activeIntervalStart = readUInt32(aBuffer);
+		int activeIntervalEnd = readUInt32(aBuffer);
+		float referenceSequenceTime = readFloat32(aBuffer);
+		int referenceWorldTime = readUInt32(aBuffer);
+		controller.setSpeed(speed, referenceWorldTime);
+		controller.setPosition(referenceSequenceTime, referenceWorldTime);
+		controller.setWeight(weight);
+		controller.setActiveInterval(activeIntervalStart, activeIntervalEnd);
+		return data.applyTo(controller);
+	}
+
+	private Object3D loadAnimationTrack(ByteBuffer aBuffer) throws IOException {
+		ObjectData data = loadObject3D(aBuffer);
+		KeyframeSequence sequence = readReference(aBuffer, KeyframeSequence.class);
+		AnimationController controller = readReference(aBuffer, AnimationController.class);
+		AnimationTrack track = new AnimationTrack(sequence, readUInt32(aBuffer));
+		track.setController(controller);
+		return data.applyTo(track);
+	}
+
+	private Object3D loadAppearance(ByteBuffer aBuffer) throws IOException {
+		ObjectData data = loadObject3D(aBuffer);
+		Appearance appearance = new Appearance();
+		appearance.setLayer((byte) readByte(aBuffer));
+		appearance.setCompositingMode(readReference(aBuffer, CompositingMode.class));
+		appearance.setFog(readReference(aBuffer, Fog.class));
+		appearance.setPolygonMode(readReference(aBuffer, PolygonMode.class));
+		appearance.setMaterial(readReference(aBuffer, Material.class));
+		int textures = readUInt32(aBuffer);
+		for (int i = 0; i < textures; i++) {
+			appearance.setTexture(i, readReference(aBuffer, Texture2D.class));
+		}
+		return data.applyTo(appearance);
+	}
+
+	private Object3D loadBackground(ByteBuffer aBuffer) throws IOException {
+		ObjectData data = loadObject3D(aBuffer);
+		Background background = new Background();
+		background.setColor(readColorRGBA(aBuffer));
+		background.setImage(readReference(aBuffer, Image2D.class));
+		int modeX = readByte(aBuffer);
+		int modeY = readByte(aBuffer);
+		background.setImageMode(modeX, modeY);
+		int cropX = readUInt32(aBuffer);
+		int cropY = readUInt32(aBuffer);
+		int cropWidth = readUInt32(aBuffer);
+		int cropHeight = readUInt32(aBuffer);
+		background.setCrop(cropX, cropY, cropWidth, cropHeight);
+		background.setDepthClearEnable(readBoolean(aBuffer));
+		background.setColorClearEnable(readBoolean(aBuffer));
+		return data.applyTo(background);
+	}
+
+	private Object3D loadCamera(ByteBuffer aBuffer) throws IOException {
+		ObjectData data = loadNode(aBuffer);
+		Camera camera = new Camera();
+		int projectionType = readByte(aBuffer);
+		if (projectionType == Camera.GENERIC) {
+			camera.setGeneric(readMatrix(aBuffer));
+		} else {
+			float fovy = readFloat32(aBuffer);
+			float aspectRatio = readFloat32(aBuffer);
+			float near = readFloat32(aBuffer);
+			float far = readFloat32(aBuffer);
+			if (projectionType == Camera.PARALLEL) {
+				camera.setParallel(fovy, aspectRatio, near, far);
+			} else if (projectionType == Camera.PERSPECTIVE) {
+				camera.setPerspective(fovy, aspectRatio, near, far);
+			} else {
+				throw new IOException("Invalid projection [" + iResourceName + "].");
+			}
+		}
+		return data.applyTo(camera);
+	}
+
+	private Object3D loadCompositingMode(ByteBuffer aBuffer) throws IOException {
+		ObjectData data = loadObject3D(aBuffer);
+		CompositingMode mode = new CompositingMode();
+		mode.setDepthTestEnable(readBoolean(aBuffer));
+		mode.setDepthWriteEnable(readBoolean(aBuffer));
+		mode.setColorWriteEnable(readBoolean(aBuffer));
+		mode.setAlphaWriteEnable(readBoolean(aBuffer));
+		mode.setBlending(readByte(aBuffer));
+		mode.setAlphaThreshold(readByte(aBuffer) / 255.0f);
+		float factor = readFloat32(aBuffer);
+		float units = readFloat32(aBuffer);
+		mode.setDepthOffset(factor, units);
+		return data.applyTo(mode);
+	}
+
+	private Object3D loadFog(ByteBuffer aBuffer) throws IOException {
+		ObjectData data = loadObject3D(aBuffer);
+		Fog fog = new Fog();
+		fog.setColor(readColorRGB(aBuffer));
+		int mode = readByte(aBuffer);
+		fog.setMode(mode);
+		if (mode == Fog.EXPONENTIAL) {
+			fog.setDensity(readFloat32(aBuffer));
+		} else {
+			float near = readFloat32(aBuffer);
+			float far = readFloat32(aBuffer);
+			fog.setLinear(near, far);
+		}
+		return data.applyTo(fog);
+	}
+
+	private Object3D loadPolygonMode(ByteBuffer aBuffer) throws IOException {
+		ObjectData data = loadObject3D(aBuffer);
+		PolygonMode mode = new PolygonMode();
+		mode.setCulling(readByte(aBuffer));
+		mode.setShading(readByte(aBuffer));
+		mode.setWinding(readByte(aBuffer));
+		mode.setTwoSidedLightingEnable(readBoolean(aBuffer));
+		mode.setLocalCameraLightingEnable(readBoolean(aBuffer));
+		mode.setPerspectiveCorrectionEnable(readBoolean(aBuffer));
+		return data.applyTo(mode);
+	}
+
+	private Group loadGroup(ByteBuffer aBuffer, Group group) throws IOException {
+		ObjectData data = loadNode(aBuffer);
+		int children = readUInt32(aBuffer);
+		for (int i = 0; i < children; i++) {
+			group.addChild(readReference(aBuffer, Node.class));
+		}
+		data.applyTo(group);
+		return group;
+	}
+
+	private Object3D loadWorld(ByteBuffer aBuffer) throws IOException {
+		World world = new World();
+		loadGroup(aBuffer, world);
+		world.setActiveCamera(readReference(aBuffer, Camera.class));
+		world.setBackground(readReference(aBuffer, Background.class));
+		return world;
+	}
+
+	private Object3D loadImage2D(ByteBuffer aBuffer) throws IOException {
+		ObjectData data = loadObject3D(aBuffer);
+		int format = readByte(aBuffer);
+		boolean isMutable = readBoolean(aBuffer);
+		int width = readUInt32(aBuffer);
+		int height = readUInt32(aBuffer);
+		Image2D image;
+		if (isMutable) {
+			image = new Image2D(format, width, height);
+		} else {
+			byte[] palette = readByteArray(aBuffer);
+			byte[] pixels = readByteArray(aBuffer);
+			if (palette.length > 0) {
+				image = new Image2D(format, width, height, pixels, palette);
+			} else {
+				image = new Image2D(format, width, height, pixels);
 			}
 		}
+		return data.applyTo(image);
+	}
+
+	private Object3D loadTriangleStripArray(ByteBuffer aBuffer) throws IOException {
+		ObjectData data = loadObject3D(aBuffer);
+		int encoding = readByte(aBuffer);
+		int startIndex = 0;
+		int[] indices = null;
+		switch (encoding) {
+			case 0:
+				startIndex = readUInt32(aBuffer);
+				break;
+			case 1:
+				startIndex = readByte(aBuffer);
+				break;
+			case 2:
+				startIndex = readUInt16(aBuffer);
+				break;
+			case 128:
+			case 129:
+			case 130:
+				indices = new int[readUInt32(aBuffer)];
+				if (encoding == 128) {
+					readInts(aBuffer, indices);
+				} else {
+					for (int i = 0; i < indices.length; i++) {
+						indices[i] = encoding == 129 ? readByte(aBuffer) : readUInt16(aBuffer);
+					}
+				}
+				break;
+			default:
+				throw new IOException("Invalid index encoding [" + iResourceName + "].");
+		}
+		int[] stripLengths = new int[readUInt32(aBuffer)];
+		readInts(aBuffer, stripLengths);
+		TriangleStripArray strips = indices != null
+				? new TriangleStripArray(indices, stripLengths)
+				: new TriangleStripArray(startIndex, stripLengths);
+		return data.applyTo(strips);
+	}
+
+	private Object3D loadLight(ByteBuffer aBuffer) throws IOException {
+		ObjectData data = loadNode(aBuffer);
+		Light light = new Light();
+		float constant = readFloat32(aBuffer);
+		float linear = readFloat32(aBuffer);
+		float quadratic = readFloat32(aBuffer);
+		light.setAttenuation(constant, linear, quadratic);
+		light.setColor(readColorRGB(aBuffer));
+		light.setMode(readByte(aBuffer));
+		light.setIntensity(readFloat32(aBuffer));
+		light.setSpotAngle(readFloat32(aBuffer));
+		light.setSpotExponent(readFloat32(aBuffer));
+		return data.applyTo(light);
+	}
+
+	private Object3D loadMaterial(ByteBuffer aBuffer) throws IOException {
+		ObjectData data = loadObject3D(aBuffer);
+		Material material = new Material();
+		material.setColor(Material.AMBIENT, readColorRGB(aBuffer));
+		material.setColor(Material.DIFFUSE, readColorRGBA(aBuffer));
+		material.setColor(Material.EMISSIVE, readColorRGB(aBuffer));
+		material.setColor(Material.SPECULAR, readColorRGB(aBuffer));
+		material.setShininess(readFloat32(aBuffer));
+		material.setVertexColorTrackingEnable(readBoolean(aBuffer));
+		return data.applyTo(material);
 	}
 
 	/**
-	 * Load external resources
+	 * Mesh, MorphingMesh or SkinnedMesh, which all start with the Mesh fields
 	 */
-	private void loadExternalRefs(InputStream aStream) throws IOException {
-		// Check for the end of the aStream or file
-		int firstByte = readByte(aStream);
-		if (firstByte == -1 || (iTotalFileSize != 0 && iBytesRead >= iTotalFileSize)) {
-			return;
+	private Object3D loadMesh(ByteBuffer aBuffer, int aType) throws IOException {
+		ObjectData data = loadNode(aBuffer);
+		VertexBuffer vertices = readReference(aBuffer, VertexBuffer.class);
+		int submeshCount = readUInt32(aBuffer);
+		IndexBuffer[] triangles = new IndexBuffer[submeshCount];
+		Appearance[] appearances = new Appearance[submeshCount];
+		for (int i = 0; i < submeshCount; i++) {
+			triangles[i] = readReference(aBuffer, IndexBuffer.class);
+			appearances[i] = readReference(aBuffer, Appearance.class);
 		}
 
-		int compressionScheme = firstByte;
+		Mesh mesh;
+		if (aType == 15) {
+			int targetCount = readUInt32(aBuffer);
+			VertexBuffer[] targets = new VertexBuffer[targetCount];
+			float[] weights = new float[targetCount];
+			for (int i = 0; i < targetCount; i++) {
+				targets[i] = readReference(aBuffer, VertexBuffer.class);
+				weights[i] = readFloat32(aBuffer);
+			}
+			MorphingMesh morphingMesh = new MorphingMesh(vertices, targets, triangles, appearances);
+			morphingMesh.setWeights(weights);
+			mesh = morphingMesh;
+		} else if (aType == 16) {
+			SkinnedMesh skinnedMesh = new SkinnedMesh(vertices, triangles, appearances,
+					readReference(aBuffer, Group.class));
+			int transformCount = readUInt32(aBuffer);
+			for (int i = 0; i < transformCount; i++) {
+				Node bone = readReference(aBuffer, Node.class);
+				int firstVertex = readUInt32(aBuffer);
+				int vertexCount = readUInt32(aBuffer);
+				int weight = readUInt32(aBuffer);
+				skinnedMesh.addTransform(bone, weight, firstVertex, vertexCount);
+			}
+			mesh = skinnedMesh;
+		} else {
+			mesh = new Mesh(vertices, triangles, appearances);
+		}
+		return data.applyTo(mesh);
+	}
 
-		int totalSectionLength = readUInt32(aStream);
-		iBytesRead += totalSectionLength;
-		if (aStream instanceof PeekInputStream && totalSectionLength > AVG_XREF_SEC_LENGTH)
-			((PeekInputStream) aStream).increasePeekBuffer(totalSectionLength - AVG_XREF_SEC_LENGTH);
-		int uncompressedLength = readUInt32(aStream);
-		int expectedCount = totalSectionLength;
+	private Object3D loadTexture2D(ByteBuffer aBuffer) throws IOException {
+		ObjectData data = loadTransformable(aBuffer);
+		Texture2D texture = new Texture2D(readReference(aBuffer, Image2D.class));
+		texture.setBlendColor(readColorRGB(aBuffer));
+		texture.setBlending(readByte(aBuffer));
+		int wrapS = readByte(aBuffer);
+		int wrapT = readByte(aBuffer);
+		texture.setWrapping(wrapS, wrapT);
+		int levelFilter = readByte(aBuffer);
+		int imageFilter = readByte(aBuffer);
+		texture.setFiltering(levelFilter, imageFilter);
+		return data.applyTo(texture);
+	}
 
-		// Decompress data if necessary
-		CountedInputStream uncompressedStream;
-		if (compressionScheme == 0) {
-			uncompressedStream = new CountedInputStream(aStream);
-			if (uncompressedLength != totalSectionLength - 13) {
-				throw new IOException("Section length mismatch [" + iResourceName + "].");
-			}
-		} else if (compressionScheme == 1) {
-			if (uncompressedLength == 0 && totalSectionLength - 13 == 0) {
-				uncompressedStream = new CountedInputStream(null);
-			} else {
-				if (uncompressedLength <= 0 || totalSectionLength - 13 <= 0) {
-					throw new IOException("Section length mismatch [" + iResourceName + "].");
+	private Object3D loadSprite3D(ByteBuffer aBuffer) throws IOException {
+		ObjectData data = loadNode(aBuffer);
+		Image2D image = readReference(aBuffer, Image2D.class);
+		Appearance appearance = readReference(aBuffer, Appearance.class);
+		Sprite3D sprite = new Sprite3D(readBoolean(aBuffer), image, appearance);
+		int cropX = readUInt32(aBuffer);
+		int cropY = readUInt32(aBuffer);
+		int cropWidth = readUInt32(aBuffer);
+		int cropHeight = readUInt32(aBuffer);
+		sprite.setCrop(cropX, cropY, cropWidth, cropHeight);
+		return data.applyTo(sprite);
+	}
+
+	private Object3D loadKeyframeSequence(ByteBuffer aBuffer) throws IOException {
+		ObjectData data = loadObject3D(aBuffer);
+		int interpolation = readByte(aBuffer);
+		int repeatMode = readByte(aBuffer);
+		int encoding = readByte(aBuffer);
+		int duration = readUInt32(aBuffer);
+		int validRangeFirst = readUInt32(aBuffer);
+		int validRangeLast = readUInt32(aBuffer);
+		int componentCount = readUInt32(aBuffer);
+		int keyframeCount = readUInt32(aBuffer);
+
+		KeyframeSequence sequence = new KeyframeSequence(keyframeCount, componentCount, interpolation);
+		sequence.setRepeatMode(repeatMode);
+		sequence.setDuration(duration);
+
+		float[] bias = new float[componentCount];
+		float[] scale = new float[componentCount];
+		if (encoding == 1 || encoding == 2) {
+			readFloats(aBuffer, bias);
+			readFloats(aBuffer, scale);
+		} else if (encoding != 0) {
+			throw new IOException("Invalid keyframe encoding [" + iResourceName + "].");
+		}
+		float[] value = new float[componentCount];
+		for (int i = 0; i < keyframeCount; i++) {
+			int time = readUInt32(aBuffer);
+			for (int c = 0; c < componentCount; c++) {
+				switch (encoding) {
+					case 0:
+						value[c] = readFloat32(aBuffer);
+						break;
+					case 1:
+						value[c] = bias[c] + scale[c] * readByte(aBuffer) / 255.0f;
+						break;
+					default:
+						value[c] = bias[c] + scale[c] * readUInt16(aBuffer) / 65535.0f;
+						break;
 				}
-				byte[] compressed = new byte[totalSectionLength - 13];
-				aStream.read(compressed);
+			}
+			sequence.setKeyframe(i, time, value);
+		}
+		sequence.setValidRange(validRangeFirst, validRangeLast);
+		return data.applyTo(sequence);
+	}
 
-				byte[] uncompressed = new byte[uncompressedLength];
+	private Object3D loadVertexArray(ByteBuffer aBuffer) throws IOException {
+		ObjectData data = loadObject3D(aBuffer);
+		int componentSize = readByte(aBuffer);
+		int componentCount = readByte(aBuffer);
+		int encoding = readByte(aBuffer);
+		int vertexCount = readUInt16(aBuffer);
+		if (encoding != 0 && encoding != 1) {
+			throw new IOException("Invalid vertex encoding [" + iResourceName + "].");
+		}
 
-				// zlib decompression
-				if (!_inflate(compressed, uncompressed)) {
-					throw new IOException("Decompression error.");
+		VertexArray array = new VertexArray(vertexCount, componentCount, componentSize);
+		int count = vertexCount * componentCount;
+		if (componentSize == 1) {
+			byte[] values = new byte[count];
+			aBuffer.get(values);
+			// Delta encoded arrays store each component relative to the previous vertex
+			if (encoding == 1) {
+				for (int i = componentCount; i < count; i++) {
+					values[i] += values[i - componentCount];
 				}
-				uncompressedStream = new CountedInputStream(
-						new ByteArrayInputStream(uncompressed));
 			}
+			array.set(0, vertexCount, values);
 		} else {
-			throw new IOException("Unrecognized compression scheme [" + iResourceName + "].");
+			short[] values = new short[count];
+			aBuffer.asShortBuffer().get(values);
+			aBuffer.position(aBuffer.position() + count * 2);
+			if (encoding == 1) {
+				for (int i = componentCount; i < count; i++) {
+					values[i] += values[i - componentCount];
+				}
+			}
+			array.set(0, vertexCount, values);
 		}
+		return data.applyTo(array);
+	}
 
-		// load all objects in this section
-		uncompressedStream.resetCounter();
+	private Object3D loadVertexBuffer(ByteBuffer aBuffer) throws IOException {
+		ObjectData data = loadObject3D(aBuffer);
+		VertexBuffer vertices = new VertexBuffer();
+		vertices.setDefaultColor(readColorRGBA(aBuffer));
+
+		VertexArray positions = readReference(aBuffer, VertexArray.class);
+		float[] bias = new float[3];
+		readFloats(aBuffer, bias);
+		float scale = readFloat32(aBuffer);
+		if (positions != null) {
+			vertices.setPositions(positions, scale, bias);
+		}
+		vertices.setNormals(readReference(aBuffer, VertexArray.class));
+		vertices.setColors(readReference(aBuffer, VertexArray.class));
+
+		int texCoordArrayCount = readUInt32(aBuffer);
+		for (int i = 0; i < texCoordArrayCount; i++) {
+			VertexArray texCoords = readReference(aBuffer, VertexArray.class);
+			bias = new float[3];
+			readFloats(aBuffer, bias);
+			scale = readFloat32(aBuffer);
+			if (texCoords != null) {
+				vertices.setTexCoords(i, texCoords, scale, bias);
+			}
+		}
+		return data.applyTo(vertices);
+	}
 
-		while (uncompressedStream.getCounter() < uncompressedLength) {
-			iLoadedObjects.addElement(loadObject(uncompressedStream));
+	/**
+	 * Fields of Object3D, read before the ones of the actual class
+	 */
+	private ObjectData loadObject3D(ByteBuffer aBuffer) throws IOException {
+		ObjectData data = new ObjectData();
+		data.userID = readUInt32(aBuffer);
+		int trackCount = readUInt32(aBuffer);
+		data.tracks = new AnimationTrack[trackCount];
+		for (int i = 0; i < trackCount; i++) {
+			data.tracks[i] = readReference(aBuffer, AnimationTrack.class);
 		}
+		int parameterCount = readUInt32(aBuffer);
+		if (parameterCount > 0) {
+			data.userParameters = new Hashtable<>();
+			for (int i = 0; i < parameterCount; i++) {
+				int id = readUInt32(aBuffer);
+				if (data.userParameters.put(id, readByteArray(aBuffer)) != null) {
+					throw new IOException("Duplicate id in user data [" + iResourceName + "].");
+				}
+			}
+		}
+		return data;
+	}
 
-		if (uncompressedStream.getCounter() != uncompressedLength) {
-			throw new IOException("Section length mismatch [" + iResourceName + "].");
+	private ObjectData loadTransformable(ByteBuffer aBuffer) throws IOException {
+		ObjectData data = loadObject3D(aBuffer);
+		if (readBoolean(aBuffer)) {
+			data.translation = new float[3];
+			data.scale = new float[3];
+			data.orientation = new float[4];
+			readFloats(aBuffer, data.translation);
+			readFloats(aBuffer, data.scale);
+			readFloats(aBuffer, data.orientation);
+		}
+		if (readBoolean(aBuffer)) {
+			data.transform = readMatrix(aBuffer);
 		}
+		return data;
+	}
 
-		// read checksum
-		int checksum = readUInt32(aStream);
+	private ObjectData loadNode(ByteBuffer aBuffer) throws IOException {
+		ObjectData data = loadTransformable(aBuffer);
+		data.isNode = true;
+		data.renderingEnabled = readBoolean(aBuffer);
+		data.pickingEnabled = readBoolean(aBuffer);
+		data.alphaFactor = readByte(aBuffer) / 255.0f;
+		data.scope = readUInt32(aBuffer);
+		if (readBoolean(aBuffer)) {
+			data.alignment = new PendingAlignment();
+			data.alignment.zTarget = readByte(aBuffer);
+			data.alignment.yTarget = readByte(aBuffer);
+			data.alignment.zReference = readUInt32(aBuffer);
+			data.alignment.yReference = readUInt32(aBuffer);
+		}
+		return data;
 	}
 
-	private Object3D loadObject(CountedInputStream aStream) throws IOException {
-		int objectType = readByte(aStream);
-		int length = readUInt32(aStream);
+	/**
+	 * Read an object index and resolve it against the objects loaded so far.
+	 *
+	 * @return null for index 0
+	 */
+	private <T extends Object3D> T readReference(ByteBuffer aBuffer, Class<T> aType) throws IOException {
+		return getObject(readUInt32(aBuffer), aType);
+	}
+
+	private <T extends Object3D> T getObject(int aIndex, Class<T> aType) throws IOException {
+		if (aIndex == 0) {
+			return null;
+		}
+		// Alignment references may point forward, anything else must be loaded already
+		Object3D object = aIndex > 0 && aIndex < iObjects.size() ? iObjects.elementAt(aIndex) : null;
+		if (!aType.isInstance(object)) {
+			throw new IOException("Invalid object reference " + aIndex + " [" + iResourceName + "].");
+		}
+		return aType.cast(object);
+	}
 
-		int expectedCount = aStream.getCounter() + length;
-		Object3D newObject;
+	private static Transform readMatrix(ByteBuffer aBuffer) throws IOException {
+		float[] matrix = new float[16];
+		readFloats(aBuffer, matrix);
+		Transform transform = new Transform();
+		transform.set(matrix);
+		return transform;
+	}
 
-		if (objectType == 255) {
-			String xref = readString(aStream);
-			newObject = (new Loader(iFileHistory, iResourceName)).loadFromStream(xref)[0];
-		} else {
-			throw new IOException("Invalid external section [" + iResourceName + "].");
+	/**
+	 * Fields of the base classes of an object, applied once the object is created
+	 */
+	private final class ObjectData {
+		int userID;
+		AnimationTrack[] tracks;
+		Hashtable<Integer, byte[]> userParameters;
+
+		// Transformable
+		float[] translation;
+		float[] scale;
+		float[] orientation;
+		Transform transform;
+
+		// Node
+		boolean isNode;
+		boolean renderingEnabled;
+		boolean pickingEnabled;
+		float alphaFactor;
+		int scope;
+		PendingAlignment alignment;
+
+		<T extends Object3D> T applyTo(T object) {
+			object.setUserID(userID);
+			for (AnimationTrack track : tracks) {
+				object.addAnimationTrack(track);
+			}
+			if (userParameters != null) {
+				object.setUserObject(userParameters);
+			}
+			if (object instanceof Transformable) {
+				Transformable transformable = (Transformable) object;
+				if (translation != null) {
+					transformable.setTranslation(translation[0], translation[1], translation[2]);
+					transformable.setScale(scale[0], scale[1], scale[2]);
+					transformable.setOrientation(orientation[0], orientation[1], orientation[2], orientation[3]);
+				}
+				if (transform != null) {
+					transformable.setTransform(transform);
+				}
+			}
+			if (isNode) {
+				Node node = (Node) object;
+				node.setRenderingEnable(renderingEnabled);
+				node.setPickingEnable(pickingEnabled);
+				node.setAlphaFactor(alphaFactor);
+				node.setScope(scope);
+				if (alignment != null) {
+					alignment.node = node;
+					iAlignments.addElement(alignment);
+				}
+			}
+			return object;
 		}
+	}
 
-		if (expectedCount != aStream.getCounter()) {
-			throw new IOException("Object length mismatch [" + iResourceName + "].");
+	/**
+	 * Node alignment, set once every object is loaded
+	 */
+	private static final class PendingAlignment {
+		Node node;
+		int zTarget;
+		int yTarget;
+		int zReference;
+		int yReference;
+	}
+
+	/**
+	 * A section as stored in the file, checked and inflated when called
+	 */
+	private static final class Section implements Callable<ByteBuffer> {
+		String resourceName;
+		int compressionScheme;
+		int totalLength;
+		int uncompressedLength;
+		byte[] data;
+		int checksum;
+
+		@Override
+		public ByteBuffer call() throws IOException {
+			Adler32 adler = new Adler32();
+			adler.update(compressionScheme);
+			updateUInt32(adler, totalLength);
+			updateUInt32(adler, uncompressedLength);
+			adler.update(data);
+			if ((int) adler.getValue() != checksum) {
+				throw new IOException("Checksum mismatch [" + resourceName + "].");
+			}
+
+			byte[] uncompressed;
+			switch (compressionScheme) {
+				case 0:
+					if (uncompressedLength != data.length) {
+						throw new IOException("Section length mismatch [" + resourceName + "].");
+					}
+					uncompressed = data;
+					break;
+				case 1:
+					uncompressed = inflate();
+					break;
+				default:
+					throw new IOException("Unrecognized compression scheme [" + resourceName + "].");
+			}
+			// The raw data is not needed anymore while the section waits to be decoded
+			data = null;
+			return ByteBuffer.wrap(uncompressed).order(ByteOrder.LITTLE_ENDIAN);
 		}
 
-		return newObject;
+		/**
+		 * zlib decompression
+		 */
+		private byte[] inflate() throws IOException {
+			byte[] uncompressed = new byte[uncompressedLength];
+			if (uncompressedLength == 0) {
+				return uncompressed;
+			}
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(data);
+				int length = inflater.inflate(uncompressed);
+				if (length != uncompressedLength || !inflater.finished()) {
+					throw new IOException("Decompression error.");
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("Decompression error.");
+			} finally {
+				inflater.end();
+			}
+			return uncompressed;
+		}
 	}
 
 	/**
-	 * Read a byte integer from a stream
+	 * Receives the progress of M3G files being loaded
 	 */
-	private static final int readByte(InputStream aStream) throws IOException {
-		return aStream.read();
+	public interface ProgressListener {
+		/**
+		 * Called on the loading thread each time a section of a file has been decoded.
+		 *
+		 * @param name        resource name, "ByteArray" for data loaded from memory
+		 * @param bytesLoaded bytes of the file decoded so far
+		 * @param totalBytes  total file size
+		 */
+		void onProgress(String name, int bytesLoaded, int totalBytes);
 	}
 
 	/**
-	 * Read a boolean from a stream
+	 * Read a byte integer from a buffer
 	 */
-	private static boolean readBoolean(InputStream aStream) throws IOException {
-		int b = aStream.read();
+	private static int readByte(ByteBuffer aBuffer) {
+		return aBuffer.get() & 0xFF;
+	}
+
+	/**
+	 * Read a boolean from a buffer
+	 */
+	private static boolean readBoolean(ByteBuffer aBuffer) throws IOException {
+		int b = aBuffer.get();
 		if (b == 0) {
 			return false;
 		}
@@ -656,27 +1375,75 @@ public class Loader {
 	}
 
 	/**
-	 * Read a unsigned integer from a stream
+	 * Read a unsigned integer from a buffer
 	 */
-	private static final int readUInt32(InputStream aStream) throws IOException {
-		return aStream.read()
-				+ (aStream.read() << 8)
-				+ (aStream.read() << 16)
-				+ (aStream.read() << 24);
+	private static int readUInt32(ByteBuffer aBuffer) {
+		return aBuffer.getInt();
 	}
 
 	/**
-	 * Read a string from a stream
+	 * Read a unsigned short integer from a buffer
 	 */
-	private static String readString(InputStream aStream) throws IOException {
+	private static int readUInt16(ByteBuffer aBuffer) {
+		return aBuffer.getShort() & 0xFFFF;
+	}
+
+	private static float readFloat32(ByteBuffer aBuffer) {
+		return aBuffer.getFloat();
+	}
+
+	private static void readFloats(ByteBuffer aBuffer, float[] aValues) {
+		aBuffer.asFloatBuffer().get(aValues);
+		aBuffer.position(aBuffer.position() + aValues.length * 4);
+	}
+
+	private static void readInts(ByteBuffer aBuffer, int[] aValues) {
+		aBuffer.asIntBuffer().get(aValues);
+		aBuffer.position(aBuffer.position() + aValues.length * 4);
+	}
+
+	/**
+	 * Read a color stored as R, G, B bytes
+	 */
+	private static int readColorRGB(ByteBuffer aBuffer) {
+		int r = readByte(aBuffer);
+		int g = readByte(aBuffer);
+		return (r << 16) | (g << 8) | readByte(aBuffer);
+	}
+
+	/**
+	 * Read a color stored as R, G, B, A bytes into ARGB
+	 */
+	private static int readColorRGBA(ByteBuffer aBuffer) {
+		int rgb = readColorRGB(aBuffer);
+		return (readByte(aBuffer) << 24) | rgb;
+	}
+
+	/**
+	 * Read a byte array prefixed with its length
+	 */
+	private static byte[] readByteArray(ByteBuffer aBuffer) {
+		int length = readUInt32(aBuffer);
+		if (length < 0 || length > aBuffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] data = new byte[length];
+		aBuffer.get(data);
+		return data;
+	}
+
+	/**
+	 * Read a null terminated UTF-8 string from a buffer
+	 */
+	private static String readString(ByteBuffer aBuffer) throws IOException {
 		StringBuilder result = new StringBuilder();
-		for (int c = aStream.read(); c != 0; c = aStream.read()) {
+		for (int c = readByte(aBuffer); c != 0; c = readByte(aBuffer)) {
 			if ((c & 0x80) == 0)   // 0xxxxxxx => 1 byte
 			{
 				result.append((char) (c & 0x00FF));
 			} else if ((c & 0xE0) == 0xC0)   // 110xxxxx => 2 bytes
 			{
-				int c2 = aStream.read();
+				int c2 = readByte(aBuffer);
 				if ((c2 & 0xC0) != 0x80)   // second byte is not 10yyyyyy
 				{
 					throw new IOException("Invalid UTF-8 string.");
@@ -686,8 +1453,8 @@ public class Loader {
 				}
 			} else if ((c & 0xF0) == 0xE0)   // 1110 xxxx => 3 bytes
 			{
-				int c2 = aStream.read();
-				int c3 = aStream.read();
+				int c2 = readByte(aBuffer);
+				int c3 = readByte(aBuffer);
 				if (((c2 & 0xC0) != 0x80) || // second byte is not 10yyyyyy
 						((c3 & 0xC0) != 0x80))   // third byte is not 10zzzzzz
 				{
@@ -715,7 +1482,17 @@ public class Loader {
 	 */
 	private int getIdentifierType(InputStream aStream) throws IOException {
 		byte[] data = new byte[MAX_IDENTIFIER_LENGTH];
-		aStream.read(data);
+		int length = 0;
+		while (length < data.length) {
+			int n = aStream.read(data, length, data.length - length);
+			if (n == -1) {
+				break;
+			}
+			length += n;
+		}
+		if (length < data.length) {
+			data = Arrays.copyOf(data, length);
+		}
 		return getIdentifierType(data, 0);
 	}
 
@@ -834,135 +1611,4 @@ public class Loader {
 			return getHttpInputStream(uri);
 		}
 	}
-
-	class PeekInputStream extends InputStream {
-		private int[] iPeekBuffer;
-		private InputStream iStream;
-		private int iBuffered;
-		private int iCounter;
-
-		PeekInputStream(InputStream aStream, int aLength) {
-			iStream = aStream;
-			iPeekBuffer = new int[aLength];
-		}
-
-		@Override
-		public int read() throws IOException {
-			if (iCounter < iBuffered) {
-				return iPeekBuffer[iCounter++];
-			}
-
-			int nv = iStream.read();
-
-			if (iBuffered < iPeekBuffer.length) {
-				iPeekBuffer[iBuffered] = nv;
-				iBuffered++;
-			}
-
-			iCounter++;
-			return nv;
-		}
-
-		public void increasePeekBuffer(int aLength) {
-			int[] temp = new int[iPeekBuffer.length + aLength];
-			System.arraycopy(iPeekBuffer, 0, temp, 0, iBuffered);
-			iPeekBuffer = temp;
-		}
-
-		@Override
-		public int available() throws IOException {
-			if (iCounter < iBuffered) {
-				return iBuffered - iCounter + iStream.available();
-			}
-			return iStream.available();
-		}
-
-		@Override
-		public void close() {
-			try {
-				iStream.close();
-			} catch (IOException ioe) {
-				// Intentionally left empty
-			}
-		}
-
-		public void rewind() throws IOException {
-			if (iCounter > iBuffered) {
-				throw new IOException("Peek buffer overrun.");
-			}
-			iCounter = 0;
-		}
-	}
-
-	class CountedInputStream extends InputStream {
-		private InputStream iStream;
-		private int iCounter;
-
-		public CountedInputStream(InputStream aStream) {
-			iStream = aStream;
-			resetCounter();
-		}
-
-		@Override
-		public int read() throws IOException {
-			iCounter++;
-			return iStream.read();
-		}
-
-		public void resetCounter() {
-			iCounter = 0;
-		}
-
-		public int getCounter() {
-			return iCounter;
-		}
-
-		@Override
-		public void close() {
-			try {
-				iStream.close();
-			} catch (IOException ioe) {
-				// Intentionally left empty
-			}
-		}
-
-		@Override
-		public int available() throws IOException {
-			return iStream.available();
-		}
-	}
-
-	//#ifdef RD_JAVA_OMJ
-	private void doFinalize() {
-		registeredFinalize();
-	}
-//#endif // RD_JAVA_OMJ
-
-	// Finalization method for Symbian
-	private void registeredFinalize() {
-		if (handle != 0) {
-			Platform.finalizeObject(handle, iInterface);
-			Interface.deregister(this, iInterface);
-			iInterface = null;
-			handle = 0;
-		}
-	}
-
-	// zlib decompression
-	private native static boolean _inflate(byte[] data, byte[] buffer);
-
-	// native loader
-	private native static long _ctor(long handle);
-
-	private native static int _decodeData(long handle, int offset, byte[] data);
-
-	private native static void _setExternalReferences(long handle, long[] references);
-
-	private native static int _getLoadedObjects(long handle, long[] objects);
-
-	private native static int _getObjectsWithUserParameters(long handle, long[] objects);
-
-	private native static int _getNumUserParameters(long handle, int obj);
-
-	private native static int _getUserParameter(long handle, int obj, int index, byte[] data);
 }
@@ -27,18 +27,22 @@ public class Material extends Object3D {
 	public static final int EMISSIVE = 4096;
 	public static final int SPECULAR = 8192;
 
+	//------------------------------------------------------------------
+	// Instance data
+	//------------------------------------------------------------------
+
+	private int ambient = 0x333333;
+	private int diffuse = 0xFFCCCCCC;
+	private int emissive = 0x000000;
+	private int specular = 0x000000;
+	private float shininess = 0.0f;
+	private boolean vertexColorTracking;
+
 	//------------------------------------------------------------------
 	// Constructor(s)
 	//------------------------------------------------------------------
 
 	public Material() {
-		super(_ctor(Interface.getHandle()));
-	}
-
-	/**
-	 */
-	Material(long handle) {
-		super(handle);
 	}
 
 	//------------------------------------------------------------------
@@ -46,44 +50,99 @@ public class Material extends Object3D {
 	//------------------------------------------------------------------
 
 	public void setColor(int target, int ARGB) {
-		_setColor(handle, target, ARGB);
+		if ((target & ~(AMBIENT | DIFFUSE | EMISSIVE | SPECULAR)) != 0 || target == 0) {
+			throw new IllegalArgumentException();
+		}
+		if ((target & AMBIENT) != 0) {
+			ambient = ARGB & 0xFFFFFF;
+		}
+		if ((target & DIFFUSE) != 0) {
+			diffuse = ARGB;
+		}
+		if ((target & EMISSIVE) != 0) {
+			emissive = ARGB & 0xFFFFFF;
+		}
+		if ((target & SPECULAR) != 0) {
+			specular = ARGB & 0xFFFFFF;
+		}
 	}
 
 	public int getColor(int target) {
-		return _getColor(handle, target);
+		switch (target) {
+			case AMBIENT:
+				return ambient;
+			case DIFFUSE:
+				return diffuse;
+			case EMISSIVE:
+				return emissive;
+			case SPECULAR:
+				return specular;
+			default:
+				throw new IllegalArgumentException();
+		}
 	}
 
 	public void setShininess(float shininess) {
-		_setShininess(handle, shininess);
+		if (shininess < 0 || shininess > 128) {
+			throw new IllegalArgumentException();
+		}
+		this.shininess = shininess;
 	}
 
 	public float getShininess() {
-		return _getShininess(handle);
+		return shininess;
 	}
 
 	public void setVertexColorTrackingEnable(boolean enable) {
-		_setVertexColorTrackingEnable(handle, enable);
+		vertexColorTracking = enable;
 	}
 
 	public boolean isVertexColorTrackingEnabled() {
-		return _isVertexColorTrackingEnabled(handle);
+		return vertexColorTracking;
 	}
 
 	//------------------------------------------------------------------
-	// Private methods
+	// Package private methods
 	//------------------------------------------------------------------
 
-	private native static long _ctor(long hInstance);
-
-	private native static void _setColor(long handle, int target, int ARGB);
-
-	private native static int _getColor(long handle, int target);
-
-	private native static void _setShininess(long handle, float shininess);
-
-	private native static float _getShininess(long handle);
-
-	private native static void _setVertexColorTrackingEnable(long handle, boolean enable);
+	@Override
+	boolean isCompatible(AnimationTrack track) {
+		switch (track.getTargetProperty()) {
+			case AnimationTrack.ALPHA:
+			case AnimationTrack.AMBIENT_COLOR:
+			case AnimationTrack.DIFFUSE_COLOR:
+			case AnimationTrack.EMISSIVE_COLOR:
+			case AnimationTrack.SHININESS:
+			case AnimationTrack.SPECULAR_COLOR:
+				return true;
+			default:
+				return super.isCompatible(track);
+		}
+	}
 
-	private native static boolean _isVertexColorTrackingEnabled(long handle);
+	@Override
+	void updateProperty(int property, float[] value) {
+		switch (property) {
+			case AnimationTrack.ALPHA:
+				diffuse = (diffuse & 0xFFFFFF) | toAlpha(value[0]);
+				break;
+			case AnimationTrack.AMBIENT_COLOR:
+				ambient = toRGB(value);
+				break;
+			case AnimationTrack.DIFFUSE_COLOR:
+				diffuse = (diffuse & 0xFF000000) | toRGB(value);
+				break;
+			case AnimationTrack.EMISSIVE_COLOR:
+				emissive = toRGB(value);
+				break;
+			case AnimationTrack.SHININESS:
+				shininess = clamp(value[0], 0, 128);
+				break;
+			case AnimationTrack.SPECULAR_COLOR:
+				specular = toRGB(value);
+				break;
+			default:
+				super.updateProperty(property, value);
+		}
+	}
 }
@@ -17,6 +17,10 @@
 
 package javax.microedition.m3g;
 
+import com.badlogic.gdx.graphics.glutils.VertexBufferObject;
+
+import java.util.IdentityHashMap;
+
 public class Mesh extends Node {
 	//------------------------------------------------------------------
 	// Instance data
@@ -26,33 +30,38 @@ public class Mesh extends Node {
 	private Appearance[] appearances;
 	private IndexBuffer[] triangles;
 
-	static private IndexBuffer[] tempTrianglesArray;
-	static private Appearance[] tempAppearanceArray;
-
-	static private IndexBuffer tempTriangles;
-	static private Appearance tempAppearance;
+	// vertices deformed on the CPU, for subclasses that deform
+	private GLResource<VertexBufferObject> deformed;
+	private int deformedCount;
+	// reused by getVBO between frames
+	private float[] positionData;
+	private float[] normalData;
+	private float[] colorData;
+	private float[] vertexData;
 
 	//------------------------------------------------------------------
 	// Constructor(s)
 	//------------------------------------------------------------------
 
-	Mesh(long handle) {
-		super(handle);
-		updateReferences();
-	}
-
 	public Mesh(VertexBuffer vertices,
 				IndexBuffer[] triangles,
 				Appearance[] appearances) {
-		super(createHandle(vertices, triangles, appearances));
-		updateReferences();
+		verifyParams(vertices, triangles, appearances);
+		this.vertices = vertices;
+		this.triangles = triangles.clone();
+		this.appearances = new Appearance[triangles.length];
+		if (appearances != null) {
+			System.arraycopy(appearances, 0, this.appearances, 0, triangles.length);
+		}
 	}
 
 	public Mesh(VertexBuffer vertices,
 				IndexBuffer triangles,
 				Appearance appearance) {
-		super(createHandle(vertices, triangles, appearance));
-		updateReferences();
+		verifyParams(vertices, triangles);
+		this.vertices = vertices;
+		this.triangles = new IndexBuffer[]{triangles};
+		this.appearances = new Appearance[]{appearance};
 	}
 
 	//------------------------------------------------------------------
@@ -60,7 +69,6 @@ public class Mesh extends Node {
 	//------------------------------------------------------------------
 
 	public void setAppearance(int index, Appearance appearance) {
-		_setAppearance(handle, index, appearance != null ? appearance.handle : 0);
 		appearances[index] = appearance;
 	}
 
@@ -77,11 +85,11 @@ public class Mesh extends Node {
 	}
 
 	public int getSubmeshCount() {
-		return _getSubmeshCount(handle);
+		return triangles.length;
 	}
 
 	//------------------------------------------------------------------
-	// Private methods
+	// Package private methods
 	//------------------------------------------------------------------
 
 	static void verifyParams(VertexBuffer vertices,
@@ -108,104 +116,206 @@ public class Mesh extends Node {
 		}
 	}
 
-	void updateReferences() {
-		triangles = new IndexBuffer[_getSubmeshCount(handle)];
-		appearances = new Appearance[triangles.length];
+	/**
+	 * @return true if the vertices are deformed by {@link #deform} before drawing
+	 */
+	boolean isDeformed() {
+		return false;
+	}
 
-		vertices = (VertexBuffer) getInstance(_getVertexBuffer(handle));
+	/**
+	 * Deform the vertices in place, arrays hold three floats per vertex
+	 * (four for colors) and any of them may be null.
+	 */
+	void deform(float[] positions, float[] normals, float[] colors) {
+	}
 
-		for (int i = 0; i < triangles.length; i++) {
-			triangles[i] = (IndexBuffer) getInstance(_getIndexBuffer(handle, i));
-			appearances[i] = (Appearance) getInstance(_getAppearance(handle, i));
+	/**
+	 * Get the GL buffer to draw the mesh from. Must be called on the GL thread.
+	 */
+	GLResource<VertexBufferObject> getVBO() {
+		if (!isDeformed()) {
+			return vertices.getVBO();
+		}
+		positionData = vertices.getPositionData(positionData);
+		normalData = vertices.getNormalData(normalData);
+		colorData = vertices.getColorData(colorData);
+		deform(positionData, normalData, colorData);
+		vertexData = vertices.getVertexData(vertexData, positionData, normalData, colorData);
+		int count = vertices.getVertexCount();
+		if (deformed != null && deformedCount != count) {
+			deformed.releaseOwner();
+			deformed = null;
+		}
+		if (deformed == null) {
+			deformed = new GLResource<>(this, new VertexBufferObject(false, count, VertexBuffer.ATTRIBUTES));
+			deformedCount = count;
 		}
+		deformed.get().setVertices(vertexData, 0, vertexData.length);
+		return deformed;
 	}
 
-	static long createHandle(VertexBuffer vertices,
-							IndexBuffer[] triangles,
-							Appearance[] appearances) {
-
-		tempTrianglesArray = triangles;
-		tempAppearanceArray = appearances;
-
-		// Verify parameters
-		verifyParams(vertices, triangles, appearances);
-
-		// Init the native side
-		long[] hTriangles = new long[triangles.length];
-		long[] hAppearances = null;
-
-		if (appearances != null) {
-			hAppearances = new long[appearances.length];
+	/**
+	 * @return the positions as drawn, three floats per vertex
+	 */
+	float[] getDeformedPositions() {
+		float[] positions = vertices.getPositionData();
+		if (positions != null && isDeformed()) {
+			deform(positions, null, null);
 		}
+		return positions;
+	}
 
+	/**
+	 * Intersect a ray in the coordinates of this mesh with its submeshes.
+	 *
+	 * @param ray    origin and direction
+	 * @param result filled as described in {@link RayIntersection#createResult()}
+	 *               if the hit is closer than the distance already in it
+	 * @return true if a closer hit was found
+	 */
+	boolean intersect(float[] ray, float[] result) {
+		float[] positions = getDeformedPositions();
+		if (positions == null) {
+			return false;
+		}
+		boolean hit = false;
+		float[] uv = new float[3];
 		for (int i = 0; i < triangles.length; i++) {
-			hTriangles[i] = triangles[i].handle;
-
-			if (appearances != null) {
-				hAppearances[i] = appearances[i] != null ? appearances[i].handle : 0;
+			Appearance appearance = appearances[i];
+			if (appearance == null) {
+				continue;
+			}
+			PolygonMode polygonMode = appearance.getPolygonMode();
+			int culling = polygonMode != null ? polygonMode.getCulling() : PolygonMode.CULL_BACK;
+			boolean cw = polygonMode != null && polygonMode.getWinding() == PolygonMode.WINDING_CW;
+			int[] indices = triangles[i].triangles;
+			for (int t = 0; t + 2 < indices.length; t += 3) {
+				int a = indices[t], b = indices[t + 1], c = indices[t + 2];
+				if (cw) {
+					int swap = b;
+					b = c;
+					c = swap;
+				}
+				if (intersectTriangle(ray, positions, a, b, c, culling, uv) && uv[0] < result[0]) {
+					result[0] = uv[0];
+					result[1] = i;
+					fillHit(positions, a, b, c, uv[1], uv[2], result);
+					hit = true;
+				}
 			}
 		}
-
-		long ret = _ctor(Interface.getHandle(),
-				vertices.handle,
-				hTriangles,
-				hAppearances);
-
-
-		tempTrianglesArray = null;
-		tempAppearanceArray = null;
-
-		return ret;
-
+		return hit;
 	}
 
-	static long createHandle(VertexBuffer vertices,
-							IndexBuffer triangles,
-							Appearance appearance) {
-
-		tempTriangles = triangles;
-		tempAppearance = appearance;
-
-		verifyParams(vertices, triangles);
-
-		// Init the native side
-		long[] hTriangles = new long[1];
-		long[] hAppearances = null;
-
-		hTriangles[0] = triangles.handle;
-
-		if (appearance != null) {
-			hAppearances = new long[1];
-			hAppearances[0] = appearance.handle;
+	@Override
+	int getReferences(Object3D[] references, int n) {
+		n = super.getReferences(references, n);
+		n = addReference(references, n, vertices);
+		for (IndexBuffer buffer : triangles) {
+			n = addReference(references, n, buffer);
 		}
-
-		long ret = _ctor(Interface.getHandle(),
-				vertices.handle,
-				hTriangles,
-				hAppearances);
-
-
-		tempTriangles = null;
-		tempAppearance = null;
-
-
-		return ret;
-
+		for (Appearance appearance : appearances) {
+			n = addReference(references, n, appearance);
+		}
+		return n;
 	}
 
-	// Native methods
-	private static native long _ctor(long hInstance,
-									long hVertices,
-									long[] hTriangles,
-									long[] hAppearances);
-
-	private static native void _setAppearance(long handle, int index, long hAppearance);
-
-	private static native long _getAppearance(long handle, int index);
+	@Override
+	Object3D duplicate(IdentityHashMap<Object3D, Object3D> duplicates) {
+		Mesh copy = (Mesh) super.duplicate(duplicates);
+		copy.triangles = triangles.clone();
+		copy.appearances = appearances.clone();
+		copy.deformed = null;
+		copy.positionData = null;
+		copy.normalData = null;
+		copy.colorData = null;
+		copy.vertexData = null;
+		return copy;
+	}
 
-	private static native long _getIndexBuffer(long handle, int index);
+	//------------------------------------------------------------------
+	// Private methods
+	//------------------------------------------------------------------
 
-	private static native long _getVertexBuffer(long handle);
+	/**
+	 * Moller-Trumbore test of a counter-clockwise triangle.
+	 *
+	 * @param out receives the ray parameter and the barycentric coordinates of b and c
+	 */
+	private static boolean intersectTriangle(float[] ray, float[] p, int a, int b, int c,
+											 int culling, float[] out) {
+		float e1x = p[b * 3] - p[a * 3], e1y = p[b * 3 + 1] - p[a * 3 + 1], e1z = p[b * 3 + 2] - p[a * 3 + 2];
+		float e2x = p[c * 3] - p[a * 3], e2y = p[c * 3 + 1] - p[a * 3 + 1], e2z = p[c * 3 + 2] - p[a * 3 + 2];
+		float dx = ray[3], dy = ray[4], dz = ray[5];
+		float px = dy * e2z - dz * e2y, py = dz * e2x - dx * e2z, pz = dx * e2y - dy * e2x;
+		float det = e1x * px + e1y * py + e1z * pz;
+		// a front face seen along the ray has a positive determinant
+		if (det == 0 || (culling == PolygonMode.CULL_BACK && det < 0)
+				|| (culling == PolygonMode.CULL_FRONT && det > 0)) {
+			return false;
+		}
+		float inv = 1 / det;
+		float tx = ray[0] - p[a * 3], ty = ray[1] - p[a * 3 + 1], tz = ray[2] - p[a * 3 + 2];
+		float u = (tx * px + ty * py + tz * pz) * inv;
+		if (u < 0 || u > 1) {
+			return false;
+		}
+		float qx = ty * e1z - tz * e1y, qy = tz * e1x - tx * e1z, qz = tx * e1y - ty * e1x;
+		float v = (dx * qx + dy * qy + dz * qz) * inv;
+		if (v < 0 || u + v > 1) {
+			return false;
+		}
+		float t = (e2x * qx + e2y * qy + e2z * qz) * inv;
+		if (t < 0) {
+			return false;
+		}
+		out[0] = t;
+		out[1] = u;
+		out[2] = v;
+		return true;
+	}
 
-	private static native int _getSubmeshCount(long handle);
+	private void fillHit(float[] positions, int a, int b, int c, float u, float v, float[] result) {
+		float w = 1 - u - v;
+		float[] texCoord = new float[3];
+		for (int unit = 0; unit < Defs.NUM_TEXTURE_UNITS; unit++) {
+			float s = 0, t = 0;
+			int[] corners = {a, b, c};
+			float[] weights = {w, u, v};
+			for (int k = 0; k < 3; k++) {
+				vertices.getTexCoord(unit, corners[k], texCoord);
+				s += texCoord[0] * weights[k];
+				t += texCoord[1] * weights[k];
+			}
+			result[2 + unit] = s;
+			result[2 + Defs.NUM_TEXTURE_UNITS + unit] = t;
+		}
+		float[] normals = vertices.getNormalData();
+		float nx, ny, nz;
+		if (normals != null && !isDeformed()) {
+			nx = normals[a * 3] * w + normals[b * 3] * u + normals[c * 3] * v;
+			ny = normals[a * 3 + 1] * w + normals[b * 3 + 1] * u + normals[c * 3 + 1] * v;
+			nz = normals[a * 3 + 2] * w + normals[b * 3 + 2] * u + normals[c * 3 + 2] * v;
+		} else {
+			float e1x = positions[b * 3] - positions[a * 3];
+			float e1y = positions[b * 3 + 1] - positions[a * 3 + 1];
+			float e1z = positions[b * 3 + 2] - positions[a * 3 + 2];
+			float e2x = positions[c * 3] - positions[a * 3];
+			float e2y = positions[c * 3 + 1] - positions[a * 3 + 1];
+			float e2z = positions[c * 3 + 2] - positions[a * 3 + 2];
+			nx = e1y * e2z - e1z * e2y;
+			ny = e1z * e2x - e1x * e2z;
+			nz = e1x * e2y - e1y * e2x;
+		}
+		float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+		if (length > 0) {
+			nx /= length;
+			ny /= length;
+			nz /= length;
+		}
+		result[2 + 2 * Defs.NUM_TEXTURE_UNITS] = nx;
+		result[3 + 2 * Defs.NUM_TEXTURE_UNITS] = ny;
+		result[4 + 2 * Defs.NUM_TEXTURE_UNITS] = nz;
+	}
 }
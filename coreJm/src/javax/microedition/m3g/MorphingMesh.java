@@ -17,18 +17,22 @@
 
 package javax.microedition.m3g;
 
+import java.util.IdentityHashMap;
+
 public class MorphingMesh extends Mesh {
 	//------------------------------------------------------------------
 	// Instance data
 	//------------------------------------------------------------------
 
 	private VertexBuffer[] targets;
-
-	static private IndexBuffer[] tempTrianglesArray;
-	static private Appearance[] tempAppearanceArray;
-
-	static private IndexBuffer tempTriangles;
-	static private Appearance tempAppearance;
+	private float[] weights;
+	// reused by deform between frames
+	private float[] basePositions;
+	private float[] baseNormals;
+	private float[] baseColors;
+	private float[] targetPositions;
+	private float[] targetNormals;
+	private float[] targetColors;
 
 	//------------------------------------------------------------------
 	// Constructor(s)
@@ -39,9 +43,8 @@ public class MorphingMesh extends Mesh {
 			VertexBuffer[] targets,
 			IndexBuffer triangles,
 			Appearance appearance) {
-		super(createHandle(base, targets, triangles, appearance));
-		this.targets = new VertexBuffer[targets.length];
-		System.arraycopy(targets, 0, this.targets, 0, targets.length);
+		super(base, triangles, appearance);
+		setTargets(targets);
 	}
 
 	public MorphingMesh(
@@ -49,19 +52,8 @@ public class MorphingMesh extends Mesh {
 			VertexBuffer[] targets,
 			IndexBuffer[] triangles,
 			Appearance[] appearances) {
-		super(createHandle(base, targets, triangles, appearances));
-		this.targets = new VertexBuffer[targets.length];
-		System.arraycopy(targets, 0, this.targets, 0, targets.length);
-	}
-
-	/**
-	 */
-	MorphingMesh(long handle) {
-		super(handle);
-		targets = new VertexBuffer[_getMorphTargetCount(handle)];
-		for (int i = 0; i < targets.length; i++) {
-			targets[i] = (VertexBuffer) getInstance(_getMorphTarget(handle, i));
-		}
+		super(base, triangles, appearances);
+		setTargets(targets);
 	}
 
 	public VertexBuffer getMorphTarget(int index) {
@@ -69,117 +61,154 @@ public class MorphingMesh extends Mesh {
 	}
 
 	public int getMorphTargetCount() {
-		return _getMorphTargetCount(handle);
+		return targets.length;
 	}
 
 	public void setWeights(float[] weights) {
-		_setWeights(handle, weights);
+		if (weights == null) {
+			throw new NullPointerException();
+		}
+		if (weights.length < targets.length) {
+			throw new IllegalArgumentException();
+		}
+		System.arraycopy(weights, 0, this.weights, 0, targets.length);
 	}
 
 	public void getWeights(float[] weights) {
-		_getWeights(handle, weights);
+		if (weights == null) {
+			throw new NullPointerException();
+		}
+		if (weights.length < targets.length) {
+			throw new IllegalArgumentException();
+		}
+		System.arraycopy(this.weights, 0, weights, 0, targets.length);
 	}
 
 	//------------------------------------------------------------------
-	// Private methods
+	// Package private methods
 	//------------------------------------------------------------------
 
-	static long createHandle(VertexBuffer base,
-							VertexBuffer[] targets,
-							IndexBuffer triangles,
-							Appearance appearance) {
-
-		tempTriangles = triangles;
-		tempAppearance = appearance;
-
-		verifyParams(base, triangles);
-
-		long[] hTargets = new long[targets.length];
-		long[] hTriangles;
-		long[] hAppearances = null;
+	@Override
+	boolean isDeformed() {
+		return true;
+	}
 
+	/**
+	 * base + sum of weight * (target - base), for each attribute present in
+	 * both the base and a target
+	 */
+	@Override
+	synchronized void deform(float[] positions, float[] normals, float[] colors) {
+		basePositions = copy(positions, basePositions);
+		baseNormals = copy(normals, baseNormals);
+		baseColors = copy(colors, baseColors);
 		for (int i = 0; i < targets.length; i++) {
-			hTargets[i] = targets[i].handle;
+			float weight = weights[i];
+			if (weight == 0) {
+				continue;
+			}
+			VertexBuffer target = targets[i];
+			if (positions != null) {
+				targetPositions = target.getPositionData(targetPositions);
+				accumulate(positions, basePositions, targetPositions, weight);
+			}
+			if (normals != null) {
+				targetNormals = target.getNormalData(targetNormals);
+				accumulate(normals, baseNormals, targetNormals, weight);
+			}
+			if (colors != null) {
+				targetColors = target.getColorData(targetColors);
+				accumulate(colors, baseColors, targetColors, weight);
+			}
 		}
-
-		hTriangles = new long[1];
-		hTriangles[0] = triangles.handle;
-
-		if (appearance != null) {
-			hAppearances = new long[1];
-			hAppearances[0] = appearance.handle;
+		if (colors != null) {
+			for (int i = 0; i < colors.length; i++) {
+				colors[i] = clamp(colors[i], 0, 1);
+			}
 		}
-
-		long ret = _ctor(Interface.getHandle(),
-				base.handle,
-				hTargets,
-				hTriangles,
-				hAppearances);
-
-		tempTriangles = null;
-		tempAppearance = null;
-
-		return ret;
 	}
 
-	static long createHandle(VertexBuffer base,
-							VertexBuffer[] targets,
-							IndexBuffer[] triangles,
-							Appearance[] appearances) {
+	@Override
+	boolean isCompatible(AnimationTrack track) {
+		return track.getTargetProperty() == AnimationTrack.MORPH_WEIGHTS || super.isCompatible(track);
+	}
 
-		tempTrianglesArray = triangles;
-		tempAppearanceArray = appearances;
+	@Override
+	void updateProperty(int property, float[] value) {
+		if (property == AnimationTrack.MORPH_WEIGHTS) {
+			for (int i = 0; i < targets.length; i++) {
+				weights[i] = i < value.length ? value[i] : 0;
+			}
+		} else {
+			super.updateProperty(property, value);
+		}
+	}
 
+	@Override
+	int getReferences(Object3D[] references, int n) {
+		n = super.getReferences(references, n);
+		for (VertexBuffer target : targets) {
+			n = addReference(references, n, target);
+		}
+		return n;
+	}
 
-		verifyParams(base, triangles, appearances);
+	@Override
+	Object3D duplicate(IdentityHashMap<Object3D, Object3D> duplicates) {
+		MorphingMesh copy = (MorphingMesh) super.duplicate(duplicates);
+		copy.targets = targets.clone();
+		copy.weights = weights.clone();
+		copy.basePositions = null;
+		copy.baseNormals = null;
+		copy.baseColors = null;
+		copy.targetPositions = null;
+		copy.targetNormals = null;
+		copy.targetColors = null;
+		return copy;
+	}
 
-		long[] hTargets = new long[targets.length];
-		long[] hTriangles;
-		long[] hAppearances = null;
+	//------------------------------------------------------------------
+	// Private methods
+	//------------------------------------------------------------------
 
-		for (int i = 0; i < targets.length; i++) {
-			hTargets[i] = targets[i].handle;
+	private void setTargets(VertexBuffer[] targets) {
+		if (targets == null) {
+			throw new NullPointerException();
 		}
-
-		hTriangles = new long[triangles.length];
-
-		if (appearances != null) {
-			hAppearances = new long[appearances.length];
+		if (targets.length == 0) {
+			throw new IllegalArgumentException();
 		}
-
-		for (int i = 0; i < triangles.length; i++) {
-			hTriangles[i] = triangles[i].handle;
-
-			if (hAppearances != null) {
-				hAppearances[i] = appearances[i] != null ? appearances[i].handle : 0;
+		for (VertexBuffer target : targets) {
+			if (target == null) {
+				throw new NullPointerException();
 			}
 		}
-
-		long ret = _ctor(Interface.getHandle(),
-				base.handle,
-				hTargets,
-				hTriangles,
-				hAppearances);
-
-		tempTrianglesArray = null;
-		tempAppearanceArray = null;
-
-		return ret;
-
+		this.targets = targets.clone();
+		weights = new float[targets.length];
 	}
 
-	// Native methods
-	private static native long _ctor(long hInstance,
-									long handle,
-									long[] hTargets,
-									long[] hTriangles,
-									long[] hAppearances);
-
-	private static native void _setWeights(long handle, float[] weights);
-
-	private static native void _getWeights(long handle, float[] weights);
-
-	private static native long _getMorphTarget(long handle, int index);
+	/**
+	 * @return a copy of data in out if it has the right length or else in a
+	 * new array, or null if data is null
+	 */
+	private static float[] copy(float[] data, float[] out) {
+		if (data == null) {
+			return null;
+		}
+		if (out == null || out.length != data.length) {
+			out = new float[data.length];
+		}
+		System.arraycopy(data, 0, out, 0, data.length);
+		return out;
+	}
 
-	private static native int _getMorphTargetCount(long handle);
+	private static void accumulate(float[] out, float[] base, float[] target, float weight) {
+		if (target == null) {
+			return;
+		}
+		int n = Math.min(out.length, target.length);
+		for (int i = 0; i < n; i++) {
+			out[i] += weight * (target[i] - base[i]);
+		}
+	}
 }
@@ -17,6 +17,8 @@
 
 package javax.microedition.m3g;
 
+import java.util.IdentityHashMap;
+
 public abstract class Node extends Transformable {
 	//------------------------------------------------------------------
 	// Static data
@@ -32,13 +34,14 @@ public abstract class Node extends Transformable {
 	// Instance data
 	//------------------------------------------------------------------
 
-	// The node references are kept on the Java side to avoid having
-	// to replicate garbage collection in the native implementation.
-	// Instead, we let Java manage Node reachability detection and
-	// deletion.
-
 	private Node parent;
 	private Node zRef, yRef;
+	private int zTarget = NONE;
+	private int yTarget = NONE;
+	private float alphaFactor = 1.0f;
+	private boolean renderingEnabled = true;
+	private boolean pickingEnabled = true;
+	private int scope = -1;
 
 	//------------------------------------------------------------------
 	// Constructor(s)
@@ -48,11 +51,7 @@ public abstract class Node extends Transformable {
 	 * There is only a package private constructor. Applications can not extend
 	 * this class directly.</p>
 	 */
-	Node(long handle) {
-		super(handle);
-		parent = (Node) getInstance(_getParent(handle));
-		zRef = (Node) getInstance(_getZRef(handle));
-		yRef = (Node) getInstance(_getYRef(handle));
+	Node() {
 	}
 
 	//------------------------------------------------------------------
@@ -64,54 +63,78 @@ public abstract class Node extends Transformable {
 	}
 
 	public boolean getTransformTo(Node target, Transform transform) {
-		return _getTransformTo(handle,
-				target.handle,
-				transform != null ? transform.matrix : null);
+		if (target == null || transform == null) {
+			throw new NullPointerException();
+		}
+		if (getRoot() != target.getRoot()) {
+			return false;
+		}
+		float[] fromThis = new float[16];
+		float[] fromTarget = new float[16];
+		getTransformToRoot(fromThis);
+		target.getTransformToRoot(fromTarget);
+		if (!Transform.invert(fromTarget, fromTarget)) {
+			throw new ArithmeticException();
+		}
+		Transform.mul(transform.matrix, fromTarget, fromThis);
+		return true;
 	}
 
 	public void setAlignment(Node zReference, int zTarget,
 							 Node yReference, int yTarget) {
-		_setAlignment(handle,
-				zReference != null ? zReference.handle : 0, zTarget,
-				yReference != null ? yReference.handle : 0, yTarget);
+		if (zTarget < NONE || zTarget > Z_AXIS || yTarget < NONE || yTarget > Z_AXIS) {
+			throw new IllegalArgumentException();
+		}
+		if (zReference == this || yReference == this
+				|| (zReference == yReference && zTarget == yTarget && zTarget != NONE)) {
+			throw new IllegalArgumentException();
+		}
 		zRef = zReference;
 		yRef = yReference;
+		this.zTarget = zTarget;
+		this.yTarget = yTarget;
 	}
 
 	public void setAlphaFactor(float alphaFactor) {
-		_setAlphaFactor(handle, alphaFactor);
+		if (alphaFactor < 0 || alphaFactor > 1) {
+			throw new IllegalArgumentException();
+		}
+		this.alphaFactor = alphaFactor;
 	}
 
 	public float getAlphaFactor() {
-		return _getAlphaFactor(handle);
+		return alphaFactor;
 	}
 
 	public void setRenderingEnable(boolean enable) {
-		_enable(handle, Defs.SETGET_RENDERING, enable);
+		renderingEnabled = enable;
 	}
 
 	public boolean isRenderingEnabled() {
-		return _isEnabled(handle, Defs.SETGET_RENDERING);
+		return renderingEnabled;
 	}
 
 	public void setPickingEnable(boolean enable) {
-		_enable(handle, Defs.SETGET_PICKING, enable);
+		pickingEnabled = enable;
 	}
 
 	public boolean isPickingEnabled() {
-		return _isEnabled(handle, Defs.SETGET_PICKING);
+		return pickingEnabled;
 	}
 
 	public void setScope(int id) {
-		_setScope(handle, id);
+		scope = id;
 	}
 
 	public int getScope() {
-		return _getScope(handle);
+		return scope;
 	}
 
 	public final void align(Node reference) {
-		_align(handle, reference != null ? reference.handle : 0);
+		if (reference != null && reference.getRoot() != getRoot()) {
+			throw new IllegalArgumentException();
+		}
+		alignSubtree(reference);
 	}
 
 	// M3G 1.1 Maintenance release getters
@@ -128,49 +151,289 @@ public abstract class Node extends Transformable {
 	}
 
 	public int getAlignmentTarget(int axis) {
-		return _getAlignmentTarget(handle, axis);
+		switch (axis) {
+			case Y_AXIS:
+				return yTarget;
+			case Z_AXIS:
+				return zTarget;
+			default:
+				throw new IllegalArgumentException();
+		}
 	}
 
-
 	//------------------------------------------------------------------
-	// Private methods
+	// Package private methods
 	//------------------------------------------------------------------
 
 	void setParent(Node parent) {
 		this.parent = parent;
 	}
 
-	// Native methods
-	private static native boolean _getTransformTo(long handle,
-												  long hTarget,
-												  byte[] transform);
+	Node getRoot() {
+		Node node = this;
+		while (node.parent != null) {
+			node = node.parent;
+		}
+		return node;
+	}
+
+	/**
+	 * Transformation from the coordinates of this node to those of its root.
+	 */
+	void getTransformToRoot(float[] out) {
+		getCompositeTransform(out);
+		float[] m = new float[16];
+		for (Node node = parent; node != null; node = node.parent) {
+			node.getCompositeTransform(m);
+			Transform.mul(out, m, out);
+		}
+	}
+
+	/**
+	 * Transformation from the coordinates of this node to those of an ancestor.
+	 *
+	 * @return false if the node does not descend from the ancestor
+	 */
+	boolean getTransformToAncestor(Node ancestor, float[] out) {
+		return getTransformToAncestor(ancestor, out, new float[16]);
+	}
+
+	/**
+	 * Same as {@link #getTransformToAncestor(Node, float[])}, with a caller
+	 * supplied matrix to hold the transformation of each node on the way.
+	 */
+	boolean getTransformToAncestor(Node ancestor, float[] out, float[] m) {
+		Transform.setIdentity(out);
+		for (Node node = this; node != ancestor; node = node.parent) {
+			if (node == null) {
+				return false;
+			}
+			node.getCompositeTransform(m);
+			Transform.mul(out, m, out);
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the node and all its ancestors up to the root have rendering enabled
+	 */
+	boolean isRenderable() {
+		for (Node node = this; node != null; node = node.parent) {
+			if (!node.renderingEnabled) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Product of the alpha factors from the root to this node.
+	 */
+	float getAccumulatedAlpha() {
+		float alpha = 1.0f;
+		for (Node node = this; node != null; node = node.parent) {
+			alpha *= node.alphaFactor;
+		}
+		return alpha;
+	}
+
+	void alignSubtree(Node reference) {
+		if (zTarget != NONE || yTarget != NONE) {
+			applyAlignment(reference);
+		}
+	}
 
-	private static native void _align(long handle, long refHandle);
+	@Override
+	void checkTransform(float[] m) {
+		if (m[12] != 0 || m[13] != 0 || m[14] != 0 || m[15] != 1) {
+			throw new IllegalArgumentException();
+		}
+	}
 
-	private static native void _setAlignment(long handle,
-											 long hZReference, int zTarget,
-											 long hYReference, int yTarget);
+	@Override
+	boolean isCompatible(AnimationTrack track) {
+		switch (track.getTargetProperty()) {
+			case AnimationTrack.ALPHA:
+			case AnimationTrack.PICKABILITY:
+			case AnimationTrack.VISIBILITY:
+				return true;
+			default:
+				return super.isCompatible(track);
+		}
+	}
 
-	private static native void _setAlphaFactor(long handle, float alphaFactor);
+	@Override
+	void updateProperty(int property, float[] value) {
+		switch (property) {
+			case AnimationTrack.ALPHA:
+				alphaFactor = clamp(value[0], 0, 1);
+				break;
+			case AnimationTrack.PICKABILITY:
+				pickingEnabled = value[0] >= 0.5f;
+				break;
+			case AnimationTrack.VISIBILITY:
+				renderingEnabled = value[0] >= 0.5f;
+				break;
+			default:
+				super.updateProperty(property, value);
+		}
+	}
 
-	private static native float _getAlphaFactor(long handle);
+	@Override
+	Object3D duplicate(IdentityHashMap<Object3D, Object3D> duplicates) {
+		Node copy = (Node) super.duplicate(duplicates);
+		copy.parent = null;
+		return copy;
+	}
 
-	private static native void _enable(long handle, int which, boolean enable);
+	@Override
+	void remapReferences(IdentityHashMap<Object3D, Object3D> duplicates) {
+		super.remapReferences(duplicates);
+		if (duplicates.containsKey(zRef)) {
+			zRef = (Node) duplicates.get(zRef);
+		}
+		if (duplicates.containsKey(yRef)) {
+			yRef = (Node) duplicates.get(yRef);
+		}
+	}
 
-	private static native boolean _isEnabled(long handle, int which);
+	//------------------------------------------------------------------
+	// Private methods
+	//------------------------------------------------------------------
 
-	private static native void _setScope(long handle, int id);
+	/**
+	 * Rotate the node so that its Z and Y axes point at their alignment targets,
+	 * leaving translation and scale unchanged.
+	 */
+	private void applyAlignment(Node reference) {
+		float[] toParent = new float[16];
+		if (parent != null) {
+			parent.getTransformToRoot(toParent);
+			if (!Transform.invert(toParent, toParent)) {
+				throw new ArithmeticException();
+			}
+		} else {
+			Transform.setIdentity(toParent);
+		}
+		float[] translation = new float[3];
+		getTranslation(translation);
 
-	private static native int _getScope(long handle);
+		float[] z = null;
+		if (zTarget != NONE) {
+			z = getTargetDirection(zRef != null ? zRef : reference, zTarget, toParent, translation);
+		}
+		float[] y = null;
+		if (yTarget != NONE) {
+			y = getTargetDirection(yRef != null ? yRef : reference, yTarget, toParent, translation);
+		}
+		if (z == null && y == null) {
+			return;
+		}
 
-	private static native long _getParent(long handle);
+		// current axes, used for whichever one has no target
+		float[] rotation = new float[16];
+		float[] angleAxis = new float[4];
+		getOrientation(angleAxis);
+		float[] q = new float[4];
+		Transform.setAxisAngle(q, angleAxis[0], angleAxis[1], angleAxis[2], angleAxis[3]);
+		Transform.setRotation(rotation, q[0], q[1], q[2], q[3]);
+		if (z == null) {
+			z = new float[]{rotation[2], rotation[6], rotation[10]};
+		}
+		if (y == null) {
+			y = new float[]{rotation[1], rotation[5], rotation[9]};
+		}
+		if (!normalize(z)) {
+			return;
+		}
+		float[] x = cross(y, z);
+		if (!normalize(x)) {
+			// Y parallel to Z, keep any perpendicular X
+			x = cross(Math.abs(z[0]) < 0.9f ? new float[]{1, 0, 0} : new float[]{0, 1, 0}, z);
+			normalize(x);
+		}
+		y = cross(z, x);
+		setOrientationFromAxes(x, y, z);
+	}
 
-	private static native long _getZRef(long handle);
+	private float[] getTargetDirection(Node ref, int target, float[] toParent, float[] translation) {
+		if (ref == null || ref == this) {
+			return null;
+		}
+		float[] m = new float[16];
+		ref.getTransformToRoot(m);
+		Transform.mul(m, toParent, m);
+		float[] v = new float[4];
+		switch (target) {
+			case ORIGIN:
+				v[3] = 1;
+				break;
+			case X_AXIS:
+				v[0] = 1;
+				break;
+			case Y_AXIS:
+				v[1] = 1;
+				break;
+			default:
+				v[2] = 1;
+				break;
+		}
+		Transform.transform(m, v, 0, v, 0);
+		if (target == ORIGIN) {
+			return new float[]{v[0] / v[3] - translation[0],
+					v[1] / v[3] - translation[1],
+					v[2] / v[3] - translation[2]};
+		}
+		return new float[]{v[0], v[1], v[2]};
+	}
 
-	private static native long _getYRef(long handle);
+	private void setOrientationFromAxes(float[] x, float[] y, float[] z) {
+		// quaternion from the rotation matrix with columns x, y, z
+		float trace = x[0] + y[1] + z[2];
+		float qx, qy, qz, qw;
+		if (trace > 0) {
+			float s = (float) Math.sqrt(trace + 1) * 2;
+			qw = s / 4;
+			qx = (y[2] - z[1]) / s;
+			qy = (z[0] - x[2]) / s;
+			qz = (x[1] - y[0]) / s;
+		} else if (x[0] > y[1] && x[0] > z[2]) {
+			float s = (float) Math.sqrt(1 + x[0] - y[1] - z[2]) * 2;
+			qw = (y[2] - z[1]) / s;
+			qx = s / 4;
+			qy = (y[0] + x[1]) / s;
+			qz = (z[0] + x[2]) / s;
+		} else if (y[1] > z[2]) {
+			float s = (float) Math.sqrt(1 + y[1] - x[0] - z[2]) * 2;
+			qw = (z[0] - x[2]) / s;
+			qx = (y[0] + x[1]) / s;
+			qy = s / 4;
+			qz = (z[1] + y[2]) / s;
+		} else {
+			float s = (float) Math.sqrt(1 + z[2] - x[0] - y[1]) * 2;
+			qw = (x[1] - y[0]) / s;
+			qx = (z[0] + x[2]) / s;
+			qy = (z[1] + y[2]) / s;
+			qz = s / 4;
+		}
+		updateProperty(AnimationTrack.ORIENTATION, new float[]{qx, qy, qz, qw});
+	}
 
-	static native int _getSubtreeSize(long handle);
+	private static float[] cross(float[] a, float[] b) {
+		return new float[]{
+				a[1] * b[2] - a[2] * b[1],
+				a[2] * b[0] - a[0] * b[2],
+				a[0] * b[1] - a[1] * b[0]};
+	}
 
-	// M3G 1.1 Maintenance release getters
-	private static native int _getAlignmentTarget(long handle, int axis);
+	private static boolean normalize(float[] v) {
+		float length = (float) Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+		if (length < 1e-6f) {
+			return false;
+		}
+		v[0] /= length;
+		v[1] /= length;
+		v[2] /= length;
+		return true;
+	}
 }
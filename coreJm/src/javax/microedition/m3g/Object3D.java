@@ -17,25 +17,28 @@
 
 package javax.microedition.m3g;
 
+import java.util.IdentityHashMap;
 import java.util.Vector;
 
 /**
  */
-public abstract class Object3D {
+public abstract class Object3D implements Cloneable {
 	//------------------------------------------------------------------
-	// Instance data
+	// Static data
 	//------------------------------------------------------------------
 
-	long handle;
+	private static int traversalStamp;
+
+	//------------------------------------------------------------------
+	// Instance data
+	//------------------------------------------------------------------
 
+	private int userID;
 	private Object userObject;
-	private Vector animTracks;
-	private Interface iInterface;
+	private Vector<AnimationTrack> animTracks;
 
-	@Override
-	protected void finalize() {
-		doFinalize();
-	}
+	// Last traversal that visited this object, to visit shared objects once
+	private int visitStamp;
 
 	//------------------------------------------------------------------
 	// Constructor(s)
@@ -44,23 +47,7 @@ public abstract class Object3D {
 	/**
 	 * <p>Only a package private constructor exists for this class.</p>
 	 */
-	Object3D(long handle) {
-		if (handle != 0) {
-			this.handle = handle;
-			_addRef(handle);
-
-			// Get associated Interafece object and
-			// register this instance with that
-			iInterface = Interface.getInstance();
-			Interface.register(this);
-
-			int n = _getAnimationTrackCount(handle);
-			while (n-- > 0) {
-				linkAnimTrack((AnimationTrack) getInstance(_getAnimationTrack(handle, n)));
-			}
-		} else {
-			System.out.println("Warning: Object3D constructor called with zero handle");
-		}
+	Object3D() {
 	}
 
 	//------------------------------------------------------------------
@@ -68,78 +55,78 @@ public abstract class Object3D {
 	//------------------------------------------------------------------
 
 	public final Object3D duplicate() {
-		int numRef = 1;
-		if (this instanceof Node) {
-			numRef = ((Node) this)._getSubtreeSize(handle);
-		}
-		long[] handles = new long[numRef * 2];
-		Object3D obj = getInstance(_duplicate(handle, handles));
-		for (int i = 0; i < numRef; i++) {
-			Object userObj = getInstance(handles[i * 2]).getUserObject();
-			Object3D duplicateObj = getInstance(handles[i * 2 + 1]);
-			if (userObj != null) {
-				duplicateObj.setUserObject(userObj);
-			}
+		IdentityHashMap<Object3D, Object3D> duplicates = new IdentityHashMap<>();
+		Object3D copy = duplicate(duplicates);
+		for (Object3D duplicate : duplicates.values()) {
+			duplicate.remapReferences(duplicates);
 		}
-		return obj;
+		return copy;
 	}
 
 	public int getReferences(Object3D[] references) {
-		long[] handles = null;
-		if (references != null) {
-			handles = new long[references.length];
-		}
-		int num = _getReferences(handle, handles);
-		if (references != null) {
-			for (int i = 0; i < num; i++) {
-				references[i] = getInstance(handles[i]);
-			}
+		int num = getReferences(references, 0);
+		if (references != null && references.length < num) {
+			throw new IllegalArgumentException();
 		}
 		return num;
 	}
 
 	public void setUserID(int userID) {
-		_setUserID(handle, userID);
+		this.userID = userID;
 	}
 
 	public int getUserID() {
-		return _getUserID(handle);
+		return userID;
 	}
 
 	public Object3D find(int userID) {
-		return getInstance(_find(handle, userID));
+		return find(userID, nextTraversal());
 	}
 
 	public void addAnimationTrack(AnimationTrack animationTrack) {
-		_addAnimationTrack(handle, animationTrack.handle);
-		linkAnimTrack(animationTrack);
+		if (animationTrack == null) {
+			throw new NullPointerException();
+		}
+		if (!isCompatible(animationTrack)) {
+			throw new IllegalArgumentException();
+		}
+		if (animTracks == null) {
+			animTracks = new Vector<>();
+		} else if (animTracks.contains(animationTrack)) {
+			throw new IllegalArgumentException();
+		}
+		int components = animationTrack.getKeyframeSequence().getComponentCount();
+		for (AnimationTrack track : animTracks) {
+			if (track.getTargetProperty() == animationTrack.getTargetProperty()
+					&& track.getKeyframeSequence().getComponentCount() != components) {
+				throw new IllegalArgumentException();
+			}
+		}
+		animTracks.addElement(animationTrack);
 	}
 
 	public AnimationTrack getAnimationTrack(int index) {
-		/* Don't try to match the native indexing here -- just call
-		 * the native getter */
-		return (AnimationTrack) getInstance(_getAnimationTrack(handle, index));
+		if (animTracks == null || index < 0 || index >= animTracks.size()) {
+			throw new IndexOutOfBoundsException();
+		}
+		return animTracks.elementAt(index);
 	}
 
 	public void removeAnimationTrack(AnimationTrack animationTrack) {
-		if (animationTrack != null) {
-			_removeAnimationTrack(handle, animationTrack.handle);
-
-			if (animTracks != null) {
-				animTracks.removeElement(animationTrack);
-				if (animTracks.isEmpty()) {
-					animTracks = null;
-				}
+		if (animationTrack != null && animTracks != null) {
+			animTracks.removeElement(animationTrack);
+			if (animTracks.isEmpty()) {
+				animTracks = null;
 			}
 		}
 	}
 
 	public int getAnimationTrackCount() {
-		return _getAnimationTrackCount(handle);
+		return animTracks == null ? 0 : animTracks.size();
 	}
 
 	public final int animate(int time) {
-		return _animate(handle, time);
+		return animate(time, nextTraversal());
 	}
 
 	public void setUserObject(Object obj) {
@@ -151,58 +138,189 @@ public abstract class Object3D {
 	}
 
 	//------------------------------------------------------------------
-	// Private methods
+	// Package private methods
 	//------------------------------------------------------------------
 
-	static final Object3D getInstance(long handle) {
-		return Interface.getObjectInstance(handle);
+	static synchronized int nextTraversal() {
+		return ++traversalStamp;
 	}
 
 	/**
-	 * Adds a reference to an animation track.
+	 * Mark the object visited by a traversal.
+	 *
+	 * @return false if the traversal already visited it
 	 */
-	private void linkAnimTrack(AnimationTrack track) {
-		if (animTracks == null) {
-			animTracks = new Vector();
+	final boolean visit(int stamp) {
+		if (visitStamp == stamp) {
+			return false;
 		}
-		animTracks.addElement(track);
+		visitStamp = stamp;
+		return true;
 	}
 
 	/**
-	 * Native peer finalization
+	 * Append the objects directly referenced by this one, starting at index n.
+	 * Overrides add their own references to those of the superclass.
+	 *
+	 * @param references array to fill, or null to count only
+	 * @return the new number of references
 	 */
-	private void doFinalize() {
-		if (handle != 0) {
-			// finalize native peer
-			Platform.finalizeObject(handle, iInterface);
-			Interface.deregister(this, iInterface);
-
-			// reset handles
-			iInterface = null;
-			handle = 0;
+	int getReferences(Object3D[] references, int n) {
+		if (animTracks != null) {
+			for (AnimationTrack track : animTracks) {
+				n = addReference(references, n, track);
+			}
 		}
+		return n;
 	}
 
-	// Native methods
-	private static native int _addAnimationTrack(long hObject, long hAnimationTrack);
+	static int addReference(Object3D[] references, int n, Object3D reference) {
+		if (reference == null) {
+			return n;
+		}
+		if (references != null && n < references.length) {
+			references[n] = reference;
+		}
+		return n + 1;
+	}
 
-	private static native void _removeAnimationTrack(long hObject, long hAnimationTrack);
+	private Object3D find(int userID, int stamp) {
+		if (!visit(stamp)) {
+			return null;
+		}
+		if (this.userID == userID) {
+			return this;
+		}
+		Object3D[] references = new Object3D[getReferences(null, 0)];
+		getReferences(references, 0);
+		for (Object3D reference : references) {
+			Object3D found = reference.find(userID, stamp);
+			if (found != null) {
+				return found;
+			}
+		}
+		return null;
+	}
 
-	private static native int _getAnimationTrackCount(long hObject);
+	/**
+	 * Apply the animation tracks of this object and of everything it references.
+	 *
+	 * @return the time until the animations may need to be updated again
+	 */
+	private int animate(int time, int stamp) {
+		if (!visit(stamp)) {
+			return Integer.MAX_VALUE;
+		}
+		int validity = Integer.MAX_VALUE;
+		if (animTracks != null) {
+			validity = applyAnimation(time);
+		}
+		Object3D[] references = new Object3D[getReferences(null, 0)];
+		getReferences(references, 0);
+		for (Object3D reference : references) {
+			validity = Math.min(validity, reference.animate(time, stamp));
+		}
+		return validity;
+	}
 
-	private static native int _animate(long hObject, int time);
+	private int applyAnimation(int time) {
+		int validity = Integer.MAX_VALUE;
+		int count = animTracks.size();
+		boolean[] done = new boolean[count];
+		for (int i = 0; i < count; i++) {
+			if (done[i]) {
+				continue;
+			}
+			int property = animTracks.elementAt(i).getTargetProperty();
+			float[] value = null;
+			float totalWeight = 0;
+			// blend every active track of the same property, weighted by its controller
+			for (int j = i; j < count; j++) {
+				AnimationTrack track = animTracks.elementAt(j);
+				if (track.getTargetProperty() != property) {
+					continue;
+				}
+				done[j] = true;
+				AnimationController controller = track.getController();
+				if (controller == null) {
+					continue;
+				}
+				validity = Math.min(validity, controller.getValidity(time));
+				if (!controller.isActive(time) || controller.getWeight() == 0) {
+					continue;
+				}
+				KeyframeSequence sequence = track.getKeyframeSequence();
+				float[] sample = new float[sequence.getComponentCount()];
+				validity = Math.min(validity, sequence.sample(controller.getPosition(time), sample));
+				if (value == null) {
+					value = new float[sample.length];
+				}
+				float weight = controller.getWeight();
+				for (int k = 0; k < sample.length; k++) {
+					value[k] += sample[k] * weight;
+				}
+				totalWeight += weight;
+			}
+			if (value != null && totalWeight != 0) {
+				updateProperty(property, value);
+			}
+		}
+		return Math.max(validity, 0);
+	}
 
-	private static native void _setUserID(long hObject, int userID);
+	/**
+	 * @return true if the track animates a property of this class
+	 */
+	boolean isCompatible(AnimationTrack track) {
+		return false;
+	}
 
-	private static native int _getUserID(long hObject);
+	/**
+	 * Set an animated property to a value sampled from its tracks.
+	 */
+	void updateProperty(int property, float[] value) {
+	}
 
-	private static native void _addRef(long hObject);
+	/**
+	 * Copy this object, recording every copy made in the map. Component
+	 * objects are shared, overrides copy what the copy must not share.
+	 */
+	Object3D duplicate(IdentityHashMap<Object3D, Object3D> duplicates) {
+		Object3D copy;
+		try {
+			copy = (Object3D) clone();
+		} catch (CloneNotSupportedException e) {
+			throw new Error(e);
+		}
+		if (animTracks != null) {
+			copy.animTracks = new Vector<>(animTracks);
+		}
+		duplicates.put(this, copy);
+		return copy;
+	}
 
-	private static native long _getAnimationTrack(long hObject, int index);
+	/**
+	 * Point references to duplicated objects at their copies, once a whole
+	 * tree has been duplicated.
+	 */
+	void remapReferences(IdentityHashMap<Object3D, Object3D> duplicates) {
+	}
 
-	private static native long _duplicate(long hObject, long[] handles);
+	static float clamp(float value, float min, float max) {
+		return value < min ? min : value > max ? max : value;
+	}
 
-	private static native int _getReferences(long hObject, long[] handles);
+	/**
+	 * Pack an RGB value (0 to 1 each) into the color bits of an int.
+	 */
+	static int toRGB(float[] value) {
+		int r = (int) (clamp(value[0], 0, 1) * 255 + 0.5f);
+		int g = (int) (clamp(value[1], 0, 1) * 255 + 0.5f);
+		int b = (int) (clamp(value[2], 0, 1) * 255 + 0.5f);
+		return r << 16 | g << 8 | b;
+	}
 
-	private static native long _find(long hObject, int userID);
+	static int toAlpha(float value) {
+		return (int) (clamp(value, 0, 1) * 255 + 0.5f) << 24;
+	}
 }
@@ -31,18 +31,22 @@ public class PolygonMode extends Object3D {
 	public static final int WINDING_CCW = 0xA8;
 	public static final int WINDING_CW = WINDING_CCW + 1;
 
+	//------------------------------------------------------------------
+	// Instance data
+	//------------------------------------------------------------------
+
+	private int culling = CULL_BACK;
+	private int winding = WINDING_CCW;
+	private int shading = SHADE_SMOOTH;
+	private boolean twoSidedLighting;
+	private boolean localCameraLighting;
+	private boolean perspectiveCorrection;
+
 	//------------------------------------------------------------------
 	// Constructor(s)
 	//------------------------------------------------------------------
 
 	public PolygonMode() {
-		super(_ctor(Interface.getHandle()));
-	}
-
-	/**
-	 */
-	PolygonMode(long handle) {
-		super(handle);
 	}
 
 	//------------------------------------------------------------------
@@ -50,85 +54,60 @@ public class PolygonMode extends Object3D {
 	//------------------------------------------------------------------
 
 	public void setCulling(int mode) {
-		_setCulling(handle, mode);
+		if (mode < CULL_BACK || mode > CULL_NONE) {
+			throw new IllegalArgumentException();
+		}
+		culling = mode;
 	}
 
 	public int getCulling() {
-		return _getCulling(handle);
+		return culling;
 	}
 
 	public void setWinding(int mode) {
-		_setWinding(handle, mode);
+		if (mode != WINDING_CCW && mode != WINDING_CW) {
+			throw new IllegalArgumentException();
+		}
+		winding = mode;
 	}
 
 	public int getWinding() {
-		return _getWinding(handle);
+		return winding;
 	}
 
 	public void setShading(int mode) {
-		_setShading(handle, mode);
+		if (mode != SHADE_FLAT && mode != SHADE_SMOOTH) {
+			throw new IllegalArgumentException();
+		}
+		shading = mode;
 	}
 
 	public int getShading() {
-		return _getShading(handle);
+		return shading;
 	}
 
 	public void setTwoSidedLightingEnable(boolean enable) {
-		_setTwoSidedLightingEnable(handle, enable);
+		twoSidedLighting = enable;
 	}
 
 	public boolean isTwoSidedLightingEnabled() {
-		return _isTwoSidedLightingEnabled(handle);
+		return twoSidedLighting;
 	}
 
 	public void setLocalCameraLightingEnable(boolean enable) {
-		_setLocalCameraLightingEnable(handle, enable);
+		localCameraLighting = enable;
 	}
 
 	public void setPerspectiveCorrectionEnable(boolean enable) {
-		_setPerspectiveCorrectionEnable(handle, enable);
+		perspectiveCorrection = enable;
 	}
 
 	// M3G 1.1 Maintenance release getters
 	public boolean isLocalCameraLightingEnabled() {
-		return _isLocalCameraLightingEnabled(handle);
+		return localCameraLighting;
 	}
 
 	public boolean isPerspectiveCorrectionEnabled() {
-		return _isPerspectiveCorrectionEnabled(handle);
+		return perspectiveCorrection;
 	}
-
-
-	//------------------------------------------------------------------
-	// Private methods
-	//------------------------------------------------------------------
-
-	private native static long _ctor(long hInterface);
-
-	private native static void _setLocalCameraLightingEnable(long handle, boolean enable);
-
-	private native static void _setPerspectiveCorrectionEnable(long handle, boolean enable);
-
-	private native static void _setCulling(long handle, int mode);
-
-	private native static int _getCulling(long handle);
-
-	private native static void _setWinding(long handle, int mode);
-
-	private native static int _getWinding(long handle);
-
-	private native static void _setShading(long handle, int mode);
-
-	private native static int _getShading(long handle);
-
-	private native static void _setTwoSidedLightingEnable(long handle, boolean enable);
-
-	private native static boolean _isTwoSidedLightingEnabled(long handle);
-
-	// M3G 1.1 Maintenance release getters
-	private native static boolean _isLocalCameraLightingEnabled(long handle);
-
-	private native static boolean _isPerspectiveCorrectionEnabled(long handle);
-
 }
-
@@ -100,8 +100,8 @@ public class RayIntersection {
 		return new float[1 + 1 + 2 * Defs.NUM_TEXTURE_UNITS + 3 + 6];
 	}
 
-	void fill(long hIntersected, float[] result) {
-		intersected = (Node) Object3D.getInstance(hIntersected);
+	void fill(Node intersected, float[] result) {
+		this.intersected = intersected;
 		distance = result[0];
 		submeshIndex = (int) result[1];
 		textureS[0] = result[2];
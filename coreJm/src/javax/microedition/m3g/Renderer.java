@@ -0,0 +1,999 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package javax.microedition.m3g;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.VertexAttribute;
+import com.badlogic.gdx.graphics.VertexAttributes;
+import com.badlogic.gdx.graphics.glutils.IndexBufferObject;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.graphics.glutils.VertexBufferObject;
+import com.badlogic.gdx.math.Matrix3;
+import com.badlogic.gdx.math.Matrix4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Draws M3G scene graphs and primitives through GL20.
+ * <p>
+ * Everything the fixed function pipeline of the reference implementation did,
+ * per-vertex lighting, fog, the two texture units and the alpha test, is done
+ * by a single shader driven by uniforms. Draws are queued and sorted by layer,
+ * opaque before blended, opaque ones grouped by texture and appearance so
+ * that state only changes when needed and blended ones back to front.
+ * Flat shading has no GL20 equivalent and is drawn smooth.
+ * <p>
+ * All methods must be called on the GL thread.
+ */
+final class Renderer {
+	//------------------------------------------------------------------
+	// Static data
+	//------------------------------------------------------------------
+
+	private static final String VERTEX_SHADER = ""
+			+ "attribute vec3 a_position;\n"
+			+ "attribute vec3 a_normal;\n"
+			+ "attribute vec4 a_color;\n"
+			+ "attribute vec3 a_texCoord0;\n"
+			+ "attribute vec3 a_texCoord1;\n"
+			+ "uniform mat4 u_modelView;\n"
+			+ "uniform mat4 u_projection;\n"
+			+ "uniform mat3 u_normalMatrix;\n"
+			+ "uniform mat4 u_texMatrix0;\n"
+			+ "uniform mat4 u_texMatrix1;\n"
+			+ "uniform int u_lighting;\n"
+			+ "uniform int u_twoSided;\n"
+			+ "uniform int u_localViewer;\n"
+			+ "uniform int u_numLights;\n"
+			+ "uniform float u_lightType[8];\n"
+			+ "uniform vec4 u_lightPosition[8];\n"
+			+ "uniform vec3 u_lightDirection[8];\n"
+			+ "uniform vec3 u_lightColor[8];\n"
+			+ "uniform vec3 u_lightAttenuation[8];\n"
+			+ "uniform vec2 u_lightSpot[8];\n"
+			+ "uniform vec3 u_ambient;\n"
+			+ "uniform vec4 u_diffuse;\n"
+			+ "uniform vec3 u_emissive;\n"
+			+ "uniform vec3 u_specular;\n"
+			+ "uniform float u_shininess;\n"
+			+ "uniform int u_colorTracking;\n"
+			+ "uniform float u_alphaFactor;\n"
+			+ "uniform int u_fogMode;\n"
+			+ "uniform vec3 u_fogParams;\n"
+			+ "varying vec4 v_color;\n"
+			+ "varying vec4 v_backColor;\n"
+			+ "varying vec2 v_texCoord0;\n"
+			+ "varying vec2 v_texCoord1;\n"
+			+ "varying float v_fog;\n"
+			+ "vec4 light(vec3 position, vec3 normal, vec4 color) {\n"
+			+ "  vec3 ambient = u_colorTracking != 0 ? color.rgb : u_ambient;\n"
+			+ "  vec4 diffuse = u_colorTracking != 0 ? color : u_diffuse;\n"
+			+ "  vec3 viewer = u_localViewer != 0 ? -normalize(position) : vec3(0.0, 0.0, 1.0);\n"
+			+ "  vec3 sum = u_emissive;\n"
+			+ "  for (int i = 0; i < 8; i++) {\n"
+			+ "    if (i >= u_numLights) break;\n"
+			+ "    float type = u_lightType[i];\n"
+			+ "    if (type < 0.5) {\n"
+			+ "      sum += ambient * u_lightColor[i];\n"
+			+ "      continue;\n"
+			+ "    }\n"
+			+ "    vec3 L = u_lightPosition[i].xyz;\n"
+			+ "    float attenuation = 1.0;\n"
+			+ "    if (type > 1.5) {\n"
+			+ "      L -= position;\n"
+			+ "      float d = length(L);\n"
+			+ "      L /= d;\n"
+			+ "      vec3 k = u_lightAttenuation[i];\n"
+			+ "      attenuation = 1.0 / (k.x + k.y * d + k.z * d * d);\n"
+			+ "      if (type > 2.5) {\n"
+			+ "        float spot = dot(-L, u_lightDirection[i]);\n"
+			+ "        attenuation *= spot < u_lightSpot[i].x ? 0.0 : pow(spot, u_lightSpot[i].y);\n"
+			+ "      }\n"
+			+ "    }\n"
+			+ "    float nDotL = dot(normal, L);\n"
+			+ "    if (nDotL > 0.0) {\n"
+			+ "      float nDotH = dot(normal, normalize(L + viewer));\n"
+			+ "      float specular = nDotH > 0.0 ? pow(nDotH, u_shininess) : 0.0;\n"
+			+ "      sum += attenuation * u_lightColor[i] * (diffuse.rgb * nDotL + u_specular * specular);\n"
+			+ "    }\n"
+			+ "  }\n"
+			+ "  return vec4(clamp(sum, 0.0, 1.0), diffuse.a);\n"
+			+ "}\n"
+			+ "void main() {\n"
+			+ "  vec4 eye = u_modelView * vec4(a_position, 1.0);\n"
+			+ "  gl_Position = u_projection * eye;\n"
+			+ "  if (u_lighting != 0) {\n"
+			+ "    vec3 normal = u_normalMatrix * a_normal;\n"
+			+ "    float length = length(normal);\n"
+			+ "    normal = length > 0.0 ? normal / length : normal;\n"
+			+ "    v_color = light(eye.xyz, normal, a_color);\n"
+			+ "    v_backColor = u_twoSided != 0 ? light(eye.xyz, -normal, a_color) : v_color;\n"
+			+ "  } else {\n"
+			+ "    v_color = a_color;\n"
+			+ "    v_backColor = a_color;\n"
+			+ "  }\n"
+			+ "  v_color.a *= u_alphaFactor;\n"
+			+ "  v_backColor.a *= u_alphaFactor;\n"
+			+ "  vec4 t0 = u_texMatrix0 * vec4(a_texCoord0, 1.0);\n"
+			+ "  vec4 t1 = u_texMatrix1 * vec4(a_texCoord1, 1.0);\n"
+			+ "  v_texCoord0 = t0.xy / t0.w;\n"
+			+ "  v_texCoord1 = t1.xy / t1.w;\n"
+			+ "  float z = -eye.z;\n"
+			+ "  if (u_fogMode == 1) {\n"
+			+ "    v_fog = clamp((u_fogParams.y - z) / (u_fogParams.y - u_fogParams.x), 0.0, 1.0);\n"
+			+ "  } else if (u_fogMode == 2) {\n"
+			+ "    v_fog = clamp(exp(-u_fogParams.z * z), 0.0, 1.0);\n"
+			+ "  } else {\n"
+			+ "    v_fog = 1.0;\n"
+			+ "  }\n"
+			+ "}\n";
+
+	private static final String FRAGMENT_SHADER = ""
+			+ "#ifdef GL_ES\n"
+			+ "precision mediump float;\n"
+			+ "#endif\n"
+			+ "uniform sampler2D u_texture0;\n"
+			+ "uniform sampler2D u_texture1;\n"
+			+ "uniform int u_texEnabled0;\n"
+			+ "uniform int u_texEnabled1;\n"
+			+ "uniform int u_texBlend0;\n"
+			+ "uniform int u_texBlend1;\n"
+			+ "uniform int u_texFormat0;\n"
+			+ "uniform int u_texFormat1;\n"
+			+ "uniform vec3 u_texBlendColor0;\n"
+			+ "uniform vec3 u_texBlendColor1;\n"
+			+ "uniform vec3 u_fogColor;\n"
+			+ "uniform float u_alphaThreshold;\n"
+			+ "varying vec4 v_color;\n"
+			+ "varying vec4 v_backColor;\n"
+			+ "varying vec2 v_texCoord0;\n"
+			+ "varying vec2 v_texCoord1;\n"
+			+ "varying float v_fog;\n"
+			// func: 0 add, 1 blend, 2 decal, 3 modulate, 4 replace
+			// format: 0 alpha, 1 luminance, 2 luminance alpha, 3 rgb, 4 rgba
+			+ "vec4 combine(vec4 c, vec4 t, int func, int format, vec3 blendColor) {\n"
+			+ "  bool hasColor = format != 0;\n"
+			+ "  bool hasAlpha = format == 0 || format == 2 || format == 4;\n"
+			+ "  vec3 rgb = c.rgb;\n"
+			+ "  float a = c.a;\n"
+			+ "  if (func == 4) {\n"
+			+ "    if (hasColor) rgb = t.rgb;\n"
+			+ "    if (hasAlpha) a = t.a;\n"
+			+ "  } else if (func == 3) {\n"
+			+ "    if (hasColor) rgb *= t.rgb;\n"
+			+ "    if (hasAlpha) a *= t.a;\n"
+			+ "  } else if (func == 2) {\n"
+			+ "    if (format == 4) rgb = mix(rgb, t.rgb, t.a);\n"
+			+ "    else if (format == 3) rgb = t.rgb;\n"
+			+ "  } else if (func == 1) {\n"
+			+ "    if (hasColor) rgb = mix(rgb, blendColor, t.rgb);\n"
+			+ "    if (hasAlpha) a *= t.a;\n"
+			+ "  } else {\n"
+			+ "    if (hasColor) rgb = min(rgb + t.rgb, 1.0);\n"
+			+ "    if (hasAlpha) a *= t.a;\n"
+			+ "  }\n"
+			+ "  return vec4(rgb, a);\n"
+			+ "}\n"
+			+ "void main() {\n"
+			+ "  vec4 color = gl_FrontFacing ? v_color : v_backColor;\n"
+			+ "  if (u_texEnabled0 != 0) {\n"
+			+ "    color = combine(color, texture2D(u_texture0, v_texCoord0), u_texBlend0, u_texFormat0, u_texBlendColor0);\n"
+			+ "  }\n"
+			+ "  if (u_texEnabled1 != 0) {\n"
+			+ "    color = combine(color, texture2D(u_texture1, v_texCoord1), u_texBlend1, u_texFormat1, u_texBlendColor1);\n"
+			+ "  }\n"
+			+ "  if (color.a < u_alphaThreshold) discard;\n"
+			+ "  gl_FragColor = vec4(mix(u_fogColor, color.rgb, v_fog), color.a);\n"
+			+ "}\n";
+
+	private static final String IMAGE_VERTEX_SHADER = ""
+			+ "attribute vec2 a_position;\n"
+			+ "attribute vec2 a_texCoord0;\n"
+			+ "varying vec2 v_texCoord;\n"
+			+ "void main() {\n"
+			+ "  v_texCoord = a_texCoord0;\n"
+			+ "  gl_Position = vec4(a_position, 0.0, 1.0);\n"
+			+ "}\n";
+
+	private static final String IMAGE_FRAGMENT_SHADER = ""
+			+ "#ifdef GL_ES\n"
+			+ "precision mediump float;\n"
+			+ "#endif\n"
+			+ "uniform sampler2D u_texture;\n"
+			+ "uniform vec2 u_repeat;\n"
+			+ "varying vec2 v_texCoord;\n"
+			+ "void main() {\n"
+			+ "  vec2 t = v_texCoord;\n"
+			+ "  if (u_repeat.x > 0.5) t.x = fract(t.x);\n"
+			+ "  else if (t.x < 0.0 || t.x > 1.0) discard;\n"
+			+ "  if (u_repeat.y > 0.5) t.y = fract(t.y);\n"
+			+ "  else if (t.y < 0.0 || t.y > 1.0) discard;\n"
+			+ "  gl_FragColor = texture2D(u_texture, t);\n"
+			+ "}\n";
+
+	private static final VertexAttributes IMAGE_ATTRIBUTES = new VertexAttributes(
+			new VertexAttribute(VertexAttributes.Usage.Position, 2, ShaderProgram.POSITION_ATTRIBUTE),
+			VertexAttribute.TexCoords(0));
+
+	private static final CompositingMode DEFAULT_COMPOSITING = new CompositingMode();
+	private static final PolygonMode DEFAULT_POLYGON_MODE = new PolygonMode();
+
+	private static final Comparator<Item> ORDER = (a, b) -> {
+		if (a.layer != b.layer) {
+			return a.layer < b.layer ? -1 : 1;
+		}
+		if (a.blended != b.blended) {
+			return a.blended ? 1 : -1;
+		}
+		if (a.blended) {
+			return Float.compare(a.depth, b.depth);
+		}
+		if (a.textureKey != b.textureKey) {
+			return a.textureKey < b.textureKey ? -1 : 1;
+		}
+		return Integer.compare(a.appearanceKey, b.appearanceKey);
+	};
+
+	//------------------------------------------------------------------
+	// Instance data
+	//------------------------------------------------------------------
+
+	private final ShaderProgram program;
+	private final ShaderProgram imageProgram;
+	private final VertexBufferObject spriteQuad;
+	private final VertexBufferObject imageQuad;
+	private final float[] imageData = new float[16];
+
+	private final ArrayList<Item> queue = new ArrayList<>();
+	private final ArrayList<Item> pool = new ArrayList<>();
+	private final ArrayList<GLResource<?>> retained = new ArrayList<>();
+
+	// Camera and target
+	private final float[] projection = new float[16];
+	private final float[] view = new float[16];
+	private int cameraScope = -1;
+	private int viewportWidth = 1;
+	private int viewportHeight = 1;
+	private boolean depthEnabled = true;
+
+	// Lights, in eye space
+	private int lightCount;
+	private final int[] lightScope = new int[Defs.MAX_LIGHTS];
+	private final float[] lightType = new float[Defs.MAX_LIGHTS];
+	private final float[] lightPosition = new float[Defs.MAX_LIGHTS * 4];
+	private final float[] lightDirection = new float[Defs.MAX_LIGHTS * 3];
+	private final float[] lightColor = new float[Defs.MAX_LIGHTS * 3];
+	private final float[] lightAttenuation = new float[Defs.MAX_LIGHTS * 3];
+	private final float[] lightSpot = new float[Defs.MAX_LIGHTS * 2];
+
+	// Uniform staging for the lights reaching one draw
+	private final float[] drawType = new float[Defs.MAX_LIGHTS];
+	private final float[] drawPosition = new float[Defs.MAX_LIGHTS * 4];
+	private final float[] drawDirection = new float[Defs.MAX_LIGHTS * 3];
+	private final float[] drawColor = new float[Defs.MAX_LIGHTS * 3];
+	private final float[] drawAttenuation = new float[Defs.MAX_LIGHTS * 3];
+	private final float[] drawSpot = new float[Defs.MAX_LIGHTS * 2];
+
+	// State of the last draw, to skip redundant changes
+	private Appearance currentAppearance;
+	private Image2D currentSprite;
+	private int currentLightMask;
+
+	private final Matrix4 uniformMatrix = new Matrix4();
+	private final Matrix3 normalMatrix = new Matrix3();
+	private final float[] scratch = new float[16];
+
+	// Node to world matrices of the groups being traversed, one per level
+	private final ArrayList<float[]> matrixStack = new ArrayList<>();
+	private int matrixDepth;
+
+	//------------------------------------------------------------------
+	// Constructor(s)
+	//------------------------------------------------------------------
+
+	Renderer() {
+		program = compile(VERTEX_SHADER, FRAGMENT_SHADER);
+		imageProgram = compile(IMAGE_VERTEX_SHADER, IMAGE_FRAGMENT_SHADER);
+		spriteQuad = new VertexBufferObject(false, 4, VertexBuffer.ATTRIBUTES);
+		imageQuad = new VertexBufferObject(false, 4, IMAGE_ATTRIBUTES);
+		Transform.setIdentity(projection);
+		Transform.setIdentity(view);
+	}
+
+	//------------------------------------------------------------------
+	// Package private methods
+	//------------------------------------------------------------------
+
+	/**
+	 * Set the size of the viewport in pixels, and whether the target has a depth buffer.
+	 */
+	void setTarget(int viewportWidth, int viewportHeight, boolean depthEnabled) {
+		this.viewportWidth = viewportWidth;
+		this.viewportHeight = viewportHeight;
+		this.depthEnabled = depthEnabled;
+	}
+
+	/**
+	 * @param cameraToWorld the camera position, null for identity
+	 */
+	void setCamera(Camera camera, float[] cameraToWorld) {
+		System.arraycopy(camera.getProjectionMatrix(), 0, projection, 0, 16);
+		if (cameraToWorld == null) {
+			Transform.setIdentity(view);
+		} else if (!Transform.invert(view, cameraToWorld)) {
+			throw new ArithmeticException();
+		}
+		cameraScope = camera.getScope();
+		lightCount = 0;
+	}
+
+	void resetLights() {
+		lightCount = 0;
+	}
+
+	/**
+	 * Add a light, after the camera is set. Lights beyond the supported count are ignored.
+	 *
+	 * @param lightToWorld the light position, null for identity
+	 */
+	void addLight(Light light, float[] lightToWorld) {
+		if (lightCount == Defs.MAX_LIGHTS) {
+			return;
+		}
+		float[] m = scratch;
+		if (lightToWorld != null) {
+			Transform.mul(m, view, lightToWorld);
+		} else {
+			System.arraycopy(view, 0, m, 0, 16);
+		}
+		int i = lightCount++;
+		int mode = light.getMode();
+		float intensity = light.getIntensity();
+		int rgb = light.getColor();
+		lightScope[i] = light.getScope();
+		lightType[i] = mode - Light.AMBIENT;
+		lightColor[i * 3] = ((rgb >> 16) & 0xFF) / 255.0f * intensity;
+		lightColor[i * 3 + 1] = ((rgb >> 8) & 0xFF) / 255.0f * intensity;
+		lightColor[i * 3 + 2] = (rgb & 0xFF) / 255.0f * intensity;
+		if (mode == Light.DIRECTIONAL) {
+			// Shines along its -Z axis, the shader wants the direction towards it
+			setNormalized(lightPosition, i * 4, m[2], m[6], m[10]);
+			lightPosition[i * 4 + 3] = 0;
+		} else {
+			lightPosition[i * 4] = m[3];
+			lightPosition[i * 4 + 1] = m[7];
+			lightPosition[i * 4 + 2] = m[11];
+			lightPosition[i * 4 + 3] = 1;
+		}
+		setNormalized(lightDirection, i * 3, -m[2], -m[6], -m[10]);
+		lightAttenuation[i * 3] = light.getConstantAttenuation();
+		lightAttenuation[i * 3 + 1] = light.getLinearAttenuation();
+		lightAttenuation[i * 3 + 2] = light.getQuadraticAttenuation();
+		lightSpot[i * 2] = (float) Math.cos(Math.toRadians(light.getSpotAngle()));
+		lightSpot[i * 2 + 1] = light.getSpotExponent();
+	}
+
+	/**
+	 * Add the enabled lights found under a group, after the camera is set.
+	 */
+	void addLights(Group group, float[] groupToWorld) {
+		float[] childToWorld = pushMatrix();
+		try {
+			for (int i = 0, n = group.getChildCount(); i < n; i++) {
+				Node child = group.getChild(i);
+				if (!child.isRenderingEnabled()) {
+					continue;
+				}
+				child.getCompositeTransform(childToWorld);
+				Transform.mul(childToWorld, groupToWorld, childToWorld);
+				if (child instanceof Light) {
+					addLight((Light) child, childToWorld);
+				} else if (child instanceof Group) {
+					addLights((Group) child, childToWorld);
+				}
+			}
+		} finally {
+			matrixDepth--;
+		}
+	}
+
+	/**
+	 * Clear the viewport, the scissor box must already be set to it.
+	 *
+	 * @param background null to clear to transparent black
+	 */
+	void clear(Background background) {
+		GL20 gl = Gdx.gl;
+		gl.glDisable(GL20.GL_POLYGON_OFFSET_FILL);
+		gl.glColorMask(true, true, true, true);
+		gl.glDepthMask(true);
+		int mask = 0;
+		boolean clearColor = background == null || background.isColorClearEnabled();
+		if (clearColor) {
+			int argb = background != null ? background.getColor() : 0;
+			gl.glClearColor(((argb >> 16) & 0xFF) / 255.0f, ((argb >> 8) & 0xFF) / 255.0f,
+					(argb & 0xFF) / 255.0f, (argb >>> 24) / 255.0f);
+			mask |= GL20.GL_COLOR_BUFFER_BIT;
+		}
+		if (depthEnabled && (background == null || background.isDepthClearEnabled())) {
+			gl.glClearDepthf(1);
+			mask |= GL20.GL_DEPTH_BUFFER_BIT;
+		}
+		if (mask != 0) {
+			gl.glClear(mask);
+		}
+		if (clearColor && background != null && background.getImage() != null) {
+			Image2D image = background.getImage();
+			drawImage(image, background.getCropX(), background.getCropY(),
+					background.getCropWidth(), background.getCropHeight(),
+					background.getImageModeX() == Background.REPEAT,
+					background.getImageModeY() == Background.REPEAT);
+		}
+	}
+
+	/**
+	 * Fill the viewport with a whole image, used to start rendering to it on top of its content.
+	 */
+	void drawImage(Image2D image) {
+		drawImage(image, 0, 0, image.getWidth(), image.getHeight(), false, false);
+	}
+
+	/**
+	 * Queue a node and its descendants visible to the camera.
+	 *
+	 * @param nodeToWorld replaces the transformation of the node itself
+	 */
+	void queue(Node node, float[] nodeToWorld, float alphaFactor) {
+		if (!node.isRenderingEnabled()) {
+			return;
+		}
+		alphaFactor *= node.getAlphaFactor();
+		if (node instanceof Group) {
+			Group group = (Group) node;
+			for (int i = 0, n = group.getChildCount(); i < n; i++) {
+				queueChild(group.getChild(i), nodeToWorld, alphaFactor);
+			}
+		} else if ((node.getScope() & cameraScope) == 0) {
+			return;
+		} else if (node instanceof Mesh) {
+			queueMesh((Mesh) node, nodeToWorld, alphaFactor);
+			if (node instanceof SkinnedMesh) {
+				queueChild(((SkinnedMesh) node).getSkeleton(), nodeToWorld, alphaFactor);
+			}
+		} else if (node instanceof Sprite3D) {
+			queueSprite((Sprite3D) node, nodeToWorld, alphaFactor);
+		}
+	}
+
+	/**
+	 * Queue a single submesh.
+	 *
+	 * @param toWorld null for identity
+	 */
+	void queue(VertexBuffer vertices, IndexBuffer triangles, Appearance appearance, float[] toWorld, int scope) {
+		if ((scope & cameraScope) == 0) {
+			return;
+		}
+		queue(vertices.getVBO(), triangles, appearance, toWorld, 1.0f, scope);
+	}
+
+	/**
+	 * Draw and empty the queue.
+	 */
+	void flush() {
+		if (queue.isEmpty()) {
+			return;
+		}
+		Collections.sort(queue, ORDER);
+		GL20 gl = Gdx.gl;
+		program.begin();
+		program.setUniformMatrix("u_projection", uniformMatrix.set(projection).tra());
+		program.setUniformi("u_texture0", 0);
+		program.setUniformi("u_texture1", 1);
+		currentAppearance = null;
+		currentSprite = null;
+		currentLightMask = -1;
+		for (Item item : queue) {
+			if (item.appearance != currentAppearance || item.sprite != currentSprite) {
+				applyAppearance(item.appearance, item.sprite, item.scaled);
+				currentAppearance = item.appearance;
+				currentSprite = item.sprite;
+			}
+			if (item.sprite != null) {
+				program.setUniformMatrix("u_modelView", uniformMatrix.idt());
+				program.setUniformf("u_alphaFactor", item.alphaFactor);
+				spriteQuad.setVertices(item.spriteData, 0, item.spriteData.length);
+				spriteQuad.bind(program);
+				gl.glDrawArrays(GL20.GL_TRIANGLE_FAN, 0, 4);
+				spriteQuad.unbind(program);
+				continue;
+			}
+			uniformMatrix.set(item.modelView).tra();
+			program.setUniformMatrix("u_modelView", uniformMatrix);
+			normalMatrix.set(uniformMatrix);
+			if (normalMatrix.det() != 0) {
+				normalMatrix.inv().transpose();
+			}
+			program.setUniformMatrix("u_normalMatrix", normalMatrix);
+			program.setUniformf("u_alphaFactor", item.alphaFactor);
+			applyLights(item.scope);
+			VertexBufferObject vbo = item.vbo.get();
+			IndexBufferObject ibo = item.ibo.get();
+			vbo.bind(program);
+			ibo.bind();
+			gl.glDrawElements(GL20.GL_TRIANGLES, ibo.getNumIndices(), GL20.GL_UNSIGNED_SHORT, 0);
+			ibo.unbind();
+			vbo.unbind(program);
+		}
+		program.end();
+		for (GLResource<?> resource : retained) {
+			resource.release();
+		}
+		retained.clear();
+		for (Item item : queue) {
+			item.appearance = null;
+			item.sprite = null;
+			item.vbo = null;
+			item.ibo = null;
+		}
+		pool.addAll(queue);
+		queue.clear();
+	}
+
+	/**
+	 * Put back the GL state other drawing code expects.
+	 */
+	void end() {
+		GL20 gl = Gdx.gl;
+		gl.glDisable(GL20.GL_DEPTH_TEST);
+		gl.glDisable(GL20.GL_CULL_FACE);
+		gl.glDisable(GL20.GL_POLYGON_OFFSET_FILL);
+		gl.glDisable(GL20.GL_BLEND);
+		gl.glDepthMask(true);
+		gl.glColorMask(true, true, true, true);
+		gl.glFrontFace(GL20.GL_CCW);
+		gl.glDepthRangef(0, 1);
+		gl.glActiveTexture(GL20.GL_TEXTURE0);
+	}
+
+	void dispose() {
+		program.dispose();
+		imageProgram.dispose();
+		spriteQuad.dispose();
+		imageQuad.dispose();
+	}
+
+	//------------------------------------------------------------------
+	// Private methods
+	//------------------------------------------------------------------
+
+	private static ShaderProgram compile(String vertexShader, String fragmentShader) {
+		ShaderProgram program = new ShaderProgram(vertexShader, fragmentShader);
+		if (!program.isCompiled()) {
+			String log = program.getLog();
+			program.dispose();
+			throw new IllegalStateException(log);
+		}
+		return program;
+	}
+
+	private void queueChild(Node child, float[] parentToWorld, float alphaFactor) {
+		float[] childToWorld = pushMatrix();
+		try {
+			child.getCompositeTransform(childToWorld);
+			Transform.mul(childToWorld, parentToWorld, childToWorld);
+			queue(child, childToWorld, alphaFactor);
+		} finally {
+			matrixDepth--;
+		}
+	}
+
+	/**
+	 * Take the matrix of the next traversal level, queued items copy what they keep of it.
+	 */
+	private float[] pushMatrix() {
+		if (matrixDepth == matrixStack.size()) {
+			matrixStack.add(new float[16]);
+		}
+		return matrixStack.get(matrixDepth++);
+	}
+
+	private void queueMesh(Mesh mesh, float[] toWorld, float alphaFactor) {
+		if (mesh.getVertexBuffer().getPositions(null) == null) {
+			throw new IllegalStateException();
+		}
+		GLResource<VertexBufferObject> vbo = null;
+		for (int i = 0, n = mesh.getSubmeshCount(); i < n; i++) {
+			Appearance appearance = mesh.getAppearance(i);
+			if (appearance == null) {
+				continue;
+			}
+			if (vbo == null) {
+				vbo = mesh.getVBO();
+			}
+			queue(vbo, mesh.getIndexBuffer(i), appearance, toWorld, alphaFactor, mesh.getScope());
+		}
+	}
+
+	private void queue(GLResource<VertexBufferObject> vbo, IndexBuffer triangles, Appearance appearance,
+					   float[] toWorld, float alphaFactor, int scope) {
+		Item item = obtain();
+		if (toWorld != null) {
+			Transform.mul(item.modelView, view, toWorld);
+		} else {
+			System.arraycopy(view, 0, item.modelView, 0, 16);
+		}
+		item.vbo = retain(vbo);
+		item.ibo = retain(triangles.getIBO());
+		item.scope = scope;
+		item.alphaFactor = alphaFactor;
+		setSortKeys(item, appearance, null);
+		for (int unit = 0; unit < Defs.NUM_TEXTURE_UNITS; unit++) {
+			Texture2D texture = appearance.getTexture(unit);
+			if (texture != null) {
+				retainTexture(texture.getImage());
+			}
+		}
+		queue.add(item);
+	}
+
+	private void queueSprite(Sprite3D sprite, float[] toWorld, float alphaFactor) {
+		Appearance appearance = sprite.getAppearance();
+		if (appearance == null) {
+			return;
+		}
+		float[] m = scratch;
+		Transform.mul(m, view, toWorld);
+		float x = m[3];
+		float y = m[7];
+		float z = m[11];
+		float halfWidth;
+		float halfHeight;
+		if (sprite.isScaled()) {
+			halfWidth = 0.5f * length(m[0], m[4], m[8]);
+			halfHeight = 0.5f * length(m[1], m[5], m[9]);
+		} else {
+			float w = projection[12] * x + projection[13] * y + projection[14] * z + projection[15];
+			if (w <= 0 || projection[0] == 0 || projection[5] == 0) {
+				return;
+			}
+			halfWidth = Math.abs(sprite.getCropWidth()) / (float) viewportWidth * w / Math.abs(projection[0]);
+			halfHeight = Math.abs(sprite.getCropHeight()) / (float) viewportHeight * w / Math.abs(projection[5]);
+		}
+
+		Image2D image = sprite.getImage();
+		float s0 = sprite.getCropX() / (float) image.getWidth();
+		float s1 = (sprite.getCropX() + sprite.getCropWidth()) / (float) image.getWidth();
+		float t0 = sprite.getCropY() / (float) image.getHeight();
+		float t1 = (sprite.getCropY() + sprite.getCropHeight()) / (float) image.getHeight();
+
+		Item item = obtain();
+		if (item.spriteData == null) {
+			item.spriteData = new float[4 * VertexBuffer.VERTEX_SIZE];
+		}
+		// Counter-clockwise fan from the top left corner
+		setSpriteVertex(item.spriteData, 0, x - halfWidth, y + halfHeight, z, s0, t0);
+		setSpriteVertex(item.spriteData, 1, x - halfWidth, y - halfHeight, z, s0, t1);
+		setSpriteVertex(item.spriteData, 2, x + halfWidth, y - halfHeight, z, s1, t1);
+		setSpriteVertex(item.spriteData, 3, x + halfWidth, y + halfHeight, z, s1, t0);
+		item.scope = sprite.getScope();
+		item.alphaFactor = alphaFactor;
+		item.scaled = sprite.isScaled();
+		setSortKeys(item, appearance, image);
+		item.depth = z;
+		retainTexture(image);
+		queue.add(item);
+	}
+
+	private static void setSpriteVertex(float[] data, int vertex, float x, float y, float z, float s, float t) {
+		int o = vertex * VertexBuffer.VERTEX_SIZE;
+		data[o] = x;
+		data[o + 1] = y;
+		data[o + 2] = z;
+		data[o + VertexBuffer.NORMAL_OFFSET] = 0;
+		data[o + VertexBuffer.NORMAL_OFFSET + 1] = 0;
+		data[o + VertexBuffer.NORMAL_OFFSET + 2] = 1;
+		for (int c = 0; c < 4; c++) {
+			data[o + VertexBuffer.COLOR_OFFSET + c] = 1;
+		}
+		data[o + VertexBuffer.TEXCOORD_OFFSET] = s;
+		data[o + VertexBuffer.TEXCOORD_OFFSET + 1] = t;
+		data[o + VertexBuffer.TEXCOORD_OFFSET + 2] = 0;
+	}
+
+	private void setSortKeys(Item item, Appearance appearance, Image2D sprite) {
+		item.appearance = appearance;
+		item.sprite = sprite;
+		item.layer = appearance.getLayer();
+		item.blended = appearance.isBlended();
+		item.depth = item.modelView[11];
+		Image2D image = sprite;
+		if (image == null && appearance.getTexture(0) != null) {
+			image = appearance.getTexture(0).getImage();
+		}
+		item.textureKey = image != null ? System.identityHashCode(image) : 0;
+		item.appearanceKey = System.identityHashCode(appearance);
+	}
+
+	private Item obtain() {
+		return pool.isEmpty() ? new Item() : pool.remove(pool.size() - 1);
+	}
+
+	private <T extends GLResource<?>> T retain(T resource) {
+		resource.retain();
+		retained.add(resource);
+		return resource;
+	}
+
+	private void retainTexture(Image2D image) {
+		image.getTexture();
+		retain(image.getTextureResource());
+	}
+
+	private void applyAppearance(Appearance appearance, Image2D sprite, boolean scaled) {
+		GL20 gl = Gdx.gl;
+
+		CompositingMode compositing = appearance.getCompositingMode();
+		if (compositing == null) {
+			compositing = DEFAULT_COMPOSITING;
+		}
+		switch (compositing.getBlending()) {
+			case CompositingMode.ALPHA:
+				gl.glEnable(GL20.GL_BLEND);
+				gl.glBlendFunc(GL20.GL_SRC_ALPHA, GL20.GL_ONE_MINUS_SRC_ALPHA);
+				break;
+			case CompositingMode.ALPHA_ADD:
+				gl.glEnable(GL20.GL_BLEND);
+				gl.glBlendFunc(GL20.GL_SRC_ALPHA, GL20.GL_ONE);
+				break;
+			case CompositingMode.MODULATE:
+				gl.glEnable(GL20.GL_BLEND);
+				gl.glBlendFunc(GL20.GL_DST_COLOR, GL20.GL_ZERO);
+				break;
+			case CompositingMode.MODULATE_X2:
+				gl.glEnable(GL20.GL_BLEND);
+				gl.glBlendFunc(GL20.GL_DST_COLOR, GL20.GL_SRC_COLOR);
+				break;
+			default:
+				gl.glDisable(GL20.GL_BLEND);
+				break;
+		}
+		if (depthEnabled && compositing.isDepthTestEnabled()) {
+			gl.glEnable(GL20.GL_DEPTH_TEST);
+			gl.glDepthFunc(GL20.GL_LEQUAL);
+		} else {
+			gl.glDisable(GL20.GL_DEPTH_TEST);
+		}
+		gl.glDepthMask(depthEnabled && compositing.isDepthWriteEnabled());
+		boolean color = compositing.isColorWriteEnabled();
+		gl.glColorMask(color, color, color, compositing.isAlphaWriteEnabled());
+		float factor = compositing.getDepthOffsetFactor();
+		float units = compositing.getDepthOffsetUnits();
+		if (factor != 0 || units != 0) {
+			gl.glEnable(GL20.GL_POLYGON_OFFSET_FILL);
+			gl.glPolygonOffset(factor, units);
+		} else {
+			gl.glDisable(GL20.GL_POLYGON_OFFSET_FILL);
+		}
+		program.setUniformf("u_alphaThreshold", compositing.getAlphaThreshold());
+
+		PolygonMode polygonMode = appearance.getPolygonMode();
+		if (polygonMode == null) {
+			polygonMode = DEFAULT_POLYGON_MODE;
+		}
+		if (sprite != null || polygonMode.getCulling() == PolygonMode.CULL_NONE) {
+			gl.glDisable(GL20.GL_CULL_FACE);
+		} else {
+			gl.glEnable(GL20.GL_CULL_FACE);
+			gl.glCullFace(polygonMode.getCulling() == PolygonMode.CULL_BACK ? GL20.GL_BACK : GL20.GL_FRONT);
+		}
+		gl.glFrontFace(polygonMode.getWinding() == PolygonMode.WINDING_CCW ? GL20.GL_CCW : GL20.GL_CW);
+		program.setUniformi("u_twoSided", polygonMode.isTwoSidedLightingEnabled() ? 1 : 0);
+		program.setUniformi("u_localViewer", polygonMode.isLocalCameraLightingEnabled() ? 1 : 0);
+
+		Material material = sprite == null ? appearance.getMaterial() : null;
+		program.setUniformi("u_lighting", material != null ? 1 : 0);
+		if (material != null) {
+			setColorUniform("u_ambient", material.getColor(Material.AMBIENT));
+			int diffuse = material.getColor(Material.DIFFUSE);
+			program.setUniformf("u_diffuse", ((diffuse >> 16) & 0xFF) / 255.0f,
+					((diffuse >> 8) & 0xFF) / 255.0f, (diffuse & 0xFF) / 255.0f, (diffuse >>> 24) / 255.0f);
+			setColorUniform("u_emissive", material.getColor(Material.EMISSIVE));
+			setColorUniform("u_specular", material.getColor(Material.SPECULAR));
+			program.setUniformf("u_shininess", material.getShininess());
+			program.setUniformi("u_colorTracking", material.isVertexColorTrackingEnabled() ? 1 : 0);
+		}
+
+		Fog fog = appearance.getFog();
+		if (fog == null) {
+			program.setUniformi("u_fogMode", 0);
+		} else {
+			program.setUniformi("u_fogMode", fog.getMode() == Fog.LINEAR ? 1 : 2);
+			program.setUniformf("u_fogParams", fog.getNearDistance(), fog.getFarDistance(), fog.getDensity());
+			setColorUniform("u_fogColor", fog.getColor());
+		}
+
+		if (sprite != null) {
+			Texture texture = sprite.getTexture();
+			texture.bind(0);
+			Texture.TextureFilter filter = scaled ? Texture.TextureFilter.Linear : Texture.TextureFilter.Nearest;
+			texture.setFilter(filter, filter);
+			texture.setWrap(Texture.TextureWrap.ClampToEdge, Texture.TextureWrap.ClampToEdge);
+			program.setUniformMatrix("u_texMatrix0", uniformMatrix.idt());
+			program.setUniformi("u_texEnabled0", 1);
+			program.setUniformi("u_texBlend0", Texture2D.FUNC_REPLACE - Texture2D.FUNC_ADD);
+			program.setUniformi("u_texFormat0", sprite.getFormat() - Image2D.ALPHA);
+			program.setUniformi("u_texEnabled1", 0);
+			return;
+		}
+		for (int unit = 0; unit < Defs.NUM_TEXTURE_UNITS; unit++) {
+			Texture2D texture2D = appearance.getTexture(unit);
+			if (texture2D == null) {
+				program.setUniformi("u_texEnabled" + unit, 0);
+				continue;
+			}
+			Image2D image = texture2D.getImage();
+			Texture texture = image.getTexture();
+			texture.bind(unit);
+			texture.setFilter(getMinFilter(texture2D), texture2D.getImageFilter() == Texture2D.FILTER_LINEAR
+					? Texture.TextureFilter.Linear : Texture.TextureFilter.Nearest);
+			texture.setWrap(getWrap(texture2D.getWrappingS()), getWrap(texture2D.getWrappingT()));
+			texture2D.getCompositeTransform(scratch);
+			program.setUniformMatrix("u_texMatrix" + unit, uniformMatrix.set(scratch).tra());
+			program.setUniformi("u_texEnabled" + unit, 1);
+			program.setUniformi("u_texBlend" + unit, texture2D.getBlending() - Texture2D.FUNC_ADD);
+			program.setUniformi("u_texFormat" + unit, image.getFormat() - Image2D.ALPHA);
+			setColorUniform("u_texBlendColor" + unit, texture2D.getBlendColor());
+		}
+	}
+
+	private void applyLights(int scope) {
+		int mask = 0;
+		for (int i = 0; i < lightCount; i++) {
+			if ((lightScope[i] & scope) != 0) {
+				mask |= 1 << i;
+			}
+		}
+		if (mask == currentLightMask) {
+			return;
+		}
+		currentLightMask = mask;
+		int n = 0;
+		for (int i = 0; i < lightCount; i++) {
+			if ((mask & (1 << i)) == 0) {
+				continue;
+			}
+			drawType[n] = lightType[i];
+			System.arraycopy(lightPosition, i * 4, drawPosition, n * 4, 4);
+			System.arraycopy(lightDirection, i * 3, drawDirection, n * 3, 3);
+			System.arraycopy(lightColor, i * 3, drawColor, n * 3, 3);
+			System.arraycopy(lightAttenuation, i * 3, drawAttenuation, n * 3, 3);
+			System.arraycopy(lightSpot, i * 2, drawSpot, n * 2, 2);
+			n++;
+		}
+		program.setUniformi("u_numLights", n);
+		if (n == 0) {
+			return;
+		}
+		program.setUniform1fv("u_lightType", drawType, 0, n);
+		program.setUniform4fv("u_lightPosition", drawPosition, 0, n * 4);
+		program.setUniform3fv("u_lightDirection", drawDirection, 0, n * 3);
+		program.setUniform3fv("u_lightColor", drawColor, 0, n * 3);
+		program.setUniform3fv("u_lightAttenuation", drawAttenuation, 0, n * 3);
+		program.setUniform2fv("u_lightSpot", drawSpot, 0, n * 2);
+	}
+
+	private void drawImage(Image2D image, int cropX, int cropY, int cropWidth, int cropHeight,
+						   boolean repeatX, boolean repeatY) {
+		GL20 gl = Gdx.gl;
+		gl.glDisable(GL20.GL_DEPTH_TEST);
+		gl.glDisable(GL20.GL_CULL_FACE);
+		gl.glDisable(GL20.GL_BLEND);
+		gl.glColorMask(true, true, true, true);
+
+		float s0 = cropX / (float) image.getWidth();
+		float s1 = (cropX + cropWidth) / (float) image.getWidth();
+		float t0 = cropY / (float) image.getHeight();
+		float t1 = (cropY + cropHeight) / (float) image.getHeight();
+		float[] data = imageData;
+		setImageVertex(data, 0, -1, 1, s0, t0);
+		setImageVertex(data, 1, -1, -1, s0, t1);
+		setImageVertex(data, 2, 1, -1, s1, t1);
+		setImageVertex(data, 3, 1, 1, s1, t0);
+		imageQuad.setVertices(data, 0, data.length);
+
+		Texture texture = image.getTexture();
+		texture.bind(0);
+		texture.setFilter(Texture.TextureFilter.Nearest, Texture.TextureFilter.Nearest);
+		texture.setWrap(Texture.TextureWrap.ClampToEdge, Texture.TextureWrap.ClampToEdge);
+		imageProgram.begin();
+		imageProgram.setUniformi("u_texture", 0);
+		imageProgram.setUniformf("u_repeat", repeatX ? 1 : 0, repeatY ? 1 : 0);
+		imageQuad.bind(imageProgram);
+		gl.glDrawArrays(GL20.GL_TRIANGLE_FAN, 0, 4);
+		imageQuad.unbind(imageProgram);
+		imageProgram.end();
+	}
+
+	private static void setImageVertex(float[] data, int vertex, float x, float y, float s, float t) {
+		data[vertex * 4] = x;
+		data[vertex * 4 + 1] = y;
+		data[vertex * 4 + 2] = s;
+		data[vertex * 4 + 3] = t;
+	}
+
+	private void setColorUniform(String name, int rgb) {
+		program.setUniformf(name, ((rgb >> 16) & 0xFF) / 255.0f, ((rgb >> 8) & 0xFF) / 255.0f, (rgb & 0xFF) / 255.0f);
+	}
+
+	private static Texture.TextureFilter getMinFilter(Texture2D texture) {
+		boolean linear = texture.getImageFilter() == Texture2D.FILTER_LINEAR;
+		switch (texture.getLevelFilter()) {
+			case Texture2D.FILTER_NEAREST:
+				return linear ? Texture.TextureFilter.MipMapLinearNearest : Texture.TextureFilter.MipMapNearestNearest;
+			case Texture2D.FILTER_LINEAR:
+				return linear ? Texture.TextureFilter.MipMapLinearLinear : Texture.TextureFilter.MipMapNearestLinear;
+			default:
+				return linear ? Texture.TextureFilter.Linear : Texture.TextureFilter.Nearest;
+		}
+	}
+
+	private static Texture.TextureWrap getWrap(int wrap) {
+		return wrap == Texture2D.WRAP_REPEAT ? Texture.TextureWrap.Repeat : Texture.TextureWrap.ClampToEdge;
+	}
+
+	private static void setNormalized(float[] out, int offset, float x, float y, float z) {
+		float length = length(x, y, z);
+		if (length != 0) {
+			x /= length;
+			y /= length;
+			z /= length;
+		}
+		out[offset] = x;
+		out[offset + 1] = y;
+		out[offset + 2] = z;
+	}
+
+	private static float length(float x, float y, float z) {
+		return (float) Math.sqrt(x * x + y * y + z * z);
+	}
+
+	/**
+	 * One queued draw: a submesh, or a sprite quad already in eye space.
+	 */
+	private static final class Item {
+		final float[] modelView = new float[16];
+		float[] spriteData;
+		GLResource<VertexBufferObject> vbo;
+		GLResource<IndexBufferObject> ibo;
+		Appearance appearance;
+		Image2D sprite;
+		boolean scaled;
+		int scope;
+		float alphaFactor;
+
+		// Sort keys
+		int layer;
+		boolean blended;
+		float depth;
+		int textureKey;
+		int appearanceKey;
+	}
+}
@@ -17,19 +17,30 @@
 
 package javax.microedition.m3g;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
 public class SkinnedMesh extends Mesh {
 	//------------------------------------------------------------------
 	// Instance data
 	//------------------------------------------------------------------
 
 	private Group skeleton;
-
-	static private IndexBuffer[] tempTrianglesArray;
-	static private Appearance[] tempAppearanceArray;
-
-	static private IndexBuffer tempTriangles;
-	static private Appearance tempAppearance;
-
+	private ArrayList<Binding> bindings = new ArrayList<>();
+	// transformation from the mesh to each bone when it was first bound
+	private IdentityHashMap<Node, float[]> restTransforms = new IdentityHashMap<>();
+
+	// reused by deform between frames, sized to the vertex count
+	private float[] weightTotals;
+	private float[] skinnedPositions;
+	private float[] skinnedNormals;
+	private float[] vertex = new float[4];
+	private float[] nodeTransform = new float[16];
+	// pose of each bone for the current frame, from a pool of matrices
+	private IdentityHashMap<Node, float[]> boneMatrices = new IdentityHashMap<>();
+	private ArrayList<float[]> matrixPool = new ArrayList<>();
 
 	//------------------------------------------------------------------
 	// Constructor(s)
@@ -39,25 +50,16 @@ public class SkinnedMesh extends Mesh {
 					   IndexBuffer[] triangles,
 					   Appearance[] appearances,
 					   Group skeleton) {
-		super(createHandle(vertices, triangles, appearances, skeleton));
-		skeleton.setParent(this);
-		this.skeleton = skeleton;
+		super(vertices, triangles, appearances);
+		setSkeleton(skeleton);
 	}
 
 	public SkinnedMesh(VertexBuffer vertices,
 					   IndexBuffer triangles,
 					   Appearance appearance,
 					   Group skeleton) {
-		super(createHandle(vertices, triangles, appearance, skeleton));
-		skeleton.setParent(this);
-		this.skeleton = skeleton;
-	}
-
-	/**
-	 */
-	SkinnedMesh(long handle) {
-		super(handle);
-		skeleton = (Group) getInstance(_getSkeleton(handle));
+		super(vertices, triangles, appearance);
+		setSkeleton(skeleton);
 	}
 
 	//------------------------------------------------------------------
@@ -68,11 +70,22 @@ public class SkinnedMesh extends Mesh {
 							 int weight,
 							 int firstVertex,
 							 int numVertices) {
-		_addTransform(handle,
-				bone != null ? bone.handle : 0,
-				weight,
-				firstVertex,
-				numVertices);
+		checkBone(bone);
+		if (weight <= 0 || numVertices <= 0) {
+			throw new IllegalArgumentException();
+		}
+		if (firstVertex < 0 || firstVertex + numVertices > 65535) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (!restTransforms.containsKey(bone)) {
+			float[] rest = new float[16];
+			bone.getTransformToAncestor(this, rest);
+			if (!Transform.invert(rest, rest)) {
+				throw new ArithmeticException();
+			}
+			restTransforms.put(bone, rest);
+		}
+		bindings.add(new Binding(bone, weight, firstVertex, numVertices));
 	}
 
 	public Group getSkeleton() {
@@ -82,108 +95,232 @@ public class SkinnedMesh extends Mesh {
 	// M3G 1.1 Maintenance release getters
 
 	public void getBoneTransform(Node bone, Transform transform) {
-		_getBoneTransform(handle, bone.handle, transform.matrix);
+		if (transform == null) {
+			throw new NullPointerException();
+		}
+		checkBone(bone);
+		float[] rest = restTransforms.get(bone);
+		if (rest != null) {
+			transform.set(rest);
+		} else {
+			transform.setIdentity();
+		}
 	}
 
 	public int getBoneVertices(Node bone, int[] indices, float[] weights) {
-		return _getBoneVertices(handle, bone.handle, indices, weights);
+		checkBone(bone);
+		int count = getVertexBuffer().getVertexCount();
+		float[] total = new float[count];
+		float[] own = new float[count];
+		for (Binding binding : bindings) {
+			int end = Math.min(binding.first + binding.count, count);
+			for (int v = binding.first; v < end; v++) {
+				total[v] += binding.weight;
+				if (binding.bone == bone) {
+					own[v] += binding.weight;
+				}
+			}
+		}
+		int n = 0;
+		for (int v = 0; v < count; v++) {
+			if (own[v] > 0) {
+				n++;
+			}
+		}
+		if ((indices != null && indices.length < n) || (weights != null && weights.length < n)) {
+			throw new IllegalArgumentException();
+		}
+		for (int v = 0, i = 0; v < count; v++) {
+			if (own[v] > 0) {
+				if (indices != null) {
+					indices[i] = v;
+				}
+				if (weights != null) {
+					weights[i] = own[v] / total[v];
+				}
+				i++;
+			}
+		}
+		return n;
 	}
 
 	//------------------------------------------------------------------
-	// Private methods
+	// Package private methods
 	//------------------------------------------------------------------
 
-	static long createHandle(VertexBuffer vertices,
-							IndexBuffer[] triangles,
-							Appearance[] appearances,
-							Group skeleton) {
-
-		tempTrianglesArray = triangles;
-		tempAppearanceArray = appearances;
-
-		verifyParams(vertices, triangles, appearances);
+	@Override
+	boolean isDeformed() {
+		return !bindings.isEmpty();
+	}
 
-		if (skeleton == null) {
-			throw new NullPointerException();
+	/**
+	 * Blend each vertex between the bones it is bound to, transforming it
+	 * from its rest pose to the current pose of each bone.
+	 */
+	@Override
+	synchronized void deform(float[] positions, float[] normals, float[] colors) {
+		int count = getVertexBuffer().getVertexCount();
+		weightTotals = clear(weightTotals, count);
+		if (positions != null) {
+			skinnedPositions = clear(skinnedPositions, count * 3);
 		}
-
-		if (skeleton.getParent() != null || skeleton instanceof World) {
-			throw new IllegalArgumentException();
+		if (normals != null) {
+			skinnedNormals = clear(skinnedNormals, count * 3);
 		}
-
-		long[] hTri = new long[triangles.length];
-		long[] hApp = new long[triangles.length];
-		for (int i = 0; i < triangles.length; i++) {
-			hTri[i] = triangles[i].handle;
-			if (appearances != null && i < appearances.length) {
-				hApp[i] = appearances[i] != null ? appearances[i].handle : 0;
+		float[] v = vertex;
+		boneMatrices.clear();
+		int pooled = 0;
+		for (int b = 0; b < bindings.size(); b++) {
+			Binding binding = bindings.get(b);
+			float[] m = boneMatrices.get(binding.bone);
+			if (m == null) {
+				if (pooled == matrixPool.size()) {
+					matrixPool.add(new float[16]);
+				}
+				m = matrixPool.get(pooled++);
+				binding.bone.getTransformToAncestor(this, m, nodeTransform);
+				Transform.mul(m, m, restTransforms.get(binding.bone));
+				boneMatrices.put(binding.bone, m);
+			}
+			float w = binding.weight;
+			int end = Math.min(binding.first + binding.count, count);
+			for (int i = binding.first; i < end; i++) {
+				weightTotals[i] += w;
+				if (positions != null) {
+					v[0] = positions[i * 3];
+					v[1] = positions[i * 3 + 1];
+					v[2] = positions[i * 3 + 2];
+					v[3] = 1;
+					Transform.transform(m, v, 0, v, 0);
+					skinnedPositions[i * 3] += v[0] * w;
+					skinnedPositions[i * 3 + 1] += v[1] * w;
+					skinnedPositions[i * 3 + 2] += v[2] * w;
+				}
+				if (normals != null) {
+					v[0] = normals[i * 3];
+					v[1] = normals[i * 3 + 1];
+					v[2] = normals[i * 3 + 2];
+					v[3] = 0;
+					Transform.transform(m, v, 0, v, 0);
+					skinnedNormals[i * 3] += v[0] * w;
+					skinnedNormals[i * 3 + 1] += v[1] * w;
+					skinnedNormals[i * 3 + 2] += v[2] * w;
+				}
 			}
 		}
-		long ret = _ctor(Interface.getHandle(),
-				vertices.handle,
-				hTri,
-				hApp,
-				skeleton.handle);
+		for (int i = 0; i < count; i++) {
+			if (weightTotals[i] == 0) {
+				continue;
+			}
+			float scale = 1 / weightTotals[i];
+			for (int c = 0; c < 3; c++) {
+				if (positions != null) {
+					positions[i * 3 + c] = skinnedPositions[i * 3 + c] * scale;
+				}
+				if (normals != null) {
+					normals[i * 3 + c] = skinnedNormals[i * 3 + c] * scale;
+				}
+			}
+		}
+	}
 
-		tempTrianglesArray = triangles;
-		tempAppearanceArray = appearances;
+	@Override
+	void alignSubtree(Node reference) {
+		super.alignSubtree(reference);
+		skeleton.alignSubtree(reference);
+	}
 
-		return ret;
+	@Override
+	int getReferences(Object3D[] references, int n) {
+		n = super.getReferences(references, n);
+		return addReference(references, n, skeleton);
 	}
 
-	static long createHandle(VertexBuffer vertices,
-							IndexBuffer triangles,
-							Appearance appearance,
-							Group skeleton) {
+	@Override
+	Object3D duplicate(IdentityHashMap<Object3D, Object3D> duplicates) {
+		SkinnedMesh copy = (SkinnedMesh) super.duplicate(duplicates);
+		copy.skeleton = (Group) skeleton.duplicate(duplicates);
+		copy.skeleton.setParent(copy);
+		copy.bindings = new ArrayList<>(bindings);
+		copy.restTransforms = new IdentityHashMap<>(restTransforms);
+		copy.weightTotals = null;
+		copy.skinnedPositions = null;
+		copy.skinnedNormals = null;
+		copy.vertex = new float[4];
+		copy.nodeTransform = new float[16];
+		copy.boneMatrices = new IdentityHashMap<>();
+		copy.matrixPool = new ArrayList<>();
+		return copy;
+	}
 
-		tempTriangles = triangles;
-		tempAppearance = appearance;
+	@Override
+	void remapReferences(IdentityHashMap<Object3D, Object3D> duplicates) {
+		super.remapReferences(duplicates);
+		IdentityHashMap<Node, float[]> restTransforms = new IdentityHashMap<>();
+		for (Map.Entry<Node, float[]> entry : this.restTransforms.entrySet()) {
+			Node bone = entry.getKey();
+			restTransforms.put(duplicates.containsKey(bone) ? (Node) duplicates.get(bone) : bone, entry.getValue());
+		}
+		this.restTransforms = restTransforms;
+		for (int i = 0; i < bindings.size(); i++) {
+			Binding binding = bindings.get(i);
+			if (duplicates.containsKey(binding.bone)) {
+				bindings.set(i, new Binding((Node) duplicates.get(binding.bone),
+						binding.weight, binding.first, binding.count));
+			}
+		}
+	}
 
-		verifyParams(vertices, triangles);
+	//------------------------------------------------------------------
+	// Private methods
+	//------------------------------------------------------------------
 
+	private void setSkeleton(Group skeleton) {
 		if (skeleton == null) {
 			throw new NullPointerException();
 		}
-		if (skeleton.getParent() != null || skeleton instanceof World) {
+		if (skeleton instanceof World || skeleton.getParent() != null) {
 			throw new IllegalArgumentException();
 		}
-		long[] hTri = {triangles.handle};
-		long[] hApp = {appearance != null ? appearance.handle : 0};
-		long ret = _ctor(Interface.getHandle(),
-				vertices.handle,
-				hTri,
-				hApp,
-				skeleton.handle);
-
-		tempTriangles = null;
-		tempAppearance = null;
-
-		return ret;
+		this.skeleton = skeleton;
+		skeleton.setParent(this);
 	}
 
-	// Native methods
-	private native static long _ctor(long hInstance,
-									long hVertices,
-									long[] hTriangles,
-									long[] hAppearances,
-									long hSkeleton);
-
-	private native static void _addTransform(long handle,
-											 long hBone,
-											 int weight,
-											 int firstVertex,
-											 int numVertices);
-
-	private native static long _getSkeleton(long handle);
-
-	// M3G 1.1 Maintenance release getters
-	private native static void _getBoneTransform(long handle,
-												 long hBone,
-												 byte[] transform);
+	private void checkBone(Node bone) {
+		if (bone == null) {
+			throw new NullPointerException();
+		}
+		Node node = bone;
+		while (node != null && node != skeleton) {
+			node = node.getParent();
+		}
+		if (node == null) {
+			throw new IllegalArgumentException();
+		}
+	}
 
-	private native static int _getBoneVertices(long handle,
-											   long hBone,
-											   int[] indices,
-											   float[] weights);
+	/**
+	 * @return out zeroed if it has the given length, or else a new array
+	 */
+	private static float[] clear(float[] out, int length) {
+		if (out == null || out.length != length) {
+			return new float[length];
+		}
+		Arrays.fill(out, 0);
+		return out;
+	}
 
+	private static final class Binding {
+		final Node bone;
+		final int weight;
+		final int first;
+		final int count;
+
+		Binding(Node bone, int weight, int first, int count) {
+			this.bone = bone;
+			this.weight = weight;
+			this.first = first;
+			this.count = count;
+		}
+	}
 }
@@ -22,40 +22,30 @@ public class Sprite3D extends Node {
 	// Instance data
 	//------------------------------------------------------------------
 
+	private final boolean scaled;
 	private Image2D image;
 	private Appearance appearance;
+	private int cropX, cropY, cropWidth, cropHeight;
 
 	//------------------------------------------------------------------
 	// Constructors
 	//------------------------------------------------------------------
 
 	public Sprite3D(boolean scaled, Image2D image, Appearance appearance) {
-		super(_ctor(Interface.getHandle(),
-				scaled,
-				image != null ? image.handle : 0,
-				appearance != null ? appearance.handle : 0));
-		this.image = image;
+		this.scaled = scaled;
+		setImage(image);
 		this.appearance = appearance;
 	}
 
-	/**
-	 */
-	Sprite3D(long handle) {
-		super(handle);
-		image = (Image2D) getInstance(_getImage(handle));
-		appearance = (Appearance) getInstance(_getAppearance(handle));
-	}
-
 	//------------------------------------------------------------------
 	// Public methods
 	//------------------------------------------------------------------
 
 	public boolean isScaled() {
-		return _isScaled(handle);
+		return scaled;
 	}
 
 	public void setAppearance(Appearance appearance) {
-		_setAppearance(handle, appearance != null ? appearance.handle : 0);
 		this.appearance = appearance;
 	}
 
@@ -64,8 +54,14 @@ public class Sprite3D extends Node {
 	}
 
 	public void setImage(Image2D image) {
-		_setImage(handle, image != null ? image.handle : 0);
+		if (image == null) {
+			throw new NullPointerException();
+		}
 		this.image = image;
+		cropX = 0;
+		cropY = 0;
+		cropWidth = Math.min(image.getWidth(), Defs.MAX_TEXTURE_DIMENSION);
+		cropHeight = Math.min(image.getHeight(), Defs.MAX_TEXTURE_DIMENSION);
 	}
 
 	public Image2D getImage() {
@@ -73,49 +69,58 @@ public class Sprite3D extends Node {
 	}
 
 	public void setCrop(int cropX, int cropY, int width, int height) {
-		_setCrop(handle, cropX, cropY, width, height);
+		if (Math.abs(width) > Defs.MAX_TEXTURE_DIMENSION || Math.abs(height) > Defs.MAX_TEXTURE_DIMENSION) {
+			throw new IllegalArgumentException();
+		}
+		this.cropX = cropX;
+		this.cropY = cropY;
+		cropWidth = width;
+		cropHeight = height;
 	}
 
 	public int getCropX() {
-		return _getCrop(handle, Defs.GET_CROPX);
+		return cropX;
 	}
 
 	public int getCropY() {
-		return _getCrop(handle, Defs.GET_CROPY);
+		return cropY;
 	}
 
 	public int getCropWidth() {
-		return _getCrop(handle, Defs.GET_CROPWIDTH);
+		return cropWidth;
 	}
 
 	public int getCropHeight() {
-		return _getCrop(handle, Defs.GET_CROPHEIGHT);
+		return cropHeight;
 	}
 
 	//------------------------------------------------------------------
-	// Private methods
+	// Package private methods
 	//------------------------------------------------------------------
 
-	// Native methods
-
-	private static native long _ctor(long hInterface,
-									boolean scaled,
-									long hImage,
-									long hAppearance);
-
-	private static native boolean _isScaled(long handle);
-
-	private static native void _setAppearance(long handle, long hAppearance);
-
-	private static native void _setImage(long handle, long hImage);
-
-	private static native void _setCrop(long handle,
-										int cropX, int cropY,
-										int width, int height);
-
-	private static native int _getCrop(long handle, int which);
+	@Override
+	int getReferences(Object3D[] references, int n) {
+		n = super.getReferences(references, n);
+		n = addReference(references, n, image);
+		return addReference(references, n, appearance);
+	}
 
-	private static native long _getAppearance(long handle);
+	@Override
+	boolean isCompatible(AnimationTrack track) {
+		return track.getTargetProperty() == AnimationTrack.CROP || super.isCompatible(track);
+	}
 
-	private static native long _getImage(long handle);
+	@Override
+	void updateProperty(int property, float[] value) {
+		if (property == AnimationTrack.CROP) {
+			cropX = Math.round(value[0]);
+			cropY = Math.round(value[1]);
+			if (value.length == 4) {
+				cropWidth = Math.round(clamp(value[2], -Defs.MAX_TEXTURE_DIMENSION, Defs.MAX_TEXTURE_DIMENSION));
+				cropHeight = Math.round(clamp(value[3], -Defs.MAX_TEXTURE_DIMENSION, Defs.MAX_TEXTURE_DIMENSION));
+			}
+		} else {
+			super.updateProperty(property, value);
+		}
+	}
 }
@@ -38,29 +38,28 @@ public class Texture2D extends Transformable {
 	//------------------------------------------------------------------
 
 	private Image2D image;
+	private int levelFilter = FILTER_BASE_LEVEL;
+	private int imageFilter = FILTER_NEAREST;
+	private int wrapS = WRAP_REPEAT;
+	private int wrapT = WRAP_REPEAT;
+	private int blending = FUNC_MODULATE;
+	private int blendColor;
 
 	//------------------------------------------------------------------
 	// Constructor(s)
 	//------------------------------------------------------------------
 
 	public Texture2D(final Image2D image) {
-		super(_ctor(Interface.getHandle(), image != null ? image.handle : 0));
+		checkImage(image);
 		this.image = image;
 	}
 
-	/**
-	 */
-	Texture2D(long handle) {
-		super(handle);
-		image = (Image2D) getInstance(_getImage(handle));
-	}
-
 	//------------------------------------------------------------------
 	// Public methods
 	//------------------------------------------------------------------
 
 	public void setImage(final Image2D image) {
-		_setImage(handle, image != null ? image.handle : 0);
+		checkImage(image);
 		this.image = image;
 	}
 
@@ -69,72 +68,96 @@ public class Texture2D extends Transformable {
 	}
 
 	public void setFiltering(int levelFilter, int imageFilter) {
-		_setFiltering(handle, levelFilter, imageFilter);
+		if (levelFilter < FILTER_BASE_LEVEL || levelFilter > FILTER_NEAREST
+				|| (imageFilter != FILTER_LINEAR && imageFilter != FILTER_NEAREST)) {
+			throw new IllegalArgumentException();
+		}
+		this.levelFilter = levelFilter;
+		this.imageFilter = imageFilter;
 	}
 
 	public void setWrapping(int wrapS, int wrapT) {
-		_setWrapping(handle, wrapS, wrapT);
+		if ((wrapS != WRAP_CLAMP && wrapS != WRAP_REPEAT) || (wrapT != WRAP_CLAMP && wrapT != WRAP_REPEAT)) {
+			throw new IllegalArgumentException();
+		}
+		this.wrapS = wrapS;
+		this.wrapT = wrapT;
 	}
 
 	public int getWrappingS() {
-		return _getWrappingS(handle);
+		return wrapS;
 	}
 
 	public int getWrappingT() {
-		return _getWrappingT(handle);
+		return wrapT;
 	}
 
 	public void setBlending(int func) {
-		_setBlending(handle, func);
+		if (func < FUNC_ADD || func > FUNC_REPLACE) {
+			throw new IllegalArgumentException();
+		}
+		blending = func;
 	}
 
 	public int getBlending() {
-		return _getBlending(handle);
+		return blending;
 	}
 
 	public void setBlendColor(int RGB) {
-		_setBlendColor(handle, RGB);
+		blendColor = RGB & 0xFFFFFF;
 	}
 
 	public int getBlendColor() {
-		return _getBlendColor(handle);
+		return blendColor;
 	}
 
 	// M3G 1.1 Maintenance release getters
 
 	public int getImageFilter() {
-		return _getImageFilter(handle);
+		return imageFilter;
 	}
 
 	public int getLevelFilter() {
-		return _getLevelFilter(handle);
+		return levelFilter;
 	}
 
-	// Native methods
-	private native static long _ctor(long hInterface, long imageHandle);
-
-	private native static void _setImage(long handle, long imageHandle);
-
-	private native static long _getImage(long handle);
-
-	private native static void _setFiltering(long handle, int levelFilter, int imageFilter);
-
-	private native static void _setWrapping(long handle, int wrapS, int wrapT);
-
-	private native static int _getWrappingS(long handle);
-
-	private native static int _getWrappingT(long handle);
-
-	private native static void _setBlending(long handle, int func);
+	//------------------------------------------------------------------
+	// Package private methods
+	//------------------------------------------------------------------
 
-	private native static int _getBlending(long handle);
+	@Override
+	int getReferences(Object3D[] references, int n) {
+		n = super.getReferences(references, n);
+		return addReference(references, n, image);
+	}
 
-	private native static void _setBlendColor(long handle, int RGB);
+	@Override
+	boolean isCompatible(AnimationTrack track) {
+		return track.getTargetProperty() == AnimationTrack.COLOR || super.isCompatible(track);
+	}
 
-	private native static int _getBlendColor(long handle);
+	@Override
+	void updateProperty(int property, float[] value) {
+		if (property == AnimationTrack.COLOR) {
+			blendColor = toRGB(value);
+		} else {
+			super.updateProperty(property, value);
+		}
+	}
 
-	// M3G 1.1 Maintenance release getters
-	private native static int _getImageFilter(long handle);
+	//------------------------------------------------------------------
+	// Private methods
+	//------------------------------------------------------------------
 
-	private native static int _getLevelFilter(long handle);
+	private static void checkImage(Image2D image) {
+		if (image == null) {
+			throw new NullPointerException();
+		}
+		int width = image.getWidth();
+		int height = image.getHeight();
+		if (!image.isPowerOfTwo()
+				|| width > Defs.MAX_TEXTURE_DIMENSION || height > Defs.MAX_TEXTURE_DIMENSION) {
+			throw new IllegalArgumentException();
+		}
+	}
 }
@@ -18,34 +18,24 @@
 package javax.microedition.m3g;
 
 public class Transform {
-	//------------------------------------------------------------------
-	// Static data
-	//------------------------------------------------------------------
-
 	//------------------------------------------------------------------
 	// Instance data
 	//------------------------------------------------------------------
 
-	// Check size from m3g_math.h Matrix
-	byte[] matrix = new byte[72];
+	// Row-major 4x4 matrix, transforming column vectors
+	final float[] matrix = new float[16];
 
 	//------------------------------------------------------------------
 	// Constructor(s)
 	//------------------------------------------------------------------
 
 	public Transform() {
-		if (!Platform.uiThreadAvailable()) {
-			throw new Error("UI thread not initialized");
-		}
 		setIdentity();
 	}
 
 	/**
 	 */
 	public Transform(Transform other) {
-		if (!Platform.uiThreadAvailable()) {
-			throw new Error("UI thread not initialized");
-		}
 		set(other);
 	}
 
@@ -54,55 +44,85 @@ public class Transform {
 	//------------------------------------------------------------------
 
 	public void setIdentity() {
-		_setIdentity(matrix);
+		setIdentity(matrix);
 	}
 
 	public void set(Transform transform) {
-		System.arraycopy(transform.matrix, 0,
-				this.matrix, 0,
-				this.matrix.length);
+		System.arraycopy(transform.matrix, 0, matrix, 0, 16);
 	}
 
 	public void set(float[] matrix) {
-		_setMatrix(this.matrix, matrix);
+		if (matrix.length < 16) {
+			throw new IllegalArgumentException();
+		}
+		System.arraycopy(matrix, 0, this.matrix, 0, 16);
 	}
 
 	public void get(float[] matrix) {
-		_getMatrix(this.matrix, matrix);
+		if (matrix.length < 16) {
+			throw new IllegalArgumentException();
+		}
+		System.arraycopy(this.matrix, 0, matrix, 0, 16);
 	}
 
 	public void invert() {
-		_invert(matrix);
+		if (!invert(matrix, matrix)) {
+			throw new ArithmeticException();
+		}
 	}
 
 	public void transpose() {
-		_transpose(matrix);
+		float[] m = matrix;
+		for (int row = 0; row < 4; row++) {
+			for (int col = row + 1; col < 4; col++) {
+				float t = m[row * 4 + col];
+				m[row * 4 + col] = m[col * 4 + row];
+				m[col * 4 + row] = t;
+			}
+		}
 	}
 
 	public void postMultiply(Transform transform) {
-		_mul(this.matrix, this.matrix, transform.matrix);
+		mul(matrix, matrix, transform.matrix);
 	}
 
 	public void postScale(float sx, float sy, float sz) {
-		_scale(matrix, sx, sy, sz);
+		float[] m = matrix;
+		for (int row = 0; row < 4; row++) {
+			m[row * 4] *= sx;
+			m[row * 4 + 1] *= sy;
+			m[row * 4 + 2] *= sz;
+		}
 	}
 
 	/**
 	 */
 	public void postRotate(float angle, float ax, float ay, float az) {
-		_rotate(matrix, angle, ax, ay, az);
+		if (angle == 0) {
+			return;
+		}
+		float[] q = new float[4];
+		setAxisAngle(q, angle, ax, ay, az);
+		postRotateQuat(matrix, q[0], q[1], q[2], q[3]);
 	}
 
 	/**
 	 */
 	public void postRotateQuat(float qx, float qy, float qz, float qw) {
-		_rotateQuat(matrix, qx, qy, qz, qw);
+		float length = (float) Math.sqrt(qx * qx + qy * qy + qz * qz + qw * qw);
+		if (length == 0) {
+			throw new IllegalArgumentException();
+		}
+		postRotateQuat(matrix, qx / length, qy / length, qz / length, qw / length);
 	}
 
 	/**
 	 */
 	public void postTranslate(float tx, float ty, float tz) {
-		_translate(matrix, tx, ty, tz);
+		float[] m = matrix;
+		for (int row = 0; row < 4; row++) {
+			m[row * 4 + 3] += m[row * 4] * tx + m[row * 4 + 1] * ty + m[row * 4 + 2] * tz;
+		}
 	}
 
 	/**
@@ -111,9 +131,8 @@ public class Transform {
 		if ((v.length % 4) != 0) {
 			throw new IllegalArgumentException();
 		}
-
-		if (v.length != 0) {
-			_transformTable(matrix, v);
+		for (int i = 0; i < v.length; i += 4) {
+			transform(matrix, v, i, v, i);
 		}
 	}
 
@@ -123,36 +142,169 @@ public class Transform {
 		if (in == null || out == null) {
 			throw new NullPointerException();
 		}
-
-		_transformArray(matrix, in.handle, out, W);
+		int components = in.getComponentCount();
+		int count = in.getVertexCount();
+		if (components == 4 || out.length < count * 4) {
+			throw new IllegalArgumentException();
+		}
+		for (int i = 0; i < count; i++) {
+			out[i * 4] = in.getComponent(i, 0);
+			out[i * 4 + 1] = in.getComponent(i, 1);
+			out[i * 4 + 2] = components == 3 ? in.getComponent(i, 2) : 0;
+			out[i * 4 + 3] = W ? 1 : 0;
+			transform(matrix, out, i * 4, out, i * 4);
+		}
 	}
 
 	//------------------------------------------------------------------
-	// Private methods
+	// Package private methods
 	//------------------------------------------------------------------
 
-	// Native methods
-	private static native void _mul(byte[] prod, byte[] left, byte[] right);
-
-	private static native void _setIdentity(byte[] matrix);
-
-	private static native void _setMatrix(byte[] matrix, float[] srcMatrix);
-
-	private static native void _getMatrix(byte[] matrix, float[] dstMatrix);
-
-	private static native void _invert(byte[] matrix);
-
-	private static native void _transpose(byte[] matrix);
+	static void setIdentity(float[] m) {
+		for (int i = 0; i < 16; i++) {
+			m[i] = (i % 5) == 0 ? 1 : 0;
+		}
+	}
 
-	private static native void _rotate(byte[] matrix, float angle, float ax, float ay, float az);
+	/**
+	 * out = left * right, out may be either of the operands
+	 */
+	static void mul(float[] out, float[] left, float[] right) {
+		if (out == left && out == right) {
+			left = left.clone();
+		}
+		if (out != right) {
+			// row by row, each row of left is read before it is overwritten
+			for (int row = 0; row < 4; row++) {
+				float l0 = left[row * 4];
+				float l1 = left[row * 4 + 1];
+				float l2 = left[row * 4 + 2];
+				float l3 = left[row * 4 + 3];
+				for (int col = 0; col < 4; col++) {
+					out[row * 4 + col] = l0 * right[col] + l1 * right[4 + col] + l2 * right[8 + col] + l3 * right[12 + col];
+				}
+			}
+		} else {
+			// column by column, each column of right is read before it is overwritten
+			for (int col = 0; col < 4; col++) {
+				float r0 = right[col];
+				float r1 = right[4 + col];
+				float r2 = right[8 + col];
+				float r3 = right[12 + col];
+				for (int row = 0; row < 4; row++) {
+					out[row * 4 + col] = left[row * 4] * r0 + left[row * 4 + 1] * r1 + left[row * 4 + 2] * r2 + left[row * 4 + 3] * r3;
+				}
+			}
+		}
+	}
 
-	private static native void _rotateQuat(byte[] matrix, float qx, float qy, float qz, float qw);
+	/**
+	 * @return false if the matrix is singular, in which case dst is left untouched
+	 */
+	static boolean invert(float[] dst, float[] m) {
+		float[] inv = new float[16];
+		inv[0] = m[5] * m[10] * m[15] - m[5] * m[11] * m[14] - m[9] * m[6] * m[15]
+				+ m[9] * m[7] * m[14] + m[13] * m[6] * m[11] - m[13] * m[7] * m[10];
+		inv[4] = -m[4] * m[10] * m[15] + m[4] * m[11] * m[14] + m[8] * m[6] * m[15]
+				- m[8] * m[7] * m[14] - m[12] * m[6] * m[11] + m[12] * m[7] * m[10];
+		inv[8] = m[4] * m[9] * m[15] - m[4] * m[11] * m[13] - m[8] * m[5] * m[15]
+				+ m[8] * m[7] * m[13] + m[12] * m[5] * m[11] - m[12] * m[7] * m[9];
+		inv[12] = -m[4] * m[9] * m[14] + m[4] * m[10] * m[13] + m[8] * m[5] * m[14]
+				- m[8] * m[6] * m[13] - m[12] * m[5] * m[10] + m[12] * m[6] * m[9];
+		inv[1] = -m[1] * m[10] * m[15] + m[1] * m[11] * m[14] + m[9] * m[2] * m[15]
+				- m[9] * m[3] * m[14] - m[13] * m[2] * m[11] + m[13] * m[3] * m[10];
+		inv[5] = m[0] * m[10] * m[15] - m[0] * m[11] * m[14] - m[8] * m[2] * m[15]
+				+ m[8] * m[3] * m[14] + m[12] * m[2] * m[11] - m[12] * m[3] * m[10];
+		inv[9] = -m[0] * m[9] * m[15] + m[0] * m[11] * m[13] + m[8] * m[1] * m[15]
+				- m[8] * m[3] * m[13] - m[12] * m[1] * m[11] + m[12] * m[3] * m[9];
+		inv[13] = m[0] * m[9] * m[14] - m[0] * m[10] * m[13] - m[8] * m[1] * m[14]
+				+ m[8] * m[2] * m[13] + m[12] * m[1] * m[10] - m[12] * m[2] * m[9];
+		inv[2] = m[1] * m[6] * m[15] - m[1] * m[7] * m[14] - m[5] * m[2] * m[15]
+				+ m[5] * m[3] * m[14] + m[13] * m[2] * m[7] - m[13] * m[3] * m[6];
+		inv[6] = -m[0] * m[6] * m[15] + m[0] * m[7] * m[14] + m[4] * m[2] * m[15]
+				- m[4] * m[3] * m[14] - m[12] * m[2] * m[7] + m[12] * m[3] * m[6];
+		inv[10] = m[0] * m[5] * m[15] - m[0] * m[7] * m[13] - m[4] * m[1] * m[15]
+				+ m[4] * m[3] * m[13] + m[12] * m[1] * m[7] - m[12] * m[3] * m[5];
+		inv[14] = -m[0] * m[5] * m[14] + m[0] * m[6] * m[13] + m[4] * m[1] * m[14]
+				- m[4] * m[2] * m[13] - m[12] * m[1] * m[6] + m[12] * m[2] * m[5];
+		inv[3] = -m[1] * m[6] * m[11] + m[1] * m[7] * m[10] + m[5] * m[2] * m[11]
+				- m[5] * m[3] * m[10] - m[9] * m[2] * m[7] + m[9] * m[3] * m[6];
+		inv[7] = m[0] * m[6] * m[11] - m[0] * m[7] * m[10] - m[4] * m[2] * m[11]
+				+ m[4] * m[3] * m[10] + m[8] * m[2] * m[7] - m[8] * m[3] * m[6];
+		inv[11] = -m[0] * m[5] * m[11] + m[0] * m[7] * m[9] + m[4] * m[1] * m[11]
+				- m[4] * m[3] * m[9] - m[8] * m[1] * m[7] + m[8] * m[3] * m[5];
+		inv[15] = m[0] * m[5] * m[10] - m[0] * m[6] * m[9] - m[4] * m[1] * m[10]
+				+ m[4] * m[2] * m[9] + m[8] * m[1] * m[6] - m[8] * m[2] * m[5];
+
+		float det = m[0] * inv[0] + m[1] * inv[4] + m[2] * inv[8] + m[3] * inv[12];
+		if (det == 0 || Float.isNaN(det) || Float.isInfinite(det)) {
+			return false;
+		}
+		det = 1 / det;
+		for (int i = 0; i < 16; i++) {
+			dst[i] = inv[i] * det;
+		}
+		return true;
+	}
 
-	private static native void _scale(byte[] matrix, float sx, float sy, float sz);
+	/**
+	 * Transform the 4D vector at in[inOffset] into out[outOffset], which may overlap it.
+	 */
+	static void transform(float[] m, float[] in, int inOffset, float[] out, int outOffset) {
+		float x = in[inOffset];
+		float y = in[inOffset + 1];
+		float z = in[inOffset + 2];
+		float w = in[inOffset + 3];
+		out[outOffset] = m[0] * x + m[1] * y + m[2] * z + m[3] * w;
+		out[outOffset + 1] = m[4] * x + m[5] * y + m[6] * z + m[7] * w;
+		out[outOffset + 2] = m[8] * x + m[9] * y + m[10] * z + m[11] * w;
+		out[outOffset + 3] = m[12] * x + m[13] * y + m[14] * z + m[15] * w;
+	}
 
-	private static native void _translate(byte[] matrix, float tx, float ty, float tz);
+	/**
+	 * Set a unit quaternion (x, y, z, w) from an angle in degrees and an axis.
+	 */
+	static void setAxisAngle(float[] q, float angle, float ax, float ay, float az) {
+		if (angle == 0) {
+			q[0] = q[1] = q[2] = 0;
+			q[3] = 1;
+			return;
+		}
+		float length = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+		if (length == 0) {
+			throw new IllegalArgumentException();
+		}
+		double half = Math.toRadians(angle) / 2;
+		float s = (float) Math.sin(half) / length;
+		q[0] = ax * s;
+		q[1] = ay * s;
+		q[2] = az * s;
+		q[3] = (float) Math.cos(half);
+	}
 
-	private static native void _transformTable(byte[] matrix, float[] v);
+	/**
+	 * m = m * rotation(q), q must be a unit quaternion
+	 */
+	static void postRotateQuat(float[] m, float qx, float qy, float qz, float qw) {
+		float[] r = new float[16];
+		setRotation(r, qx, qy, qz, qw);
+		mul(m, m, r);
+	}
 
-	private static native void _transformArray(byte[] matrix, long handle, float[] out, boolean W);
+	static void setRotation(float[] m, float qx, float qy, float qz, float qw) {
+		float xx = qx * qx, yy = qy * qy, zz = qz * qz;
+		float xy = qx * qy, xz = qx * qz, yz = qy * qz;
+		float wx = qw * qx, wy = qw * qy, wz = qw * qz;
+		m[0] = 1 - 2 * (yy + zz);
+		m[1] = 2 * (xy - wz);
+		m[2] = 2 * (xz + wy);
+		m[4] = 2 * (xy + wz);
+		m[5] = 1 - 2 * (xx + zz);
+		m[6] = 2 * (yz - wx);
+		m[8] = 2 * (xz - wy);
+		m[9] = 2 * (yz + wx);
+		m[10] = 1 - 2 * (xx + yy);
+		m[3] = m[7] = m[11] = m[12] = m[13] = m[14] = 0;
+		m[15] = 1;
+	}
 }
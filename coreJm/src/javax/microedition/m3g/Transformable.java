@@ -17,105 +17,255 @@
 
 package javax.microedition.m3g;
 
+import java.util.IdentityHashMap;
+
 /**
  *
  */
 public abstract class Transformable extends Object3D {
+	//------------------------------------------------------------------
+	// Instance data
+	//------------------------------------------------------------------
+
+	private float tx, ty, tz;
+	private float sx = 1, sy = 1, sz = 1;
+	// orientation as a unit quaternion (x, y, z, w)
+	private float[] orientation = {0, 0, 0, 1};
+	// generic matrix component, null for identity
+	private float[] matrix;
+
 	//------------------------------------------------------------------
 	// Constructor(s)
 	//------------------------------------------------------------------
 
-	Transformable(long handle) {
-		super(handle);
+	Transformable() {
 	}
 
 	//------------------------------------------------------------------
 	// Public methods
 	//------------------------------------------------------------------
 
-
 	public void setOrientation(float angle, float ax, float ay, float az) {
-		_setOrientation(handle, angle, ax, ay, az, true);
+		Transform.setAxisAngle(orientation, angle, ax, ay, az);
+		transformChanged();
 	}
 
 	public void postRotate(float angle, float ax, float ay, float az) {
-		_setOrientation(handle, angle, ax, ay, az, false);
+		float[] q = new float[4];
+		Transform.setAxisAngle(q, angle, ax, ay, az);
+		mulQuat(orientation, orientation, q);
+		transformChanged();
 	}
 
 	public void preRotate(float angle, float ax, float ay, float az) {
-		_preRotate(handle, angle, ax, ay, az);
+		float[] q = new float[4];
+		Transform.setAxisAngle(q, angle, ax, ay, az);
+		mulQuat(orientation, q, orientation);
+		transformChanged();
 	}
 
 	public void getOrientation(float[] angleAxis) {
-		_getOrientation(handle, angleAxis);
+		if (angleAxis == null) {
+			throw new NullPointerException();
+		}
+		if (angleAxis.length < 4) {
+			throw new IllegalArgumentException();
+		}
+		float[] q = orientation;
+		float sin = (float) Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2]);
+		if (sin < 1e-6f) {
+			angleAxis[0] = 0;
+			angleAxis[1] = 0;
+			angleAxis[2] = 0;
+			angleAxis[3] = 1;
+			return;
+		}
+		angleAxis[0] = (float) Math.toDegrees(2 * Math.atan2(sin, q[3]));
+		angleAxis[1] = q[0] / sin;
+		angleAxis[2] = q[1] / sin;
+		angleAxis[3] = q[2] / sin;
 	}
 
 	public void setScale(float sx, float sy, float sz) {
-		_setScale(handle, sx, sy, sz, true);
+		this.sx = sx;
+		this.sy = sy;
+		this.sz = sz;
+		transformChanged();
 	}
 
 	public void scale(float sx, float sy, float sz) {
-		_setScale(handle, sx, sy, sz, false);
+		this.sx *= sx;
+		this.sy *= sy;
+		this.sz *= sz;
+		transformChanged();
 	}
 
 	public void getScale(float[] xyz) {
-		_getScale(handle, xyz);
+		if (xyz.length < 3) {
+			throw new IllegalArgumentException();
+		}
+		xyz[0] = sx;
+		xyz[1] = sy;
+		xyz[2] = sz;
 	}
 
 	public void setTranslation(float tx, float ty, float tz) {
-		_setTranslation(handle, tx, ty, tz, true);
+		this.tx = tx;
+		this.ty = ty;
+		this.tz = tz;
+		transformChanged();
 	}
 
 	public void translate(float tx, float ty, float tz) {
-		_setTranslation(handle, tx, ty, tz, false);
+		this.tx += tx;
+		this.ty += ty;
+		this.tz += tz;
+		transformChanged();
 	}
 
 	public void getTranslation(float[] xyz) {
-		_getTranslation(handle, xyz);
+		if (xyz.length < 3) {
+			throw new IllegalArgumentException();
+		}
+		xyz[0] = tx;
+		xyz[1] = ty;
+		xyz[2] = tz;
 	}
 
 	public void setTransform(Transform transform) {
-		_setTransform(handle, (transform != null) ? transform.matrix : null);
+		if (transform == null) {
+			matrix = null;
+		} else {
+			checkTransform(transform.matrix);
+			matrix = transform.matrix.clone();
+		}
+		transformChanged();
 	}
 
 	public void getTransform(Transform transform) {
-		_getTransform(handle, transform.matrix);
+		if (matrix == null) {
+			transform.setIdentity();
+		} else {
+			transform.set(matrix);
+		}
 	}
 
 	public void getCompositeTransform(Transform transform) {
-		_getComposite(handle, transform.matrix);
+		getCompositeTransform(transform.matrix);
 	}
 
 	//------------------------------------------------------------------
-	// Private methods
+	// Package private methods
 	//------------------------------------------------------------------
 
-	private static native void _setOrientation(long handle,
-											   float angle,
-											   float ax, float ay, float az,
-											   boolean absolute);
-
-	private static native void _preRotate(long handle,
-										  float angle,
-										  float ax, float ay, float az);
-
-	private static native void _getOrientation(long handle, float[] angleAxis);
+	/**
+	 * Composite transformation T * R * S * M
+	 */
+	void getCompositeTransform(float[] out) {
+		Transform.setRotation(out, orientation[0], orientation[1], orientation[2], orientation[3]);
+		for (int row = 0; row < 3; row++) {
+			out[row * 4] *= sx;
+			out[row * 4 + 1] *= sy;
+			out[row * 4 + 2] *= sz;
+		}
+		out[3] = tx;
+		out[7] = ty;
+		out[11] = tz;
+		if (matrix != null) {
+			Transform.mul(out, out, matrix);
+		}
+	}
 
-	private static native void _setScale(long handle,
-										 float sx, float sy, float sz,
-										 boolean absolute);
+	/**
+	 * @return true if the composite transformation is identity
+	 */
+	boolean isIdentity() {
+		return matrix == null && tx == 0 && ty == 0 && tz == 0 && sx == 1 && sy == 1 && sz == 1
+				&& orientation[3] == 1;
+	}
 
-	private static native void _getScale(long handle, float[] scale);
+	/**
+	 * Validate a matrix component, throws IllegalArgumentException if not accepted.
+	 */
+	void checkTransform(float[] m) {
+	}
 
-	private static native void _setTranslation(long handle,
-											   float tx, float ty, float tz,
-											   boolean absolute);
+	/**
+	 * Called whenever a component of the transformation changes.
+	 */
+	void transformChanged() {
+	}
 
-	private static native void _getTranslation(long handle, float[] translation);
+	@Override
+	boolean isCompatible(AnimationTrack track) {
+		switch (track.getTargetProperty()) {
+			case AnimationTrack.ORIENTATION:
+			case AnimationTrack.SCALE:
+			case AnimationTrack.TRANSLATION:
+				return true;
+			default:
+				return super.isCompatible(track);
+		}
+	}
 
-	private static native void _setTransform(long handle, byte[] transform);
+	@Override
+	void updateProperty(int property, float[] value) {
+		switch (property) {
+			case AnimationTrack.ORIENTATION:
+				float length = (float) Math.sqrt(value[0] * value[0] + value[1] * value[1]
+						+ value[2] * value[2] + value[3] * value[3]);
+				if (length > 0) {
+					for (int i = 0; i < 4; i++) {
+						orientation[i] = value[i] / length;
+					}
+				}
+				transformChanged();
+				break;
+			case AnimationTrack.SCALE:
+				if (value.length == 1) {
+					sx = sy = sz = value[0];
+				} else {
+					sx = value[0];
+					sy = value[1];
+					sz = value[2];
+				}
+				transformChanged();
+				break;
+			case AnimationTrack.TRANSLATION:
+				tx = value[0];
+				ty = value[1];
+				tz = value[2];
+				transformChanged();
+				break;
+			default:
+				super.updateProperty(property, value);
+		}
+	}
 
-	private static native void _getTransform(long handle, byte[] transform);
+	@Override
+	Object3D duplicate(IdentityHashMap<Object3D, Object3D> duplicates) {
+		Transformable copy = (Transformable) super.duplicate(duplicates);
+		copy.orientation = orientation.clone();
+		if (matrix != null) {
+			copy.matrix = matrix.clone();
+		}
+		return copy;
+	}
 
-	private static native void _getComposite(long handle, byte[] transform);
+	/**
+	 * out = a * b, out may be either operand
+	 */
+	private static void mulQuat(float[] out, float[] a, float[] b) {
+		float ax = a[0], ay = a[1], az = a[2], aw = a[3];
+		float bx = b[0], by = b[1], bz = b[2], bw = b[3];
+		out[0] = aw * bx + ax * bw + ay * bz - az * by;
+		out[1] = aw * by - ax * bz + ay * bw + az * bx;
+		out[2] = aw * bz + ax * by - ay * bx + az * bw;
+		out[3] = aw * bw - ax * bx - ay * by - az * bz;
+		float length = (float) Math.sqrt(out[0] * out[0] + out[1] * out[1] + out[2] * out[2]
+				+ out[3] * out[3]);
+		for (int i = 0; i < 4; i++) {
+			out[i] /= length;
+		}
+	}
 }
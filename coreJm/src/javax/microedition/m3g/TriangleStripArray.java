@@ -23,50 +23,98 @@ public class TriangleStripArray extends IndexBuffer {
 	//------------------------------------------------------------------
 
 	public TriangleStripArray(int firstIndex, final int[] stripLengths) {
-		super(_createImplicit(Interface.getHandle(),
-				firstIndex,
-				stripLengths));
+		int count = checkLengths(stripLengths);
+		if (firstIndex < 0 || firstIndex + count > 65536) {
+			throw new IllegalArgumentException();
+		}
+		int[] indices = new int[count];
+		for (int i = 0; i < count; i++) {
+			indices[i] = firstIndex + i;
+		}
+		triangles = toTriangles(indices, stripLengths);
 	}
 
 	public TriangleStripArray(final int[] indices, final int[] stripLengths) {
-		super(_createExplicit(Interface.getHandle(), indices, stripLengths));
-	}
-
-	TriangleStripArray(long handle) {
-		super(handle);
+		if (indices == null) {
+			throw new NullPointerException();
+		}
+		int count = checkLengths(stripLengths);
+		if (indices.length < count) {
+			throw new IllegalArgumentException();
+		}
+		for (int i = 0; i < count; i++) {
+			if (indices[i] < 0 || indices[i] > 65535) {
+				throw new IllegalArgumentException();
+			}
+		}
+		triangles = toTriangles(indices, stripLengths);
 	}
 
 	// M3G 1.1 Maintenance release getters
 
 	@Override
 	public int getIndexCount() {
-		return _getIndexCount(handle);
+		return triangles.length;
 	}
 
 	@Override
 	public void getIndices(int[] indices) {
-		if (indices.length < _getIndexCount(handle)) {
+		if (indices.length < triangles.length) {
 			throw new IllegalArgumentException();
 		}
-		_getIndices(handle, indices);
+		System.arraycopy(triangles, 0, indices, 0, triangles.length);
 	}
 
 	//------------------------------------------------------------------
 	// Private methods
 	//------------------------------------------------------------------
 
-	// Native methods
-	private native static long _createImplicit(long hInterface,
-											  int first,
-											  final int[] lengths);
-
-	private native static long _createExplicit(long hInterface,
-											  final int[] indices,
-											  final int[] lengths);
-
-	// M3G 1.1 Maintenance release getters
-	private native static int _getIndexCount(long handle);
-
-	private native static void _getIndices(long handle, int[] indices);
+	/**
+	 * @return the total number of strip indices
+	 */
+	private static int checkLengths(int[] stripLengths) {
+		if (stripLengths == null) {
+			throw new NullPointerException();
+		}
+		if (stripLengths.length == 0) {
+			throw new IllegalArgumentException();
+		}
+		int count = 0;
+		for (int length : stripLengths) {
+			if (length < 3) {
+				throw new IllegalArgumentException();
+			}
+			count += length;
+		}
+		return count;
+	}
 
+	/**
+	 * Unroll the strips into a triangle list, flipping every other triangle
+	 * so that all of them keep the winding of the first one.
+	 */
+	private static int[] toTriangles(int[] indices, int[] stripLengths) {
+		int count = 0;
+		for (int length : stripLengths) {
+			count += length - 2;
+		}
+		int[] triangles = new int[count * 3];
+		int t = 0;
+		int start = 0;
+		for (int length : stripLengths) {
+			for (int k = 0; k < length - 2; k++) {
+				int i = start + k;
+				if ((k & 1) == 0) {
+					triangles[t++] = indices[i];
+					triangles[t++] = indices[i + 1];
+				} else {
+					triangles[t++] = indices[i + 1];
+					triangles[t++] = indices[i];
+				}
+				triangles[t++] = indices[i + 2];
+			}
+			start += length;
+		}
+		return triangles;
+	}
 }
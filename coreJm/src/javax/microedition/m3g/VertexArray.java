@@ -17,21 +17,39 @@
 
 package javax.microedition.m3g;
 
+import java.util.IdentityHashMap;
+
 public class VertexArray extends Object3D {
+	//------------------------------------------------------------------
+	// Instance data
+	//------------------------------------------------------------------
+
+	private final int numVertices;
+	private final int numComponents;
+	private final int componentSize;
+	private byte[] bytes;
+	private short[] shorts;
+	// incremented on every change, so that cached copies know when to update
+	private int version;
+
 	//------------------------------------------------------------------
 	// Constructors
 	//------------------------------------------------------------------
 
 	public VertexArray(int numVertices, int numComponents, int componentSize) {
-		super(createHandle(numVertices,
-				numComponents,
-				componentSize));
-	}
-
-	/**
-	 */
-	VertexArray(long handle) {
-		super(handle);
+		if (numVertices < 1 || numVertices > 65535
+				|| numComponents < 2 || numComponents > 4
+				|| componentSize < 1 || componentSize > 2) {
+			throw new IllegalArgumentException();
+		}
+		this.numVertices = numVertices;
+		this.numComponents = numComponents;
+		this.componentSize = componentSize;
+		if (componentSize == 1) {
+			bytes = new byte[numVertices * numComponents];
+		} else {
+			shorts = new short[numVertices * numComponents];
+		}
 	}
 
 	//------------------------------------------------------------------
@@ -39,76 +57,93 @@ public class VertexArray extends Object3D {
 	//------------------------------------------------------------------
 
 	public void set(int startIndex, int length, short[] values) {
-		_setShort(handle, startIndex, length, values);
+		checkRange(startIndex, length, values == null ? -1 : values.length, 2);
+		System.arraycopy(values, 0, shorts, startIndex * numComponents, length * numComponents);
+		version++;
 	}
 
 	public void set(int startIndex, int length, byte[] values) {
-		_setByte(handle, startIndex, length, values);
+		checkRange(startIndex, length, values == null ? -1 : values.length, 1);
+		System.arraycopy(values, 0, bytes, startIndex * numComponents, length * numComponents);
+		version++;
 	}
 
 	// M3G 1.1 Maintenance release getters
 	public void get(int firstVertex, int numVertices, byte[] values) {
-		_getByte(handle, firstVertex, numVertices, values);
+		checkRange(firstVertex, numVertices, values == null ? -1 : values.length, 1);
+		System.arraycopy(bytes, firstVertex * numComponents, values, 0, numVertices * numComponents);
 	}
 
 	public void get(int firstVertex, int numVertices, short[] values) {
-		_getShort(handle, firstVertex, numVertices, values);
+		checkRange(firstVertex, numVertices, values == null ? -1 : values.length, 2);
+		System.arraycopy(shorts, firstVertex * numComponents, values, 0, numVertices * numComponents);
 	}
 
 	public int getComponentCount() {
-		return _getComponentCount(handle);
+		return numComponents;
 	}
 
 	public int getComponentType() {
-		return _getComponentType(handle);
+		return componentSize;
 	}
 
 	public int getVertexCount() {
-		return _getVertexCount(handle);
+		return numVertices;
 	}
 
 	//------------------------------------------------------------------
-	// Private methods
+	// Package private methods
 	//------------------------------------------------------------------
 
-	private static long createHandle(int numVertices, int numComponents, int componentSize) {
-		Platform.heuristicGC();
-		return _ctor(Interface.getHandle(),
-				numVertices,
-				numComponents,
-				componentSize);
+	/**
+	 * @return a component of a vertex as a signed integer value
+	 */
+	float getComponent(int vertex, int component) {
+		int index = vertex * numComponents + component;
+		return componentSize == 1 ? bytes[index] : shorts[index];
 	}
 
-	// Native methods
-	private native static long _ctor(long hInterface,
-									int numVertices,
-									int numComponents,
-									int componentSize);
-
-	private native static void _setByte(long handle,
-										int first,
-										int count,
-										byte[] src);
-
-	private native static void _setShort(long handle,
-										 int first,
-										 int count,
-										 short[] src);
-
-	// M3G 1.1 Maintenance release getters
-	private native static void _getByte(long handle,
-										int firstVertex,
-										int numVertices,
-										byte[] values);
+	/**
+	 * @return a component of a vertex as an unsigned byte, for colors
+	 */
+	int getUnsignedByte(int vertex, int component) {
+		return bytes[vertex * numComponents + component] & 0xFF;
+	}
 
-	private native static void _getShort(long handle,
-										 int firstVertex,
-										 int numVertices,
-										 short[] values);
+	int getVersion() {
+		return version;
+	}
 
-	private native static int _getComponentCount(long handle);
+	@Override
+	Object3D duplicate(IdentityHashMap<Object3D, Object3D> duplicates) {
+		VertexArray copy = (VertexArray) super.duplicate(duplicates);
+		if (bytes != null) {
+			copy.bytes = bytes.clone();
+		} else {
+			copy.shorts = shorts.clone();
+		}
+		return copy;
+	}
 
-	private native static int _getComponentType(long handle);
+	//------------------------------------------------------------------
+	// Private methods
+	//------------------------------------------------------------------
 
-	private native static int _getVertexCount(long handle);
+	/**
+	 * @param valuesLength length of the array given, -1 for null
+	 */
+	private void checkRange(int first, int count, int valuesLength, int size) {
+		if (valuesLength < 0) {
+			throw new NullPointerException();
+		}
+		if (componentSize != size) {
+			throw new IllegalStateException();
+		}
+		if (count < 0 || valuesLength < count * numComponents) {
+			throw new IllegalArgumentException();
+		}
+		if (first < 0 || first + count > numVertices) {
+			throw new IndexOutOfBoundsException();
+		}
+	}
 }
@@ -17,7 +17,36 @@
 
 package javax.microedition.m3g;
 
+import com.badlogic.gdx.graphics.VertexAttribute;
+import com.badlogic.gdx.graphics.VertexAttributes;
+import com.badlogic.gdx.graphics.glutils.VertexBufferObject;
+
+import java.util.IdentityHashMap;
+
 public class VertexBuffer extends Object3D {
+	//------------------------------------------------------------------
+	// Static data
+	//------------------------------------------------------------------
+
+	/**
+	 * Floats per vertex in GL buffers: position, normal, RGBA color and
+	 * (s, t, r) for each texture unit
+	 */
+	static final int VERTEX_SIZE = 16;
+	static final int NORMAL_OFFSET = 3;
+	static final int COLOR_OFFSET = 6;
+	static final int TEXCOORD_OFFSET = 10;
+
+	static final VertexAttributes ATTRIBUTES = new VertexAttributes(
+			VertexAttribute.Position(),
+			VertexAttribute.Normal(),
+			VertexAttribute.ColorUnpacked(),
+			new VertexAttribute(VertexAttributes.Usage.TextureCoordinates, 3, "a_texCoord0", 0),
+			new VertexAttribute(VertexAttributes.Usage.TextureCoordinates, 3, "a_texCoord1", 1));
+
+	// array slots: positions, normals, colors and the texture units
+	private static final int SLOTS = 3 + Defs.NUM_TEXTURE_UNITS;
+
 	//------------------------------------------------------------------
 	// Instance data
 	//------------------------------------------------------------------
@@ -25,30 +54,25 @@ public class VertexBuffer extends Object3D {
 	private VertexArray positions;
 	private VertexArray normals;
 	private VertexArray colors;
-	private VertexArray[] texCoords;
+	private VertexArray[] texCoords = new VertexArray[Defs.NUM_TEXTURE_UNITS];
+	private float positionScale = 1.0f;
+	private float[] positionBias = new float[3];
+	private float[] texCoordScale = {1.0f, 1.0f};
+	private float[][] texCoordBias = new float[Defs.NUM_TEXTURE_UNITS][3];
+	private int defaultColor = 0xFFFFFFFF;
+	private int version;
+
+	// GL copy of the vertices and what it was built from
+	private GLResource<VertexBufferObject> vbo;
+	private VertexArray[] builtArrays = new VertexArray[SLOTS];
+	private int[] builtVersions = new int[SLOTS];
+	private int builtVersion;
 
 	//------------------------------------------------------------------
 	// Constructors
 	//------------------------------------------------------------------
 
 	public VertexBuffer() {
-		super(_ctor(Interface.getHandle()));
-	}
-
-	/**
-	 */
-	VertexBuffer(long handle) {
-		super(handle);
-
-		positions = (VertexArray) getInstance(_getArray(handle, Defs.GET_POSITIONS, null));
-		normals = (VertexArray) getInstance(_getArray(handle, Defs.GET_NORMALS, null));
-		colors = (VertexArray) getInstance(_getArray(handle, Defs.GET_COLORS, null));
-
-		texCoords = new VertexArray[Defs.NUM_TEXTURE_UNITS];
-		for (int i = 0; i < Defs.NUM_TEXTURE_UNITS; ++i) {
-			texCoords[i] =
-					(VertexArray) getInstance(_getArray(handle, Defs.GET_TEXCOORDS0 + i, null));
-		}
 	}
 
 	//------------------------------------------------------------------
@@ -56,55 +80,100 @@ public class VertexBuffer extends Object3D {
 	//------------------------------------------------------------------
 
 	public int getVertexCount() {
-		return _getVertexCount(handle);
+		VertexArray array = positions;
+		if (array == null) {
+			array = normals;
+		}
+		if (array == null) {
+			array = colors;
+		}
+		for (int i = 0; array == null && i < texCoords.length; i++) {
+			array = texCoords[i];
+		}
+		return array != null ? array.getVertexCount() : 0;
 	}
 
 	public void setPositions(VertexArray positions, float scale, float[] bias) {
-		_setVertices(handle,
-				(positions != null) ? positions.handle : 0,
-				scale,
-				bias);
+		if (positions != null) {
+			if (positions.getComponentCount() != 3 || (bias != null && bias.length < 3)) {
+				throw new IllegalArgumentException();
+			}
+			checkVertexCount(positions, 0);
+		}
 		this.positions = positions;
+		positionScale = positions != null ? scale : 1.0f;
+		for (int i = 0; i < 3; i++) {
+			positionBias[i] = positions != null && bias != null ? bias[i] : 0;
+		}
+		version++;
 	}
 
 	public void setTexCoords(int index, VertexArray texCoords, float scale, float[] bias) {
-		_setTexCoords(handle,
-				index,
-				texCoords != null ? texCoords.handle : 0,
-				scale,
-				bias);
-
-		if (this.texCoords == null) {
-			this.texCoords = new VertexArray[Defs.NUM_TEXTURE_UNITS];
+		if (index < 0 || index >= Defs.NUM_TEXTURE_UNITS) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (texCoords != null) {
+			int components = texCoords.getComponentCount();
+			if (components == 4 || (bias != null && bias.length < components)) {
+				throw new IllegalArgumentException();
+			}
+			checkVertexCount(texCoords, 3 + index);
 		}
 		this.texCoords[index] = texCoords;
+		texCoordScale[index] = texCoords != null ? scale : 1.0f;
+		for (int i = 0; i < 3; i++) {
+			texCoordBias[index][i] = texCoords != null && bias != null && i < bias.length ? bias[i] : 0;
+		}
+		version++;
 	}
 
 	public void setNormals(VertexArray normals) {
-		_setNormals(handle, normals != null ? normals.handle : 0);
+		if (normals != null) {
+			if (normals.getComponentCount() != 3) {
+				throw new IllegalArgumentException();
+			}
+			checkVertexCount(normals, 1);
+		}
 		this.normals = normals;
+		version++;
 	}
 
 	public void setColors(VertexArray colors) {
-		_setColors(handle, colors != null ? colors.handle : 0);
+		if (colors != null) {
+			if (colors.getComponentType() != 1 || colors.getComponentCount() == 2) {
+				throw new IllegalArgumentException();
+			}
+			checkVertexCount(colors, 2);
+		}
 		this.colors = colors;
+		version++;
 	}
 
 	public VertexArray getPositions(float[] scaleBias) {
-		/* Get scale and bias with native getter */
-		_getArray(handle, Defs.GET_POSITIONS, scaleBias);
+		if (positions != null && scaleBias != null) {
+			if (scaleBias.length < 4) {
+				throw new IllegalArgumentException();
+			}
+			scaleBias[0] = positionScale;
+			System.arraycopy(positionBias, 0, scaleBias, 1, 3);
+		}
 		return positions;
 	}
 
 	public VertexArray getTexCoords(int index, float[] scaleBias) {
-		/* Index has to be checked here due to the native getter input params */
 		if (index < 0 || index >= Defs.NUM_TEXTURE_UNITS) {
 			throw new IndexOutOfBoundsException();
 		}
-
-		/* Get scale and bias with native getter */
-		_getArray(handle, Defs.GET_TEXCOORDS0 + index, scaleBias);
-		return texCoords != null ? texCoords[index] : null;
+		VertexArray array = texCoords[index];
+		if (array != null && scaleBias != null) {
+			int components = array.getComponentCount();
+			if (scaleBias.length < components + 1) {
+				throw new IllegalArgumentException();
+			}
+			scaleBias[0] = texCoordScale[index];
+			System.arraycopy(texCoordBias[index], 0, scaleBias, 1, components);
+		}
+		return array;
 	}
 
 	public VertexArray getNormals() {
@@ -116,33 +185,260 @@ public class VertexBuffer extends Object3D {
 	}
 
 	public void setDefaultColor(int ARGB) {
-		_setDefaultColor(handle, ARGB);
+		defaultColor = ARGB;
+		version++;
 	}
 
 	public int getDefaultColor() {
-		return _getDefaultColor(handle);
+		return defaultColor;
 	}
 
 	//------------------------------------------------------------------
-	// Private methods
+	// Package private methods
 	//------------------------------------------------------------------
 
-	// Native methods
-	private static native long _ctor(long hInterface);
+	/**
+	 * @return the positions with scale and bias applied, three floats per
+	 * vertex, or null if there are none
+	 */
+	float[] getPositionData() {
+		return getPositionData(null);
+	}
 
-	private static native void _setColors(long hBuffer, long hArray);
+	/**
+	 * Same as {@link #getPositionData()}, filling out instead of a new array
+	 * if it has the right length.
+	 */
+	float[] getPositionData(float[] out) {
+		if (positions == null) {
+			return null;
+		}
+		int count = positions.getVertexCount();
+		float[] data = reuse(out, count * 3);
+		for (int i = 0; i < count; i++) {
+			for (int c = 0; c < 3; c++) {
+				data[i * 3 + c] = positions.getComponent(i, c) * positionScale + positionBias[c];
+			}
+		}
+		return data;
+	}
 
-	private static native void _setNormals(long hBuffer, long hArray);
+	/**
+	 * @return the normals mapped to [-1, 1], three floats per vertex, or null
+	 * if there are none
+	 */
+	float[] getNormalData() {
+		return getNormalData(null);
+	}
 
-	private static native void _setTexCoords(long hBuffer, int unit, long hArray, float scale, float[] bias);
+	/**
+	 * Same as {@link #getNormalData()}, filling out instead of a new array
+	 * if it has the right length.
+	 */
+	float[] getNormalData(float[] out) {
+		if (normals == null) {
+			return null;
+		}
+		int count = normals.getVertexCount();
+		float range = normals.getComponentType() == 1 ? 255.0f : 65535.0f;
+		float[] data = reuse(out, count * 3);
+		for (int i = 0; i < count; i++) {
+			for (int c = 0; c < 3; c++) {
+				data[i * 3 + c] = (2 * normals.getComponent(i, c) + 1) / range;
+			}
+		}
+		return data;
+	}
 
-	private static native void _setVertices(long hBuffer, long hArray, float scale, float[] bias);
+	/**
+	 * Texture coordinates of a vertex with scale and bias applied.
+	 */
+	void getTexCoord(int unit, int vertex, float[] out) {
+		getTexCoord(unit, vertex, out, 0);
+	}
 
-	private static native void _setDefaultColor(long hBuffer, int ARGB);
+	private void getTexCoord(int unit, int vertex, float[] out, int offset) {
+		VertexArray array = texCoords[unit];
+		out[offset + 2] = 0;
+		if (array == null) {
+			out[offset] = out[offset + 1] = 0;
+			return;
+		}
+		for (int c = 0; c < array.getComponentCount(); c++) {
+			out[offset + c] = array.getComponent(vertex, c) * texCoordScale[unit] + texCoordBias[unit][c];
+		}
+	}
+
+	/**
+	 * @return the colors mapped to [0, 1], RGBA per vertex, or null if the
+	 * default color is used
+	 */
+	float[] getColorData() {
+		return getColorData(null);
+	}
+
+	/**
+	 * Same as {@link #getColorData()}, filling out instead of a new array
+	 * if it has the right length.
+	 */
+	float[] getColorData(float[] out) {
+		if (colors == null) {
+			return null;
+		}
+		int count = colors.getVertexCount();
+		boolean alpha = colors.getComponentCount() == 4;
+		float[] data = reuse(out, count * 4);
+		for (int i = 0; i < count; i++) {
+			data[i * 4] = colors.getUnsignedByte(i, 0) / 255.0f;
+			data[i * 4 + 1] = colors.getUnsignedByte(i, 1) / 255.0f;
+			data[i * 4 + 2] = colors.getUnsignedByte(i, 2) / 255.0f;
+			data[i * 4 + 3] = alpha ? colors.getUnsignedByte(i, 3) / 255.0f : 1.0f;
+		}
+		return data;
+	}
 
-	private static native int _getDefaultColor(long hBuffer);
+	/**
+	 * Interleave the vertex attributes in the layout of {@link #ATTRIBUTES},
+	 * into out if it has the right length or else a new array. Each of the
+	 * arrays given replaces the attribute of the buffer, if not null.
+	 */
+	float[] getVertexData(float[] out, float[] positionData, float[] normalData, float[] colorData) {
+		if (positionData == null) {
+			positionData = getPositionData();
+		}
+		if (normalData == null) {
+			normalData = getNormalData();
+		}
+		if (colorData == null) {
+			colorData = getColorData();
+		}
+		int count = getVertexCount();
+		float[] data = reuse(out, count * VERTEX_SIZE);
+		float red = ((defaultColor >> 16) & 0xFF) / 255.0f;
+		float green = ((defaultColor >> 8) & 0xFF) / 255.0f;
+		float blue = (defaultColor & 0xFF) / 255.0f;
+		float alpha = (defaultColor >>> 24) / 255.0f;
+		for (int i = 0, o = 0; i < count; i++, o += VERTEX_SIZE) {
+			if (positionData != null) {
+				System.arraycopy(positionData, i * 3, data, o, 3);
+			}
+			if (normalData != null) {
+				System.arraycopy(normalData, i * 3, data, o + NORMAL_OFFSET, 3);
+			}
+			if (colorData != null) {
+				System.arraycopy(colorData, i * 4, data, o + COLOR_OFFSET, 4);
+			} else {
+				data[o + COLOR_OFFSET] = red;
+				data[o + COLOR_OFFSET + 1] = green;
+				data[o + COLOR_OFFSET + 2] = blue;
+				data[o + COLOR_OFFSET + 3] = alpha;
+			}
+			for (int unit = 0; unit < Defs.NUM_TEXTURE_UNITS; unit++) {
+				getTexCoord(unit, i, data, o + TEXCOORD_OFFSET + unit * 3);
+			}
+		}
+		return data;
+	}
 
-	private static native long _getArray(long hBuffer, int which, float[] scaleBias);
+	/**
+	 * Get the GL buffer holding the vertices, rebuilding it if any array
+	 * changed since the last call. Must be called on the GL thread.
+	 */
+	GLResource<VertexBufferObject> getVBO() {
+		if (vbo != null && isStale()) {
+			vbo.releaseOwner();
+			vbo = null;
+		}
+		if (vbo == null) {
+			int count = getVertexCount();
+			VertexBufferObject object = new VertexBufferObject(true, count, ATTRIBUTES);
+			object.setVertices(getVertexData(null, null, null, null), 0, count * VERTEX_SIZE);
+			vbo = new GLResource<>(this, object);
+			recordVersions();
+		}
+		return vbo;
+	}
 
-	private static native int _getVertexCount(long hBuffer);
+	@Override
+	int getReferences(Object3D[] references, int n) {
+		n = super.getReferences(references, n);
+		n = addReference(references, n, positions);
+		n = addReference(references, n, normals);
+		n = addReference(references, n, colors);
+		for (VertexArray array : texCoords) {
+			n = addReference(references, n, array);
+		}
+		return n;
+	}
+
+	@Override
+	Object3D duplicate(IdentityHashMap<Object3D, Object3D> duplicates) {
+		VertexBuffer copy = (VertexBuffer) super.duplicate(duplicates);
+		copy.texCoords = texCoords.clone();
+		copy.positionBias = positionBias.clone();
+		copy.texCoordScale = texCoordScale.clone();
+		copy.texCoordBias = new float[Defs.NUM_TEXTURE_UNITS][];
+		for (int i = 0; i < Defs.NUM_TEXTURE_UNITS; i++) {
+			copy.texCoordBias[i] = texCoordBias[i].clone();
+		}
+		copy.vbo = null;
+		copy.builtArrays = new VertexArray[SLOTS];
+		copy.builtVersions = new int[SLOTS];
+		return copy;
+	}
+
+	//------------------------------------------------------------------
+	// Private methods
+	//------------------------------------------------------------------
+
+	/**
+	 * Check that a new array has as many vertices as those in the other slots.
+	 */
+	private void checkVertexCount(VertexArray array, int slot) {
+		for (int i = 0; i < SLOTS; i++) {
+			VertexArray other = getArray(i);
+			if (i != slot && other != null && other.getVertexCount() != array.getVertexCount()) {
+				throw new IllegalArgumentException();
+			}
+		}
+	}
+
+	private boolean isStale() {
+		if (builtVersion != version) {
+			return true;
+		}
+		for (int i = 0; i < SLOTS; i++) {
+			VertexArray array = getArray(i);
+			if (array != builtArrays[i] || (array != null && array.getVersion() != builtVersions[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void recordVersions() {
+		for (int i = 0; i < SLOTS; i++) {
+			VertexArray array = getArray(i);
+			builtArrays[i] = array;
+			builtVersions[i] = array != null ? array.getVersion() : 0;
+		}
+		builtVersion = version;
+	}
+
+	private VertexArray getArray(int slot) {
+		switch (slot) {
+			case 0:
+				return positions;
+			case 1:
+				return normals;
+			case 2:
+				return colors;
+			default:
+				return texCoords[slot - 3];
+		}
+	}
+
+	private static float[] reuse(float[] out, int length) {
+		return out != null && out.length == length ? out : new float[length];
+	}
 }
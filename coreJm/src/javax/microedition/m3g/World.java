@@ -17,6 +17,8 @@
 
 package javax.microedition.m3g;
 
+import java.util.IdentityHashMap;
+
 public class World extends Group {
 	//------------------------------------------------------------------
 	// Instance data
@@ -30,15 +32,6 @@ public class World extends Group {
 	//------------------------------------------------------------------
 
 	public World() {
-		super(_ctor(Interface.getHandle()));
-	}
-
-	/**
-	 */
-	World(long handle) {
-		super(handle);
-		background = (Background) getInstance(_getBackground(handle));
-		activeCamera = (Camera) getInstance(_getActiveCamera(handle));
 	}
 
 	//------------------------------------------------------------------
@@ -46,7 +39,6 @@ public class World extends Group {
 	//------------------------------------------------------------------
 
 	public void setBackground(Background background) {
-		_setBackground(handle, background != null ? background.handle : 0);
 		this.background = background;
 	}
 
@@ -55,7 +47,6 @@ public class World extends Group {
 	}
 
 	public void setActiveCamera(Camera camera) {
-		_setActiveCamera(handle, camera != null ? camera.handle : 0);
 		this.activeCamera = camera;
 	}
 
@@ -63,14 +54,22 @@ public class World extends Group {
 		return activeCamera;
 	}
 
-	// Native methods
-	private static native long _ctor(long hInterface);
-
-	private static native void _setActiveCamera(long handle, long hCamera);
-
-	private static native void _setBackground(long handle, long hBackground);
+	//------------------------------------------------------------------
+	// Package private methods
+	//------------------------------------------------------------------
 
-	private static native long _getActiveCamera(long handle);
+	@Override
+	int getReferences(Object3D[] references, int n) {
+		n = super.getReferences(references, n);
+		n = addReference(references, n, background);
+		return addReference(references, n, activeCamera);
+	}
 
-	private static native long _getBackground(long handle);
+	@Override
+	void remapReferences(IdentityHashMap<Object3D, Object3D> duplicates) {
+		super.remapReferences(duplicates);
+		if (duplicates.containsKey(activeCamera)) {
+			activeCamera = (Camera) duplicates.get(activeCamera);
+		}
+	}
 }
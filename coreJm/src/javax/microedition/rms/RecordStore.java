@@ -25,7 +25,8 @@
 
 package javax.microedition.rms;
 
-import javax.microedition.rms.impl.AndroidRecordStoreManager;
+import javax.microedition.rms.impl.LogRecordStoreManager;
+import javax.microedition.rms.impl.RecordStoreManager;
 
 public class RecordStore {
 
@@ -33,7 +34,11 @@ public class RecordStore {
 
 	public static final int AUTHMODE_ANY = 1;
 
-	private static AndroidRecordStoreManager recordStoreManager = new AndroidRecordStoreManager();
+	/**
+	 * Stores written by the former default, AndroidRecordStoreManager, are
+	 * converted by LogRecordStoreManager when they are first opened.
+	 */
+	private static RecordStoreManager recordStoreManager = new LogRecordStoreManager();
 
 	public static void deleteRecordStore(String recordStoreName)
 			throws RecordStoreException, RecordStoreNotFoundException {
@@ -99,6 +99,7 @@ public class AndroidRecordStoreManager implements RecordStoreManager {
 			recordStoreImpl = new RecordStoreImpl(this);
 			recordStoreImpl.readHeader(dis);
 			dis.close();
+			indexRecords(recordStoreImpl, recordStoreName);
 		} catch (IOException e) {
 			Log.e(TAG, "RecordStore.deleteRecordStore: ERROR reading " + getHeaderFileName(recordStoreName), e);
 			throw new RecordStoreException();
@@ -127,8 +128,9 @@ public class AndroidRecordStoreManager implements RecordStoreManager {
 					ContextHolder.openFileInput(getHeaderFileName(recordStoreName)));
 			recordStoreImpl = new RecordStoreImpl(this);
 			recordStoreImpl.readHeader(dis);
-			recordStoreImpl.setOpen(true);
 			dis.close();
+			indexRecords(recordStoreImpl, recordStoreName);
+			recordStoreImpl.setOpen(true);
 		} catch (FileNotFoundException e) {
 			if (!createIfNecessary) {
 				throw new RecordStoreNotFoundException(recordStoreName);
@@ -229,12 +231,42 @@ public class AndroidRecordStoreManager implements RecordStoreManager {
 		}
 	}
 
+	@Override
+	public void closeRecordStore(RecordStoreImpl recordStoreImpl) {
+		// records are written as they change
+	}
+
 	@Override
 	public int getSizeAvailable(RecordStoreImpl recordStoreImpl) {
 		// TODO should return free space on device
 		return 1024 * 1024;
 	}
 
+	/**
+	 * Pass the id and size of every record file of a store to the record store,
+	 * without reading the files.
+	 */
+	private void indexRecords(RecordStoreImpl recordStoreImpl, String recordStoreName) {
+		String prefix = recordStoreName + ".";
+		File dir = new File(Config.DATA_DIR, AppClassLoader.getName());
+		String[] list = dir.list();
+		if (list == null) {
+			return;
+		}
+		for (String name : list) {
+			if (!name.startsWith(prefix) || !name.endsWith(RECORD_STORE_RECORD_SUFFIX)) {
+				continue;
+			}
+			try {
+				int recordId = Integer.parseInt(name.substring(prefix.length(),
+						name.length() - RECORD_STORE_RECORD_SUFFIX.length()));
+				// record id, tag and length precede the data
+				recordStoreImpl.indexRecord(recordId, (int) new File(dir, name).length() - 12);
+			} catch (NumberFormatException ignored) {
+			}
+		}
+	}
+
 	private String getHeaderFileName(String recordStoreName) {
 		return recordStoreName + RECORD_STORE_HEADER_SUFFIX;
 	}
@@ -0,0 +1,424 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.rms.impl;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.microedition.rms.InvalidRecordIDException;
+import javax.microedition.rms.RecordStore;
+import javax.microedition.rms.RecordStoreException;
+import javax.microedition.rms.RecordStoreNotFoundException;
+import javax.microedition.rms.RecordStoreNotOpenException;
+import javax.microedition.util.ContextHolder;
+
+/**
+ * Record store manager keeping each record store in a single append-only
+ * {@link RecordLog} file.
+ * <p>
+ * Changes are queued in memory and committed by a background thread, which
+ * waits {@link #COMMIT_DELAY} milliseconds so that the changes made in the
+ * meantime share one write and one sync. Closing a store commits it right away,
+ * and the thread is stopped when no other store waits for a commit.
+ * After a commit, logs with more dead space than live records are compacted.
+ * <p>
+ * Stores saved by {@link AndroidRecordStoreManager}, the previous default, as
+ * a header file and one file per record, are listed like the others and
+ * converted to a log the first time they are opened. Their files are only
+ * deleted once the log has been written completely.
+ */
+public class LogRecordStoreManager implements RecordStoreManager {
+
+	private final static String RECORD_STORE_LOG_SUFFIX = ".rsl";
+
+	private final static String RECORD_STORE_HEADER_SUFFIX = ".rsh";
+
+	private final static String RECORD_STORE_RECORD_SUFFIX = ".rsr";
+
+	/**
+	 * Longest time a change waits in memory before it is committed, in milliseconds.
+	 */
+	private final static long COMMIT_DELAY = 50;
+
+	private static String TAG = RecordStore.class.getName();
+
+	private final Map<String, RecordLog> logs = new ConcurrentHashMap<>();
+
+	private final Map<String, RecordStoreImpl> openStores = new ConcurrentHashMap<>();
+
+	private final LinkedHashSet<RecordLog> dirtyLogs = new LinkedHashSet<>();
+
+	private Thread committer;
+
+	@Override
+	public String getName() {
+		return "Log record store";
+	}
+
+	@Override
+	public void deleteRecordStore(final String recordStoreName)
+			throws RecordStoreNotFoundException, RecordStoreException {
+		RecordStoreImpl recordStoreImpl = openStores.get(recordStoreName);
+		if (recordStoreImpl != null && recordStoreImpl.isOpen()) {
+			throw new RecordStoreException();
+		}
+
+		synchronized (logs) {
+			RecordLog log = logs.remove(recordStoreName);
+			if (log != null) {
+				synchronized (dirtyLogs) {
+					dirtyLogs.remove(log);
+					stopCommitterIfIdle();
+				}
+				try {
+					log.close();
+				} catch (IOException e) {
+					Log.e(TAG, "RecordStore.deleteRecordStore: ERROR closing " + log.getFile(), e);
+				}
+			}
+			boolean found = ContextHolder.deleteFile(getLogFileName(recordStoreName));
+			found |= deleteLegacyStore(recordStoreName);
+			if (!found) {
+				throw new RecordStoreNotFoundException(recordStoreName);
+			}
+		}
+
+		openStores.remove(recordStoreName);
+		Log.d(TAG, "RecordStore " + recordStoreName + " deleted");
+	}
+
+	@Override
+	public RecordStore openRecordStore(String recordStoreName, boolean createIfNecessary)
+			throws RecordStoreException {
+		RecordStoreImpl recordStoreImpl;
+		try {
+			RecordLog log = getLog(recordStoreName, createIfNecessary);
+			byte[] header = log.getHeader();
+			if (header == null) {
+				recordStoreImpl = new RecordStoreImpl(this, recordStoreName);
+				recordStoreImpl.setOpen(true);
+				log.setHeader(getHeader(recordStoreImpl));
+				log.flush();
+			} else {
+				recordStoreImpl = new RecordStoreImpl(this);
+				recordStoreImpl.readHeader(new DataInputStream(new ByteArrayInputStream(header)));
+				log.indexRecords(recordStoreImpl);
+				recordStoreImpl.setOpen(true);
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "RecordStore.openRecordStore: ERROR opening " + recordStoreName, e);
+			throw new RecordStoreException(e.getMessage());
+		}
+
+		openStores.put(recordStoreName, recordStoreImpl);
+
+		Log.d(TAG, "RecordStore " + recordStoreName + " opened");
+		return recordStoreImpl;
+	}
+
+	@Override
+	public String[] listRecordStores() {
+		LinkedHashSet<String> result = new LinkedHashSet<>(logs.keySet());
+		String[] list = ContextHolder.getFileByName("").list();
+		if (list != null) {
+			for (String name : list) {
+				if (name.endsWith(RECORD_STORE_LOG_SUFFIX)) {
+					result.add(name.substring(0, name.length() - RECORD_STORE_LOG_SUFFIX.length()));
+				} else if (name.endsWith(RECORD_STORE_HEADER_SUFFIX)) {
+					result.add(name.substring(0, name.length() - RECORD_STORE_HEADER_SUFFIX.length()));
+				}
+			}
+		}
+
+		if (result.size() > 0) {
+			return result.toArray(new String[0]);
+		} else {
+			return null;
+		}
+	}
+
+	@Override
+	public void loadRecord(RecordStoreImpl recordStoreImpl, int recordId)
+			throws RecordStoreNotOpenException, InvalidRecordIDException, RecordStoreException {
+		RecordLog log = logs.get(recordStoreImpl.getName());
+		if (log == null) {
+			throw new RecordStoreNotOpenException();
+		}
+		try {
+			DataInputStream dis = log.openRecord(recordId);
+			if (dis == null) {
+				throw new InvalidRecordIDException();
+			}
+			recordStoreImpl.readRecord(dis);
+		} catch (IOException e) {
+			Log.e(TAG, "RecordStore.loadRecord: ERROR reading record " + recordId + " from " + log.getFile(), e);
+			throw new RecordStoreException(e.getMessage());
+		}
+	}
+
+	@Override
+	public void deleteRecord(RecordStoreImpl recordStoreImpl, int recordId)
+			throws RecordStoreNotOpenException, RecordStoreException {
+		RecordLog log = logs.get(recordStoreImpl.getName());
+		if (log == null) {
+			throw new RecordStoreNotOpenException();
+		}
+		try {
+			log.delete(recordId);
+			log.setHeader(getHeader(recordStoreImpl));
+		} catch (IOException e) {
+			Log.e(TAG, "RecordStore.deleteRecord: ERROR writing to " + log.getFile(), e);
+			throw new RecordStoreException(e.getMessage());
+		}
+		scheduleCommit(log);
+	}
+
+	@Override
+	public void saveRecord(RecordStoreImpl recordStoreImpl, int recordId)
+			throws RecordStoreNotOpenException, RecordStoreException {
+		RecordLog log = logs.get(recordStoreImpl.getName());
+		if (log == null) {
+			throw new RecordStoreNotOpenException();
+		}
+		byte[] data = recordStoreImpl.getRecordData(recordId);
+		try {
+			log.write(recordId, data == null ? new byte[0] : data);
+			log.setHeader(getHeader(recordStoreImpl));
+		} catch (IOException e) {
+			Log.e(TAG, "RecordStore.saveRecord: ERROR writing to " + log.getFile(), e);
+			throw new RecordStoreException(e.getMessage());
+		}
+		scheduleCommit(log);
+	}
+
+	@Override
+	public void closeRecordStore(RecordStoreImpl recordStoreImpl)
+			throws RecordStoreNotOpenException, RecordStoreException {
+		RecordLog log = logs.get(recordStoreImpl.getName());
+		if (log == null) {
+			return;
+		}
+		synchronized (dirtyLogs) {
+			dirtyLogs.remove(log);
+			stopCommitterIfIdle();
+		}
+		try {
+			log.flush();
+		} catch (IOException e) {
+			Log.e(TAG, "RecordStore.closeRecordStore: ERROR writing to " + log.getFile(), e);
+			throw new RecordStoreException(e.getMessage());
+		}
+	}
+
+	@Override
+	public int getSizeAvailable(RecordStoreImpl recordStoreImpl) {
+		long space = ContextHolder.getFileByName("").getUsableSpace();
+		return (int) Math.min(space, Integer.MAX_VALUE);
+	}
+
+	private RecordLog getLog(String recordStoreName, boolean createIfNecessary)
+			throws IOException, RecordStoreNotFoundException {
+		synchronized (logs) {
+			RecordLog log = logs.get(recordStoreName);
+			if (log != null) {
+				return log;
+			}
+			File file = ContextHolder.getFileByName(getLogFileName(recordStoreName));
+			if (file.exists()) {
+				log = new RecordLog(file);
+			} else if (ContextHolder.getFileByName(getHeaderFileName(recordStoreName)).exists()) {
+				log = importLegacyStore(recordStoreName, file);
+			} else if (createIfNecessary) {
+				file.getParentFile().mkdirs();
+				log = new RecordLog(file);
+			} else {
+				throw new RecordStoreNotFoundException(recordStoreName);
+			}
+			logs.put(recordStoreName, log);
+			return log;
+		}
+	}
+
+	/**
+	 * Copy a store saved as a header file and one file per record into a new log,
+	 * then delete the old files. The record files hold the same bytes as a log
+	 * entry, so they are copied without being parsed.
+	 */
+	private RecordLog importLegacyStore(String recordStoreName, File file) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		temp.delete();
+		RecordLog log = new RecordLog(temp);
+		try {
+			log.setHeader(readFile(ContextHolder.getFileByName(getHeaderFileName(recordStoreName))));
+			String prefix = recordStoreName + ".";
+			String[] list = file.getParentFile().list();
+			if (list != null) {
+				for (String name : list) {
+					int recordId = getLegacyRecordId(name, prefix);
+					if (recordId > 0) {
+						DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+								readFile(ContextHolder.getFileByName(name))));
+						dis.readInt();
+						dis.readInt(); // tag, always RecordLog.NO_TAG
+						byte[] data = new byte[dis.readInt()];
+						dis.readFully(data);
+						log.write(recordId, data);
+					}
+				}
+			}
+		} finally {
+			log.close();
+		}
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Can't create " + file);
+		}
+		deleteLegacyStore(recordStoreName);
+		Log.d(TAG, "RecordStore " + recordStoreName + " converted to " + file.getName());
+		return new RecordLog(file);
+	}
+
+	private boolean deleteLegacyStore(String recordStoreName) {
+		String prefix = recordStoreName + ".";
+		String[] list = ContextHolder.getFileByName("").list();
+		if (list != null) {
+			for (String name : list) {
+				if (getLegacyRecordId(name, prefix) > 0) {
+					ContextHolder.deleteFile(name);
+				}
+			}
+		}
+		return ContextHolder.deleteFile(getHeaderFileName(recordStoreName));
+	}
+
+	/**
+	 * @return the record id of an old record file of the store, or -1
+	 */
+	private static int getLegacyRecordId(String fileName, String prefix) {
+		if (!fileName.startsWith(prefix) || !fileName.endsWith(RECORD_STORE_RECORD_SUFFIX)) {
+			return -1;
+		}
+		String id = fileName.substring(prefix.length(), fileName.length() - RECORD_STORE_RECORD_SUFFIX.length());
+		try {
+			return Integer.parseInt(id);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		byte[] data = new byte[(int) file.length()];
+		DataInputStream dis = new DataInputStream(new FileInputStream(file));
+		try {
+			dis.readFully(data);
+		} finally {
+			dis.close();
+		}
+		return data;
+	}
+
+	private static byte[] getHeader(RecordStoreImpl recordStoreImpl) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(baos);
+		recordStoreImpl.writeHeader(dos);
+		dos.close();
+		return baos.toByteArray();
+	}
+
+	private void scheduleCommit(RecordLog log) {
+		synchronized (dirtyLogs) {
+			dirtyLogs.add(log);
+			if (committer == null) {
+				committer = new Thread(this::commitLoop, "RecordStore commit");
+				committer.setDaemon(true);
+				committer.start();
+			} else {
+				dirtyLogs.notify();
+			}
+		}
+	}
+
+	/**
+	 * Stop the commit thread once no log waits for a commit,
+	 * the next change starts a new one. Called with dirtyLogs locked.
+	 * <p>
+	 * The thread is not interrupted, since an interrupt during a write
+	 * would close the file channel. It notices that it was replaced as soon
+	 * as it waits again, and a commit in progress is finished first.
+	 */
+	private void stopCommitterIfIdle() {
+		if (committer != null && dirtyLogs.isEmpty()) {
+			committer = null;
+			dirtyLogs.notifyAll();
+		}
+	}
+
+	private void commitLoop() {
+		Thread self = Thread.currentThread();
+		while (true) {
+			RecordLog[] batch;
+			synchronized (dirtyLogs) {
+				try {
+					while (dirtyLogs.isEmpty() && committer == self) {
+						dirtyLogs.wait();
+					}
+					// let the changes made meanwhile join this commit
+					long deadline = System.currentTimeMillis() + COMMIT_DELAY;
+					long delay;
+					while (committer == self && (delay = deadline - System.currentTimeMillis()) > 0) {
+						dirtyLogs.wait(delay);
+					}
+				} catch (InterruptedException e) {
+					if (committer == self) {
+						committer = null;
+					}
+					return;
+				}
+				if (committer != self) {
+					return;
+				}
+				batch = dirtyLogs.toArray(new RecordLog[0]);
+				dirtyLogs.clear();
+			}
+			for (RecordLog log : batch) {
+				try {
+					log.flush();
+					log.compactIfNeeded();
+				} catch (IOException e) {
+					Log.e(TAG, "RecordStore: ERROR committing " + log.getFile(), e);
+				}
+			}
+		}
+	}
+
+	private String getLogFileName(String recordStoreName) {
+		return recordStoreName + RECORD_STORE_LOG_SUFFIX;
+	}
+
+	private String getHeaderFileName(String recordStoreName) {
+		return recordStoreName + RECORD_STORE_HEADER_SUFFIX;
+	}
+
+}
@@ -25,8 +25,9 @@
 
 package javax.microedition.rms.impl;
 
-import java.util.Collections;
-import java.util.Vector;
+import com.badlogic.gdx.utils.IntMap;
+
+import java.util.Arrays;
 
 import javax.microedition.rms.InvalidRecordIDException;
 import javax.microedition.rms.RecordComparator;
@@ -37,30 +38,43 @@ import javax.microedition.rms.RecordStore;
 import javax.microedition.rms.RecordStoreException;
 import javax.microedition.rms.RecordStoreNotOpenException;
 
+/**
+ * Enumeration over the ids of the matching records, in comparator order or
+ * else in ascending id order. While kept updated, each change only filters
+ * the changed record and moves its id, found by binary search, instead of
+ * rebuilding the whole enumeration.
+ * <p>
+ * With a comparator, the data of every enumerated record is kept as its sort
+ * key, so that the binary searches compare the data the records were sorted
+ * by, without reading them from the store again.
+ */
 public class RecordEnumerationImpl implements RecordEnumeration {
 	private RecordStoreImpl recordStoreImpl;
 	private RecordFilter filter;
 	private RecordComparator comparator;
 	private boolean keepUpdated;
 
-	private Vector<EnumerationRecord> enumerationRecords = new Vector<>();
+	private int[] recordIds = new int[16];
+	// sort key of each enumerated record, only used with a comparator
+	private final IntMap<byte[]> recordData = new IntMap<>();
+	private int numRecords;
 	private int currentRecord;
 
 	private RecordListener recordListener = new RecordListener() {
 
 		@Override
 		public void recordAdded(RecordStore recordStore, int recordId) {
-			rebuild();
+			update(recordId, true);
 		}
 
 		@Override
 		public void recordChanged(RecordStore recordStore, int recordId) {
-			rebuild();
+			update(recordId, true);
 		}
 
 		@Override
 		public void recordDeleted(RecordStore recordStore, int recordId) {
-			rebuild();
+			update(recordId, false);
 		}
 
 	};
@@ -79,8 +93,8 @@ public class RecordEnumerationImpl implements RecordEnumeration {
 	}
 
 	@Override
-	public int numRecords() {
-		return enumerationRecords.size();
+	public synchronized int numRecords() {
+		return numRecords;
 	}
 
 	@Override
@@ -90,27 +104,17 @@ public class RecordEnumerationImpl implements RecordEnumeration {
 			throw new RecordStoreNotOpenException();
 		}
 
-		if (currentRecord >= numRecords()) {
-			throw new InvalidRecordIDException();
-		}
-
-		byte[] result = enumerationRecords.elementAt(currentRecord).value;
-		currentRecord++;
-
-		return result;
+		return recordStoreImpl.getRecord(nextRecordId());
 	}
 
 	@Override
-	public int nextRecordId()
+	public synchronized int nextRecordId()
 			throws InvalidRecordIDException {
-		if (currentRecord >= numRecords()) {
+		if (currentRecord >= numRecords) {
 			throw new InvalidRecordIDException();
 		}
 
-		int result = enumerationRecords.elementAt(currentRecord).recordId;
-		currentRecord++;
-
-		return result;
+		return recordIds[currentRecord++];
 	}
 
 	@Override
@@ -119,70 +123,52 @@ public class RecordEnumerationImpl implements RecordEnumeration {
 		if (!recordStoreImpl.isOpen()) {
 			throw new RecordStoreNotOpenException();
 		}
-		if (currentRecord < 0) {
-			throw new InvalidRecordIDException();
-		}
 
-		currentRecord--;
-
-		return enumerationRecords.elementAt(currentRecord).value;
+		return recordStoreImpl.getRecord(previousRecordId());
 	}
 
 	@Override
-	public int previousRecordId()
+	public synchronized int previousRecordId()
 			throws InvalidRecordIDException {
-		if (currentRecord < 0) {
+		if (currentRecord <= 0) {
 			throw new InvalidRecordIDException();
 		}
 
-		currentRecord--;
-
-		return enumerationRecords.elementAt(currentRecord).recordId;
+		return recordIds[--currentRecord];
 	}
 
 	@Override
-	public boolean hasNextElement() {
-		if (currentRecord == numRecords()) {
-			return false;
-		} else {
-			return true;
-		}
+	public synchronized boolean hasNextElement() {
+		return currentRecord < numRecords;
 	}
 
 	@Override
-	public boolean hasPreviousElement() {
+	public synchronized boolean hasPreviousElement() {
 		return currentRecord != 0;
 	}
 
 	@Override
-	public void reset() {
+	public synchronized void reset() {
 		currentRecord = 0;
 	}
 
 	@Override
 	public void rebuild() {
-		enumerationRecords.removeAllElements();
+		int[] ids = recordStoreImpl.getRecordIds();
+		byte[][] values = new byte[ids.length][];
+		int count = 0;
 		//
 		// filter
 		//
-		synchronized (recordStoreImpl) {
+		for (int recordId : ids) {
 			try {
-				int recordId = 1;
-				int i = 0;
-				while (i < recordStoreImpl.getNumRecords()) {
-					try {
-						byte[] data = recordStoreImpl.getRecord(recordId);
-						i++;
-						if (filter != null && !filter.matches(data)) {
-							recordId++;
-							continue;
-						}
-						enumerationRecords.add(new EnumerationRecord(recordId, data));
-					} catch (InvalidRecordIDException e) {
-						e.printStackTrace();
-					}
-					recordId++;
+				byte[] data = recordStoreImpl.getRecord(recordId);
+				if (filter != null && !filter.matches(data)) {
+					continue;
 				}
+				ids[count] = recordId;
+				values[count] = data;
+				count++;
 			} catch (RecordStoreException e) {
 				e.printStackTrace();
 			}
@@ -191,19 +177,148 @@ public class RecordEnumerationImpl implements RecordEnumeration {
 		//
 		// sort
 		//
+		if (comparator != null && count > 1) {
+			Integer[] order = new Integer[count];
+			for (int i = 0; i < count; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, (lhs, rhs) -> compare(values[lhs], values[rhs]));
+			int[] sorted = new int[count];
+			byte[][] sortedValues = new byte[count][];
+			for (int i = 0; i < count; i++) {
+				sorted[i] = ids[order[i]];
+				sortedValues[i] = values[order[i]];
+			}
+			ids = sorted;
+			System.arraycopy(sortedValues, 0, values, 0, count);
+		}
+
+		synchronized (this) {
+			recordIds = ids;
+			numRecords = count;
+			recordData.clear();
+			if (comparator != null) {
+				for (int i = 0; i < count; i++) {
+					recordData.put(ids[i], values[i]);
+				}
+			}
+			if (currentRecord > count) {
+				currentRecord = count;
+			}
+		}
+	}
+
+	/**
+	 * Move a changed record to its place, or drop it if it is gone or no
+	 * longer matches the filter.
+	 */
+	private synchronized void update(int recordId, boolean exists) {
+		remove(recordId);
+		if (!exists) {
+			return;
+		}
+		try {
+			byte[] data = recordStoreImpl.getRecord(recordId);
+			if (filter == null || filter.matches(data)) {
+				insert(recordId, data);
+			}
+		} catch (RecordStoreException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void remove(int recordId) {
+		int index;
+		if (comparator == null) {
+			index = Arrays.binarySearch(recordIds, 0, numRecords, recordId);
+		} else {
+			byte[] data = recordData.get(recordId);
+			if (data == null) {
+				return;
+			}
+			index = indexOf(recordId, data);
+			recordData.remove(recordId);
+		}
+		if (index < 0) {
+			return;
+		}
+		numRecords--;
+		System.arraycopy(recordIds, index + 1, recordIds, index, numRecords - index);
+		if (index < currentRecord) {
+			currentRecord--;
+		}
+	}
+
+	private void insert(int recordId, byte[] data) {
+		// place it after the records it does not precede
+		int low = 0;
+		int high = numRecords;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			boolean after;
+			if (comparator == null) {
+				after = recordIds[mid] < recordId;
+			} else {
+				after = compare(recordData.get(recordIds[mid]), data) <= 0;
+			}
+			if (after) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		if (numRecords == recordIds.length) {
+			recordIds = Arrays.copyOf(recordIds, Math.max(16, numRecords * 2));
+		}
+		System.arraycopy(recordIds, low, recordIds, low + 1, numRecords - low);
+		recordIds[low] = recordId;
 		if (comparator != null) {
-			Collections.sort(enumerationRecords, (lhs, rhs) -> {
-				int compare = comparator.compare(lhs.value, rhs.value);
-				if (compare == RecordComparator.EQUIVALENT)
-					return 0;
-				else if (compare == RecordComparator.FOLLOWS)
-					return 1;
-				else
-					return -1;
-			});
+			recordData.put(recordId, data);
+		}
+		numRecords++;
+		if (low < currentRecord) {
+			currentRecord++;
 		}
 	}
 
+	/**
+	 * Find a record among the records its sort key is equivalent to.
+	 * A comparator that is not a consistent ordering falls back to a linear search.
+	 */
+	private int indexOf(int recordId, byte[] data) {
+		int low = 0;
+		int high = numRecords;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compare(recordData.get(recordIds[mid]), data) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		for (int i = low; i < numRecords && compare(recordData.get(recordIds[i]), data) == 0; i++) {
+			if (recordIds[i] == recordId) {
+				return i;
+			}
+		}
+		for (int i = 0; i < numRecords; i++) {
+			if (recordIds[i] == recordId) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int compare(byte[] lhs, byte[] rhs) {
+		int compare = comparator.compare(lhs, rhs);
+		if (compare == RecordComparator.EQUIVALENT)
+			return 0;
+		else if (compare == RecordComparator.FOLLOWS)
+			return 1;
+		else
+			return -1;
+	}
+
 	@Override
 	public void keepUpdated(boolean keepUpdated) {
 		if (keepUpdated) {
@@ -225,15 +340,6 @@ public class RecordEnumerationImpl implements RecordEnumeration {
 
 	@Override
 	public void destroy() {
-	}
-
-	class EnumerationRecord {
-		int recordId;
-		byte[] value;
-
-		EnumerationRecord(int recordId, byte[] value) {
-			this.recordId = recordId;
-			this.value = value;
-		}
+		recordStoreImpl.removeRecordListener(recordListener);
 	}
 }
@@ -0,0 +1,428 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.rms.impl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file holding all records of one record store.
+ * <p>
+ * The file starts with a magic number, followed by entries:
+ * <pre>
+ * type (1) | record id (4) | tag (4) | length (4) | payload (length) | crc32 (4)
+ * </pre>
+ * A PUT entry holds a record, in the same layout as the old per-record files
+ * without the type byte. The tag is always {@link #NO_TAG}. A DELETE entry has no payload and a HEADER entry holds
+ * the store header as written by {@link RecordStoreImpl#writeHeader}. Replaying
+ * the log in order gives the current state; a torn entry at the end, left by a
+ * crash during a commit, is cut off.
+ * <p>
+ * Writes are kept in a pending batch until {@link #flush()}, which appends the
+ * whole batch with a single write and a single sync. Records are read back
+ * through an in-memory index of live entries sorted by record id, with a
+ * positional read of the entry, so that record data is only copied to the
+ * heap when it is used.
+ * <p>
+ * The file is never accessed through its {@link java.nio.channels.FileChannel}:
+ * an interrupted MIDlet thread would close the channel, and the file with it.
+ */
+class RecordLog {
+	static final byte PUT = 1;
+	static final byte DELETE = 2;
+	static final byte HEADER = 3;
+
+	private static final byte[] MAGIC = {0x4d, 0x49, 0x44, 0x52, 0x4c, 0x47, 0x01};
+
+	/**
+	 * Size of an entry without its payload.
+	 */
+	static final int ENTRY_OVERHEAD = 17;
+
+	/**
+	 * Tag of every entry. Records have no tags in MIDP 2, the field only keeps
+	 * the layout read by {@link RecordStoreImpl#readRecord}.
+	 */
+	static final int NO_TAG = 0;
+
+	/**
+	 * Dead space below this size is never compacted.
+	 */
+	private static final long COMPACT_THRESHOLD = 64 * 1024;
+
+	private final File file;
+	private RandomAccessFile raf;
+	private long length;
+
+	// live records, sorted by id; offsets point at the record id of the entry
+	private int[] ids = new int[16];
+	private long[] offsets = new long[16];
+	private int[] sizes = new int[16];
+	private int count;
+
+	private byte[] header;
+	private long headerOffset = -1;
+
+	private long liveBytes;
+	private long deadBytes;
+
+	private final Batch batch = new Batch();
+	private final DataOutputStream batchOut = new DataOutputStream(batch);
+	// type, record id, position in the batch and payload size of each pending entry
+	private int[] batchEntries = new int[4 * 16];
+	private int batchCount;
+	private byte[] pendingHeader;
+
+	private final CRC32 crc = new CRC32();
+
+	RecordLog(File file) throws IOException {
+		this.file = file;
+		open();
+	}
+
+	private void open() throws IOException {
+		boolean exists = file.exists();
+		raf = new RandomAccessFile(file, "rw");
+		if (!exists || raf.length() == 0) {
+			raf.write(MAGIC);
+			length = MAGIC.length;
+			return;
+		}
+		replay();
+	}
+
+	private void replay() throws IOException {
+		byte[] magic = new byte[MAGIC.length];
+		raf.seek(0);
+		raf.readFully(magic);
+		if (!Arrays.equals(magic, MAGIC)) {
+			throw new IOException("Not a record log: " + file);
+		}
+		long fileLength = raf.length();
+		long position = MAGIC.length;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(raf.getFD())));
+		byte[] payload = new byte[256];
+		try {
+			while (position + ENTRY_OVERHEAD <= fileLength) {
+				int type = in.readUnsignedByte();
+				int recordId = in.readInt();
+				int tag = in.readInt();
+				int size = in.readInt();
+				if (size < 0 || position + ENTRY_OVERHEAD + size > fileLength) {
+					break;
+				}
+				if (payload.length < size) {
+					payload = new byte[size];
+				}
+				in.readFully(payload, 0, size);
+				int checksum = in.readInt();
+				crc.reset();
+				updateCrc(type, recordId, tag, size);
+				crc.update(payload, 0, size);
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+				apply(type, recordId, position + 1, size, payload);
+				position += ENTRY_OVERHEAD + size;
+			}
+		} catch (EOFException e) {
+			// torn entry at the end of the log
+		}
+		if (position < fileLength) {
+			raf.setLength(position);
+		}
+		length = position;
+	}
+
+	private void apply(int type, int recordId, long offset, int size, byte[] payload) {
+		switch (type) {
+			case PUT:
+				put(recordId, offset, size);
+				break;
+			case DELETE:
+				remove(recordId);
+				deadBytes += ENTRY_OVERHEAD;
+				break;
+			case HEADER:
+				if (headerOffset >= 0) {
+					deadBytes += ENTRY_OVERHEAD + header.length;
+				}
+				header = Arrays.copyOf(payload, size);
+				headerOffset = offset;
+				break;
+		}
+	}
+
+	private int indexOf(int recordId) {
+		return Arrays.binarySearch(ids, 0, count, recordId);
+	}
+
+	private void put(int recordId, long offset, int size) {
+		int index = indexOf(recordId);
+		if (index >= 0) {
+			deadBytes += ENTRY_OVERHEAD + sizes[index];
+			liveBytes -= ENTRY_OVERHEAD + sizes[index];
+		} else {
+			index = -index - 1;
+			if (count == ids.length) {
+				ids = Arrays.copyOf(ids, count * 2);
+				offsets = Arrays.copyOf(offsets, count * 2);
+				sizes = Arrays.copyOf(sizes, count * 2);
+			}
+			System.arraycopy(ids, index, ids, index + 1, count - index);
+			System.arraycopy(offsets, index, offsets, index + 1, count - index);
+			System.arraycopy(sizes, index, sizes, index + 1, count - index);
+			ids[index] = recordId;
+			count++;
+		}
+		offsets[index] = offset;
+		sizes[index] = size;
+		liveBytes += ENTRY_OVERHEAD + size;
+	}
+
+	private void remove(int recordId) {
+		int index = indexOf(recordId);
+		if (index < 0) {
+			return;
+		}
+		deadBytes += ENTRY_OVERHEAD + sizes[index];
+		liveBytes -= ENTRY_OVERHEAD + sizes[index];
+		count--;
+		System.arraycopy(ids, index + 1, ids, index, count - index);
+		System.arraycopy(offsets, index + 1, offsets, index, count - index);
+		System.arraycopy(sizes, index + 1, sizes, index, count - index);
+	}
+
+	/**
+	 * @return the latest header, or null if none was ever written
+	 */
+	synchronized byte[] getHeader() {
+		return pendingHeader != null ? pendingHeader : header;
+	}
+
+	synchronized void setHeader(byte[] header) {
+		pendingHeader = header;
+	}
+
+	/**
+	 * Queue a record for the next commit.
+	 */
+	synchronized void write(int recordId, byte[] data) throws IOException {
+		append(PUT, recordId, data, data.length);
+	}
+
+	/**
+	 * Queue a record deletion for the next commit.
+	 */
+	synchronized void delete(int recordId) throws IOException {
+		append(DELETE, recordId, null, 0);
+	}
+
+	private void append(byte type, int recordId, byte[] data, int size) throws IOException {
+		long position = batch.size();
+		batchOut.writeByte(type);
+		batchOut.writeInt(recordId);
+		batchOut.writeInt(NO_TAG);
+		batchOut.writeInt(size);
+		if (size > 0) {
+			batchOut.write(data, 0, size);
+		}
+		crc.reset();
+		updateCrc(type, recordId, NO_TAG, size);
+		if (size > 0) {
+			crc.update(data, 0, size);
+		}
+		batchOut.writeInt((int) crc.getValue());
+		int i = batchCount * 4;
+		if (i == batchEntries.length) {
+			batchEntries = Arrays.copyOf(batchEntries, i * 2);
+		}
+		batchEntries[i] = type;
+		batchEntries[i + 1] = recordId;
+		batchEntries[i + 2] = (int) position;
+		batchEntries[i + 3] = size;
+		batchCount++;
+	}
+
+	private void updateCrc(int type, int recordId, int tag, int size) {
+		crc.update(type);
+		updateCrc(recordId);
+		updateCrc(tag);
+		updateCrc(size);
+	}
+
+	private void updateCrc(int value) {
+		crc.update(value >>> 24);
+		crc.update(value >>> 16);
+		crc.update(value >>> 8);
+		crc.update(value);
+	}
+
+	synchronized boolean isDirty() {
+		return batch.size() > 0 || pendingHeader != null;
+	}
+
+	/**
+	 * Read an entry in the layout read by {@link RecordStoreImpl#readRecord},
+	 * looking at the pending batch first.
+	 *
+	 * @return the record id, tag, length and payload, or null if there is no such record
+	 */
+	synchronized DataInputStream openRecord(int recordId) throws IOException {
+		int[] entries = batchEntries;
+		for (int i = (batchCount - 1) * 4; i >= 0; i -= 4) {
+			if (entries[i + 1] == recordId && entries[i] != HEADER) {
+				if (entries[i] == DELETE) {
+					return null;
+				}
+				return new DataInputStream(new ByteArrayInputStream(
+						batch.buffer(), entries[i + 2] + 1, ENTRY_OVERHEAD - 5 + entries[i + 3]));
+			}
+		}
+		int index = indexOf(recordId);
+		if (index < 0) {
+			return null;
+		}
+		byte[] entry = new byte[ENTRY_OVERHEAD - 5 + sizes[index]];
+		raf.seek(offsets[index]);
+		raf.readFully(entry);
+		return new DataInputStream(new ByteArrayInputStream(entry));
+	}
+
+	/**
+	 * Commit pending changes and pass the id and size of every record to a record store.
+	 */
+	synchronized void indexRecords(RecordStoreImpl recordStore) throws IOException {
+		flush();
+		for (int i = 0; i < count; i++) {
+			recordStore.indexRecord(ids[i], sizes[i]);
+		}
+	}
+
+	/**
+	 * Append the pending batch and header to the file, then sync it once.
+	 */
+	synchronized void flush() throws IOException {
+		if (pendingHeader != null) {
+			append(HEADER, 0, pendingHeader, pendingHeader.length);
+			pendingHeader = null;
+		}
+		if (batch.size() == 0) {
+			return;
+		}
+		raf.seek(length);
+		raf.write(batch.buffer(), 0, batch.size());
+		raf.getFD().sync();
+		byte[] buffer = batch.buffer();
+		int[] entries = batchEntries;
+		for (int i = 0, end = batchCount * 4; i < end; i += 4) {
+			int position = entries[i + 2];
+			long offset = length + position + 1;
+			int size = entries[i + 3];
+			if (entries[i] == HEADER) {
+				int payload = position + ENTRY_OVERHEAD - 4;
+				apply(HEADER, 0, offset, size, Arrays.copyOfRange(buffer, payload, payload + size));
+			} else {
+				apply(entries[i], entries[i + 1], offset, size, null);
+			}
+		}
+		length += batch.size();
+		batch.reset();
+		batchCount = 0;
+	}
+
+	/**
+	 * Rewrite the log with only its live entries, once the dead space
+	 * outweighs them. The new log is synced before it replaces the old one,
+	 * and nothing changes if it can't replace it.
+	 */
+	synchronized void compactIfNeeded() throws IOException {
+		if (deadBytes < COMPACT_THRESHOLD || deadBytes < liveBytes || isDirty()) {
+			return;
+		}
+		File temp = new File(file.getPath() + ".tmp");
+		RandomAccessFile out = new RandomAccessFile(temp, "rw");
+		long[] newOffsets = new long[count];
+		long newHeaderOffset = headerOffset;
+		long position = MAGIC.length;
+		try {
+			out.setLength(0);
+			out.write(MAGIC);
+			byte[] entry = new byte[256];
+			for (int i = 0; i < count; i++) {
+				int size = ENTRY_OVERHEAD + sizes[i];
+				if (entry.length < size) {
+					entry = new byte[size];
+				}
+				raf.seek(offsets[i] - 1);
+				raf.readFully(entry, 0, size);
+				out.write(entry, 0, size);
+				newOffsets[i] = position + 1;
+				position += size;
+			}
+			if (header != null) {
+				raf.seek(headerOffset - 1);
+				int size = ENTRY_OVERHEAD + header.length;
+				if (entry.length < size) {
+					entry = new byte[size];
+				}
+				raf.readFully(entry, 0, size);
+				out.write(entry, 0, size);
+				newHeaderOffset = position + 1;
+				position += size;
+			}
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		// the old log stays open and in use until the new one has replaced it
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Can't replace " + file);
+		}
+		raf.close();
+		raf = new RandomAccessFile(file, "rw");
+		length = position;
+		headerOffset = newHeaderOffset;
+		System.arraycopy(newOffsets, 0, offsets, 0, count);
+		deadBytes = 0;
+	}
+
+	synchronized void close() throws IOException {
+		flush();
+		raf.close();
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	private static class Batch extends ByteArrayOutputStream {
+		byte[] buffer() {
+			return buf;
+		}
+	}
+}
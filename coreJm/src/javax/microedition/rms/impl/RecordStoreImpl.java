@@ -30,8 +30,10 @@ import android.util.Log;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Vector;
 
 import javax.microedition.rms.InvalidRecordIDException;
@@ -53,11 +55,25 @@ public class RecordStoreImpl extends RecordStore {
 
 	private static final byte versionMinor = 0x00;
 
+	private static int cacheSize = 64 * 1024;
+
 	private int lastRecordId = 0;
 
-	private int size = 0;
+	/**
+	 * Ids of all records in ascending order, with their sizes
+	 */
+	private int[] recordIds = new int[16];
+
+	private int[] recordSizes = new int[16];
+
+	private int recordCount;
+
+	/**
+	 * Recently used record data, the least recently used first
+	 */
+	private final LinkedHashMap<Integer, byte[]> records = new LinkedHashMap<>(16, 0.75f, true);
 
-	private Hashtable<Integer, byte[]> records = new Hashtable<>();
+	private int cachedBytes;
 
 	private String recordStoreName;
 
@@ -86,6 +102,14 @@ public class RecordStoreImpl extends RecordStore {
 		this.recordStoreManager = recordStoreManager;
 	}
 
+	/**
+	 * Set how many bytes of record data an open record store keeps in memory.
+	 * Other records are read from storage when needed.
+	 */
+	public static void setCacheSize(int bytes) {
+		cacheSize = bytes;
+	}
+
 	public int readHeader(DataInputStream dis)
 			throws IOException {
 		for (byte aFileIdentifier : fileIdentifier) {
@@ -102,21 +126,77 @@ public class RecordStoreImpl extends RecordStore {
 		version = dis.readInt();
 		dis.readInt(); // TODO AuthMode
 		dis.readByte(); // TODO Writable
-		size = dis.readInt();
 
-		return size;
+		return dis.readInt();
 	}
 
-	public void readRecord(DataInputStream dis)
+	public synchronized void readRecord(DataInputStream dis)
 			throws IOException {
 		int recordId = dis.readInt();
+		dis.readInt(); // TODO Tag
+		byte[] data = new byte[dis.readInt()];
+		dis.readFully(data);
+		indexRecord(recordId, data.length);
+		cacheRecord(recordId, data);
+	}
+
+	/**
+	 * Add a record, or change its size, without loading its data.
+	 * Record store managers call this for every stored record on opening.
+	 */
+	synchronized void indexRecord(int recordId, int recordSize) {
 		if (recordId > lastRecordId) {
 			lastRecordId = recordId;
 		}
-		dis.readInt(); // TODO Tag
-		byte[] data = new byte[dis.readInt()];
-		dis.read(data, 0, data.length);
-		this.records.put(new Integer(recordId), data);
+		int index = Arrays.binarySearch(recordIds, 0, recordCount, recordId);
+		if (index < 0) {
+			index = -index - 1;
+			if (recordCount == recordIds.length) {
+				recordIds = Arrays.copyOf(recordIds, recordCount * 2);
+				recordSizes = Arrays.copyOf(recordSizes, recordCount * 2);
+			}
+			System.arraycopy(recordIds, index, recordIds, index + 1, recordCount - index);
+			System.arraycopy(recordSizes, index, recordSizes, index + 1, recordCount - index);
+			recordIds[index] = recordId;
+			recordCount++;
+		}
+		recordSizes[index] = recordSize;
+	}
+
+	/**
+	 * @return the ids of all records in ascending order
+	 */
+	synchronized int[] getRecordIds() {
+		return Arrays.copyOf(recordIds, recordCount);
+	}
+
+	private void unindexRecord(int recordId) {
+		int index = Arrays.binarySearch(recordIds, 0, recordCount, recordId);
+		if (index >= 0) {
+			recordCount--;
+			System.arraycopy(recordIds, index + 1, recordIds, index, recordCount - index);
+			System.arraycopy(recordSizes, index + 1, recordSizes, index, recordCount - index);
+		}
+		uncacheRecord(recordId);
+	}
+
+	private void cacheRecord(int recordId, byte[] data) {
+		uncacheRecord(recordId);
+		records.put(recordId, data);
+		cachedBytes += data.length;
+		// the newest record stays even if it is larger than the cache
+		Iterator<byte[]> iterator = records.values().iterator();
+		while (cachedBytes > cacheSize && records.size() > 1) {
+			cachedBytes -= iterator.next().length;
+			iterator.remove();
+		}
+	}
+
+	private void uncacheRecord(int recordId) {
+		byte[] data = records.remove(recordId);
+		if (data != null) {
+			cachedBytes -= data.length;
+		}
 	}
 
 	public void writeHeader(DataOutputStream dos)
@@ -131,7 +211,7 @@ public class RecordStoreImpl extends RecordStore {
 		dos.writeInt(version);
 		dos.writeInt(0); // TODO AuthMode
 		dos.writeByte(0); // TODO Writable
-		dos.writeInt(size);
+		dos.writeInt(recordCount);
 	}
 
 	public void writeRecord(DataOutputStream dos, int recordId)
@@ -151,6 +231,13 @@ public class RecordStoreImpl extends RecordStore {
 		}
 	}
 
+	/**
+	 * @return the stored record data, not a copy, or null if it is not in the cache
+	 */
+	synchronized byte[] getRecordData(int recordId) {
+		return records.get(recordId);
+	}
+
 	public boolean isOpen() {
 		return open;
 	}
@@ -170,7 +257,12 @@ public class RecordStoreImpl extends RecordStore {
 			recordListeners.removeAllElements();
 		}
 
-		records.clear();
+		recordStoreManager.closeRecordStore(this);
+		synchronized (this) {
+			records.clear();
+			cachedBytes = 0;
+			recordCount = 0;
+		}
 
 		open = false;
 		Log.d(TAG, "RecordStore " + recordStoreName + " closed");
@@ -205,7 +297,7 @@ public class RecordStoreImpl extends RecordStore {
 			throw new RecordStoreNotOpenException();
 		}
 
-		return size;
+		return recordCount;
 	}
 
 	@Override
@@ -217,20 +309,10 @@ public class RecordStoreImpl extends RecordStore {
 
 		// TODO include size overhead such as the data structures used to hold the state of the record store
 
-		// Preload all records
-		enumerateRecords(null, null, false);
-
 		int result = 0;
-		Enumeration keys = records.keys();
-		while (keys.hasMoreElements()) {
-			int key = (Integer) keys.nextElement();
-			try {
-				byte[] data = getRecord(key);
-				if (data != null) {
-					result += data.length;
-				}
-			} catch (RecordStoreException e) {
-				e.printStackTrace();
+		synchronized (this) {
+			for (int i = 0; i < recordCount; i++) {
+				result += recordSizes[i];
 			}
 		}
 		return result;
@@ -277,9 +359,6 @@ public class RecordStoreImpl extends RecordStore {
 			throw new RecordStoreNotOpenException();
 		}
 
-		// lastRecordId needs to hold correct number, all records have to be preloaded
-		enumerateRecords(null, null, false);
-
 		synchronized (this) {
 			return lastRecordId + 1;
 		}
@@ -298,24 +377,21 @@ public class RecordStoreImpl extends RecordStore {
 			throw new RecordStoreFullException();
 		}
 
-		// lastRecordId needs to hold correct number, all records have to be preloaded
-		enumerateRecords(null, null, false);
-
 		byte[] recordData = new byte[numBytes];
 		if (data != null) {
 			System.arraycopy(data, offset, recordData, 0, numBytes);
 		}
 
-		int nextRecordID = getNextRecordID();
+		int nextRecordID;
 		synchronized (this) {
-			records.put(new Integer(nextRecordID), recordData);
+			nextRecordID = lastRecordId + 1;
+			indexRecord(nextRecordID, numBytes);
+			cacheRecord(nextRecordID, recordData);
 			version++;
 			lastModified = System.currentTimeMillis();
-			lastRecordId++;
-			size++;
-		}
 
-		recordStoreManager.saveRecord(this, nextRecordID);
+			recordStoreManager.saveRecord(this, nextRecordID);
+		}
 
 		fireRecordListener(ExtendedRecordListener.RECORD_ADD, nextRecordID);
 
@@ -332,14 +408,13 @@ public class RecordStoreImpl extends RecordStore {
 
 		synchronized (this) {
 			// throws InvalidRecordIDException when no record found
-			getRecord(recordId);
-			records.remove(new Integer(recordId));
+			getRecordSize(recordId);
+			unindexRecord(recordId);
 			version++;
 			lastModified = System.currentTimeMillis();
-			size--;
-		}
 
-		recordStoreManager.deleteRecord(this, recordId);
+			recordStoreManager.deleteRecord(this, recordId);
+		}
 
 		fireRecordListener(ExtendedRecordListener.RECORD_DELETE, recordId);
 		Log.d(TAG, "Record " + recordStoreName + "." + recordId + " deleted");
@@ -353,16 +428,12 @@ public class RecordStoreImpl extends RecordStore {
 		}
 
 		synchronized (this) {
-			byte[] data = records.get(new Integer(recordId));
-			if (data == null) {
-				recordStoreManager.loadRecord(this, recordId);
-				data = records.get(new Integer(recordId));
-				if (data == null) {
-					throw new InvalidRecordIDException();
-				}
+			int index = Arrays.binarySearch(recordIds, 0, recordCount, recordId);
+			if (index < 0) {
+				throw new InvalidRecordIDException();
 			}
 
-			return data.length;
+			return recordSizes[index];
 		}
 	}
 
@@ -372,7 +443,15 @@ public class RecordStoreImpl extends RecordStore {
 		int recordSize;
 		synchronized (this) {
 			recordSize = getRecordSize(recordId);
-			System.arraycopy(records.get(new Integer(recordId)), 0, buffer, offset, recordSize);
+			byte[] data = records.get(recordId);
+			if (data == null) {
+				recordStoreManager.loadRecord(this, recordId);
+				data = records.get(recordId);
+				if (data == null) {
+					throw new InvalidRecordIDException();
+				}
+			}
+			System.arraycopy(data, 0, buffer, offset, recordSize);
 		}
 
 		fireRecordListener(ExtendedRecordListener.RECORD_READ, recordId);
@@ -414,13 +493,14 @@ public class RecordStoreImpl extends RecordStore {
 
 		synchronized (this) {
 			// throws InvalidRecordIDException when no record found
-			getRecord(recordId);
-			records.put(new Integer(recordId), recordData);
+			getRecordSize(recordId);
+			indexRecord(recordId, numBytes);
+			cacheRecord(recordId, recordData);
 			version++;
 			lastModified = System.currentTimeMillis();
-		}
 
-		recordStoreManager.saveRecord(this, recordId);
+			recordStoreManager.saveRecord(this, recordId);
+		}
 
 		fireRecordListener(ExtendedRecordListener.RECORD_CHANGE, recordId);
 		Log.d(TAG, "Record " + recordStoreName + "." + recordId + " set");
@@ -51,6 +51,9 @@ public interface RecordStoreManager {
 	void saveRecord(RecordStoreImpl recordStoreImpl, int recordId)
 			throws RecordStoreNotOpenException, RecordStoreException;
 
+	void closeRecordStore(RecordStoreImpl recordStoreImpl)
+			throws RecordStoreNotOpenException, RecordStoreException;
+
 	int getSizeAvailable(RecordStoreImpl recordStoreImpl);
 
 }
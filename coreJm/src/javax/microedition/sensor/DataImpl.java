@@ -45,6 +45,17 @@ public class DataImpl implements Data {
 		this.timestamps = timestamps;
 	}
 
+	/**
+	 * Point this view at other values, so that a connection can reuse it for every delivery.
+	 * Only the values of the channel's data type are used, the others may be null.
+	 */
+	public void set(double[] doubleValues, int[] intValues, Object[] objectValues, long[] timestamps) {
+		this.doubleValues = doubleValues;
+		this.intValues = intValues;
+		this.objectValues = objectValues;
+		this.timestamps = timestamps;
+	}
+
 	@Override
 	public ChannelInfo getChannelInfo() {
 		return channelInfo;
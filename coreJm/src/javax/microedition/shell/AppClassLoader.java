@@ -41,6 +41,7 @@ public class AppClassLoader extends DexClassLoader {
 	private static final String TAG = ContextHolder.class.getName();
 
 	private static File resFolder;
+	private static ResourceStore resourceStore;
 	private static ZipFile zipFile;
 
 	public AppClassLoader(String paths, String tmpDir, ClassLoader parent, File resDir) {
@@ -54,9 +55,16 @@ public class AppClassLoader extends DexClassLoader {
 		return resFolder.getParentFile().getName();
 	}
 
+	/**
+	 * @return the resources of the MIDlet jar, or null if they are read through zip4j or from a folder
+	 */
+	@Nullable
+	public static ResourceStore getResourceStore() {
+		return resourceStore;
+	}
+
 	@Nullable
 	public static InputStream getResourceAsStream(Class resClass, String resName) {
-		Log.d(TAG, "CUSTOM GET RES CALLED WITH PATH: " + resName);
 		if (resName == null || resName.equals("")) {
 			Log.w(TAG, "Can't load res on empty path");
 			return null;
@@ -82,19 +90,32 @@ public class AppClassLoader extends DexClassLoader {
 	}
 
 	private static void prepareZipFile() {
+		resourceStore = null;
+		zipFile = null;
 		File midletResFile = new File(Config.APP_DIR,
 				AppClassLoader.getName() + Config.MIDLET_RES_FILE);
 		if (midletResFile.exists()) {
-			zipFile = new ZipFile(midletResFile);
+			try {
+				resourceStore = ResourceStore.open(midletResFile);
+			} catch (IOException e) {
+				// Archives the index can't handle are still readable through zip4j
+				Log.w(TAG, "Can't index " + midletResFile + ": " + e.getMessage());
+				zipFile = new ZipFile(midletResFile);
+			}
 		}
 	}
 
 	private static InputStream getResourceStream(String resName) throws IOException {
+		if (resourceStore != null) {
+			InputStream is = resourceStore.getResourceAsStream(resName);
+			if (is == null) {
+				throw new IOException("Not found: " + resName);
+			}
+			return is;
+		}
 		InputStream is;
 		byte[] data;
-		File midletResFile = new File(Config.APP_DIR,
-				AppClassLoader.getName() + Config.MIDLET_RES_FILE);
-		if (midletResFile.exists()) {
+		if (zipFile != null) {
 			FileHeader header = zipFile.getFileHeader(resName);
 			is = zipFile.getInputStream(header);
 			data = new byte[(int) header.getUncompressedSize()];
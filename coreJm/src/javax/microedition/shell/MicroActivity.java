@@ -24,6 +24,7 @@ import javax.microedition.lcdui.Canvas;
 import javax.microedition.lcdui.Command;
 import javax.microedition.lcdui.Displayable;
 import javax.microedition.lcdui.Form;
+import javax.microedition.lcdui.Graphics;
 import javax.microedition.lcdui.List;
 import javax.microedition.lcdui.ViewHandler;
 import javax.microedition.lcdui.event.SimpleEvent;
@@ -60,6 +61,7 @@ public class MicroActivity extends ApplicationAdapter {
 
 	@Override
 	public void create() {
+		ViewHandler.setGLThread(Thread.currentThread());
 		Preferences sp = Gdx.app.getPreferences(getApplicationContext());
 		//SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(getApplicationContext());
 		setTheme(sp.getString("pref_theme", "light"));
@@ -109,9 +111,16 @@ public class MicroActivity extends ApplicationAdapter {
 	public void pause() {
 		visible = false;
 		MidletThread.pauseApp();
+		Graphics.disposeStreamingTextures();
 		super.pause();
 	}
 
+	@Override
+	public void dispose() {
+		Graphics.disposeStreamingTextures();
+		super.dispose();
+	}
+
 	public void onWindowFocusChanged(boolean hasFocus) {
 		if (hasFocus  && current instanceof Canvas) {
 			hideSystemUI();
@@ -206,6 +215,8 @@ public class MicroActivity extends ApplicationAdapter {
 			current.clearDisplayableView();
 			layout.removeAllViews();
 			layout.addView(current.getDisplayableView());
+			// the displayable is a stage, a canvas posts its touches as pooled events
+			Gdx.input.setInputProcessor(current);
 			invalidateOptionsMenu();
 			ActionBar actionBar = getSupportActionBar();
 			LinearLayout.LayoutParams layoutParams = (LinearLayout.LayoutParams) toolbar.getLayoutParams();
@@ -44,6 +44,8 @@ import javax.microedition.lcdui.Canvas;
 import javax.microedition.lcdui.Display;
 import javax.microedition.lcdui.Displayable;
 import javax.microedition.lcdui.Font;
+import javax.microedition.lcdui.Graphics;
+import javax.microedition.lcdui.TextureAtlasManager;
 import javax.microedition.lcdui.event.EventQueue;
 import javax.microedition.lcdui.pointer.FixedKeyboard;
 import javax.microedition.lcdui.pointer.VirtualKeyboard;
@@ -207,12 +209,15 @@ public class MicroLoader {
 			boolean immediateMode = params.getBoolean("ImmediateMode", false);
 			boolean touchInput = params.getBoolean(("TouchInput"), true);
 			boolean hwAcceleration = params.getBoolean("HwAcceleration", false);
+			boolean softwareRendering = params.getBoolean("SoftwareRendering", false);
 			boolean parallel = params.getBoolean("ParallelRedrawScreen", false);
 			boolean forceFullScreen = params.getBoolean("ForceFullscreen", false);
 			boolean showFps = params.getBoolean("ShowFps", false);
+			boolean showDamage = params.getBoolean("ShowDamage", false);
 			boolean limitFps = params.getBoolean("LimitFps", false);
 			int fpsLimit = params.getInt("FpsLimit", 0);
 			int layout = params.getInt("Layout", 0);
+			int textureBudget = params.getInt("TextureBudget", 64);
 
 			Font.setSize(Font.SIZE_SMALL, fontSizeSmall);
 			Font.setSize(Font.SIZE_MEDIUM, fontSizeMedium);
@@ -238,12 +243,15 @@ public class MicroLoader {
 			Canvas.setFilterBitmap(screenFilter);
 			EventQueue.setImmediate(immediateMode);
 			Canvas.setHardwareAcceleration(hwAcceleration, parallel);
+			Graphics.setSoftwareRendering(softwareRendering);
 			Canvas.setBackgroundColor(screenBackgroundColor);
 			Canvas.setKeyMapping(layout, intArray);
 			Canvas.setHasTouchInput(touchInput);
 			Canvas.setForceFullscreen(forceFullScreen);
 			Canvas.setShowFps(showFps);
+			Canvas.setShowDamage(showDamage);
 			Canvas.setLimitFps(limitFps, fpsLimit);
+			TextureAtlasManager.setBudget(textureBudget * 1024L * 1024L);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -0,0 +1,364 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package javax.microedition.shell;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Resources of a MIDlet jar, indexed once from its central directory.
+ * <p>
+ * The jar is mapped into memory: stored entries are read straight from the mapping,
+ * deflated ones are inflated on each open unless they are small or opened repeatedly,
+ * in which case they are kept in a cache of bounded size.
+ */
+public final class ResourceStore {
+	private static final int END_SIGNATURE = 0x06054b50;
+	private static final int CENTRAL_SIGNATURE = 0x02014b50;
+	private static final int LOCAL_SIGNATURE = 0x04034b50;
+	private static final int END_SIZE = 22;
+	private static final int CENTRAL_SIZE = 46;
+	private static final int LOCAL_SIZE = 30;
+	private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+	private static final int METHOD_STORED = 0;
+	private static final int METHOD_DEFLATED = 8;
+	private static final int FLAG_ENCRYPTED = 1;
+
+	// Entries up to this size are cached when first opened, larger ones when opened again
+	private static final int SMALL_ENTRY_SIZE = 16 * 1024;
+	private static final int DEFAULT_CACHE_SIZE = 4 * 1024 * 1024;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final ByteBuffer mapping;
+	private final HashMap<String, Entry> entries;
+
+	/**
+	 * Inflated data of recently used entries, the least recently used first
+	 */
+	private final LinkedHashMap<Entry, byte[]> cache = new LinkedHashMap<>(64, 0.75f, true);
+	private final int cacheSize;
+	private int cachedBytes;
+
+	private long hits;
+	private long misses;
+	private long mapped;
+
+	private ResourceStore(ByteBuffer mapping, HashMap<String, Entry> entries, int cacheSize) {
+		this.mapping = mapping;
+		this.entries = entries;
+		this.cacheSize = cacheSize;
+	}
+
+	/**
+	 * Map a jar and index its entries.
+	 *
+	 * @throws IOException if the jar can't be read or isn't a plain zip file,
+	 *                     zip64 and split archives are not supported
+	 */
+	public static ResourceStore open(File jar) throws IOException {
+		return open(jar, DEFAULT_CACHE_SIZE);
+	}
+
+	public static ResourceStore open(File jar, int cacheSize) throws IOException {
+		ByteBuffer mapping;
+		try (RandomAccessFile file = new RandomAccessFile(jar, "r")) {
+			FileChannel channel = file.getChannel();
+			mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		mapping.order(ByteOrder.LITTLE_ENDIAN);
+		return new ResourceStore(mapping, readIndex(mapping), cacheSize);
+	}
+
+	/**
+	 * @return true if the jar has a file of that name
+	 */
+	public boolean contains(String name) {
+		return entries.containsKey(name);
+	}
+
+	/**
+	 * Open an entry of the jar.
+	 *
+	 * @return a stream over the data of the entry, or null if the jar has no such file
+	 */
+	public InputStream getResourceAsStream(String name) throws IOException {
+		Entry entry = entries.get(name);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.method == METHOD_STORED) {
+			synchronized (this) {
+				mapped++;
+			}
+			return new ByteBufferInputStream(getData(entry));
+		}
+		byte[] data;
+		synchronized (this) {
+			data = cache.get(entry);
+			if (data != null) {
+				hits++;
+				return new ByteArrayInputStream(data);
+			}
+			misses++;
+			entry.opens++;
+		}
+		data = inflate(entry);
+		if (data.length <= SMALL_ENTRY_SIZE || entry.opens > 1) {
+			putCache(entry, data);
+		}
+		return new ByteArrayInputStream(data);
+	}
+
+	/**
+	 * @return the number of opens of deflated entries served from the cache
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of opens of deflated entries that had to be inflated
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of opens of stored entries, served from the mapping
+	 */
+	public synchronized long getMappedReads() {
+		return mapped;
+	}
+
+	/**
+	 * @return the size of the inflated data currently cached
+	 */
+	public synchronized int getCachedBytes() {
+		return cachedBytes;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return entries.size() + " entries, " + hits + " hits, " + misses + " misses, "
+				+ mapped + " mapped reads, " + cachedBytes + " bytes cached";
+	}
+
+	private synchronized void putCache(Entry entry, byte[] data) {
+		if (data.length > cacheSize / 4 || cache.containsKey(entry)) {
+			return;
+		}
+		cache.put(entry, data);
+		cachedBytes += data.length;
+		Iterator<byte[]> iterator = cache.values().iterator();
+		while (cachedBytes > cacheSize && iterator.hasNext()) {
+			cachedBytes -= iterator.next().length;
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * @return a view of the data of an entry as stored in the jar
+	 */
+	private ByteBuffer getData(Entry entry) throws IOException {
+		ByteBuffer buffer = mapping.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int offset = entry.localOffset;
+		if (offset + LOCAL_SIZE > buffer.limit() || buffer.getInt(offset) != LOCAL_SIGNATURE) {
+			throw new ZipException("Invalid local header: " + entry.name);
+		}
+		int start = offset + LOCAL_SIZE + (buffer.getShort(offset + 26) & 0xFFFF)
+				+ (buffer.getShort(offset + 28) & 0xFFFF);
+		if (start + entry.compressedSize > buffer.limit()) {
+			throw new ZipException("Truncated entry: " + entry.name);
+		}
+		buffer.limit(start + entry.compressedSize).position(start);
+		return buffer.slice();
+	}
+
+	private byte[] inflate(Entry entry) throws IOException {
+		ByteBuffer compressed = getData(entry);
+		// The inflater needs an extra byte past the data of a raw deflate stream
+		byte[] input = new byte[entry.compressedSize + 1];
+		compressed.get(input, 0, entry.compressedSize);
+		byte[] data = new byte[entry.size];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(input);
+			int length = 0;
+			while (length < data.length) {
+				int count = inflater.inflate(data, length, data.length - length);
+				if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				length += count;
+			}
+			if (length != data.length) {
+				throw new ZipException("Invalid entry size: " + entry.name);
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException("Invalid entry: " + entry.name);
+		} finally {
+			inflater.end();
+		}
+		return data;
+	}
+
+	private static HashMap<String, Entry> readIndex(ByteBuffer buffer) throws IOException {
+		int end = -1;
+		for (int i = buffer.limit() - END_SIZE, stop = Math.max(buffer.limit() - END_SIZE - MAX_COMMENT_SIZE, 0);
+			 i >= stop; i--) {
+			if (buffer.getInt(i) == END_SIGNATURE) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0) {
+			throw new ZipException("End of central directory not found");
+		}
+		int count = buffer.getShort(end + 10) & 0xFFFF;
+		long directoryOffset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+		if (directoryOffset >= end) {
+			throw new ZipException("Unsupported central directory");
+		}
+		HashMap<String, Entry> entries = new HashMap<>(count * 2);
+		int offset = (int) directoryOffset;
+		for (int i = 0; i < count; i++) {
+			if (offset + CENTRAL_SIZE > end || buffer.getInt(offset) != CENTRAL_SIGNATURE) {
+				throw new ZipException("Invalid central directory");
+			}
+			int flags = buffer.getShort(offset + 8) & 0xFFFF;
+			int method = buffer.getShort(offset + 10) & 0xFFFF;
+			long compressedSize = buffer.getInt(offset + 20) & 0xFFFFFFFFL;
+			long size = buffer.getInt(offset + 24) & 0xFFFFFFFFL;
+			int nameLength = buffer.getShort(offset + 28) & 0xFFFF;
+			int extraLength = buffer.getShort(offset + 30) & 0xFFFF;
+			int commentLength = buffer.getShort(offset + 32) & 0xFFFF;
+			long localOffset = buffer.getInt(offset + 42) & 0xFFFFFFFFL;
+			byte[] nameBytes = new byte[nameLength];
+			ByteBuffer nameBuffer = buffer.duplicate();
+			nameBuffer.position(offset + CENTRAL_SIZE);
+			nameBuffer.get(nameBytes);
+			offset += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+
+			if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || localOffset == 0xFFFFFFFFL) {
+				throw new ZipException("Zip64 is not supported");
+			}
+			if ((flags & FLAG_ENCRYPTED) != 0
+					|| (method != METHOD_STORED && method != METHOD_DEFLATED)
+					|| size > Integer.MAX_VALUE) {
+				throw new ZipException("Unsupported entry");
+			}
+			// Names are read as UTF-8 whether they are flagged so or not, like zip4j does
+			String name = new String(nameBytes, UTF_8);
+			if (nameLength == 0 || name.endsWith("/") || entries.containsKey(name)) {
+				// Directories and later duplicates are left out
+				continue;
+			}
+			entries.put(name, new Entry(name, method, (int) localOffset, (int) compressedSize, (int) size));
+		}
+		return entries;
+	}
+
+	private static final class Entry {
+		final String name;
+		final int method;
+		final int localOffset;
+		final int compressedSize;
+		final int size;
+		int opens;
+
+		Entry(String name, int method, int localOffset, int compressedSize, int size) {
+			this.name = name;
+			this.method = method;
+			this.localOffset = localOffset;
+			this.compressedSize = compressedSize;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Stream over a buffer, which is read without copying it first
+	 */
+	private static final class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+		private int mark;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (off < 0 || len < 0 || len > b.length - off) {
+				throw new IndexOutOfBoundsException();
+			}
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public long skip(long n) {
+			int count = (int) Math.max(Math.min(n, buffer.remaining()), 0);
+			buffer.position(buffer.position() + count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+
+		@Override
+		public boolean markSupported() {
+			return true;
+		}
+
+		@Override
+		public synchronized void mark(int readlimit) {
+			mark = buffer.position();
+		}
+
+		@Override
+		public synchronized void reset() {
+			buffer.position(mark);
+		}
+	}
+}
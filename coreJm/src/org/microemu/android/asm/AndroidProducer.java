@@ -34,11 +34,19 @@ import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -46,6 +54,17 @@ import ru.playsoftware.j2meloader.util.IOUtils;
 
 public class AndroidProducer {
 
+	/**
+	 * Version of the instrumentation, increase it whenever the patched classes change
+	 * so that jars converted by an older version are not reused.
+	 */
+	public static final int VERSION = 1;
+
+	private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+	// Entries held in memory while their predecessors are being written
+	private static final int MAX_PENDING = POOL.getParallelism() * 4;
+
 	private static byte[] instrument(final byte[] classFile, String classFileName)
 			throws IllegalArgumentException {
 		ClassReader cr = new ClassReader(classFile);
@@ -59,36 +78,133 @@ public class AndroidProducer {
 		return cw.toByteArray();
 	}
 
-	public static void processJar(File jarInputFile, File jarOutputFile) throws IOException {
-		HashMap<String, byte[]> resources = new HashMap<>();
-		ZipEntry zipEntry;
-		InputStream zis;
-		try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(jarOutputFile))) {
+	/**
+	 * Patch the classes of a jar. Entries are read in order and their classes
+	 * instrumented in parallel, while the finished ones are written in the same order.
+	 * Only a few entries per core are held in memory at a time. The output is stored
+	 * uncompressed, it is only unpacked and dexed afterwards.
+	 *
+	 * @return time spent in each phase
+	 */
+	public static Timings processJar(File jarInputFile, File jarOutputFile) throws IOException {
+		long start = System.nanoTime();
+		Timings timings = new Timings();
+		AtomicLong instrumentNanos = new AtomicLong();
+		ArrayDeque<Entry> pending = new ArrayDeque<>();
+		HashSet<String> names = new HashSet<>();
+		try (ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(jarOutputFile)))) {
 			ZipFile zip = new ZipFile(jarInputFile);
 			for (FileHeader header : zip.getFileHeaders()) {
 				// Some zip entries have zero length names
-				if (header.getFileNameLength() > 0 && !header.isDirectory()) {
-					zis = zip.getInputStream(header);
-					String name = header.getFileName();
-					byte[] inBuffer = IOUtils.toByteArray(zis);
-					resources.put(name, inBuffer);
-					zis.close();
+				if (header.getFileNameLength() == 0 || header.isDirectory()) {
+					continue;
 				}
-			}
+				String name = header.getFileName();
+				if (!names.add(name)) {
+					// The first of duplicate entries wins
+					continue;
+				}
+				long readStart = System.nanoTime();
+				byte[] inBuffer;
+				try (InputStream zis = zip.getInputStream(header)) {
+					inBuffer = IOUtils.toByteArray(zis);
+				}
+				timings.readNanos += System.nanoTime() - readStart;
 
-			for (String name : resources.keySet()) {
-				byte[] inBuffer = resources.get(name);
-				byte[] outBuffer = inBuffer;
-				try {
-					if (name.endsWith(".class")) {
-						outBuffer = instrument(inBuffer, name.replace(".class", ""));
-					}
-					zos.putNextEntry(new ZipEntry(name));
-					zos.write(outBuffer);
-				} catch (Exception e) {
-					e.printStackTrace();
+				Entry entry = new Entry(name);
+				if (name.endsWith(".class")) {
+					String className = name.replace(".class", "");
+					entry.task = POOL.submit(() -> {
+						long instrumentStart = System.nanoTime();
+						try {
+							return instrument(inBuffer, className);
+						} finally {
+							instrumentNanos.addAndGet(System.nanoTime() - instrumentStart);
+						}
+					});
+					timings.classes++;
+				} else {
+					entry.data = inBuffer;
+					timings.resources++;
 				}
+				pending.add(entry);
+				if (pending.size() >= MAX_PENDING) {
+					write(zos, pending.poll(), timings);
+				}
+			}
+			while (!pending.isEmpty()) {
+				write(zos, pending.poll(), timings);
+			}
+		} finally {
+			for (Entry entry : pending) {
+				if (entry.task != null) {
+					entry.task.cancel(false);
+				}
+			}
+		}
+		timings.instrumentNanos = instrumentNanos.get();
+		timings.totalNanos = System.nanoTime() - start;
+		return timings;
+	}
+
+	private static void write(ZipOutputStream zos, Entry entry, Timings timings) throws IOException {
+		byte[] outBuffer = entry.data;
+		if (entry.task != null) {
+			try {
+				outBuffer = entry.task.get();
+			} catch (ExecutionException e) {
+				// The class is left out, as dx would fail on it anyway
+				e.getCause().printStackTrace();
+				return;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
 			}
 		}
+		long writeStart = System.nanoTime();
+		CRC32 crc = new CRC32();
+		crc.update(outBuffer);
+		ZipEntry zipEntry = new ZipEntry(entry.name);
+		zipEntry.setMethod(ZipEntry.STORED);
+		zipEntry.setSize(outBuffer.length);
+		zipEntry.setCompressedSize(outBuffer.length);
+		zipEntry.setCrc(crc.getValue());
+		zos.putNextEntry(zipEntry);
+		zos.write(outBuffer);
+		zos.closeEntry();
+		timings.writeNanos += System.nanoTime() - writeStart;
+	}
+
+	/**
+	 * An entry of the output jar, either the data of a resource or the instrumentation of a class
+	 */
+	private static class Entry {
+		final String name;
+		byte[] data;
+		ForkJoinTask<byte[]> task;
+
+		Entry(String name) {
+			this.name = name;
+		}
+	}
+
+	/**
+	 * Time spent patching a jar. Instrumentation time is summed over all workers.
+	 */
+	public static class Timings {
+		public long readNanos;
+		public long instrumentNanos;
+		public long writeNanos;
+		public long totalNanos;
+		public int classes;
+		public int resources;
+
+		@Override
+		public String toString() {
+			return classes + " classes, " + resources + " resources: read " + readNanos / 1000000
+					+ " ms, instrument " + instrumentNanos / 1000000
+					+ " ms, write " + writeNanos / 1000000
+					+ " ms, total " + totalNanos / 1000000 + " ms";
+		}
 	}
 }
@@ -28,6 +28,7 @@ import org.microemu.microedition.io.ConnectionImplementation;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -35,17 +36,45 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.zip.GZIPInputStream;
 
 import javax.microedition.io.HttpConnection;
+import javax.microedition.util.ContextHolder;
 
+/**
+ * HTTP connection over the platform URLConnection.
+ * <p>
+ * Closing a connection closes its response stream instead of disconnecting,
+ * so that the socket goes back to the platform keep-alive pool of its host.
+ * GET responses go through the {@link HttpCache}, and gzip transfer can be
+ * enabled with {@link #setGzipEnabled(boolean)}: the body is then decoded
+ * before the MIDlet sees it, together with headers describing it decoded.
+ */
 public class Connection implements HttpConnection, ConnectionImplementation {
 
+	private static final long CACHE_SIZE = 8 * 1024 * 1024;
+	private static final int CACHE_ENTRIES = 512;
+
 	protected URLConnection cn;
 
 	protected boolean connected = false;
 
 	protected static boolean allowNetworkConnection = true;
 
+	private static boolean gzipEnabled;
+
+	private static HttpCache cache;
+	private static boolean cacheInitialized;
+
+	private Response response;
+	private InputStream input;
+	private boolean outputOpened;
+	// The MIDlet set request headers the response may depend on
+	private boolean privateRequest;
+	private boolean decodeGzip;
+	private HttpCache.Entry cachedEntry;
+	private long storedExpiration = -1;
+
 	@Override
 	public javax.microedition.io.Connection openConnection(String name, int mode, boolean timeouts) throws IOException {
 		if (!isAllowNetworkConnection()) {
@@ -59,7 +88,8 @@ public class Connection implements HttpConnection, ConnectionImplementation {
 		}
 		cn = url.openConnection();
 		// Add encoding info to the header
-		cn.setRequestProperty("Accept-Encoding", "identity");
+		decodeGzip = isGzipEnabled();
+		cn.setRequestProperty("Accept-Encoding", decodeGzip ? "gzip" : "identity");
 		// J2ME do not follow redirects. Test this url
 		// http://www.microemu.org/test/r/
 		if (cn instanceof HttpURLConnection) {
@@ -68,14 +98,91 @@ public class Connection implements HttpConnection, ConnectionImplementation {
 		return this;
 	}
 
+	/**
+	 * Send the request, or answer it from the cache, and read the response headers.
+	 */
+	protected void connect() throws IOException {
+		if (cn == null) {
+			throw new IOException();
+		}
+		if (response != null) {
+			return;
+		}
+		connected = true;
+		HttpCache cache = isCacheable() ? getCache() : null;
+		String url = cn.getURL().toString();
+		HttpCache.Entry entry = null;
+		if (cache != null) {
+			entry = cache.get(url);
+			if (entry != null && entry.isFresh()) {
+				cache.countHit();
+				cachedEntry = entry;
+				response = entry.response;
+				return;
+			}
+			if (entry != null && entry.lastModified > 0) {
+				cn.setRequestProperty("If-Modified-Since", HttpCache.formatDate(entry.lastModified));
+			} else {
+				entry = null;
+			}
+		}
+		Response live = Response.read(cn);
+		if (entry != null && live.code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			cache.refresh(entry, live);
+			release();
+			cachedEntry = entry;
+			response = entry.response;
+			return;
+		}
+		decodeGzip &= "gzip".equalsIgnoreCase(live.get("content-encoding"));
+		if (decodeGzip) {
+			live = live.without("content-encoding", "content-length");
+		}
+		response = live;
+		if (cache != null) {
+			storedExpiration = HttpCache.getStoredExpiration(live, System.currentTimeMillis());
+		}
+	}
+
+	private boolean isCacheable() {
+		return cn instanceof HttpURLConnection && "http".equals(cn.getURL().getProtocol())
+				&& HttpConnection.GET.equals(((HttpURLConnection) cn).getRequestMethod())
+				&& !outputOpened && !privateRequest;
+	}
+
+	/**
+	 * Give the socket of a response that was not read back to the keep-alive pool.
+	 */
+	private void release() {
+		HttpURLConnection http = (HttpURLConnection) cn;
+		try {
+			InputStream in = http.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST
+					? http.getErrorStream() : http.getInputStream();
+			if (in != null) {
+				in.close();
+			}
+		} catch (IOException e) {
+			http.disconnect();
+		}
+	}
+
 	@Override
 	public void close() throws IOException {
 		if (cn == null) {
 			return;
 		}
 
-		if (cn instanceof HttpURLConnection) {
-			((HttpURLConnection) cn).disconnect();
+		if (input != null) {
+			try {
+				input.close();
+			} catch (IOException ignored) {
+			}
+		} else if (cn instanceof HttpURLConnection) {
+			if (response != null && cachedEntry == null) {
+				release();
+			} else if (response == null && outputOpened) {
+				((HttpURLConnection) cn).disconnect();
+			}
 		}
 
 		cn = null;
@@ -188,163 +295,104 @@ public class Connection implements HttpConnection, ConnectionImplementation {
 			throw new IOException();
 		}
 
+		switch (key.toLowerCase()) {
+			case "accept-encoding":
+				// The MIDlet decodes the body itself
+				decodeGzip = false;
+				privateRequest |= !value.trim().equalsIgnoreCase("identity");
+				break;
+			case "authorization":
+			case "cookie":
+			case "range":
+			case "if-modified-since":
+			case "if-none-match":
+				privateRequest = true;
+				break;
+		}
 		cn.setRequestProperty(key, value);
 	}
 
 	@Override
 	public int getResponseCode() throws IOException {
-		if (cn == null) {
-			throw new IOException();
-		}
-		if (!connected) {
-			cn.connect();
-			connected = true;
-		}
-
-		if (cn instanceof HttpURLConnection) {
-			return ((HttpURLConnection) cn).getResponseCode();
-		} else {
-			return -1;
-		}
+		connect();
+		return response.code;
 	}
 
 	@Override
 	public String getResponseMessage() throws IOException {
-		if (cn == null) {
-			throw new IOException();
-		}
-		if (!connected) {
-			cn.connect();
-			connected = true;
-		}
-
-		if (cn instanceof HttpURLConnection) {
-			return ((HttpURLConnection) cn).getResponseMessage();
-		} else {
-			return null;
-		}
+		connect();
+		return response.message;
 	}
 
 	@Override
 	public long getExpiration() throws IOException {
-		if (cn == null) {
-			throw new IOException();
-		}
-		if (!connected) {
-			cn.connect();
-			connected = true;
-		}
-
-		return cn.getExpiration();
+		connect();
+		return response.getDate("expires", 0);
 	}
 
 	@Override
 	public long getDate() throws IOException {
-		if (cn == null) {
-			throw new IOException();
-		}
-		if (!connected) {
-			cn.connect();
-			connected = true;
-		}
-
-		return cn.getDate();
+		connect();
+		return response.getDate("date", 0);
 	}
 
 	@Override
 	public long getLastModified() throws IOException {
-		if (cn == null) {
-			throw new IOException();
-		}
-		if (!connected) {
-			cn.connect();
-			connected = true;
-		}
-
-		return cn.getLastModified();
+		connect();
+		return response.getDate("last-modified", 0);
 	}
 
 	@Override
 	public String getHeaderField(String name) throws IOException {
-		if (cn == null) {
-			throw new IOException();
-		}
-		if (!connected) {
-			cn.connect();
-			connected = true;
-		}
-
-		return cn.getHeaderField(name);
+		connect();
+		return response.get(name);
 	}
 
 	@Override
 	public int getHeaderFieldInt(String name, int def) throws IOException {
-		if (cn == null) {
-			throw new IOException();
-		}
-		if (!connected) {
-			cn.connect();
-			connected = true;
-		}
-
-		return cn.getHeaderFieldInt(name, def);
+		connect();
+		return response.getInt(name, def);
 	}
 
 	@Override
 	public long getHeaderFieldDate(String name, long def) throws IOException {
-		if (cn == null) {
-			throw new IOException();
-		}
-		if (!connected) {
-			cn.connect();
-			connected = true;
-		}
-
-		return cn.getHeaderFieldDate(name, def);
+		connect();
+		return response.getDate(name, def);
 	}
 
 	@Override
 	public String getHeaderField(int n) throws IOException {
-		if (cn == null) {
-			throw new IOException();
-		}
-		if (!connected) {
-			cn.connect();
-			connected = true;
-		}
-
-		return cn.getHeaderField(getImplIndex(n));
+		connect();
+		return response.getValue(n);
 	}
 
 	@Override
 	public String getHeaderFieldKey(int n) throws IOException {
-		if (cn == null) {
-			throw new IOException();
-		}
-		if (!connected) {
-			cn.connect();
-			connected = true;
-		}
-
-		return cn.getHeaderFieldKey(getImplIndex(n));
-	}
-
-	private int getImplIndex(int index) {
-		if (cn.getHeaderFieldKey(0) == null && cn.getHeaderField(0) != null) {
-			index++;
-		}
-		return index;
+		connect();
+		return response.getKey(n);
 	}
 
 	@Override
 	public InputStream openInputStream() throws IOException {
-		if (cn == null) {
-			throw new IOException();
+		connect();
+		if (input == null) {
+			input = openBody();
 		}
+		return input;
+	}
 
-		connected = true;
-
-		return cn.getInputStream();
+	private InputStream openBody() throws IOException {
+		if (cachedEntry != null) {
+			return cachedEntry.openBody();
+		}
+		InputStream in = cn.getInputStream();
+		if (decodeGzip) {
+			in = new GZIPInputStream(in);
+		}
+		if (storedExpiration >= 0) {
+			in = getCache().store(cn.getURL().toString(), response, storedExpiration, in);
+		}
+		return in;
 	}
 
 	@Override
@@ -359,6 +407,7 @@ public class Connection implements HttpConnection, ConnectionImplementation {
 		}
 
 		connected = true;
+		outputOpened = true;
 
 		return cn.getOutputStream();
 	}
@@ -403,4 +452,38 @@ public class Connection implements HttpConnection, ConnectionImplementation {
 		Connection.allowNetworkConnection = allowNetworkConnection;
 	}
 
+	public static synchronized boolean isGzipEnabled() {
+		return gzipEnabled;
+	}
+
+	/**
+	 * Ask servers for gzip encoded responses and decode them for the MIDlet.
+	 * Off by default. Requests whose Accept-Encoding is set by the MIDlet are left alone.
+	 */
+	public static synchronized void setGzipEnabled(boolean gzipEnabled) {
+		Connection.gzipEnabled = gzipEnabled;
+	}
+
+	/**
+	 * @return the cache of GET responses, by default in the application cache directory, or null if there is none
+	 */
+	public static synchronized HttpCache getCache() {
+		if (!cacheInitialized) {
+			cacheInitialized = true;
+			File dir = ContextHolder.getAppContext() != null ? ContextHolder.getCacheDir() : null;
+			if (dir != null) {
+				cache = new HttpCache(new File(dir, "http"), CACHE_SIZE, CACHE_ENTRIES);
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * Replace the cache of GET responses, null disables caching.
+	 */
+	public static synchronized void setCache(HttpCache cache) {
+		Connection.cache = cache;
+		cacheInitialized = true;
+	}
+
 }
@@ -0,0 +1,479 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.microemu.cldc.http;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Responses to GET requests kept on disk, keyed by URL.
+ * <p>
+ * A response is stored if it can be revalidated with its Last-Modified date or
+ * stays fresh for a while, according to Cache-Control max-age or Expires. Fresh
+ * responses are served without a request, stale ones are revalidated with
+ * If-Modified-Since. Each entry is a single file: the expiration date, the
+ * status and headers, then the body. Entries are written to a temporary file
+ * while the MIDlet reads the body and only replace the previous entry once the
+ * whole body has been read. They are evicted least recently used first once the
+ * cache grows past its size or entry limits.
+ */
+public class HttpCache {
+	private static final String TAG = HttpCache.class.getName();
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final int VERSION = 1;
+	// Offset of the expiration date in an entry file, after the version
+	private static final int EXPIRES_OFFSET = 4;
+	private static final int BUFFER_SIZE = 8192;
+
+	private final File cacheDir;
+	private final long maxSize;
+	private final int maxEntries;
+	private final long maxEntrySize;
+
+	private int hits;
+	private int revalidations;
+	private int misses;
+	private int stores;
+
+	public HttpCache(File cacheDir, long maxSize, int maxEntries) {
+		this.cacheDir = cacheDir;
+		this.maxSize = maxSize;
+		this.maxEntries = maxEntries;
+		this.maxEntrySize = maxSize / 8;
+	}
+
+	/**
+	 * @return the entry of a URL, fresh or not, or null if there is none
+	 */
+	public Entry get(String url) {
+		File file = getFile(url);
+		if (!file.isFile()) {
+			countMiss();
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			Entry entry = readHeader(in, file);
+			if (!entry.url.equals(url)) {
+				countMiss();
+				return null;
+			}
+			file.setLastModified(System.currentTimeMillis());
+			return entry;
+		} catch (IOException e) {
+			Log.w(TAG, "Can't read " + file, e);
+			file.delete();
+			countMiss();
+			return null;
+		}
+	}
+
+	/**
+	 * Count a fresh entry served without a request.
+	 */
+	synchronized void countHit() {
+		hits++;
+	}
+
+	private synchronized void countMiss() {
+		misses++;
+	}
+
+	/**
+	 * Keep serving an entry after the server answered 304 Not Modified.
+	 */
+	void refresh(Entry entry, Response notModified) {
+		long expires = getExpiration(notModified, System.currentTimeMillis());
+		synchronized (this) {
+			revalidations++;
+		}
+		if (expires < 0) {
+			return;
+		}
+		try (RandomAccessFile file = new RandomAccessFile(entry.file, "rw")) {
+			file.seek(EXPIRES_OFFSET);
+			file.writeLong(expires);
+		} catch (IOException e) {
+			Log.w(TAG, "Can't refresh " + entry.file, e);
+		}
+	}
+
+	/**
+	 * @return the time until which a response may be served without revalidation,
+	 * 0 if it must always be revalidated, or -1 if it must not be stored at all
+	 */
+	static long getExpiration(Response response, long now) {
+		String cacheControl = response.get("cache-control");
+		if (cacheControl != null) {
+			for (String directive : cacheControl.toLowerCase(Locale.US).split(",")) {
+				directive = directive.trim();
+				if (directive.equals("no-store")) {
+					return -1;
+				} else if (directive.equals("no-cache") || directive.equals("must-revalidate")) {
+					return 0;
+				} else if (directive.startsWith("max-age=")) {
+					try {
+						return now + Long.parseLong(directive.substring(8).trim()) * 1000;
+					} catch (NumberFormatException e) {
+						return 0;
+					}
+				}
+			}
+		}
+		String pragma = response.get("pragma");
+		if (pragma != null && pragma.toLowerCase(Locale.US).contains("no-cache")) {
+			return 0;
+		}
+		return Math.max(response.getDate("expires", 0), 0);
+	}
+
+	/**
+	 * @return the expiration to store a response to a GET request with, or -1 if it is not worth storing
+	 */
+	static long getStoredExpiration(Response response, long now) {
+		if (response.code != HttpURLConnection.HTTP_OK) {
+			return -1;
+		}
+		String vary = response.get("vary");
+		if (vary != null && !vary.trim().equalsIgnoreCase("accept-encoding")) {
+			return -1;
+		}
+		long expires = getExpiration(response, now);
+		if (expires < 0 || (expires <= now && response.getDate("last-modified", 0) <= 0)) {
+			return -1;
+		}
+		return expires;
+	}
+
+	/**
+	 * @return a stream over body, storing the response as the entry of the URL once it has been read to the end
+	 */
+	InputStream store(String url, Response response, long expires, InputStream body) {
+		File temp;
+		DataOutputStream out;
+		try {
+			cacheDir.mkdirs();
+			temp = File.createTempFile(getKey(url), TEMP_SUFFIX, cacheDir);
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE));
+		} catch (IOException e) {
+			Log.w(TAG, "Can't cache " + url, e);
+			return body;
+		}
+		try {
+			out.writeInt(VERSION);
+			out.writeLong(expires);
+			out.writeLong(response.getDate("last-modified", 0));
+			out.writeUTF(url);
+			out.writeInt(response.code);
+			out.writeUTF(response.message != null ? response.message : "");
+			out.writeInt(response.keys.length);
+			for (int i = 0; i < response.keys.length; i++) {
+				out.writeUTF(response.keys[i]);
+				out.writeUTF(response.values[i]);
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "Can't cache " + url, e);
+			closeQuietly(out);
+			temp.delete();
+			return body;
+		}
+		return new StoringInputStream(body, out, temp, getFile(url));
+	}
+
+	private void commit(File temp, File file) {
+		file.delete();
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			return;
+		}
+		synchronized (this) {
+			stores++;
+		}
+		trim();
+	}
+
+	/**
+	 * Delete the least recently used entries until the cache is within its limits.
+	 */
+	public synchronized void trim() {
+		File[] entries = cacheDir.listFiles();
+		if (entries == null) {
+			return;
+		}
+		long[] lastUsed = new long[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			lastUsed[i] = entries[i].lastModified();
+		}
+		Integer[] order = new Integer[entries.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		// Most recently used first
+		Arrays.sort(order, (a, b) -> Long.compare(lastUsed[b], lastUsed[a]));
+		long size = 0;
+		int count = 0;
+		boolean full = false;
+		for (int i : order) {
+			File entry = entries[i];
+			if (entry.getName().endsWith(TEMP_SUFFIX)) {
+				continue;
+			}
+			long entrySize = entry.length();
+			full |= count == maxEntries || size + entrySize > maxSize;
+			if (!full) {
+				size += entrySize;
+				count++;
+			} else {
+				entry.delete();
+			}
+		}
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getRevalidations() {
+		return revalidations;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	public synchronized int getStores() {
+		return stores;
+	}
+
+	static String formatDate(long time) {
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format.format(new Date(time));
+	}
+
+	private File getFile(String url) {
+		return new File(cacheDir, getKey(url));
+	}
+
+	private static String getKey(String url) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		byte[] hash = digest.digest(url.getBytes(StandardCharsets.UTF_8));
+		StringBuilder key = new StringBuilder(hash.length * 2);
+		for (byte b : hash) {
+			key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return key.toString();
+	}
+
+	private static Entry readHeader(DataInputStream in, File file) throws IOException {
+		if (in.readInt() != VERSION) {
+			throw new IOException("Unknown version");
+		}
+		long expires = in.readLong();
+		long lastModified = in.readLong();
+		String url = in.readUTF();
+		int code = in.readInt();
+		String message = in.readUTF();
+		int count = in.readInt();
+		String[] keys = new String[count];
+		String[] values = new String[count];
+		for (int i = 0; i < count; i++) {
+			keys[i] = in.readUTF();
+			values[i] = in.readUTF();
+		}
+		return new Entry(file, url, expires, lastModified, new Response(code, message, keys, values));
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException ignored) {
+		}
+	}
+
+	/**
+	 * A stored response.
+	 */
+	public static class Entry {
+		final File file;
+		final String url;
+		final long expires;
+		final long lastModified;
+		final Response response;
+
+		Entry(File file, String url, long expires, long lastModified, Response response) {
+			this.file = file;
+			this.url = url;
+			this.expires = expires;
+			this.lastModified = lastModified;
+			this.response = response;
+		}
+
+		public boolean isFresh() {
+			return expires > System.currentTimeMillis();
+		}
+
+		/**
+		 * @return the body, positioned after the header of the entry file
+		 */
+		InputStream openBody() throws IOException {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				readHeader(in, file);
+			} catch (IOException e) {
+				in.close();
+				throw e;
+			}
+			return in;
+		}
+	}
+
+	/**
+	 * Copies what is read into an entry file, committed at the end of the body,
+	 * dropped if the stream is closed before or the body grows too large.
+	 */
+	private class StoringInputStream extends FilterInputStream {
+		private DataOutputStream out;
+		private final File temp;
+		private final File file;
+		private long size;
+
+		StoringInputStream(InputStream in, DataOutputStream out, File temp, File file) {
+			super(in);
+			this.out = out;
+			this.temp = temp;
+			this.file = file;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b < 0) {
+				finish(true);
+			} else if (out != null) {
+				store(b);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n < 0) {
+				finish(true);
+			} else if (n > 0 && out != null) {
+				store(b, off, n);
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			// Skipped bytes can't be stored
+			finish(false);
+			return super.skip(n);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			finish(false);
+			super.close();
+		}
+
+		private void store(int b) {
+			if (!reserve(1)) {
+				return;
+			}
+			try {
+				out.write(b);
+			} catch (IOException e) {
+				Log.w(TAG, "Can't cache " + file, e);
+				finish(false);
+			}
+		}
+
+		private void store(byte[] b, int off, int len) {
+			if (!reserve(len)) {
+				return;
+			}
+			try {
+				out.write(b, off, len);
+			} catch (IOException e) {
+				Log.w(TAG, "Can't cache " + file, e);
+				finish(false);
+			}
+		}
+
+		/**
+		 * Count len more bytes, or give up the entry if it gets too large.
+		 */
+		private boolean reserve(int len) {
+			size += len;
+			if (size > maxEntrySize) {
+				finish(false);
+				return false;
+			}
+			return true;
+		}
+
+		private void finish(boolean complete) {
+			if (out == null) {
+				return;
+			}
+			try {
+				out.close();
+			} catch (IOException e) {
+				complete = false;
+			}
+			out = null;
+			if (complete) {
+				commit(temp, file);
+			} else {
+				temp.delete();
+			}
+		}
+	}
+}
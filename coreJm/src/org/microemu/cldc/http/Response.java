@@ -0,0 +1,130 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.microemu.cldc.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Date;
+
+/**
+ * Status and header fields of a response, read once from the connection or the cache.
+ * The status line is not a header field.
+ */
+class Response {
+	final int code;
+	final String message;
+	final String[] keys;
+	final String[] values;
+
+	Response(int code, String message, String[] keys, String[] values) {
+		this.code = code;
+		this.message = message;
+		this.keys = keys;
+		this.values = values;
+	}
+
+	/**
+	 * Send the request if it has not been sent yet, and read the response headers.
+	 */
+	static Response read(URLConnection cn) throws IOException {
+		int code = -1;
+		String message = null;
+		if (cn instanceof HttpURLConnection) {
+			HttpURLConnection http = (HttpURLConnection) cn;
+			code = http.getResponseCode();
+			message = http.getResponseMessage();
+		} else {
+			cn.connect();
+		}
+		ArrayList<String> keys = new ArrayList<>();
+		ArrayList<String> values = new ArrayList<>();
+		String value;
+		for (int i = 0; (value = cn.getHeaderField(i)) != null; i++) {
+			String key = cn.getHeaderFieldKey(i);
+			if (key != null) {
+				keys.add(key);
+				values.add(value);
+			}
+		}
+		return new Response(code, message, keys.toArray(new String[0]), values.toArray(new String[0]));
+	}
+
+	/**
+	 * @return these headers without the given fields
+	 */
+	Response without(String... names) {
+		ArrayList<String> keys = new ArrayList<>();
+		ArrayList<String> values = new ArrayList<>();
+		outer:
+		for (int i = 0; i < this.keys.length; i++) {
+			for (String name : names) {
+				if (name.equalsIgnoreCase(this.keys[i])) {
+					continue outer;
+				}
+			}
+			keys.add(this.keys[i]);
+			values.add(this.values[i]);
+		}
+		return new Response(code, message, keys.toArray(new String[0]), values.toArray(new String[0]));
+	}
+
+	/**
+	 * @return the last value of a field, like URLConnection does
+	 */
+	String get(String name) {
+		for (int i = keys.length - 1; i >= 0; i--) {
+			if (name.equalsIgnoreCase(keys[i])) {
+				return values[i];
+			}
+		}
+		return null;
+	}
+
+	String getKey(int n) {
+		return n >= 0 && n < keys.length ? keys[n] : null;
+	}
+
+	String getValue(int n) {
+		return n >= 0 && n < values.length ? values[n] : null;
+	}
+
+	int getInt(String name, int def) {
+		String value = get(name);
+		if (value == null) {
+			return def;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return def;
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	long getDate(String name, long def) {
+		String value = get(name);
+		if (value == null) {
+			return def;
+		}
+		try {
+			return Date.parse(value);
+		} catch (IllegalArgumentException e) {
+			return def;
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.microemu.cldc.sensor;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.os.SystemClock;
+
+import javax.microedition.util.ContextHolder;
+
+/**
+ * Samples of a device sensor.
+ */
+class AndroidSensorSource implements SensorSource, SensorEventListener {
+	private final android.hardware.SensorManager sensorManager;
+	private final Sensor sensor;
+	private Connection connection;
+	// Event times are nanoseconds since boot, this makes them wall clock nanoseconds
+	private long bootTime;
+
+	AndroidSensorSource(int type) {
+		sensorManager = (android.hardware.SensorManager) ContextHolder.getAppContext().getSystemService(Context.SENSOR_SERVICE);
+		sensor = sensorManager.getDefaultSensor(type);
+	}
+
+	@Override
+	public void start(Connection connection) {
+		this.connection = connection;
+		bootTime = System.currentTimeMillis() * 1000000L - SystemClock.elapsedRealtimeNanos();
+		sensorManager.registerListener(this, sensor, android.hardware.SensorManager.SENSOR_DELAY_GAME);
+	}
+
+	@Override
+	public void stop() {
+		sensorManager.unregisterListener(this);
+	}
+
+	@Override
+	public void onSensorChanged(SensorEvent event) {
+		connection.onSample((event.timestamp + bootTime) / 1000000L, event.values);
+	}
+
+	@Override
+	public void onAccuracyChanged(Sensor sensor, int accuracy) {
+
+	}
+}
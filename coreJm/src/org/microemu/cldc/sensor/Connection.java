@@ -16,15 +16,10 @@
 
 package org.microemu.cldc.sensor;
 
-import android.content.Context;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-
 import org.microemu.microedition.io.ConnectionImplementation;
 
 import java.io.IOException;
-import java.util.Arrays;
+import java.io.InterruptedIOException;
 
 import javax.microedition.sensor.AndroidSensorManager;
 import javax.microedition.sensor.Channel;
@@ -36,23 +31,52 @@ import javax.microedition.sensor.DataListener;
 import javax.microedition.sensor.SensorConnection;
 import javax.microedition.sensor.SensorInfo;
 import javax.microedition.sensor.SensorManager;
-import javax.microedition.util.ContextHolder;
 
-public class Connection implements SensorConnection, ConnectionImplementation, SensorEventListener {
+/**
+ * A sensor connection buffering the samples of its source in a ring of
+ * {@link SensorInfo#getMaxBufferSize()} samples, with the values of each
+ * channel and the timestamps in primitive arrays.
+ * <p>
+ * Data is handed out when bufferSize samples have arrived or bufferingPeriod
+ * milliseconds have passed since the first of them, whichever comes first.
+ * The {@link Data} objects and their arrays are reused: the data of a
+ * delivery stays valid until the next but one delivery.
+ */
+public class Connection implements SensorConnection, ConnectionImplementation {
+	private static SensorSource defaultSource;
 
 	private SensorInfo sensorInfo;
 	private ChannelInfo[] channelInfos;
+	private Channel[] channels;
+	private int dataLength;
+	private volatile int state;
+	private SensorSource source;
+	private boolean sourceRunning;
+
 	private DataListener listener;
 	private int bufferSize;
-	private int eventsNum;
-	private int state;
-	private int dataLength;
-	private Data[] data;
-	private Channel[] channels;
+	private long bufferingPeriod;
+	private boolean timestampIncluded;
+
+	// Ring of the last samples: values by channel, then sample
+	private float[][] values;
 	private long[] timestamps;
+	private int capacity;
+	private int head;
+	// Samples since the last delivery, at most capacity
+	private int pending;
+	private boolean dataLost;
 
-	private android.hardware.SensorManager sensorManager;
-	private Sensor sensor;
+	private final Batch[] batches = new Batch[2];
+	private int nextBatch;
+
+	/**
+	 * Feed connections opened from now on with this source instead of the
+	 * device sensor, for instance a {@link ReplaySource}. Null restores the device sensor.
+	 */
+	public static synchronized void setSource(SensorSource source) {
+		defaultSource = source;
+	}
 
 	@Override
 	public javax.microedition.io.Connection openConnection(String name, int mode, boolean timeouts) throws IOException {
@@ -62,18 +86,24 @@ public class Connection implements SensorConnection, ConnectionImplementation, S
 		}
 		sensorInfo = sensorInfos[0];
 		channelInfos = sensorInfo.getChannelInfos();
-		dataLength = sensorInfo.getChannelInfos().length;
-		data = new Data[dataLength];
+		dataLength = channelInfos.length;
 		channels = new Channel[dataLength];
 		for (int i = 0; i < dataLength; i++) {
-			data[i] = new DataImpl(channelInfos[i]);
 			channels[i] = new ChannelImpl(channelInfos[i]);
 		}
-		timestamps = new long[dataLength];
+		capacity = sensorInfo.getMaxBufferSize();
+		values = new float[dataLength][capacity];
+		timestamps = new long[capacity];
+		for (int i = 0; i < batches.length; i++) {
+			batches[i] = new Batch(channelInfos);
+		}
 
-		sensorManager = (android.hardware.SensorManager) ContextHolder.getAppContext().getSystemService(Context.SENSOR_SERVICE);
-		int type = AndroidSensorManager.getSensorType(sensorInfo.getQuantity());
-		sensor = sensorManager.getDefaultSensor(type);
+		synchronized (Connection.class) {
+			source = defaultSource;
+		}
+		if (source == null) {
+			source = new AndroidSensorSource(AndroidSensorManager.getSensorType(sensorInfo.getQuantity()));
+		}
 		state = STATE_OPENED;
 		return this;
 	}
@@ -93,6 +123,9 @@ public class Connection implements SensorConnection, ConnectionImplementation, S
 		return getData(bufferSize, -1, false, false, false);
 	}
 
+	/**
+	 * Block until bufferSize new samples have arrived or bufferingPeriod has passed.
+	 */
 	@Override
 	public Data[] getData(int bufferSize, long bufferingPeriod, boolean isTimestampIncluded,
 						  boolean isUncertaintyIncluded, boolean isValidityIncluded) throws IOException {
@@ -102,7 +135,34 @@ public class Connection implements SensorConnection, ConnectionImplementation, S
 		if (state == STATE_LISTENING) {
 			throw new IllegalStateException();
 		}
-		return data;
+		bufferSize = checkBufferSize(bufferSize, bufferingPeriod);
+		synchronized (this) {
+			pending = 0;
+			dataLost = false;
+			startSource();
+			try {
+				long deadline = bufferingPeriod > 0 ? System.currentTimeMillis() + bufferingPeriod : 0;
+				while (pending < bufferSize && state == STATE_OPENED) {
+					if (deadline == 0) {
+						wait();
+					} else {
+						long remaining = deadline - System.currentTimeMillis();
+						if (remaining <= 0) {
+							break;
+						}
+						wait(remaining);
+					}
+				}
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			} finally {
+				stopSource();
+			}
+			if (state == STATE_CLOSED) {
+				throw new IOException();
+			}
+			return takePending(Math.min(pending, bufferSize), isTimestampIncluded);
+		}
 	}
 
 	@Override
@@ -130,9 +190,11 @@ public class Connection implements SensorConnection, ConnectionImplementation, S
 		if (state == STATE_CLOSED) {
 			throw new IllegalStateException();
 		}
-		listener = null;
-		sensorManager.unregisterListener(this);
-		state = STATE_OPENED;
+		synchronized (this) {
+			listener = null;
+			stopSource();
+			state = STATE_OPENED;
+		}
 	}
 
 	@Override
@@ -145,51 +207,186 @@ public class Connection implements SensorConnection, ConnectionImplementation, S
 		if (state == STATE_CLOSED) {
 			throw new IllegalStateException();
 		}
+		if (listener == null) {
+			throw new NullPointerException();
+		}
+		bufferSize = checkBufferSize(bufferSize, bufferingPeriod);
+		synchronized (this) {
+			this.listener = listener;
+			this.bufferSize = bufferSize;
+			this.bufferingPeriod = bufferingPeriod;
+			this.timestampIncluded = isTimestampIncluded;
+			pending = 0;
+			dataLost = false;
+			state = STATE_LISTENING;
+			startSource();
+		}
+	}
+
+	private int checkBufferSize(int bufferSize, long bufferingPeriod) {
 		if ((bufferSize < 1 && bufferingPeriod < 1) || bufferSize > sensorInfo.getMaxBufferSize()) {
 			throw new IllegalArgumentException();
 		}
 		if (bufferSize < 1) {
 			bufferSize = sensorInfo.getMaxBufferSize();
 		}
-		this.listener = listener;
-		this.bufferSize = bufferSize;
-		sensorManager.registerListener(this, sensor, android.hardware.SensorManager.SENSOR_DELAY_GAME);
-		state = STATE_LISTENING;
+		return bufferSize;
 	}
 
 	@Override
 	public void close() throws IOException {
-		state = STATE_CLOSED;
+		synchronized (this) {
+			state = STATE_CLOSED;
+			listener = null;
+			stopSource();
+			notifyAll();
+		}
 	}
 
-	@Override
-	public void onSensorChanged(SensorEvent event) {
-		if (listener != null) {
-			eventsNum++;
-			if (eventsNum >= bufferSize) {
-				Arrays.fill(timestamps, event.timestamp);
-				for (int i = 0; i < dataLength; i++) {
-					float value = event.values[i] * channelInfos[i].getScale();
-					if (channelInfos[i].getDataType() == ChannelInfo.TYPE_DOUBLE) {
-						data[i] = new DataImpl(channelInfos[i], new double[]{value}, timestamps);
-					} else if (channelInfos[i].getDataType() == ChannelInfo.TYPE_INT) {
-						data[i] = new DataImpl(channelInfos[i], new int[]{(int) value}, timestamps);
-					} else {
-						data[i] = new DataImpl(channelInfos[i], new Object[]{value}, timestamps);
-					}
-				}
-				try {
-					listener.dataReceived(this, data, false);
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
-				eventsNum = 0;
+	private void startSource() {
+		if (!sourceRunning) {
+			sourceRunning = true;
+			source.start(this);
+		}
+	}
+
+	private void stopSource() {
+		if (sourceRunning) {
+			sourceRunning = false;
+			source.stop();
+		}
+	}
+
+	/**
+	 * Add a sample to the ring, and deliver the pending samples to the listener when due.
+	 *
+	 * @param timestamp the time of the sample in milliseconds
+	 * @param sample    the raw value of each channel, not kept
+	 */
+	void onSample(long timestamp, float[] sample) {
+		DataListener listener;
+		Data[] data;
+		boolean lost;
+		synchronized (this) {
+			if (state == STATE_CLOSED) {
+				return;
+			}
+			int count = Math.min(sample.length, dataLength);
+			for (int i = 0; i < count; i++) {
+				values[i][head] = sample[i];
 			}
+			timestamps[head] = timestamp;
+			head = (head + 1) % capacity;
+			if (pending < capacity) {
+				pending++;
+			} else {
+				dataLost = true;
+			}
+			notifyAll();
+
+			listener = this.listener;
+			if (listener == null) {
+				return;
+			}
+			long first = timestamps[(head - pending + capacity) % capacity];
+			if (pending < bufferSize && (bufferingPeriod < 1 || timestamp - first < bufferingPeriod)) {
+				return;
+			}
+			lost = dataLost;
+			data = takePending(Math.min(pending, bufferSize), timestampIncluded);
+		}
+		try {
+			listener.dataReceived(this, data, lost);
+		} catch (Exception e) {
+			e.printStackTrace();
 		}
 	}
 
-	@Override
-	public void onAccuracyChanged(Sensor sensor, int accuracy) {
+	/**
+	 * Copy the last count samples of the ring into the next batch of reused views.
+	 */
+	private Data[] takePending(int count, boolean timestampIncluded) {
+		Batch batch = batches[nextBatch];
+		nextBatch = (nextBatch + 1) % batches.length;
+		int start = (head - count + capacity) % capacity;
+		batch.fill(values, timestamps, start, count, timestampIncluded);
+		pending = 0;
+		dataLost = false;
+		return batch.data;
+	}
 
+	/**
+	 * Data views over arrays reused as long as the number of samples does not change.
+	 */
+	private static final class Batch {
+		final ChannelInfo[] channelInfos;
+		final DataImpl[] data;
+		final double[][] doubleValues;
+		final int[][] intValues;
+		final Object[][] objectValues;
+		long[] timestamps = new long[0];
+
+		Batch(ChannelInfo[] channelInfos) {
+			int length = channelInfos.length;
+			this.channelInfos = channelInfos;
+			data = new DataImpl[length];
+			doubleValues = new double[length][0];
+			intValues = new int[length][0];
+			objectValues = new Object[length][0];
+			for (int i = 0; i < length; i++) {
+				data[i] = new DataImpl(channelInfos[i]);
+			}
+		}
+
+		void fill(float[][] values, long[] ringTimestamps, int start, int count, boolean timestampIncluded) {
+			int capacity = ringTimestamps.length;
+			if (timestamps.length != count) {
+				timestamps = new long[count];
+			}
+			for (int j = 0; j < count; j++) {
+				timestamps[j] = ringTimestamps[(start + j) % capacity];
+			}
+			long[] times = timestampIncluded ? timestamps : null;
+			for (int i = 0; i < channelInfos.length; i++) {
+				ChannelInfo info = channelInfos[i];
+				int scale = info.getScale();
+				float[] channel = values[i];
+				switch (info.getDataType()) {
+					case ChannelInfo.TYPE_DOUBLE: {
+						double[] out = doubleValues[i];
+						if (out.length != count) {
+							out = doubleValues[i] = new double[count];
+						}
+						for (int j = 0; j < count; j++) {
+							out[j] = channel[(start + j) % capacity] * scale;
+						}
+						data[i].set(out, null, null, times);
+						break;
+					}
+					case ChannelInfo.TYPE_INT: {
+						int[] out = intValues[i];
+						if (out.length != count) {
+							out = intValues[i] = new int[count];
+						}
+						for (int j = 0; j < count; j++) {
+							out[j] = (int) (channel[(start + j) % capacity] * scale);
+						}
+						data[i].set(null, out, null, times);
+						break;
+					}
+					default: {
+						Object[] out = objectValues[i];
+						if (out.length != count) {
+							out = objectValues[i] = new Object[count];
+						}
+						for (int j = 0; j < count; j++) {
+							out[j] = channel[(start + j) % capacity] * scale;
+						}
+						data[i].set(null, null, out, times);
+						break;
+					}
+				}
+			}
+		}
 	}
 }
@@ -0,0 +1,124 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.microemu.cldc.sensor;
+
+import com.badlogic.gdx.utils.LongArray;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+
+/**
+ * Recorded samples played back instead of a device sensor, see {@link Connection#setSource(SensorSource)}.
+ * <p>
+ * Unless played in real time, all samples are fed with their recorded timestamps
+ * on the thread that starts the source, so that a run is fully reproducible.
+ */
+public class ReplaySource implements SensorSource {
+	private final long[] timestamps;
+	private final float[][] values;
+	private final boolean realTime;
+	private Thread thread;
+
+	/**
+	 * @param timestamps the time of each sample in milliseconds, ascending
+	 * @param values     the channel values of each sample
+	 * @param realTime   if true, samples are fed on their own thread, as far apart as recorded
+	 *                   and with timestamps moved to the current time
+	 */
+	public ReplaySource(long[] timestamps, float[][] values, boolean realTime) {
+		if (timestamps.length != values.length) {
+			throw new IllegalArgumentException();
+		}
+		this.timestamps = timestamps;
+		this.values = values;
+		this.realTime = realTime;
+	}
+
+	/**
+	 * Read a recording with one sample per line: the timestamp in milliseconds,
+	 * then the channel values, separated by whitespace. Empty lines and lines
+	 * starting with '#' are skipped.
+	 */
+	public static ReplaySource read(InputStream in, boolean realTime) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		LongArray times = new LongArray();
+		ArrayList<float[]> samples = new ArrayList<>();
+		String line;
+		while ((line = reader.readLine()) != null) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] fields = line.split("\\s+");
+			try {
+				long time = Long.parseLong(fields[0]);
+				float[] sample = new float[fields.length - 1];
+				for (int i = 0; i < sample.length; i++) {
+					sample[i] = Float.parseFloat(fields[i + 1]);
+				}
+				times.add(time);
+				samples.add(sample);
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid sample: " + line, e);
+			}
+		}
+		return new ReplaySource(times.toArray(), samples.toArray(new float[0][]), realTime);
+	}
+
+	@Override
+	public synchronized void start(Connection connection) {
+		if (!realTime) {
+			for (int i = 0; i < timestamps.length; i++) {
+				connection.onSample(timestamps[i], values[i]);
+			}
+			return;
+		}
+		stop();
+		thread = new Thread(() -> play(connection), "SensorReplay");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void play(Connection connection) {
+		if (timestamps.length == 0) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		long first = timestamps[0];
+		try {
+			for (int i = 0; i < timestamps.length; i++) {
+				long time = start + timestamps[i] - first;
+				long delay = time - System.currentTimeMillis();
+				if (delay > 0) {
+					Thread.sleep(delay);
+				}
+				connection.onSample(time, values[i]);
+			}
+		} catch (InterruptedException ignored) {
+		}
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+}
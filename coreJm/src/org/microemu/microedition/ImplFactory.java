@@ -28,8 +28,8 @@ package org.microemu.microedition;
 
 import org.microemu.microedition.io.ConnectorDelegate;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class allows to unbind implemenation with CLDC or MIDP declarations.
@@ -44,9 +44,12 @@ public class ImplFactory {
 
 	private static final String IMPLEMENTATION_NAME_SUFIX = "Impl";
 
-	private Map implementations = new HashMap();
+	private Map<Class<?>, Object> implementations = new ConcurrentHashMap<>();
 
-	private Map implementationsGCF = new HashMap();
+	private Map<String, ConnectorDelegate> implementationsGCF = new ConcurrentHashMap<>();
+
+	// Used for the schemes without an implementation of their own, created on first use
+	private volatile ConnectorDelegate defaultGCF;
 
 	/**
 	 * Allow default initialization. In Secure environment instance() should be
@@ -60,15 +63,15 @@ public class ImplFactory {
 		return SingletonHolder.instance;
 	}
 
-	public static void register(Class delegate, Class implementationClass) {
+	public static void register(Class<?> delegate, Class<?> implementationClass) {
 		instance().implementations.put(delegate, implementationClass);
 	}
 
-	public static void register(Class delegate, Object implementationInstance) {
+	public static void register(Class<?> delegate, Object implementationInstance) {
 		instance().implementations.put(delegate, implementationInstance);
 	}
 
-	public static void unregister(Class delegate, Class implementation) {
+	public static void unregister(Class<?> delegate, Class<?> implementation) {
 		// TODO implement
 	}
 
@@ -78,38 +81,34 @@ public class ImplFactory {
 	 * @param implementation instance of ConnectorDelegate
 	 * @param scheme
 	 */
-	public static void registerGCF(String scheme, Object implementation) {
-		if (!ConnectorDelegate.class.isAssignableFrom(implementation.getClass())) {
+	public static void registerGCF(String scheme, ConnectorDelegate implementation) {
+		if (implementation == null) {
 			throw new IllegalArgumentException();
 		}
 		if (scheme == null) {
 			scheme = DEFAULT;
 		}
-		Object impl = instance().implementationsGCF.get(scheme);
 		instance().implementationsGCF.put(scheme, implementation);
 	}
 
-	public static void unregistedGCF(String scheme, Object implementation) {
-		if (!ConnectorDelegate.class.isAssignableFrom(implementation.getClass())) {
+	public static void unregistedGCF(String scheme, ConnectorDelegate implementation) {
+		if (implementation == null) {
 			throw new IllegalArgumentException();
 		}
 		if (scheme == null) {
 			scheme = DEFAULT;
 		}
-		Object impl = instance().implementationsGCF.get(scheme);
-		if (impl == implementation) {
-			instance().implementationsGCF.remove(scheme);
-		}
+		instance().implementationsGCF.remove(scheme, implementation);
 	}
 
-	private Object getDefaultImplementation(Class delegateInterface) {
+	private <T> T getDefaultImplementation(Class<T> delegateInterface) {
 		try {
 			String name = delegateInterface.getName();
 			if (name.endsWith(INTERFACE_NAME_SUFIX)) {
 				name = name.substring(0, name.length() - INTERFACE_NAME_SUFIX.length());
 			}
 			final String implClassName = name + IMPLEMENTATION_NAME_SUFIX;
-			Class implClass = ImplFactory.class.getClassLoader().loadClass(implClassName);
+			Class<? extends T> implClass = ImplFactory.class.getClassLoader().loadClass(implClassName).asSubclass(delegateInterface);
 			try {
 				implClass.getConstructor();
 			} catch (NoSuchMethodException e) {
@@ -121,7 +120,7 @@ public class ImplFactory {
 		}
 	}
 
-	private Object implementationNewInstance(final Class implClass) {
+	private Object implementationNewInstance(final Class<?> implClass) {
 		try {
 			return implClass.newInstance();
 		} catch (Throwable e) {
@@ -142,19 +141,26 @@ public class ImplFactory {
 	 * @return
 	 */
 	public static ConnectorDelegate getCGFImplementation(String name) {
-		String scheme = getCGFScheme(name);
-		ConnectorDelegate impl = (ConnectorDelegate) instance().implementationsGCF.get(scheme);
-		if (impl != null) {
-			return impl;
+		ImplFactory factory = instance();
+		if (!factory.implementationsGCF.isEmpty()) {
+			ConnectorDelegate impl = factory.implementationsGCF.get(getCGFScheme(name));
+			if (impl != null) {
+				return impl;
+			}
+			impl = factory.implementationsGCF.get(DEFAULT);
+			if (impl != null) {
+				return impl;
+			}
 		}
-		impl = (ConnectorDelegate) instance().implementationsGCF.get(DEFAULT);
-		if (impl != null) {
-			return impl;
+		ConnectorDelegate impl = factory.defaultGCF;
+		if (impl == null) {
+			impl = factory.getDefaultImplementation(ConnectorDelegate.class);
+			factory.defaultGCF = impl;
 		}
-		return (ConnectorDelegate) instance().getDefaultImplementation(ConnectorDelegate.class);
+		return impl;
 	}
 
-	public static Implementation getImplementation(Class origClass, Class delegateInterface) {
+	public static Implementation getImplementation(Class<?> origClass, Class<?> delegateInterface) {
 		// if called from implementation constructor return null to avoid
 		// recurive calls!
 		// TODO can be done using thread stack analyse or ThreadLocal
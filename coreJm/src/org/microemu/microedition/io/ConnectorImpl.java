@@ -29,6 +29,13 @@ package org.microemu.microedition.io;
 import android.util.Log;
 
 import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.microedition.io.Connection;
 import javax.microedition.io.ConnectionNotFoundException;
@@ -37,11 +44,43 @@ import javax.microedition.io.ConnectionNotFoundException;
  * @author vlads Original MicroEmulator implementation of
  * javax.microedition.Connector
  * <p>
+ * The handler of a protocol is org.microemu.cldc.&lt;protocol&gt;.Connection unless
+ * one was registered for it. Each protocol is resolved once into a factory
+ * bound to the handler constructor, protocols without a handler are
+ * remembered as such.
+ * <p>
  * TODO integrate with ImplementationInitialization
  */
 public class ConnectorImpl extends ConnectorAdapter {
 
-	private final String TAG = ConnectorImpl.class.getName();
+	private static final String TAG = ConnectorImpl.class.getName();
+
+	private static final ConcurrentHashMap<String, Protocol> protocols = new ConcurrentHashMap<>();
+
+	/**
+	 * Open connections of a protocol with this factory instead of the built-in handler.
+	 * Meant to be called at startup, before the MIDlet opens connections of that protocol.
+	 */
+	public static void register(String protocol, ConnectionFactory factory) {
+		if (factory == null) {
+			throw new NullPointerException();
+		}
+		protocols.put(protocol, new Protocol(protocol, factory));
+	}
+
+	/**
+	 * Go back to the built-in handler of a protocol.
+	 */
+	public static void unregister(String protocol) {
+		protocols.remove(protocol);
+	}
+
+	/**
+	 * @return the protocols opened so far with their counters, by name
+	 */
+	public static Map<String, Protocol> getProtocols() {
+		return Collections.unmodifiableMap(new TreeMap<>(protocols));
+	}
 
 	@Override
 	public Connection open(final String name, final int mode, final boolean timeouts) throws IOException {
@@ -49,29 +88,121 @@ public class ConnectorImpl extends ConnectorAdapter {
 	}
 
 	private Connection openSecure(String name, int mode, boolean timeouts) throws IOException {
-		String className = null;
-		String protocol = null;
+		int colon = name.indexOf(':');
+		if (colon < 0) {
+			throw new IllegalArgumentException("No protocol in " + name);
+		}
+		Protocol protocol = getProtocol(name.substring(0, colon));
+		if (protocol.factory == null) {
+			throw new ConnectionNotFoundException("connection [" + protocol.name + "] class not found");
+		}
+		long start = System.nanoTime();
+		boolean opened = false;
 		try {
+			ConnectionImplementation impl;
 			try {
-				protocol = name.substring(0, name.indexOf(':'));
-				className = "org.microemu.cldc." + protocol + ".Connection";
-				Class cl = Class.forName(className);
-				Object inst = cl.newInstance();
-				if (inst instanceof ConnectionImplementation) {
-					return ((ConnectionImplementation) inst).openConnection(name, mode, timeouts);
-				} else {
-					throw new ClassNotFoundException();
-				}
-			} catch (ClassNotFoundException e) {
-				Log.d(TAG, "connection [" + protocol + "] class not found", e);
-				throw new ConnectionNotFoundException("connection [" + protocol + "] class not found");
+				impl = protocol.factory.create();
+			} catch (InvocationTargetException e) {
+				Log.e(TAG, "Unable to create " + protocol.name + " connection", e.getCause());
+				throw new ConnectionNotFoundException();
+			} catch (Exception e) {
+				Log.e(TAG, "Unable to create " + protocol.name + " connection", e);
+				throw new ConnectionNotFoundException();
+			}
+			Connection connection = impl.openConnection(name, mode, timeouts);
+			opened = true;
+			return connection;
+		} finally {
+			protocol.count(opened, System.nanoTime() - start);
+		}
+	}
+
+	private static Protocol getProtocol(String name) {
+		Protocol protocol = protocols.get(name);
+		if (protocol == null) {
+			protocol = new Protocol(name, resolve(name));
+			Protocol previous = protocols.putIfAbsent(name, protocol);
+			if (previous != null) {
+				protocol = previous;
+			}
+		}
+		return protocol;
+	}
+
+	/**
+	 * @return a factory bound to the built-in handler of a protocol, or null if it has none
+	 */
+	private static ConnectionFactory resolve(String protocol) {
+		String className = "org.microemu.cldc." + protocol + ".Connection";
+		try {
+			Class<?> cl = Class.forName(className);
+			if (!ConnectionImplementation.class.isAssignableFrom(cl)) {
+				Log.d(TAG, "connection [" + protocol + "] class not found");
+				return null;
 			}
-		} catch (InstantiationException e) {
-			Log.e(TAG, "Unable to create" + className, e);
-			throw new ConnectionNotFoundException();
-		} catch (IllegalAccessException e) {
-			Log.e(TAG, "Unable to create" + className, e);
-			throw new ConnectionNotFoundException();
+			Constructor<? extends ConnectionImplementation> constructor =
+					cl.asSubclass(ConnectionImplementation.class).getConstructor();
+			return constructor::newInstance;
+		} catch (ClassNotFoundException | NoSuchMethodException e) {
+			Log.d(TAG, "connection [" + protocol + "] class not found");
+			return null;
+		}
+	}
+
+	/**
+	 * A protocol with its handler factory, null if it has none, and its counters.
+	 */
+	public static class Protocol {
+		final String name;
+		final ConnectionFactory factory;
+		private final AtomicLong opens = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicLong nanos = new AtomicLong();
+
+		Protocol(String name, ConnectionFactory factory) {
+			this.name = name;
+			this.factory = factory;
+		}
+
+		void count(boolean opened, long elapsed) {
+			(opened ? opens : failures).incrementAndGet();
+			nanos.addAndGet(elapsed);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public boolean isSupported() {
+			return factory != null;
+		}
+
+		/**
+		 * @return the number of connections opened
+		 */
+		public long getOpenCount() {
+			return opens.get();
+		}
+
+		/**
+		 * @return the number of opens that threw
+		 */
+		public long getFailureCount() {
+			return failures.get();
+		}
+
+		/**
+		 * @return the time spent opening connections, failed or not, in nanoseconds
+		 */
+		public long getTotalNanos() {
+			return nanos.get();
+		}
+
+		@Override
+		public String toString() {
+			long attempts = opens.get() + failures.get();
+			return name + ": " + opens.get() + " opened, " + failures.get() + " failed, "
+					+ (attempts > 0 ? nanos.get() / attempts / 1000 : 0) + " us/open";
 		}
 	}
 }
@@ -37,6 +37,7 @@ import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.CheckBox;
@@ -84,6 +85,7 @@ public class ConfigActivity extends BaseActivity implements OnClickListener {
 	protected CheckBox cxFilter;
 	protected CheckBox cxImmediate;
 	protected CheckBox cxHwAcceleration;
+	protected CheckBox cxSoftwareRendering;
 	protected CheckBox cxParallel;
 	protected CheckBox cxForceFullscreen;
 	protected CheckBox cxShowFps;
@@ -165,6 +167,11 @@ public class ConfigActivity extends BaseActivity implements OnClickListener {
 		cxFilter = findViewById(R.id.cxFilter);
 		cxImmediate = findViewById(R.id.cxImmediate);
 		cxHwAcceleration = findViewById(R.id.cxHwAcceleration);
+		// activity_config has no entry for it, so the box is added after the GL option
+		cxSoftwareRendering = new CheckBox(this);
+		cxSoftwareRendering.setText(R.string.software_rendering);
+		ViewGroup hwGroup = (ViewGroup) cxHwAcceleration.getParent();
+		hwGroup.addView(cxSoftwareRendering, hwGroup.indexOfChild(cxHwAcceleration) + 1);
 		cxParallel = findViewById(R.id.cxParallel);
 		cxForceFullscreen = findViewById(R.id.cxForceFullscreen);
 		cxShowFps = findViewById(R.id.cxShowFps);
@@ -441,6 +448,7 @@ public class ConfigActivity extends BaseActivity implements OnClickListener {
 		cxParallel.setChecked(params.getBoolean("ParallelRedrawScreen", false));
 		cxForceFullscreen.setChecked(params.getBoolean("ForceFullscreen", false));
 		cxHwAcceleration.setChecked(params.getBoolean("HwAcceleration", false));
+		cxSoftwareRendering.setChecked(params.getBoolean("SoftwareRendering", false));
 		cxShowFps.setChecked(params.getBoolean("ShowFps", false));
 		cxLimitFps.setChecked(params.getBoolean("LimitFps", false));
 
@@ -516,6 +524,7 @@ public class ConfigActivity extends BaseActivity implements OnClickListener {
 			params.putBoolean("ScreenFilter", cxFilter.isChecked());
 			params.putBoolean("ImmediateMode", cxImmediate.isChecked());
 			params.putBoolean("HwAcceleration", cxHwAcceleration.isChecked());
+			params.putBoolean("SoftwareRendering", cxSoftwareRendering.isChecked());
 			params.putBoolean("ParallelRedrawScreen", cxParallel.isChecked());
 			params.putBoolean("ForceFullscreen", cxForceFullscreen.isChecked());
 			params.putBoolean("ShowFps", cxShowFps.isChecked());
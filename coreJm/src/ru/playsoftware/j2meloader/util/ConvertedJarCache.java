@@ -0,0 +1,176 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ru.playsoftware.j2meloader.util;
+
+import android.util.Log;
+
+import org.microemu.android.asm.AndroidProducer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Converted dex files of previously installed jars, keyed by the SHA-256 of the jar
+ * and the version of the patcher, so that installing the same jar again skips
+ * patching and dexing. Entries are evicted least recently used first once the
+ * cache grows past its size or entry limits.
+ */
+public class ConvertedJarCache {
+
+	public static final String DEX_FILE = "converted.dex";
+	public static final String MANIFEST_FILE = "MANIFEST.MF";
+
+	private static final String TAG = ConvertedJarCache.class.getName();
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final int BUFFER_SIZE = 16384;
+
+	private final File cacheDir;
+	private final long maxSize;
+	private final int maxEntries;
+
+	public ConvertedJarCache(File cacheDir, long maxSize, int maxEntries) {
+		this.cacheDir = cacheDir;
+		this.maxSize = maxSize;
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * @return the key of the conversion of a jar
+	 */
+	public static String getKey(File jar) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		digest.update((byte) (AndroidProducer.VERSION >>> 24));
+		digest.update((byte) (AndroidProducer.VERSION >>> 16));
+		digest.update((byte) (AndroidProducer.VERSION >>> 8));
+		digest.update((byte) AndroidProducer.VERSION);
+		try (InputStream is = new FileInputStream(jar)) {
+			byte[] buf = new byte[BUFFER_SIZE];
+			int len;
+			while ((len = is.read(buf)) != -1) {
+				digest.update(buf, 0, len);
+			}
+		}
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest()) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Look up a conversion and mark it as recently used.
+	 *
+	 * @return the directory holding {@link #DEX_FILE} and, if the jar has one,
+	 * {@link #MANIFEST_FILE}, or null if the jar was not converted before
+	 */
+	public synchronized File get(String key) {
+		File entry = new File(cacheDir, key);
+		File dex = new File(entry, DEX_FILE);
+		if (!dex.isFile()) {
+			return null;
+		}
+		entry.setLastModified(System.currentTimeMillis());
+		Log.d(TAG, "Hit " + key);
+		return entry;
+	}
+
+	/**
+	 * Store a conversion, then evict old ones past the limits.
+	 *
+	 * @param manifest manifest of the jar, may be null
+	 */
+	public synchronized void put(String key, File dex, File manifest) {
+		File entry = new File(cacheDir, key);
+		File temp = new File(cacheDir, key + TEMP_SUFFIX);
+		FileUtils.deleteDirectory(temp);
+		temp.mkdirs();
+		try {
+			FileUtils.copyFileUsingChannel(dex, new File(temp, DEX_FILE));
+			if (manifest != null) {
+				FileUtils.copyFileUsingChannel(manifest, new File(temp, MANIFEST_FILE));
+			}
+			// Entries appear complete or not at all
+			FileUtils.deleteDirectory(entry);
+			if (!temp.renameTo(entry)) {
+				throw new IOException("Can't rename " + temp);
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "Can't cache " + key, e);
+			FileUtils.deleteDirectory(temp);
+			return;
+		}
+		trim();
+	}
+
+	/**
+	 * Delete the least recently used entries until the cache is within its limits.
+	 */
+	public synchronized void trim() {
+		File[] entries = cacheDir.listFiles();
+		if (entries == null) {
+			return;
+		}
+		long[] lastUsed = new long[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			lastUsed[i] = entries[i].lastModified();
+		}
+		Integer[] order = new Integer[entries.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		// Most recently used first
+		Arrays.sort(order, (a, b) -> Long.compare(lastUsed[b], lastUsed[a]));
+		long size = 0;
+		int count = 0;
+		boolean full = false;
+		for (int i : order) {
+			File entry = entries[i];
+			if (entry.getName().endsWith(TEMP_SUFFIX)) {
+				continue;
+			}
+			long entrySize = sizeOf(entry);
+			full |= count == maxEntries || size + entrySize > maxSize;
+			if (!full) {
+				size += entrySize;
+				count++;
+			} else {
+				Log.d(TAG, "Evict " + entry.getName());
+				FileUtils.deleteDirectory(entry);
+			}
+		}
+	}
+
+	private static long sizeOf(File file) {
+		File[] files = file.listFiles();
+		if (files == null) {
+			return file.length();
+		}
+		long size = 0;
+		for (File f : files) {
+			size += sizeOf(f);
+		}
+		return size;
+	}
+}
@@ -45,21 +45,28 @@ public class JarConverter {
 	public static final String TEMP_URI_FOLDER_NAME = "tmp_uri";
 
 	private static final String TEMP_FOLDER_NAME = "tmp";
+	private static final String CACHE_FOLDER_NAME = "converted_cache";
+	private static final long CACHE_MAX_SIZE = 128 * 1024 * 1024;
+	private static final int CACHE_MAX_ENTRIES = 1000;
 	private static final String TAG = JarConverter.class.getName();
 
 	private String appDirPath;
 	private String dataDirPath;
 	private final File tmpDir;
+	private final ConvertedJarCache cache;
 	private File appConverted;
 
 	public JarConverter(String dataDirPath) {
 		this.dataDirPath = dataDirPath;
 		tmpDir = new File(dataDirPath, TEMP_FOLDER_NAME);
+		cache = new ConvertedJarCache(new File(dataDirPath, CACHE_FOLDER_NAME),
+				CACHE_MAX_SIZE, CACHE_MAX_ENTRIES);
 	}
 
 	private File patchJar(File inputJar) throws IOException {
 		File patchedJar = new File(tmpDir, inputJar.getName() + ".jar");
-		AndroidProducer.processJar(inputJar, patchedJar);
+		AndroidProducer.Timings timings = AndroidProducer.processJar(inputJar, patchedJar);
+		Log.d(TAG, "Patched " + inputJar.getName() + ": " + timings);
 		return patchedJar;
 	}
 
@@ -162,27 +169,45 @@ public class JarConverter {
 					throw new ConverterException("Can't download jar", e);
 				}
 			}
-			// Patch and unzip
-			File patchedJar;
+			// Identical jars are patched and dexed only once
+			String key;
 			try {
-				patchedJar = patchJar(inputJar);
-			} catch (ZipException e) {
-				deleteTemp();
-				throw new ConverterException("Invalid jar", e);
-			} catch (Exception e) {
-				deleteTemp();
-				throw new ConverterException("Can't patch", e);
-			}
-			try {
-				ZipUtils.unzip(patchedJar, tmpDir);
+				key = ConvertedJarCache.getKey(inputJar);
 			} catch (IOException e) {
 				deleteTemp();
 				throw new ConverterException("Invalid jar", e);
 			}
+			File cached = cache.get(key);
+			File jarManifest;
+			File patchedJar = null;
+			if (cached != null) {
+				jarManifest = new File(cached, ConvertedJarCache.MANIFEST_FILE);
+				if (!jarManifest.exists()) {
+					jarManifest = null;
+				}
+			} else {
+				// Patch and unzip
+				try {
+					patchedJar = patchJar(inputJar);
+				} catch (ZipException e) {
+					deleteTemp();
+					throw new ConverterException("Invalid jar", e);
+				} catch (Exception e) {
+					deleteTemp();
+					throw new ConverterException("Can't patch", e);
+				}
+				try {
+					ZipUtils.unzip(patchedJar, tmpDir);
+				} catch (IOException e) {
+					deleteTemp();
+					throw new ConverterException("Invalid jar", e);
+				}
+				jarManifest = findManifest(tmpDir);
+			}
 
 			// Find manifest file and load it
 			if (!jadInstall) {
-				conf = findManifest(tmpDir);
+				conf = jarManifest;
 				if (conf == null) {
 					deleteTemp();
 					throw new ConverterException("Manifest not found");
@@ -207,10 +232,15 @@ public class JarConverter {
 			Log.d(TAG, "appConverted=" + appConverted.getPath());
 
 			// Convert jar
+			File dex = new File(appConverted, Config.MIDLET_DEX_FILE);
 			try {
-				Main.main(new String[]{
-						"--no-optimize", "--output=" + appConverted.getPath()
-						+ Config.MIDLET_DEX_FILE, patchedJar.getAbsolutePath()});
+				if (cached != null) {
+					FileUtils.copyFileUsingChannel(new File(cached, ConvertedJarCache.DEX_FILE), dex);
+				} else {
+					Main.main(new String[]{
+							"--no-optimize", "--output=" + dex.getPath(), patchedJar.getAbsolutePath()});
+					cache.put(key, dex, jarManifest);
+				}
 			} catch (IOException e) {
 				deleteTemp();
 				FileUtils.deleteDirectory(appConverted);
@@ -219,8 +249,13 @@ public class JarConverter {
 			// Copy other resources from jar.
 			try {
 				FileUtils.copyFileUsingChannel(conf, new File(appConverted, Config.MIDLET_MANIFEST_FILE));
-				File image = new File(tmpDir, AppUtils.getImagePathFromManifest(params));
-				FileUtils.copyFileUsingChannel(image, new File(appConverted, Config.MIDLET_ICON_FILE));
+				String imagePath = AppUtils.getImagePathFromManifest(params);
+				File icon = new File(appConverted, Config.MIDLET_ICON_FILE);
+				if (cached != null) {
+					ZipUtils.unzipEntry(inputJar, imagePath, icon);
+				} else {
+					FileUtils.copyFileUsingChannel(new File(tmpDir, imagePath), icon);
+				}
 			} catch (IOException | NullPointerException e) {
 				e.printStackTrace();
 			} catch (ArrayIndexOutOfBoundsException e) {
@@ -19,6 +19,7 @@ package ru.playsoftware.j2meloader.util;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Enumeration;
@@ -49,4 +50,25 @@ public class ZipUtils {
 			}
 		}
 	}
+
+	/**
+	 * Extract a single file of a zip archive.
+	 *
+	 * @param name path of the file in the archive, a leading slash is ignored
+	 */
+	public static void unzipEntry(File zipFile, String name, File destFile) throws IOException {
+		if (name.startsWith("/")) {
+			name = name.substring(1);
+		}
+		try (ZipFile zip = new ZipFile(zipFile)) {
+			ZipEntry entry = zip.getEntry(name);
+			if (entry == null || entry.isDirectory()) {
+				throw new FileNotFoundException(name);
+			}
+			try (BufferedInputStream is = new BufferedInputStream(zip.getInputStream(entry));
+				 BufferedOutputStream dest = new BufferedOutputStream(new FileOutputStream(destFile))) {
+				IOUtils.copy(is, dest);
+			}
+		}
+	}
 }